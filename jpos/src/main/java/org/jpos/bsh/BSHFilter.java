@@ -18,7 +18,6 @@
 
 package org.jpos.bsh;
 
-import bsh.Interpreter;
 import bsh.TargetError;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
@@ -30,6 +29,8 @@ import org.jpos.util.LogEvent;
 
 /**
  * BSHFilter - BeanShell based filter
+ * <p>
+ * Scripts are cached and run on pooled interpreters, see {@link BSHScript}.
  * @author <a href="mailto:apr@cs.com.uy">Alejandro P. Revilla</a>
  * @version $Revision$ $Date$
  */
@@ -60,20 +61,18 @@ public class BSHFilter implements RawIncomingFilter, Configurable {
         String[] source = cfg.getAll ("source");
         for (String aSource : source) {
             try {
-                Interpreter bsh = new Interpreter();
-                bsh.set("channel", channel);
-                bsh.set("message", m);
-                if (header != null)
-                    bsh.set("header", header);
-                if (image != null)
-                    bsh.set("image", image);
-                bsh.set("evt", evt);
-                bsh.set("cfg", cfg);
-                Object r = bsh.source(aSource);
-                if (r instanceof ISOMsg)
-                    m = (ISOMsg) r;
-                else
-                    m = (ISOMsg) bsh.get("message");
+                ISOMsg[] result = { m };
+                Object r = BSHScript.forFile(aSource).execute(bsh -> {
+                    bsh.set("channel", channel);
+                    bsh.set("message", result[0]);
+                    if (header != null)
+                        bsh.set("header", header);
+                    if (image != null)
+                        bsh.set("image", image);
+                    bsh.set("evt", evt);
+                    bsh.set("cfg", cfg);
+                }, bsh -> result[0] = (ISOMsg) bsh.get("message"));
+                m = r instanceof ISOMsg ? (ISOMsg) r : result[0];
             } catch (TargetError e) {
                 if (e.getTarget() instanceof VetoException)
                     throw (VetoException) e.getTarget();
@@ -18,7 +18,6 @@
 
 package org.jpos.bsh;
 
-import bsh.Interpreter;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
@@ -32,6 +31,8 @@ import java.util.HashSet;
 
 /**
  * BSHRequestListener - BeanShell based request listener
+ * <p>
+ * Scripts are cached and run on pooled interpreters, see {@link BSHScript}.
  * @author <a href="mailto:apr@cs.com.uy">Alejandro P. Revilla</a>
  * @version $Revision$ $Date$
  */
@@ -69,12 +70,6 @@ public class BSHRequestListener extends Log
 
             for (String aBshSource : bshSource) {
                 try {
-                    Interpreter bsh = new Interpreter();
-                    bsh.set("source", source);
-                    bsh.set("message", m);
-                    bsh.set("log", this);
-                    bsh.set("cfg", cfg);
-
                     int idx = aBshSource.indexOf(MTI_MACRO);
                     String script;
 
@@ -86,7 +81,12 @@ public class BSHRequestListener extends Log
                         script = aBshSource;
                     }
 
-                    Object ret= bsh.source(script);
+                    Object ret = BSHScript.forFile(script).execute(bsh -> {
+                        bsh.set("source", source);
+                        bsh.set("message", m);
+                        bsh.set("log", this);
+                        bsh.set("cfg", cfg);
+                    });
 
                     // any non-null and non-boolean value is considered "true-ish"
                     // a null return is considered false
@@ -0,0 +1,238 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.bsh;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+import org.HdrHistogram.AtomicHistogram;
+import org.jpos.util.Metrics;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A BeanShell script backed by a pool of reusable interpreters.
+ * <p>
+ * Creating a <code>bsh.Interpreter</code> and re-reading the script file
+ * on every call is what usually dominates the cost of scripted listeners,
+ * filters and participants. A BSHScript keeps the script text in memory,
+ * re-reading the file only when its modification time changes (checked at
+ * most every {@link #CHECK_INTERVAL} milliseconds), and reuses idle
+ * interpreters. Every execution runs in a fresh child namespace of the
+ * interpreter's global namespace, so variables set by the caller or by the
+ * script never leak into the next execution. Variables a script stores in the
+ * global namespace itself are removed before the interpreter goes back to the
+ * pool, and interpreters whose global namespace got new methods are discarded.
+ * <p>
+ * Up to {@link #MAX_FILES} script files are cached, least recently used first out.
+ * <p>
+ * Execution times (in microseconds) are recorded per script in
+ * {@link #getMetrics()}.
+ *
+ * <pre>
+ *     BSHScript script = BSHScript.forFile ("cfg/route.bsh");
+ *     script.execute (bsh -&gt; {
+ *         bsh.set ("message", m);
+ *     });
+ * </pre>
+ */
+public class BSHScript {
+    public static final long CHECK_INTERVAL = 1000L;
+    public static final int MAX_FILES = 256;
+    private static final int MAX_IDLE = 64;
+    private static final Map<String,BSHScript> files = Collections.synchronizedMap (
+      new LinkedHashMap<String,BSHScript> (16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+          @Override
+          protected boolean removeEldestEntry (Map.Entry<String,BSHScript> eldest) {
+              return size() > MAX_FILES;
+          }
+      }
+    );
+    private static final Metrics metrics = new Metrics(new AtomicHistogram(60000000L, 2));
+
+    private final String name;
+    private final File file;
+    private final ConcurrentLinkedQueue<Interpreter> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idle = new AtomicInteger();
+    private volatile String text;
+    private volatile long lastModified;
+    private volatile long lastCheck;
+
+    private BSHScript (String name, File file, String text) {
+        this.name = name;
+        this.file = file;
+        this.text = text;
+    }
+
+    /**
+     * @param filename script file
+     * @return the shared BSHScript for the given file
+     */
+    public static BSHScript forFile (String filename) {
+        Objects.requireNonNull (filename);
+        return files.computeIfAbsent (filename, f -> new BSHScript (f, new File(f), null));
+    }
+
+    /**
+     * @param name name used for metrics and error reporting
+     * @param text script source
+     * @return a new BSHScript evaluating the given text
+     */
+    public static BSHScript forText (String name, String text) {
+        return new BSHScript (name, null, text);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return per-script execution time histograms, in microseconds
+     */
+    public static Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Callback used to set variables before the script runs
+     * and to read them once it finished.
+     */
+    @FunctionalInterface
+    public interface Binding {
+        void apply (Interpreter bsh) throws EvalError;
+    }
+
+    /**
+     * @param before sets the script arguments (may be null)
+     * @return value returned by the script
+     * @throws EvalError on script errors
+     * @throws IOException if the script file can't be read
+     */
+    public Object execute (Binding before) throws EvalError, IOException {
+        return execute (before, null);
+    }
+
+    /**
+     * @param before sets the script arguments (may be null)
+     * @param after reads results from the script namespace (may be null)
+     * @return value returned by the script
+     * @throws EvalError on script errors
+     * @throws IOException if the script file can't be read
+     */
+    public Object execute (Binding before, Binding after) throws EvalError, IOException {
+        Interpreter bsh = borrow();
+        NameSpace global = bsh.getNameSpace();
+        long start = System.nanoTime();
+        try {
+            bsh.setNameSpace (new NameSpace (global, name));
+            if (before != null)
+                before.apply (bsh);
+            String s = getText();
+            Object ret = file != null ?
+              bsh.eval (new StringReader (s), bsh.getNameSpace(), file.getPath()) :
+              bsh.eval (s);
+            if (after != null)
+                after.apply (bsh);
+            return ret;
+        } finally {
+            metrics.record (name, (System.nanoTime() - start) / 1000L);
+            bsh.setNameSpace (global);
+            release (bsh, global);
+        }
+    }
+
+    /**
+     * Forces the script file to be read again on the next execution
+     * and discards idle interpreters.
+     */
+    public void reset() {
+        lastCheck = 0L;
+        lastModified = 0L;
+        pool.clear();
+        idle.set(0);
+    }
+
+    /**
+     * Discards every cached script file.
+     */
+    public static void resetAll() {
+        files.values().forEach(BSHScript::reset);
+        files.clear();
+    }
+
+    String getText() throws IOException {
+        if (file == null)
+            return Objects.requireNonNull (text);
+        long now = System.currentTimeMillis();
+        if (text == null || now - lastCheck >= CHECK_INTERVAL) {
+            synchronized (this) {
+                if (text == null || now - lastCheck >= CHECK_INTERVAL) {
+                    long lm = file.lastModified();
+                    if (lm == 0L)
+                        throw new FileNotFoundException (file.getPath());
+                    if (text == null || lm != lastModified) {
+                        text = new String (Files.readAllBytes (file.toPath()), Charset.defaultCharset());
+                        lastModified = lm;
+                        pool.clear(); // new script text, start with fresh interpreters
+                        idle.set(0);
+                    }
+                    lastCheck = now;
+                }
+            }
+        }
+        return text;
+    }
+
+    private Interpreter borrow() {
+        Interpreter bsh = pool.poll();
+        if (bsh == null)
+            return new Interpreter();
+        idle.decrementAndGet();
+        return bsh;
+    }
+
+    private void release (Interpreter bsh, NameSpace global) {
+        if (global.getMethodNames().length > 0)
+            return; // script defined global methods, don't reuse
+        for (String v : global.getVariableNames())
+            if (!"bsh".equals (v))
+                global.unsetVariable (v);
+        if (idle.incrementAndGet() <= MAX_IDLE)
+            pool.offer (bsh);
+        else
+            idle.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "BSHScript{" + name + '}';
+    }
+}
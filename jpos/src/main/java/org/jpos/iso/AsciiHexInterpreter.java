@@ -18,13 +18,15 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements Hex Interpreter. The Hex digits are stored in ASCII.
  * 
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class AsciiHexInterpreter implements BinaryInterpreter
+public class AsciiHexInterpreter implements BufferBinaryInterpreter
 {
     /** An instance of this Interpreter. Only one needed for the whole system */
     public static final AsciiHexInterpreter INSTANCE = new AsciiHexInterpreter();
@@ -59,6 +61,18 @@ public class AsciiHexInterpreter implements BinaryInterpreter
         return d;
     }
 
+    @Override
+    public void interpret(byte[] data, ByteBuffer b)
+    {
+        ISOCodec.putHexBytes(data, HEX_ASCII, b);
+    }
+
+    @Override
+    public byte[] uninterpret(ByteBuffer b, int length)
+    {
+        return ISOCodec.getHexBytes(b, length, false);
+    }
+
     /**
      * Returns double nBytes because the hex representation of 1 byte needs 2 hex digits.
      *
@@ -18,6 +18,8 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 
 /**
  * Implements ASCII Interpreter. Strings are converted to and from ASCII bytes.
@@ -26,7 +28,7 @@ package org.jpos.iso;
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class AsciiInterpreter implements Interpreter
+public class AsciiInterpreter implements BufferInterpreter
 {
     /** An instance of this Interpreter. Only one needed for the whole system */
     public static final AsciiInterpreter INSTANCE = new AsciiInterpreter();
@@ -58,6 +60,16 @@ public class AsciiInterpreter implements Interpreter
         }
     }
 
+    @Override
+    public void interpret(CharSequence data, ByteBuffer b) {
+        ISOCodec.putAscii(data, b);
+    }
+
+    @Override
+    public String uninterpret(ByteBuffer b, int length) {
+        return ISOCodec.getAscii(b, length);
+    }
+
     /**
 	 * (non-Javadoc)
 	 *
@@ -18,13 +18,16 @@
 
 package org.jpos.iso;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * AsciiPrefixer constructs a prefix for ASCII messages.
  * 
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class AsciiPrefixer implements Prefixer
+public class AsciiPrefixer implements BufferPrefixer
 {
     /**
      * A length prefixer for up to 9 chars. The length is encoded with 1 ASCII
@@ -100,6 +103,40 @@ public class AsciiPrefixer implements Prefixer
         return len;
     }
 
+    @Override
+    public void writeLength(int length, ByteBuffer b) throws ISOException
+    {
+        int p = b.position();
+        if (b.remaining() < nDigits)
+            throw new BufferOverflowException();
+        int n = length;
+        for (int i = nDigits - 1; i >= 0; i--)
+        {
+            b.put(p + i, (byte)(n % 10 + '0'));
+            n /= 10;
+        }
+        if (n != 0)
+        {
+            throw new ISOException("invalid len "+ length + ". Prefixing digits = " + nDigits);
+        }
+        b.position(p + nDigits);
+    }
+
+    @Override
+    public int readLength(ByteBuffer b) throws ISOException {
+        int len = 0;
+        for (int i = 0; i < nDigits; i++)
+        {
+            byte d = b.get();
+            if(d < '0' || d > '9')
+            {
+                throw new ISOException("Invalid character found. Expected digit.");
+            }
+            len = len * 10 + d - (byte)'0';
+        }
+        return len;
+    }
+
     @Override
     public int getPackedLength()
     {
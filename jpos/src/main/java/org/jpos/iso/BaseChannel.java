@@ -25,9 +25,12 @@ import org.jpos.core.handlers.exception.ExceptionHandler;
 import org.jpos.core.handlers.exception.ExceptionHandlerAware;
 import org.jpos.iso.ISOFilter.VetoException;
 import org.jpos.iso.header.BaseHeader;
+import org.HdrHistogram.AtomicHistogram;
 import org.jpos.util.LogEvent;
 import org.jpos.util.LogSource;
 import org.jpos.util.Logger;
+import org.jpos.util.Metrics;
+import org.jpos.util.MetricsProvider;
 import org.jpos.util.NameRegistrar;
 
 import javax.net.ssl.SSLSocket;
@@ -72,7 +75,8 @@ import java.util.Observable;
 @SuppressWarnings("unchecked")
 public abstract class BaseChannel extends Observable
     implements FilteredChannel, ClientChannel, ServerChannel, FactoryChannel, 
-               LogSource, Configurable, BaseChannelMBean, Cloneable, ExceptionHandlerAware
+               LogSource, Configurable, BaseChannelMBean, Cloneable, ExceptionHandlerAware,
+               MetricsProvider
 {
     private Socket socket;
     private String host, localIface;
@@ -82,6 +86,7 @@ public abstract class BaseChannel extends Observable
     private int maxPacketLength = 100000;
     private boolean keepAlive;
     private boolean expectKeepAlive;
+    private boolean retainImage;
     private boolean soLingerOn = true;
     private int soLingerSeconds = 5;
     private Configuration cfg;
@@ -100,6 +105,7 @@ public abstract class BaseChannel extends Observable
     protected ISOClientSocketFactory socketFactory = null;
 
     protected int[] cnt;
+    private ISOMsgMetrics msgMetrics;
 
     protected Logger logger = null;
     protected String realm = null;
@@ -586,6 +592,7 @@ public abstract class BaseChannel extends Observable
         try {
             if (!isConnected())
                 throw new IOException ("unconnected ISOChannel");
+            long start = System.nanoTime();
             m.setDirection(ISOMsg.OUTGOING);
             ISOPackager p = getDynamicPackager(m);
             m.setPackager (p);
@@ -602,6 +609,8 @@ public abstract class BaseChannel extends Observable
                 serverOut.flush ();
             }
             cnt[TX]++;
+            if (msgMetrics != null)
+                msgMetrics.record ("tx", m, m.getString(39), (System.nanoTime() - start) / 1000L);
             setChanged();
             notifyObservers(m);
         } catch (VetoException e) {
@@ -704,6 +713,7 @@ public abstract class BaseChannel extends Observable
         ISOMsg m = createMsg ();  // call createMsg instead of createISOMsg for 
                                   // backward compatibility
         m.setSource (this);
+        long start = 0L;
         try {
             if (!isConnected())
                 throw new IOException ("unconnected ISOChannel");
@@ -717,6 +727,7 @@ public abstract class BaseChannel extends Observable
                         len  = getMessageLength();
                     }
                 }
+                start = System.nanoTime();
                 int hLen = getHeaderLength();
 
                 if (len == -1) {
@@ -742,6 +753,7 @@ public abstract class BaseChannel extends Observable
             }
             m.setPackager (getDynamicPackager(header, b));
             m.setHeader (getDynamicHeader(header));
+            m.setRetainImage (retainImage);
             if (b.length > 0 && !shouldIgnore (header))  // Ignore NULL messages
                 unpack (m, b);
             m.setDirection(ISOMsg.INCOMING);
@@ -749,6 +761,8 @@ public abstract class BaseChannel extends Observable
             m = applyIncomingFilters (m, header, b, evt);
             m.setDirection(ISOMsg.INCOMING);
             cnt[RX]++;
+            if (msgMetrics != null)
+                msgMetrics.record ("rx", m, m.getString(39), (System.nanoTime() - start) / 1000L);
             setChanged();
             notifyObservers(m);
         } catch (ISOException e) {
@@ -986,6 +1000,8 @@ public abstract class BaseChannel extends Observable
     * <li>port - port number      (if ClientChannel)
     * <li>local-iface - local interfase to use (if ClientChannel)
     * <li>local-port - local port to bind (if ClientChannel)
+    * <li>retain-image - keep the raw image of received messages so that
+    *     unmodified fields are re-emitted verbatim when forwarded
     * </ul>
     * (host not present indicates a ServerChannel)
     *
@@ -1023,6 +1039,9 @@ public abstract class BaseChannel extends Observable
         keepAlive = cfg.getBoolean ("keep-alive", false);
         expectKeepAlive = cfg.getBoolean ("expect-keep-alive", false);
         roundRobin = cfg.getBoolean ("round-robin", false);
+        retainImage = cfg.getBoolean ("retain-image", false);
+        msgMetrics = cfg.getBoolean ("metrics", false) ?
+          new ISOMsgMetrics (new Metrics (new AtomicHistogram (1000000L, 2)), cfg.getInt ("metrics-max-keys", 100)) : null;
         if (socketFactory != this && socketFactory instanceof Configurable)
             ((Configurable)socketFactory).setConfiguration (cfg);
         try {
@@ -1035,6 +1054,19 @@ public abstract class BaseChannel extends Observable
     public Configuration getConfiguration() {
         return cfg;
     }
+    /**
+     * Per message type pack/write (<code>tx.*</code>) and read/unpack
+     * (<code>rx.*</code>) times, in <b>microseconds</b>, broken down by
+     * MTI, processing code and response code (see {@link ISOMsgMetrics}).
+     * Connections accepted by an ISOServer share their metrics with the
+     * channel they were cloned from.
+     *
+     * @return channel metrics, or null unless the <code>metrics</code> property is true
+     */
+    @Override
+    public Metrics getMetrics() {
+        return msgMetrics != null ? msgMetrics.getMetrics() : null;
+    }
     public Collection<ISOFilter> getIncomingFilters() {
         return incomingFilters;
     }
@@ -1062,6 +1094,16 @@ public abstract class BaseChannel extends Observable
     public boolean isOverrideHeader () {
         return overrideHeader;
     }
+    /**
+     * @param retainImage true to have received messages retain their raw image
+     * @see ISOMsg#setRetainImage(boolean)
+     */
+    public void setRetainImage (boolean retainImage) {
+        this.retainImage = retainImage;
+    }
+    public boolean isRetainImage () {
+        return retainImage;
+    }
     /**
      * @param name the Channel's name (without the "channel." prefix)
      * @return ISOChannel instance with given name.
@@ -18,6 +18,9 @@
 
 package org.jpos.iso;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * BcdPrefixer constructs a prefix storing the length in BCD.
  * 
@@ -25,7 +28,7 @@ package org.jpos.iso;
  * @version $Revision$ $Date$
  */
 @SuppressWarnings("unused")
-public class BcdPrefixer implements Prefixer
+public class BcdPrefixer implements BufferPrefixer
 {
     /**
      * A length prefixer for up to 9 chars. The length is encoded with 1 BCD digit.
@@ -77,6 +80,33 @@ public class BcdPrefixer implements Prefixer
         return len;
     }
 
+    @Override
+    public void writeLength(int length, ByteBuffer b)
+    {
+        int p = b.position();
+        int packedLength = getPackedLength();
+        if (b.remaining() < packedLength)
+            throw new BufferOverflowException();
+        for (int i = packedLength - 1; i >= 0; i--) {
+            int twoDigits = length % 100;
+            length /= 100;
+            b.put(p + i, (byte)((twoDigits / 10 << 4) + twoDigits % 10));
+        }
+        b.position(p + packedLength);
+    }
+
+    @Override
+    public int readLength(ByteBuffer b)
+    {
+        int len = 0;
+        for (int i = 0; i < (nDigits + 1) / 2; i++)
+        {
+            byte d = b.get();
+            len = 100 * len + ((d & 0xF0) >> 4) * 10 + (d & 0x0F);
+        }
+        return len;
+    }
+
     @Override
     public int getPackedLength()
     {
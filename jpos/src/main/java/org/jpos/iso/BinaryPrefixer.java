@@ -18,13 +18,16 @@
 
 package org.jpos.iso;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * BinaryPrefixer constructs a prefix storing the length in binary.
  * 
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class BinaryPrefixer implements Prefixer
+public class BinaryPrefixer implements BufferPrefixer
 {
     /**
 	 * A length prefixer for up to 255 chars. The length is encoded with 1 unsigned byte.
@@ -66,6 +69,30 @@ public class BinaryPrefixer implements Prefixer
     }
 
 
+    @Override
+    public void writeLength(int length, ByteBuffer b)
+    {
+        int p = b.position();
+        if (b.remaining() < nBytes)
+            throw new BufferOverflowException();
+        for (int i = nBytes - 1; i >= 0; i--) {
+            b.put(p + i, (byte)(length & 0xFF));
+            length >>= 8;
+        }
+        b.position(p + nBytes);
+    }
+
+    @Override
+    public int readLength(ByteBuffer b)
+    {
+        int len = 0;
+        for (int i = 0; i < nBytes; i++)
+        {
+            len = 256 * len + (b.get() & 0xFF);
+        }
+        return len;
+    }
+
     @Override
     public int getPackedLength()
     {
@@ -0,0 +1,49 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link BinaryInterpreter} that can also encode and decode straight from/to a
+ * {@link ByteBuffer}, without intermediate byte arrays.
+ *
+ * @see ISOCodec
+ */
+public interface BufferBinaryInterpreter extends BinaryInterpreter
+{
+    /**
+     * Converts the binary data into its interpretation, writing it at the
+     * buffer's current position and advancing it.
+     *
+     * @param data the data to interpret
+     * @param b destination buffer
+     */
+    void interpret(byte[] data, ByteBuffer b);
+
+    /**
+     * Reverses {@link #interpret(byte[], ByteBuffer)}, reading from the
+     * buffer's current position and advancing it by {@link #getPackedLength(int)} bytes.
+     *
+     * @param b source buffer
+     * @param length the number of uninterpreted bytes
+     * @return the uninterpreted data
+     */
+    byte[] uninterpret(ByteBuffer b, int length);
+}
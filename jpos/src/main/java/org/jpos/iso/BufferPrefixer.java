@@ -0,0 +1,50 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link Prefixer} that can also encode and decode the length prefix
+ * straight from/to a {@link ByteBuffer}.
+ */
+public interface BufferPrefixer extends Prefixer
+{
+    /**
+     * Writes the encoded length at the buffer's current position, advancing it
+     * by {@link #getPackedLength()} bytes.
+     *
+     * @param length the length to be encoded
+     * @param b destination buffer
+     * @throws ISOException if length can't be encoded
+     * @throws java.nio.BufferOverflowException if the buffer doesn't have enough room
+     */
+    void writeLength(int length, ByteBuffer b) throws ISOException;
+
+    /**
+     * Decodes the length at the buffer's current position, advancing it
+     * by {@link #getPackedLength()} bytes.
+     *
+     * @param b source buffer
+     * @return the length in chars of the field data to follow, or -1 if
+     * this prefixer doesn't know it
+     * @throws ISOException on error
+     */
+    int readLength(ByteBuffer b) throws ISOException;
+}
@@ -0,0 +1,205 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable set of characters, backed by a 128 bit ASCII bitmap,
+ * used to validate field content without regular expressions.
+ * <p>
+ * Characters outside the ASCII range are rejected unless the class
+ * was created with a predicate for them (see {@link #ALPHANUMERIC}).
+ *
+ * @see FieldRule
+ */
+public final class CharClass {
+    public static final CharClass NONE = new CharClass(0L, 0L, null);
+    /** 0-9 */
+    public static final CharClass DIGITS = range('0', '9');
+    /** 0-9 A-F a-f */
+    public static final CharClass HEX = DIGITS.union(range('A', 'F')).union(range('a', 'f'));
+    /** A-Z a-z */
+    public static final CharClass ALPHA = range('A', 'Z').union(range('a', 'z'));
+    /** same as regex <code>\w</code>: A-Z a-z 0-9 _ */
+    public static final CharClass WORD = ALPHA.union(DIGITS).union(of("_"));
+    /** same as regex <code>\s</code>: space, tab, new line, vertical tab, form feed and carriage return */
+    public static final CharClass SPACE = of(" \t\n\u000B\f\r");
+    /** printable ASCII characters (including space) that are neither letters nor digits */
+    public static final CharClass SPECIAL = range(' ', '~').minus(ALPHA).minus(DIGITS);
+    /** same characters accepted by {@link ISOUtil#isAlphaNumeric(String)} */
+    public static final CharClass ALPHANUMERIC =
+      new CharClass(ALPHA.union(DIGITS).union(of(" .-_?")), Character::isLetterOrDigit);
+
+    private final long lo;
+    private final long hi;
+    private final IntPredicate other;
+
+    private CharClass (long lo, long hi, IntPredicate other) {
+        this.lo = lo;
+        this.hi = hi;
+        this.other = other;
+    }
+
+    private CharClass (CharClass ascii, IntPredicate other) {
+        this (ascii.lo, ascii.hi, other);
+    }
+
+    /**
+     * @param chars characters in this class
+     * @return new CharClass
+     */
+    public static CharClass of (CharSequence chars) {
+        long lo = 0L, hi = 0L;
+        for (int i=0; i<chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c >= 128)
+                throw new IllegalArgumentException ("Non ASCII character " + (int) c);
+            if (c < 64)
+                lo |= 1L << c;
+            else
+                hi |= 1L << c - 64;
+        }
+        return new CharClass(lo, hi, null);
+    }
+
+    /**
+     * @param from first character
+     * @param to last character (inclusive)
+     * @return new CharClass
+     */
+    public static CharClass range (char from, char to) {
+        if (from > to || to >= 128)
+            throw new IllegalArgumentException ("Invalid range " + (int) from + "-" + (int) to);
+        long lo = 0L, hi = 0L;
+        for (int c=from; c<=to; c++) {
+            if (c < 64)
+                lo |= 1L << c;
+            else
+                hi |= 1L << c - 64;
+        }
+        return new CharClass(lo, hi, null);
+    }
+
+    /**
+     * Digits (and letters, for radix greater than 10) valid in the given radix,
+     * same as {@link ISOUtil#isNumeric(String, int)}.
+     *
+     * @param radix radix
+     * @return new CharClass
+     */
+    public static CharClass radix (int radix) {
+        CharClass cc = NONE;
+        for (int i=0; i<128; i++) {
+            if (Character.digit((char) i, radix) >= 0)
+                cc = cc.union(of(Character.toString((char) i)));
+        }
+        return new CharClass(cc, c -> Character.digit(c, radix) >= 0);
+    }
+
+    /**
+     * Parses a regex-like character set, i.e. <code>[A-Za-z0-9 _]</code>.
+     * Ranges and the <code>\d</code>, <code>\w</code>, <code>\s</code> escapes are supported,
+     * any other escaped character is taken literally.
+     *
+     * @param set character set, with or without the surrounding brackets
+     * @return new CharClass
+     */
+    public static CharClass parse (String set) {
+        String s = set.startsWith("[") && set.endsWith("]") ? set.substring(1, set.length()-1) : set;
+        CharClass cc = NONE;
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i+1 < s.length()) {
+                char e = s.charAt(++i);
+                switch (e) {
+                    case 'd':
+                        cc = cc.union(DIGITS);
+                        continue;
+                    case 'w':
+                        cc = cc.union(WORD);
+                        continue;
+                    case 's':
+                        cc = cc.union(SPACE);
+                        continue;
+                    default:
+                        c = e;
+                }
+            }
+            if (i+2 < s.length() && s.charAt(i+1) == '-') {
+                cc = cc.union(range(c, s.charAt(i+2)));
+                i += 2;
+            } else {
+                cc = cc.union(of(Character.toString(c)));
+            }
+        }
+        return cc;
+    }
+
+    public CharClass union (CharClass cc) {
+        IntPredicate p = other == null ? cc.other : cc.other == null ? other : other.or(cc.other);
+        return new CharClass(lo | cc.lo, hi | cc.hi, p);
+    }
+
+    public CharClass minus (CharClass cc) {
+        return new CharClass(lo & ~cc.lo, hi & ~cc.hi, other);
+    }
+
+    public boolean contains (char c) {
+        if (c < 64)
+            return (lo & 1L << c) != 0L;
+        if (c < 128)
+            return (hi & 1L << c - 64) != 0L;
+        return other != null && other.test(c);
+    }
+
+    /**
+     * @param s sequence to check
+     * @return index of the first character not in this class, or -1 if all of them are
+     */
+    public int indexOfMismatch (CharSequence s) {
+        for (int i=0, len=s.length(); i<len; i++) {
+            if (!contains(s.charAt(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param s sequence to check
+     * @return true if every character belongs to this class
+     */
+    public boolean matches (CharSequence s) {
+        return indexOfMismatch(s) < 0;
+    }
+
+    /**
+     * @param b ASCII (or ISO-8859-1) encoded bytes
+     * @param offset offset
+     * @param len number of bytes to check
+     * @return true if every character belongs to this class
+     */
+    public boolean matches (byte[] b, int offset, int len) {
+        for (int i=offset, end=offset+len; i<end; i++) {
+            if (!contains((char) (b[i] & 0xFF)))
+                return false;
+        }
+        return true;
+    }
+}
@@ -18,6 +18,8 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements EBCDIC Binary Interpreter. byte[] are converted to and from EBCDIC bytes.
  * 
@@ -25,7 +27,7 @@ package org.jpos.iso;
  * @author apr
  */
 @SuppressWarnings("unused")
-public class EbcdicBinaryInterpreter implements BinaryInterpreter {
+public class EbcdicBinaryInterpreter implements BufferBinaryInterpreter {
     public static final EbcdicBinaryInterpreter INSTANCE = new EbcdicBinaryInterpreter();
 
     /**
@@ -42,6 +44,18 @@ public class EbcdicBinaryInterpreter implements BinaryInterpreter {
         return ISOUtil.ebcdicToAsciiBytes(rawData, offset, length);
     }
 
+    @Override
+    public void interpret(byte[] data, ByteBuffer b)
+    {
+        ISOCodec.putEbcdic(data, b);
+    }
+
+    @Override
+    public byte[] uninterpret(ByteBuffer b, int length)
+    {
+        return ISOCodec.getEbcdicBytes(b, length);
+    }
+
    /**
     * @see org.jpos.iso.Interpreter#getPackedLength(int)
     */
@@ -18,13 +18,15 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements Hex Interpreter. The Hex digits are stored in EBCDIC.
  * 
  * @author ayakovlev
  * @version $Revision:$ $Date:$
  */
-public class EbcdicHexInterpreter implements BinaryInterpreter
+public class EbcdicHexInterpreter implements BufferBinaryInterpreter
 {
     /** An instance of this Interpreter. Only one needed for the whole system */
     public static final EbcdicHexInterpreter INSTANCE = new EbcdicHexInterpreter();
@@ -66,6 +68,18 @@ public class EbcdicHexInterpreter implements BinaryInterpreter
         return ret;
     }
 
+    @Override
+    public void interpret(byte[] data, ByteBuffer b)
+    {
+        ISOCodec.putHexBytes(data, HEX_EBCDIC, b);
+    }
+
+    @Override
+    public byte[] uninterpret(ByteBuffer b, int length)
+    {
+        return ISOCodec.getHexBytes(b, length, true);
+    }
+
     /**
      * Returns double nBytes because the hex representation of 1 byte needs 2 hex digits.
      *
@@ -18,6 +18,8 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements EBCDIC Interpreter. Strings are converted to and from EBCDIC
  * bytes.
@@ -25,7 +27,7 @@ package org.jpos.iso;
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class EbcdicInterpreter implements Interpreter
+public class EbcdicInterpreter implements BufferInterpreter
 {
     /** An instance of this Interpreter. Only one needed for the whole system */
     public static final EbcdicInterpreter INSTANCE = new EbcdicInterpreter();
@@ -48,6 +50,16 @@ public class EbcdicInterpreter implements Interpreter
         return ISOUtil.ebcdicToAscii(rawData, offset, length);
     }
 
+    @Override
+    public void interpret(CharSequence data, ByteBuffer b) {
+        ISOCodec.putEbcdic(data, b);
+    }
+
+    @Override
+    public String uninterpret(ByteBuffer b, int length) {
+        return ISOCodec.getEbcdic(b, length);
+    }
+
     /**
 	 * (non-Javadoc)
 	 *
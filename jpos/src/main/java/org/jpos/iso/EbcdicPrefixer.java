@@ -18,6 +18,9 @@
 
 package org.jpos.iso;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 
 /**
  * EbcdicPrefixer constructs a prefix for EBCDIC messages.
@@ -25,7 +28,7 @@ package org.jpos.iso;
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class EbcdicPrefixer implements Prefixer
+public class EbcdicPrefixer implements BufferPrefixer
 {
     /**
      * A length prefixer for up to 9 chars. The length is encoded with 1 EBCDIC
@@ -82,6 +85,31 @@ public class EbcdicPrefixer implements Prefixer
         return len;
     }
 
+    @Override
+    public void writeLength(int length, ByteBuffer b)
+    {
+        int p = b.position();
+        if (b.remaining() < nDigits)
+            throw new BufferOverflowException();
+        for (int i = nDigits - 1; i >= 0; i--)
+        {
+            b.put(p + i, EBCDIC_DIGITS[length % 10]);
+            length /= 10;
+        }
+        b.position(p + nDigits);
+    }
+
+    @Override
+    public int readLength(ByteBuffer b)
+    {
+        int len = 0;
+        for (int i = 0; i < nDigits; i++)
+        {
+            len = len * 10 + (b.get() & 0x0F);
+        }
+        return len;
+    }
+
     @Override
     public int getPackedLength()
     {
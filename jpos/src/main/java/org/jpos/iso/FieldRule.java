@@ -0,0 +1,185 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled, immutable validation rule for a field value: length
+ * boundaries, a {@link CharClass} and an optional regular expression
+ * for the cases that can't be expressed as a character class.
+ * <p>
+ * Rules can be parsed from a compact, ISO-8583 style spec:
+ * <pre>
+ *   n6                  six digits
+ *   ans..99             up to 99 alpha, numeric or special characters
+ *   an1..16             one to sixteen letters or digits
+ *   [A-Z0-9 _]8         eight characters in the given set
+ *   n..19 /^4.*$/       up to 19 digits, also matching the regex
+ * </pre>
+ * Supported types are <code>a</code> (letters), <code>n</code> (digits),
+ * <code>s</code> (special characters), <code>h</code> (hex digits) and
+ * <code>x</code> (any character), or a regex-like character set (see
+ * {@link CharClass#parse(String)}).
+ */
+public final class FieldRule {
+    private final String spec;
+    private final int minLength;
+    private final int maxLength;
+    private final CharClass chars;
+    private final Pattern pattern;
+
+    /**
+     * @param minLength minimum length
+     * @param maxLength maximum length
+     * @param chars valid characters (null accepts any character)
+     * @param pattern regex the value has to match as a whole (may be null)
+     */
+    public FieldRule (int minLength, int maxLength, CharClass chars, Pattern pattern) {
+        this (null, minLength, maxLength, chars, pattern);
+    }
+
+    private FieldRule (String spec, int minLength, int maxLength, CharClass chars, Pattern pattern) {
+        if (minLength < 0 || maxLength < minLength)
+            throw new IllegalArgumentException ("Invalid length " + minLength + ".." + maxLength);
+        this.spec = spec;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.chars = chars;
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param spec rule spec, i.e. <code>ans..99</code>
+     * @return compiled rule
+     * @throws IllegalArgumentException if spec is invalid
+     */
+    public static FieldRule parse (String spec) {
+        String s = spec.trim();
+        Pattern pattern = null;
+        int slash = s.indexOf(" /");
+        if (slash > 0 && s.endsWith("/") && s.length() > slash + 2) {
+            pattern = Pattern.compile(s.substring(slash + 2, s.length() - 1));
+            s = s.substring(0, slash).trim();
+        }
+        CharClass chars;
+        int i;
+        if (s.startsWith("[")) {
+            i = s.lastIndexOf(']');
+            if (i < 0)
+                throw new IllegalArgumentException ("Invalid rule '" + spec + "'");
+            chars = CharClass.parse(s.substring(0, ++i));
+        } else {
+            chars = CharClass.NONE;
+            for (i=0; i<s.length() && Character.isLetter(s.charAt(i)); i++) {
+                switch (s.charAt(i)) {
+                    case 'a':
+                        chars = chars.union(CharClass.ALPHA);
+                        break;
+                    case 'n':
+                        chars = chars.union(CharClass.DIGITS);
+                        break;
+                    case 's':
+                        chars = chars.union(CharClass.SPECIAL);
+                        break;
+                    case 'h':
+                        chars = chars.union(CharClass.HEX);
+                        break;
+                    case 'x':
+                        chars = null;
+                        break;
+                    default:
+                        throw new IllegalArgumentException ("Invalid type '" + s.charAt(i) + "' in rule '" + spec + "'");
+                }
+                if (chars == null) {
+                    i++;
+                    break;
+                }
+            }
+        }
+        String len = s.substring(i);
+        int min, max;
+        int dots = len.indexOf("..");
+        try {
+            if (dots < 0) {
+                min = max = Integer.parseInt(len);
+            } else {
+                min = dots == 0 ? 0 : Integer.parseInt(len.substring(0, dots));
+                max = Integer.parseInt(len.substring(dots + 2));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException ("Invalid length in rule '" + spec + "'");
+        }
+        return new FieldRule(spec.trim(), min, max, chars, pattern);
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public CharClass getCharClass() {
+        return chars;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @param value value to check
+     * @return true if the value complies with this rule
+     */
+    public boolean isValid (String value) {
+        return check(value) == null;
+    }
+
+    /**
+     * @param value value to check
+     * @return null if the value is valid, otherwise a description of every violation found
+     */
+    public String check (String value) {
+        Objects.requireNonNull(value);
+        StringBuilder sb = null;
+        int l = value.length();
+        if (l < minLength || l > maxLength)
+            sb = append (null, "length " + l + " not in [" + minLength + ", " + maxLength + "]");
+        int i = chars != null ? chars.indexOfMismatch(value) : -1;
+        if (i >= 0)
+            sb = append (sb, "invalid character at position " + i);
+        if (pattern != null && !pattern.matcher(value).matches())
+            sb = append (sb, "does not match " + pattern.pattern());
+        return sb != null ? sb.toString() : null;
+    }
+
+    private static StringBuilder append (StringBuilder sb, String s) {
+        if (sb == null)
+            return new StringBuilder(s);
+        return sb.append(", ").append(s);
+    }
+
+    @Override
+    public String toString() {
+        return spec != null ? spec : "FieldRule{" + minLength + ".." + maxLength + '}';
+    }
+}
@@ -18,6 +18,8 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements BCD Interpreter. Numeric Strings (consisting of chars '0'..'9' are converted
  * to and from BCD bytes. Thus, "1234" is converted into 2 bytes: 0x12, 0x34.
@@ -25,7 +27,7 @@ package org.jpos.iso;
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class HEXInterpreter implements Interpreter
+public class HEXInterpreter implements BufferInterpreter
 {
     /** This HEXInterpreter sometimes adds a 0-nibble to the left. */
     public static final HEXInterpreter LEFT_PADDED = new HEXInterpreter(true, false);
@@ -71,6 +73,16 @@ public class HEXInterpreter implements Interpreter
         return ISOUtil.hex2str (rawData, offset, length, leftPadded);
     }
 
+    @Override
+    public void interpret(CharSequence data, ByteBuffer b) {
+        ISOCodec.putHex(data, leftPadded, fPadded ? 0x0F : 0x00, b);
+    }
+
+    @Override
+    public String uninterpret(ByteBuffer b, int length) {
+        return ISOCodec.getHex(b, length, leftPadded);
+    }
+
     /**
 	 * Each numeric digit is packed into a nibble, so 2 digits per byte, plus the
      * possibility of padding.
@@ -18,6 +18,9 @@
 
 package org.jpos.iso;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 /**
  * HexNibblesPrefixer constructs a prefix storing the length in BCD.
  * 
@@ -25,7 +28,7 @@ package org.jpos.iso;
  * @version $Revision$ $Date$
  */
 @SuppressWarnings("unused")
-public class HexNibblesPrefixer implements Prefixer {
+public class HexNibblesPrefixer implements BufferPrefixer {
     public static final HexNibblesPrefixer LL = new HexNibblesPrefixer(2);
     public static final HexNibblesPrefixer LLL = new HexNibblesPrefixer(3);
     private int nDigits;
@@ -54,6 +57,32 @@ public class HexNibblesPrefixer implements Prefixer {
         return len >> 1;
     }
 
+    @Override
+    public void writeLength(int length, ByteBuffer b) {
+        int p = b.position();
+        int packedLength = getPackedLength();
+        if (b.remaining() < packedLength)
+            throw new BufferOverflowException();
+        length <<= 1;
+        for (int i = packedLength - 1; i >= 0; i--) {
+            int twoDigits = length % 100;
+            length /= 100;
+            b.put(p + i, (byte)((twoDigits / 10 << 4) + twoDigits % 10));
+        }
+        b.position(p + packedLength);
+    }
+
+    @Override
+    public int readLength(ByteBuffer b) {
+        int len = 0;
+        for (int i = 0; i < (nDigits + 1) / 2; i++)
+        {
+            byte d = b.get();
+            len = 100 * len + ((d & 0xF0) >> 4) * 10 + (d & 0x0F);
+        }
+        return len >> 1;
+    }
+
     @Override
     public int getPackedLength()
     {
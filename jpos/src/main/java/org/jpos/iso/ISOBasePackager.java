@@ -25,7 +25,9 @@ import org.jpos.util.Logger;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Map;
 
@@ -42,6 +44,11 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
     protected Logger logger = null;
     protected String realm = null;
     protected int headerLength = 0;
+
+    private static final int INITIAL_BUFFER = 1024;
+    private static final int MAX_POOLED_BUFFER = 64*1024;
+    // per thread pack buffer, taken while in use so nested (composite field) packs get their own
+    private static final ThreadLocal<ByteBuffer[]> buffers = ThreadLocal.withInitial(() -> new ByteBuffer[1]);
     
     public void setFieldPackager (ISOFieldPackager[] fld) {
         this.fld = fld;
@@ -88,14 +95,18 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
         if (logger != null)
             evt = new LogEvent (this, "pack");
 
+        ByteBuffer bb = null;
         try {
             if (m.getComposite() != m)
                 throw new ISOException ("Can't call packager on non Composite");
+            if (m instanceof ISOMsg) {
+                ISOMsg.Image img = ((ISOMsg) m).getImage();
+                if (img != null && canPackFromImage (img.getPackager()))
+                    return pack ((ISOMsg) m, img, evt);
+            }
 
-            ArrayList<byte[]> v = new ArrayList<byte[]>(128);
-            byte[] b;
+            bb = takeBuffer();
             byte[] hdr= null;
-            int len = 0;
 
             Map fields = m.getChildren();
             ISOComponent c = (ISOComponent) fields.get (0);
@@ -107,14 +118,11 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
             {
             	hdr= ((ISOMsg) m).getHeader();
             	if (hdr != null)
-            		len += hdr.length;
+            		bb = put (bb, hdr, 0, hdr.length);
             }
 
-            if (first > 0 && c != null) {
-                b = fld[0].pack(c);
-                len += b.length;
-                v.add (b);
-            }
+            if (first > 0 && c != null)
+                bb = packInto (fld[0], c, bb);
 
             BitSet bmap12= null;                            // will store primary and secondary part of bitmap
             BitSet bmap3= null;                             // will store tertiary part of bitmap
@@ -155,9 +163,7 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                 }
                 // now will emit the 1st and 2nd bitmaps, and the loop below will take care of 3rd
                 // when emitting field `thirdBitmapField`
-                b = getBitMapfieldPackager().pack(c);
-                len += b.length;
-                v.add (b);
+                bb = packInto (getBitMapfieldPackager(), c, bb);
             }
 
             // if Field 1 is a BitMap then we are packing an
@@ -172,9 +178,7 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                         ISOFieldPackager fp = fld[i];
                         if (fp == null)
                             throw new ISOException ("null field "+i+" packager");
-                        b = fp.pack(c);
-                        len += b.length;
-                        v.add (b);
+                        bb = packInto (fp, c, bb);
                     } catch (ISOException e) {
                         if (evt != null) {
                             evt.addMessage ("error packing field "+i);
@@ -207,19 +211,7 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
 //                }
 //            }
 
-            int k = 0;
-            byte[] d = new byte[len];
-
-            // if ISOMsg insert header (we pre-read it at the beginning)
-            if (hdr != null) {
-                System.arraycopy(hdr, 0, d, k, hdr.length);
-                k += hdr.length;
-            }
-
-            for (byte[] bb : v) {
-                System.arraycopy(bb, 0, d, k, bb.length);
-                k += bb.length;
-            }
+            byte[] d = Arrays.copyOf (bb.array(), bb.position());
             if (evt != null)  // save a few CPU cycle if no logger available
                 evt.addMessage (ISOUtil.hexString (d));
 
@@ -229,11 +221,154 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                 evt.addMessage (e);
             throw e;
         } finally {
+            if (bb != null)
+                releaseBuffer (bb);
             if (evt != null)
                 Logger.log(evt);
         }
     }
 
+    /**
+     * Packs a message that retained its raw image, copying the fields
+     * that were not modified since unpack straight from the image.
+     */
+    private byte[] pack (ISOMsg m, ISOMsg.Image img, LogEvent evt) throws ISOException {
+        Map<?,?> fields = m.getChildren();
+        int maxField = Math.min (m.getMaxField(), fld.length > 129 ? 192 : 128);
+        byte[] hdr = headerLength > 0 ? m.getHeader() : null;
+        ByteBuffer bb = takeBuffer();
+        try {
+            if (hdr != null)
+                bb = put (bb, hdr, 0, hdr.length);
+
+            ISOComponent c;
+            ISOComponent bitmap = emitBitMap() ? (ISOComponent) fields.get (-1) : null;
+            for (int i=0; i<=Math.max (maxField, 1); i++) {
+                if (i == 1 && bitmap != null)
+                    bb = packInto (getBitMapfieldPackager(), bitmap, bb); // right after field 0
+                if (i > maxField)
+                    break;
+                if (i > 0 && i < getFirstField() || (c = (ISOComponent) fields.get (i)) == null)
+                    continue;
+                if (img.isPristine (i, c) && img.offset (i) >= 0) {
+                    bb = put (bb, img.bytes(), img.offset(i), img.length(i));
+                    continue;
+                }
+                try {
+                    ISOFieldPackager fp = fld[i];
+                    if (fp == null)
+                        throw new ISOException ("null field "+i+" packager");
+                    bb = packInto (fp, c, bb);
+                } catch (ISOException e) {
+                    if (evt != null) {
+                        evt.addMessage ("error packing field "+i);
+                        evt.addMessage (c);
+                        evt.addMessage (e);
+                    }
+                    throw new ISOException("error packing field "+i, e);
+                }
+            }
+            byte[] d = Arrays.copyOf (bb.array(), bb.position());
+            if (evt != null)
+                evt.addMessage (ISOUtil.hexString (d));
+            return d;
+        } finally {
+            releaseBuffer (bb);
+        }
+    }
+
+    /**
+     * Packs a field straight into the message buffer (see
+     * {@link ISOFieldPackager#packInto(ISOComponent, ByteBuffer)}).
+     * The buffer is grown up front to the field's maximum packed length.
+     * Should the field still not fit, only that field is packed again, into
+     * its own array. Other packagers (i.e. composite fields) always pack
+     * into their own array, so they never need to be packed twice.
+     *
+     * @return the buffer, possibly a new, larger one
+     */
+    private static ByteBuffer packInto (ISOFieldPackager fp, ISOComponent c, ByteBuffer bb) throws ISOException {
+        if (fp instanceof ISOStringFieldPackager || fp instanceof ISOBinaryFieldPackager) {
+            int max = fp.getMaxPackedLength();
+            if (bb.remaining() < max && max <= MAX_POOLED_BUFFER)
+                bb = grow (bb, max);
+            int pos = bb.position();
+            try {
+                fp.packInto (c, bb);
+                return bb;
+            } catch (BufferOverflowException e) {
+                bb.position (pos);
+            } catch (ISOException e) {
+                if (!isOverflow (e))
+                    throw e;
+                bb.position (pos);
+            }
+        }
+        byte[] b = fp.pack (c);
+        return put (bb, b, 0, b.length);
+    }
+    private static ByteBuffer put (ByteBuffer bb, byte[] b, int offset, int len) {
+        if (bb.remaining() < len)
+            bb = grow (bb, len);
+        bb.put (b, offset, len);
+        return bb;
+    }
+    private static ByteBuffer grow (ByteBuffer bb, int atLeast) {
+        ByteBuffer n = ByteBuffer.allocate (Math.max (bb.capacity() << 1, bb.position() + atLeast));
+        bb.flip();
+        n.put (bb);
+        return n;
+    }
+    private static boolean isOverflow (Throwable e) {
+        while (e != null) {
+            if (e instanceof BufferOverflowException)
+                return true;
+            e = e instanceof ISOException ? ((ISOException) e).getNested() : e.getCause();
+        }
+        return false;
+    }
+    private static ByteBuffer takeBuffer() {
+        ByteBuffer[] holder = buffers.get();
+        ByteBuffer bb = holder[0];
+        holder[0] = null;
+        if (bb == null)
+            return ByteBuffer.allocate (INITIAL_BUFFER);
+        bb.clear();
+        return bb;
+    }
+    private static void releaseBuffer (ByteBuffer bb) {
+        if (bb.capacity() <= MAX_POOLED_BUFFER)
+            buffers.get()[0] = bb;
+    }
+
+    /**
+     * A raw image unpacked by <code>p</code> can be partially re-emitted by this
+     * packager only if both lay out fields the same way.
+     *
+     * @param p the packager that unpacked the image
+     * @return true if unmodified fields can be copied from the image
+     */
+    protected boolean canPackFromImage (ISOPackager p) {
+        if (getFirstField() == 0 || thirdBitmapField >= 0)
+            return false;
+        if (p == this)
+            return true;
+        if (p == null || p.getClass() != getClass())
+            return false;
+        ISOBasePackager o = (ISOBasePackager) p;
+        if (o.headerLength != headerLength || o.thirdBitmapField != thirdBitmapField || o.fld.length != fld.length)
+            return false;
+        for (int i=0; i<fld.length; i++) {
+            ISOFieldPackager f = fld[i], g = o.fld[i];
+            if (f == g)
+                continue;
+            if (f == null || g == null || f.getClass() != g.getClass()
+              || f.getLength() != g.getLength() || f.pad != g.pad || f.trim != g.trim)
+                return false;
+        }
+        return true;
+    }
+
     /**
      * @param   m   the Container of this message
      * @param   b   ISO message image
@@ -261,10 +396,22 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                 consumed += headerLength;
             }
 
+            int[] bounds = null;    // field offsets, to retain the image
+            if (m instanceof ISOMsg && ((ISOMsg) m).isRetainImage()) {
+                bounds = new int[fld.length << 1];
+                Arrays.fill (bounds, -1);
+            }
+
+            ByteBuffer buf = ByteBuffer.wrap (b);
             if (!(fld[0] == null) && !(fld[0] instanceof ISOBitMapPackager))
             {
                 ISOComponent mti = fld[0].createComponent(0);
-                consumed  += fld[0].unpack(mti, b, consumed);
+                if (bounds != null)
+                    bounds[0] = consumed;
+                buf.position (consumed);
+                consumed  += fld[0].unpackFrom(mti, buf);
+                if (bounds != null)
+                    bounds[1] = consumed;
                 m.set (mti);
             }
 
@@ -274,7 +421,8 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
 
             if (emitBitMap()) {
                 ISOBitMap bitmap = new ISOBitMap (-1);
-                consumed += getBitMapfieldPackager().unpack(bitmap,b,consumed);
+                buf.position (consumed);
+                consumed += getBitMapfieldPackager().unpackFrom(bitmap, buf);
                 bmap = (BitSet) bitmap.getValue();
                 bmapBytes= (bmap.length()-1 + 63) >> 6 << 3;
                 if (evt != null)
@@ -302,7 +450,12 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                             throw new ISOException ("field packager '" + i + "' is null");
 
                         ISOComponent c = fld[i].createComponent(i);
-                        consumed += fld[i].unpack (c, b, consumed);
+                        if (bounds != null)
+                            bounds[i << 1] = consumed;
+                        buf.position (consumed);
+                        consumed += fld[i].unpackFrom (c, buf);
+                        if (bounds != null)
+                            bounds[(i << 1) + 1] = consumed;
                         if (evt != null)
                             fieldUnpackLogger(evt, i, c, fld);
                         m.set(c);
@@ -348,6 +501,8 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
             if (evt != null && b.length != consumed) {
                 evt.addMessage ("WARNING: unpack len=" +b.length +" consumed=" +consumed);
             }
+            if (bounds != null)
+                ((ISOMsg) m).setImage (b, bounds, this);
 
             return consumed;
         } catch (ISOException e) {
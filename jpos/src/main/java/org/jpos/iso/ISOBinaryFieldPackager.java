@@ -20,6 +20,7 @@ package org.jpos.iso;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author joconnor
@@ -113,6 +114,59 @@ public class ISOBinaryFieldPackager extends ISOFieldPackager
         }
     }
 
+    /**
+     * Packs the component straight into the buffer when both the interpreter and
+     * the prefixer support {@link ByteBuffer}s.
+     */
+    @Override
+    public int packInto(ISOComponent c, ByteBuffer b) throws ISOException
+    {
+        if (!usesBuffers())
+            return super.packInto(c, b);
+        int start = b.position();
+        try
+        {
+            byte[] data = c.getBytes();
+            if (prefixer.getPackedLength() == 0 && data.length != getLength()) {
+                throw new ISOException("Binary data length not the same as the packager length (" + data.length + "/" + getLength() + ")");
+            }
+            ((BufferPrefixer) prefixer).writeLength(data.length, b);
+            ((BufferBinaryInterpreter) interpreter).interpret(data, b);
+            return b.position() - start;
+        } catch(Exception e) {
+            b.position(start);
+            throw new ISOException(makeExceptionMessage(c, "packing"), e);
+        }
+    }
+
+    /**
+     * Unpacks the component straight from the buffer, advancing its position.
+     */
+    @Override
+    public int unpackFrom(ISOComponent c, ByteBuffer b) throws ISOException
+    {
+        if (!usesBuffers())
+            return super.unpackFrom(c, b);
+        int start = b.position();
+        try
+        {
+            int len = ((BufferPrefixer) prefixer).readLength(b);
+            if (len == -1) {
+                // The prefixer doesn't know how long the field is, so use
+                // maxLength instead
+                len = getLength();
+            }
+            else if (getLength() > 0 && len > getLength())
+                throw new ISOException("Field length " + len + " too long. Max: " + getLength());
+            c.setValue(((BufferBinaryInterpreter) interpreter).uninterpret(b, len));
+            return b.position() - start;
+        } catch(Exception e)
+        {
+            b.position(start);
+            throw new ISOException(makeExceptionMessage(c, "unpacking"), e);
+        }
+    }
+
     public int unpack(ISOComponent c, byte[] b, int offset) throws ISOException
     {
         try
@@ -170,6 +224,22 @@ public class ISOBinaryFieldPackager extends ISOFieldPackager
         return new ISOBinaryField (fieldNumber);
     }
 
+    private static final ClassValue<Boolean> INHERITS_PACK_UNPACK = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return inheritsPackUnpack(type, ISOBinaryFieldPackager.class);
+        }
+    };
+
+    /**
+     * @return true if the {@link ByteBuffer} based pack/unpack can be used, i.e. the interpreter and
+     * prefixer support it, and no subclass customizes the byte array based pack/unpack
+     */
+    private boolean usesBuffers() {
+        return interpreter instanceof BufferBinaryInterpreter && prefixer instanceof BufferPrefixer
+          && INHERITS_PACK_UNPACK.get(getClass());
+    }
+
     /** Create a nice readable message for errors */
     private String makeExceptionMessage(ISOComponent c, String operation) {
         Object fieldKey = "unknown";
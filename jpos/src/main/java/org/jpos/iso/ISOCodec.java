@@ -0,0 +1,526 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Lookup-table driven ASCII, EBCDIC, BCD and HEX conversion kernels.
+ *
+ * <p>The byte array kernels back {@link ISOUtil#hexString(byte[])}, {@link ISOUtil#hex2byte(String)},
+ * {@link ISOUtil#str2bcd(String, boolean)}, {@link ISOUtil#bcd2str(byte[], int, int, boolean)},
+ * {@link ISOUtil#asciiToEbcdic(String)}, {@link ISOUtil#ebcdicToAscii(byte[])} and friends.
+ * They translate a whole byte (two nibbles) per table lookup and size their
+ * output exactly, instead of going through a {@link java.nio.charset.Charset}
+ * or growing a {@link StringBuilder} char by char.</p>
+ *
+ * <p>The {@link ByteBuffer} codecs write at the buffer's current position and read
+ * from it, advancing it by the number of bytes produced or consumed.</p>
+ *
+ * <p>Results are bit-compatible with the historical {@link ISOUtil} implementations.</p>
+ *
+ * @see BufferInterpreter
+ * @see BufferPrefixer
+ */
+public final class ISOCodec {
+    /** ISO-8859-1 to IBM1047 */
+    static final byte[] ASCII2EBCDIC = new byte[256];
+    /** IBM1047 to ISO-8859-1 */
+    static final char[] EBCDIC2ASCII = new char[256];
+    /** EBCDIC substitution byte used for characters outside ISO-8859-1 */
+    static final byte EBCDIC_SUB;
+    /** BCD nibble to char, 'D' nibbles render as '=' (track 2 separator) */
+    static final char[] BCD_CHARS = "0123456789ABC=EF".toCharArray();
+    /** HEX nibble to char */
+    static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+    /** char to HEX nibble value, -1 if not a hex digit */
+    static final byte[] HEX_VALUES = new byte[128];
+    /** byte to HEX nibble value (of its char representation), -1 if not a hex digit */
+    static final byte[] HEX_BYTE_VALUES = new byte[256];
+    /** byte to its two HEX chars */
+    static final char[] HEX_PAIRS = new char[512];
+    /** byte to its two BCD chars */
+    static final char[] BCD_PAIRS = new char[512];
+    /** IBM1047 byte to ISO-8859-1 byte */
+    static final byte[] EBCDIC2ASCII_BYTES = new byte[256];
+
+    static {
+        byte[] all = new byte[256];
+        for (int i=0; i<256; i++)
+            all[i] = (byte) i;
+        String s = ISOUtil.EBCDIC.decode(ByteBuffer.wrap(all)).toString();
+        for (int i=0; i<256; i++) {
+            char c = s.charAt(i);
+            EBCDIC2ASCII[i] = c;
+            ASCII2EBCDIC[c & 0xFF] = (byte) i;
+        }
+        EBCDIC_SUB = ISOUtil.EBCDIC.newEncoder().replacement()[0];
+        for (int i=0; i<HEX_VALUES.length; i++)
+            HEX_VALUES[i] = (byte) Character.digit((char) i, 16);
+        for (int i=0; i<256; i++) {
+            HEX_BYTE_VALUES[i] = (byte) Character.digit((char) (byte) i, 16);
+            HEX_PAIRS[i << 1]     = HEX_CHARS[i >> 4];
+            HEX_PAIRS[(i << 1)+1] = HEX_CHARS[i & 0x0F];
+            BCD_PAIRS[i << 1]     = BCD_CHARS[i >> 4];
+            BCD_PAIRS[(i << 1)+1] = BCD_CHARS[i & 0x0F];
+            EBCDIC2ASCII_BYTES[i] = (byte) EBCDIC2ASCII[i];
+        }
+    }
+
+    private ISOCodec() { }
+
+    /**
+     * Writes data as ISO-8859-1 bytes.
+     * Characters outside ISO-8859-1 are written as '?', same as {@link String#getBytes(java.nio.charset.Charset)}.
+     * @param data source characters
+     * @param b destination buffer
+     */
+    public static void putAscii (CharSequence data, ByteBuffer b) {
+        int len = data.length();
+        if (b.hasArray()) {
+            byte[] d = b.array();
+            int k = b.arrayOffset() + b.position();
+            checkRemaining(b, len);
+            for (int i=0; i<len; i++) {
+                char c = data.charAt(i);
+                d[k++] = c > 0xFF ? (byte) '?' : (byte) c;
+            }
+            b.position(b.position() + len);
+        } else {
+            for (int i=0; i<len; i++) {
+                char c = data.charAt(i);
+                b.put(c > 0xFF ? (byte) '?' : (byte) c);
+            }
+        }
+    }
+
+    /**
+     * Reads len ISO-8859-1 bytes.
+     * @param b source buffer
+     * @param len number of bytes
+     * @return decoded String
+     */
+    public static String getAscii (ByteBuffer b, int len) {
+        checkAvailable(b, len);
+        String s;
+        if (b.hasArray()) {
+            s = new String(b.array(), b.arrayOffset() + b.position(), len, ISOUtil.CHARSET);
+            b.position(b.position() + len);
+        } else {
+            char[] c = new char[len];
+            for (int i=0; i<len; i++)
+                c[i] = (char) (b.get() & 0xFF);
+            s = new String(c);
+        }
+        return s;
+    }
+
+    /**
+     * Writes data as IBM1047 EBCDIC bytes.
+     * @param data source characters
+     * @param b destination buffer
+     */
+    public static void putEbcdic (CharSequence data, ByteBuffer b) {
+        int len = data.length();
+        if (b.hasArray()) {
+            byte[] d = b.array();
+            int k = b.arrayOffset() + b.position();
+            checkRemaining(b, len);
+            for (int i=0; i<len; i++) {
+                char c = data.charAt(i);
+                d[k++] = c > 0xFF ? EBCDIC_SUB : ASCII2EBCDIC[c];
+            }
+            b.position(b.position() + len);
+        } else {
+            for (int i=0; i<len; i++) {
+                char c = data.charAt(i);
+                b.put(c > 0xFF ? EBCDIC_SUB : ASCII2EBCDIC[c]);
+            }
+        }
+    }
+
+    /**
+     * Reads len IBM1047 EBCDIC bytes.
+     * @param b source buffer
+     * @param len number of bytes
+     * @return decoded String
+     */
+    public static String getEbcdic (ByteBuffer b, int len) {
+        checkAvailable(b, len);
+        char[] c = new char[len];
+        if (b.hasArray()) {
+            byte[] d = b.array();
+            int k = b.arrayOffset() + b.position();
+            for (int i=0; i<len; i++)
+                c[i] = EBCDIC2ASCII[d[k++] & 0xFF];
+            b.position(b.position() + len);
+        } else {
+            for (int i=0; i<len; i++)
+                c[i] = EBCDIC2ASCII[b.get() & 0xFF];
+        }
+        return new String(c);
+    }
+
+    /**
+     * Converts ISO-8859-1 bytes into IBM1047 EBCDIC bytes.
+     * @param data ISO-8859-1 bytes
+     * @param b destination buffer
+     */
+    public static void putEbcdic (byte[] data, ByteBuffer b) {
+        for (byte d : data)
+            b.put(ASCII2EBCDIC[d & 0xFF]);
+    }
+
+    /**
+     * Reads len IBM1047 EBCDIC bytes, converting them into ISO-8859-1 bytes.
+     * @param b source buffer
+     * @param len number of bytes
+     * @return ISO-8859-1 bytes
+     */
+    public static byte[] getEbcdicBytes (ByteBuffer b, int len) {
+        checkAvailable(b, len);
+        byte[] d = new byte[len];
+        for (int i=0; i<len; i++)
+            d[i] = (byte) EBCDIC2ASCII[b.get() & 0xFF];
+        return d;
+    }
+
+    /**
+     * Packs a numeric string as BCD, two digits per byte.
+     *
+     * @param data the digits
+     * @param padLeft if true and data has an odd length, the pad nibble goes first
+     * @param fill pad nibble (0x0 or 0xF) used when data has an odd length
+     * @param b destination buffer
+     */
+    public static void putBCD (CharSequence data, boolean padLeft, int fill, ByteBuffer b) {
+        int len = data.length();
+        int i = 0;
+        if ((len & 1) == 1) {
+            if (padLeft) {
+                b.put((byte) ((fill & 0x0F) << 4 | data.charAt(0) - '0'));
+                i = 1;
+            } else {
+                len--;
+            }
+        }
+        for (; i < len; i += 2)
+            b.put((byte) ((data.charAt(i) - '0') << 4 | data.charAt(i+1) - '0'));
+        if (len < data.length())
+            b.put((byte) ((data.charAt(len) - '0') << 4 | fill & 0x0F));
+    }
+
+    /**
+     * Unpacks len BCD digits.
+     *
+     * @param b source buffer
+     * @param len number of digits (nibbles)
+     * @param padLeft if true and len is odd, the first nibble is padding
+     * @return decoded String
+     */
+    public static String getBCD (ByteBuffer b, int len, boolean padLeft) {
+        return getNibbles(b, len, padLeft, BCD_CHARS);
+    }
+
+    /**
+     * Packs a hex string, two hex digits per byte.
+     *
+     * @param data the hex digits
+     * @param padLeft if true and data has an odd length, the pad nibble goes first
+     * @param fill pad nibble used when data has an odd length
+     * @param b destination buffer
+     */
+    public static void putHex (CharSequence data, boolean padLeft, int fill, ByteBuffer b) {
+        int len = data.length();
+        int i = 0;
+        if ((len & 1) == 1) {
+            if (padLeft) {
+                b.put((byte) ((fill & 0x0F) << 4 | hexValue(data.charAt(0))));
+                i = 1;
+            } else {
+                len--;
+            }
+        }
+        for (; i < len; i += 2)
+            b.put((byte) (hexValue(data.charAt(i)) << 4 | hexValue(data.charAt(i+1))));
+        if (len < data.length())
+            b.put((byte) (hexValue(data.charAt(len)) << 4 | fill & 0x0F));
+    }
+
+    /**
+     * Unpacks len hex digits.
+     *
+     * @param b source buffer
+     * @param len number of hex digits (nibbles)
+     * @param padLeft if true and len is odd, the first nibble is padding
+     * @return decoded String
+     */
+    public static String getHex (ByteBuffer b, int len, boolean padLeft) {
+        return getNibbles(b, len, padLeft, HEX_CHARS);
+    }
+
+    /**
+     * Writes every byte in data as two hex digits using the given 16 byte alphabet.
+     * @param data binary data
+     * @param alphabet 16 bytes representing nibbles 0x0 to 0xF
+     * @param b destination buffer
+     */
+    public static void putHexBytes (byte[] data, byte[] alphabet, ByteBuffer b) {
+        for (byte d : data) {
+            b.put(alphabet[(d & 0xF0) >> 4]);
+            b.put(alphabet[d & 0x0F]);
+        }
+    }
+
+    /**
+     * Reads len bytes represented as 2*len hex digits.
+     * Both ASCII and EBCDIC digits are understood as long as their low nibble carries the
+     * digit value for '0'..'9' and the letter offset for 'A'..'F'.
+     * @param b source buffer
+     * @param len number of resulting bytes
+     * @param ebcdic true if the digits are EBCDIC encoded
+     * @return binary data
+     */
+    public static byte[] getHexBytes (ByteBuffer b, int len, boolean ebcdic) {
+        checkAvailable(b, len << 1);
+        byte[] d = new byte[len];
+        for (int i=0; i<len; i++) {
+            int hi = b.get();
+            int lo = b.get();
+            d[i] = ebcdic ?
+              (byte) (ebcdicHexValue(hi) << 4 | ebcdicHexValue(lo)) :
+              (byte) (hexValue((char) (hi & 0xFF)) << 4 | hexValue((char) (lo & 0xFF)));
+        }
+        return d;
+    }
+
+    /**
+     * @param c a character
+     * @return its hex value, or -1 if c is not a hex digit
+     */
+    public static int hexValue (char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : Character.digit(c, 16);
+    }
+
+    private static int ebcdicHexValue (int e) {
+        return (byte) e < (byte) 0xF0 ? 10 + e - 0xC0 : e - 0xF0;
+    }
+
+    /**
+     * @param b source
+     * @param offset starting offset
+     * @param len number of bytes
+     * @return upper case hex representation of b
+     */
+    public static String hexString (byte[] b, int offset, int len) {
+        char[] c = new char[len << 1];
+        int end = offset + len;
+        int k = 0;
+        for (int i=offset; i<end; i++) {
+            int v = (b[i] & 0xFF) << 1;
+            c[k++] = HEX_PAIRS[v];
+            c[k++] = HEX_PAIRS[v+1];
+        }
+        return new String(c);
+    }
+
+    /**
+     * @param b source with hex digits
+     * @param offset starting offset
+     * @param len number of bytes in destination (processes len*2)
+     * @return byte[len]
+     */
+    public static byte[] hex2byte (byte[] b, int offset, int len) {
+        byte[] d = new byte[len];
+        for (int i=0, k=offset; i<len; i++, k += 2)
+            d[i] = (byte) (HEX_BYTE_VALUES[b[k] & 0xFF] << 4 | HEX_BYTE_VALUES[b[k+1] & 0xFF]);
+        return d;
+    }
+
+    /**
+     * @param s even length hex string
+     * @return byte[s.length()/2]
+     */
+    public static byte[] hex2byte (CharSequence s) {
+        int len = s.length() >> 1;
+        byte[] d = new byte[len];
+        for (int i=0, k=0; i<len; i++, k += 2)
+            d[i] = (byte) (hexValue(s.charAt(k)) << 4 | hexValue(s.charAt(k+1)));
+        return d;
+    }
+
+    /**
+     * ORs the BCD representation of s into d.
+     *
+     * @param s the number
+     * @param padLeft if true and s has an odd length, the first nibble is left untouched
+     * @param d destination
+     * @param offset starting offset in d
+     * @return d
+     */
+    public static byte[] str2bcd (CharSequence s, boolean padLeft, byte[] d, int offset) {
+        int len = s.length();
+        int i = 0;
+        int k = offset;
+        if ((len & 1) == 1 && padLeft) {
+            d[k++] |= (byte) (s.charAt(0) - '0');
+            i = 1;
+        }
+        for (; i+1 < len; i += 2)
+            d[k++] |= (byte) ((s.charAt(i) - '0') << 4 | s.charAt(i+1) - '0');
+        if (i < len)
+            d[k] |= (byte) ((s.charAt(i) - '0') << 4);
+        return d;
+    }
+
+    /**
+     * @param b BCD data
+     * @param offset starting offset
+     * @param len number of digits
+     * @param padLeft true if an odd number of digits was left padded
+     * @return the digits (with 'D' nibbles rendered as '=')
+     */
+    public static String bcd2str (byte[] b, int offset, int len, boolean padLeft) {
+        return nibbles2str (b, offset, len, padLeft, BCD_CHARS, BCD_PAIRS);
+    }
+
+    /**
+     * @param b packed hex data
+     * @param offset starting offset
+     * @param len number of hex digits
+     * @param padLeft true if an odd number of digits was left padded
+     * @return upper case hex digits
+     */
+    public static String hex2str (byte[] b, int offset, int len, boolean padLeft) {
+        return nibbles2str (b, offset, len, padLeft, HEX_CHARS, HEX_PAIRS);
+    }
+
+    /**
+     * @param s ISO-8859-1 string
+     * @return IBM1047 bytes, one per char
+     */
+    public static byte[] asciiToEbcdic (CharSequence s) {
+        byte[] e = new byte[s.length()];
+        asciiToEbcdic(s, e, 0);
+        return e;
+    }
+
+    /**
+     * @param s ISO-8859-1 string
+     * @param e destination
+     * @param offset starting offset in e
+     */
+    public static void asciiToEbcdic (CharSequence s, byte[] e, int offset) {
+        int len = s.length();
+        checkBounds(e, offset, len);
+        for (int i=0; i<len; i++) {
+            char c = s.charAt(i);
+            e[offset++] = c > 0xFF ? EBCDIC_SUB : ASCII2EBCDIC[c];
+        }
+    }
+
+    /**
+     * @param a ISO-8859-1 bytes
+     * @param e destination
+     * @param offset starting offset in e
+     */
+    public static void asciiToEbcdic (byte[] a, byte[] e, int offset) {
+        checkBounds(e, offset, a.length);
+        for (byte b : a)
+            e[offset++] = ASCII2EBCDIC[b & 0xFF];
+    }
+
+    /**
+     * @param e IBM1047 bytes
+     * @param offset starting offset
+     * @param len number of bytes
+     * @return ISO-8859-1 string
+     */
+    public static String ebcdicToAscii (byte[] e, int offset, int len) {
+        checkBounds(e, offset, len);
+        char[] c = new char[len];
+        for (int i=0; i<len; i++)
+            c[i] = EBCDIC2ASCII[e[offset++] & 0xFF];
+        return new String(c);
+    }
+
+    /**
+     * @param e IBM1047 bytes
+     * @param offset starting offset
+     * @param len number of bytes
+     * @return ISO-8859-1 bytes
+     */
+    public static byte[] ebcdicToAsciiBytes (byte[] e, int offset, int len) {
+        checkBounds(e, offset, len);
+        byte[] a = new byte[len];
+        for (int i=0; i<len; i++)
+            a[i] = EBCDIC2ASCII_BYTES[e[offset++] & 0xFF];
+        return a;
+    }
+
+    private static String nibbles2str (byte[] b, int offset, int len, boolean padLeft, char[] alphabet, char[] pairs) {
+        char[] c = new char[len];
+        int k = 0;
+        int i = offset;
+        if ((len & 1) == 1 && padLeft)
+            c[k++] = alphabet[b[i++] & 0x0F];
+        for (; k+1 < len; k += 2) {
+            int v = (b[i++] & 0xFF) << 1;
+            c[k]   = pairs[v];
+            c[k+1] = pairs[v+1];
+        }
+        if (k < len)
+            c[k] = alphabet[(b[i] & 0xF0) >> 4];
+        return new String(c);
+    }
+
+    private static void checkBounds (byte[] b, int offset, int len) {
+        if (offset < 0 || len < 0 || offset > b.length - len)
+            throw new ArrayIndexOutOfBoundsException();
+    }
+
+    private static String getNibbles (ByteBuffer b, int len, boolean padLeft, char[] alphabet) {
+        int start = (len & 1) == 1 && padLeft ? 1 : 0;
+        int packedLen = len + 1 >> 1;
+        checkAvailable(b, packedLen);
+        char[] c = new char[len];
+        int k = 0;
+        for (int i=0; i<packedLen; i++) {
+            int v = b.get();
+            if (i > 0 || start == 0)
+                c[k++] = alphabet[v >> 4 & 0x0F];
+            if (k < len)
+                c[k++] = alphabet[v & 0x0F];
+        }
+        return new String(c);
+    }
+
+    private static void checkRemaining (ByteBuffer b, int len) {
+        if (b.remaining() < len)
+            throw new BufferOverflowException();
+    }
+
+    private static void checkAvailable (ByteBuffer b, int len) {
+        if (b.remaining() < len)
+            throw new IndexOutOfBoundsException(
+              String.format("Required %d but just got %d bytes", len, b.remaining())
+            );
+    }
+}
@@ -18,13 +18,28 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * provides various parsing and format functions used
  * by the ISO 8583 specs.
+ * <p>
+ * Numeric patterns (made of <code>yy</code>, <code>yyyy</code>, <code>M</code>,
+ * <code>d</code>, <code>H</code>, <code>h</code>, <code>m</code>, <code>s</code>,
+ * <code>D</code>/<code>DDD</code>, <code>SSS</code> and non-letter literals) are
+ * formatted with cached, immutable {@link DateTimeFormatter}s, one per pattern and
+ * zone, for dates between the Gregorian cutover (1582) and year 9999.
+ * Other patterns and dates fall back to a per-thread {@link SimpleDateFormat}.
+ * The <code>put*</code> and {@link #parseISODate(ByteBuffer, int, long, TimeZone)}
+ * methods encode and decode the usual MMddHHmmss style fields straight
+ * from/to a buffer, without creating intermediate objects.
  *
  * @author apr@cs.com.uy
  * @author Hani S. Kirollos
@@ -37,6 +52,19 @@ public class ISODate {
     }
 
     public static final long ONE_YEAR = 365L*86400L*1000L;
+    private static final long ONE_DAY = 86400L*1000L;
+    // dates java.time formats the same as SimpleDateFormat, a day off the limits to allow for zone offsets
+    private static final long MIN_FORMATTED = -12219292800000L + ONE_DAY; // 1582-10-15
+    private static final long MAX_FORMATTED = 253402300800000L - ONE_DAY; // 10000-01-01
+    private static final Map<String,Map<String,DateTimeFormatter>> formatters = new ConcurrentHashMap<>();
+    private static final Map<String,Boolean> numericPatterns = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Map<String,SimpleDateFormat>> simpleDateFormats =
+      ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<SimpleDateFormat> shortDateFormat =
+      ThreadLocal.withInitial(() -> (SimpleDateFormat) DateFormat.getDateInstance(DateFormat.SHORT, Locale.UK));
+    private static final ThreadLocal<SimpleDateFormat> dateTimeFormat =
+      ThreadLocal.withInitial(() -> new SimpleDateFormat("dd/MM/yy hh:mm:ss", Locale.UK));
+
    /**
     * Formats a date object, using the default time zone for this host
     * @param d date object to be formatted
@@ -52,12 +80,75 @@ public class ISODate {
      *        and for Uruguay use TimeZone.getTimeZone("GMT-03:00")
      */
     public static String formatDate (Date d, String pattern, TimeZone timeZone) {
-        SimpleDateFormat df =
-            (SimpleDateFormat) DateFormat.getDateTimeInstance();
+        long t = d.getTime();
+        DateTimeFormatter f = t >= MIN_FORMATTED && t < MAX_FORMATTED ? getFormatter(pattern, timeZone) : null;
+        if (f != null) {
+            try {
+                return f.format(Instant.ofEpochMilli(t));
+            } catch (DateTimeException ignored) {
+                // fall back to SimpleDateFormat
+            }
+        }
+        SimpleDateFormat df = simpleDateFormats.get().computeIfAbsent(pattern, p -> {
+            SimpleDateFormat sdf = (SimpleDateFormat) DateFormat.getDateTimeInstance();
+            sdf.applyPattern(p);
+            return sdf;
+        });
         df.setTimeZone(timeZone);
-        df.applyPattern(pattern);
         return df.format(d);
     }
+
+    /**
+     * @param pattern date pattern
+     * @param timeZone time zone
+     * @return cached formatter, or null if the pattern (or a custom
+     * {@link SimpleTimeZone}) is not supported by the java.time engine
+     */
+    static DateTimeFormatter getFormatter (String pattern, TimeZone timeZone) {
+        if (timeZone instanceof SimpleTimeZone
+          || !numericPatterns.computeIfAbsent(pattern, ISODate::isNumericPattern))
+            return null;
+        return formatters
+          .computeIfAbsent(pattern, p -> new ConcurrentHashMap<>())
+          .computeIfAbsent(timeZone.getID(), id -> DateTimeFormatter.ofPattern(pattern).withZone(timeZone.toZoneId()));
+    }
+
+    /**
+     * @return true if both SimpleDateFormat and DateTimeFormatter produce the same output for this pattern
+     */
+    private static boolean isNumericPattern (String pattern) {
+        for (int i=0; i<pattern.length(); ) {
+            char c = pattern.charAt(i);
+            int n = 1;
+            while (i + n < pattern.length() && pattern.charAt(i + n) == c)
+                n++;
+            i += n;
+            if (c == '\'' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+                switch (c) {
+                    case 'y':
+                        if (n != 2 && n != 4)
+                            return false;
+                        break;
+                    case 'M': case 'd': case 'H': case 'h': case 'm': case 's':
+                        if (n > 2)
+                            return false;
+                        break;
+                    case 'D':
+                        if (n != 1 && n != 3) // DD has a maximum print width of 2 in java.time
+                            return false;
+                        break;
+                    case 'S':
+                        if (n != 3)
+                            return false;
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * converts a string in DD/MM/YY format to a Date object
      * Warning: return null on invalid dates (prints Exception to console)
@@ -77,9 +168,7 @@ public class ISODate {
      */
     public static Date parse(String s, TimeZone timeZone) {
         Date d = null;
-        SimpleDateFormat df =
-            (SimpleDateFormat) DateFormat.getDateInstance(
-                DateFormat.SHORT, Locale.UK);
+        SimpleDateFormat df = shortDateFormat.get();
         df.setTimeZone (timeZone);
         try {
             d = df.parse (s);
@@ -106,9 +195,7 @@ public class ISODate {
      */
     public static Date parseDateTime(String s, TimeZone timeZone) {
         Date d = null;
-        SimpleDateFormat df =
-            new SimpleDateFormat("dd/MM/yy hh:mm:ss", Locale.UK);
-
+        SimpleDateFormat df = dateTimeFormat.get();
         df.setTimeZone (timeZone);
         try {
             d = df.parse (s);
@@ -167,45 +254,161 @@ public class ISODate {
             YY = 2000 + Integer.parseInt(d.substring (0, 2));
             d = d.substring (2);
         } 
-        int MM = Integer.parseInt(d.substring (0, 2))-1;
+        int MM = Integer.parseInt(d.substring (0, 2));
         int DD = Integer.parseInt(d.substring (2, 4));
         int hh = Integer.parseInt(d.substring (4, 6));
         int mm = Integer.parseInt(d.substring (6, 8));
         int ss = Integer.parseInt(d.substring (8,10));
+        return new Date (toMillis (YY, MM, DD, hh, mm, ss, currentTime, timeZone));
+    }
 
-        Calendar cal = new GregorianCalendar();
-        cal.setTimeZone(timeZone);
-        Date now = new Date(currentTime);
+    /**
+     * Decodes an ASCII [YY[YY]]MMDDhhmmss date from a buffer, picking
+     * the year closest to <code>currentTime</code> when not present
+     * (same rules as {@link #parseISODate(String, long, TimeZone)}).
+     *
+     * @param b buffer positioned at the date, advanced by len
+     * @param len 10, 12 or 14
+     * @param currentTime currentTime in millis
+     * @param timeZone time zone the date was recorded in
+     * @return date in millis
+     */
+    public static long parseISODate (ByteBuffer b, int len, long currentTime, TimeZone timeZone) {
+        int YY = 0;
+        if (len == 14)
+            YY = getDigits (b, 4);
+        else if (len == 12)
+            YY = 2000 + getDigits (b, 2);
+        else if (len != 10)
+            throw new IllegalArgumentException ("Invalid date length " + len);
+        int MM = getDigits (b, 2);
+        int DD = getDigits (b, 2);
+        int hh = getDigits (b, 2);
+        int mm = getDigits (b, 2);
+        int ss = getDigits (b, 2);
+        return toMillis (YY, MM, DD, hh, mm, ss, currentTime, timeZone);
+    }
 
-        cal.setTime (now);
-        cal.set (Calendar.MONTH, MM);
-        cal.set (Calendar.DATE, DD);
-        cal.set (Calendar.HOUR_OF_DAY, hh);
-        cal.set (Calendar.MINUTE, mm);
-        cal.set (Calendar.SECOND, ss);
-        cal.set (Calendar.MILLISECOND, 0);
+    /**
+     * Encodes date as ASCII MMddHHmmss (field 7)
+     * @param millis date in millis
+     * @param timeZone time zone
+     * @param b destination buffer
+     */
+    public static void putDateTime (long millis, TimeZone timeZone, ByteBuffer b) {
+        long local = millis + timeZone.getOffset(millis);
+        long days = Math.floorDiv(local, ONE_DAY);
+        int md = monthDay(days);
+        putDigits (b, md / 100, 2);
+        putDigits (b, md % 100, 2);
+        putTime (b, (int) (Math.floorMod(local, ONE_DAY) / 1000L));
+    }
 
-        if (YY != 0) {
-            cal.set (Calendar.YEAR, YY);
-            return cal.getTime();
-        } 
-        else {
-            Date thisYear = cal.getTime();
-            cal.set (Calendar.YEAR, cal.get (Calendar.YEAR)-1);
-            Date previousYear = cal.getTime();
-            cal.set (Calendar.YEAR, cal.get (Calendar.YEAR)+2);
-            Date nextYear = cal.getTime();
-            if (Math.abs (now.getTime() - previousYear.getTime()) <
-                Math.abs (now.getTime() - thisYear.getTime())) 
-            {
-                thisYear = previousYear;
-            } else if (Math.abs (now.getTime() - thisYear.getTime()) >
-                       Math.abs (now.getTime() - nextYear.getTime()))
-            {
-                thisYear = nextYear;
-            }
-            return thisYear;
+    /**
+     * Encodes date as ASCII MMdd (field 13)
+     * @param millis date in millis
+     * @param timeZone time zone
+     * @param b destination buffer
+     */
+    public static void putDate (long millis, TimeZone timeZone, ByteBuffer b) {
+        int md = monthDay(Math.floorDiv(millis + timeZone.getOffset(millis), ONE_DAY));
+        putDigits (b, md / 100, 2);
+        putDigits (b, md % 100, 2);
+    }
+
+    /**
+     * Encodes date as ASCII HHmmss (field 12)
+     * @param millis date in millis
+     * @param timeZone time zone
+     * @param b destination buffer
+     */
+    public static void putTime (long millis, TimeZone timeZone, ByteBuffer b) {
+        putTime (b, (int) (Math.floorMod(millis + timeZone.getOffset(millis), ONE_DAY) / 1000L));
+    }
+
+    private static long toMillis (int YY, int MM, int DD, int hh, int mm, int ss, long currentTime, TimeZone timeZone) {
+        long secs = hh * 3600L + mm * 60L + ss;
+        if (YY != 0)
+            return toUTC (localMillis (YY, MM, DD, secs), timeZone);
+
+        int year = year (Math.floorDiv(currentTime + timeZone.getOffset(currentTime), ONE_DAY));
+        long thisYear = toUTC (localMillis (year, MM, DD, secs), timeZone);
+        long previousYear = toUTC (localMillis (year-1, MM, DD, secs), timeZone);
+        long nextYear = toUTC (localMillis (year+1, MM, DD, secs), timeZone);
+        if (Math.abs (currentTime - previousYear) < Math.abs (currentTime - thisYear))
+            return previousYear;
+        else if (Math.abs (currentTime - thisYear) > Math.abs (currentTime - nextYear))
+            return nextYear;
+        return thisYear;
+    }
+
+    private static long localMillis (int year, int month, int day, long secs) {
+        // lenient, like GregorianCalendar: month 13 is next January, Feb 30 is early March
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        return (daysFromCivil(year, month, 1) + day - 1) * ONE_DAY + secs * 1000L;
+    }
+
+    private static long toUTC (long local, TimeZone timeZone) {
+        return local - timeZone.getOffset(local - timeZone.getRawOffset());
+    }
+
+    // days since 1970-01-01 of a proleptic gregorian date
+    private static long daysFromCivil (long y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        long era = Math.floorDiv(y, 400);
+        long yoe = y - era * 400;
+        long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    private static int year (long days) {
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        return (int) (yoe + era * 400 + (mp >= 10 ? 1 : 0));
+    }
+
+    // month * 100 + day
+    private static int monthDay (long days) {
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int d = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int m = (int) (mp < 10 ? mp + 3 : mp - 9);
+        return m * 100 + d;
+    }
+
+    private static void putTime (ByteBuffer b, int secondOfDay) {
+        putDigits (b, secondOfDay / 3600, 2);
+        putDigits (b, secondOfDay / 60 % 60, 2);
+        putDigits (b, secondOfDay % 60, 2);
+    }
+
+    private static void putDigits (ByteBuffer b, int value, int len) {
+        for (int i=len-1; i>=0; i--) {
+            b.put (b.position() + i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        b.position (b.position() + len);
+    }
+
+    private static int getDigits (ByteBuffer b, int len) {
+        int value = 0;
+        for (int i=0; i<len; i++) {
+            int c = b.get() - '0';
+            if (c < 0 || c > 9)
+                throw new NumberFormatException ("Invalid digit at position " + (b.position() - 1));
+            value = value * 10 + c;
         }
+        return value;
     }
 
     /**
@@ -296,10 +499,7 @@ public class ISODate {
      * depending on interchange
      */
     public static String getJulianDate(Date d) {
-      String day = formatDate(d, "DDD", TimeZone.getDefault());
-      String year = formatDate(d, "yy", TimeZone.getDefault());
-      year = year.substring(1);
-      return year + day;
+      return getJulianDate(d, TimeZone.getDefault());
     }
 
     /**
@@ -310,10 +510,6 @@ public class ISODate {
      * depending on interchange
      */
     public static String getJulianDate(Date d, TimeZone timeZone) {
-      String day = formatDate(d, "DDD", timeZone);
-      String year = formatDate(d, "yy", timeZone);
-      year = year.substring(1);
-      return year + day;
+      return formatDate(d, "yyDDD", timeZone).substring(1);
     }
 }
-
@@ -22,6 +22,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
 
 /**
  * base class for the various IF*.java Field Packagers
@@ -123,6 +124,46 @@ public abstract class ISOFieldPackager {
     public abstract int unpack (ISOComponent c, byte[] b, int offset)
         throws ISOException;
 
+    /**
+     * Packs the component at the buffer's current position.
+     * <p>
+     * The default implementation delegates to {@link #pack(ISOComponent)};
+     * field packagers using a {@link BufferInterpreter} or
+     * {@link BufferBinaryInterpreter} write straight into the buffer.
+     *
+     * @param c - a component
+     * @param b - destination buffer
+     * @return number of bytes written
+     * @exception ISOException
+     */
+    public int packInto (ISOComponent c, ByteBuffer b) throws ISOException {
+        byte[] packed = pack (c);
+        b.put (packed);
+        return packed.length;
+    }
+
+    /**
+     * Unpacks the component from the buffer's current position, advancing it
+     * by the number of consumed bytes.
+     *
+     * @param c - the Component to unpack
+     * @param b - source buffer
+     * @return consumed bytes
+     * @exception ISOException
+     */
+    public int unpackFrom (ISOComponent c, ByteBuffer b) throws ISOException {
+        int consumed;
+        if (b.hasArray() && b.arrayOffset() + b.limit() == b.array().length) {
+            consumed = unpack (c, b.array(), b.arrayOffset() + b.position());
+        } else {
+            byte[] raw = new byte[b.remaining()];
+            b.duplicate().get(raw);
+            consumed = unpack (c, raw, 0);
+        }
+        b.position(b.position() + consumed);
+        return consumed;
+    }
+
     /**
      * @param c  - the Component to unpack
      * @param in - input stream
@@ -145,6 +186,21 @@ public abstract class ISOFieldPackager {
         out.write (pack (c));
     }
 
+    /**
+     * @param type a field packager class
+     * @param base the class providing a {@link ByteBuffer} aware pack/unpack
+     * @return true if type doesn't override base's byte array based pack/unpack,
+     * so that base's {@link ByteBuffer} implementation can be safely used
+     */
+    static boolean inheritsPackUnpack (Class<?> type, Class<?> base) {
+        try {
+            return type.getMethod("pack", ISOComponent.class).getDeclaringClass() == base &&
+              type.getMethod("unpack", ISOComponent.class, byte[].class, int.class).getDeclaringClass() == base;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
     protected byte[] readBytes (InputStream in, int l) throws IOException {
         byte[] b = new byte [l];
         int n = 0;
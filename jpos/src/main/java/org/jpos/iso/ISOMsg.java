@@ -20,6 +20,7 @@ package org.jpos.iso;
 
 import org.jpos.iso.header.BaseHeader;
 import org.jpos.iso.packager.XMLPackager;
+import org.jpos.util.BinaryCodec;
 import org.jpos.util.Loggeable;
 
 import java.io.*;
@@ -37,7 +38,7 @@ import java.util.*;
  */
 @SuppressWarnings("unchecked")
 public class ISOMsg extends ISOComponent
-    implements Cloneable, Loggeable, Externalizable
+    implements Cloneable, Loggeable, Externalizable, BinaryCodec.Codable
 {
     protected Map<Integer,Object> fields;
     protected int maxField;
@@ -51,6 +52,8 @@ public class ISOMsg extends ISOComponent
     public static final int OUTGOING = 2;
     private static final long serialVersionUID = 4306251831901413975L;
     private WeakReference sourceRef;
+    private transient boolean retainImage;
+    private transient Image image;
 
     /**
      * Creates an ISOMsg
@@ -211,6 +214,8 @@ public class ISOMsg extends ISOComponent
             if (i > maxField)
                 maxField = i;
             dirty = true;
+            if (image != null)
+                image.touch (i);
         }
     }
 
@@ -362,8 +367,11 @@ public class ISOMsg extends ISOComponent
      */
     @Override
     public void unset (int fldno) {
-        if (fields.remove (fldno) != null)
+        if (fields.remove (fldno) != null) {
             dirty = maxFieldDirty = true;
+            if (image != null)
+                image.touch (fldno);
+        }
     }
 
     /**
@@ -485,6 +493,48 @@ public class ISOMsg extends ISOComponent
             packager.unpack(this, in);
         }
     }
+    /**
+     * Asks the packager to retain the raw image on the next
+     * {@link #unpack(byte[])}, so that fields that are not modified
+     * afterwards can be re-emitted verbatim by {@link #pack()}
+     * (i.e. when forwarding a message to a peer using the same packager).
+     * <p>
+     * Fields are considered modified when replaced or removed via
+     * {@link #set(ISOComponent)} or {@link #unset(int)}, or when the value
+     * of the unpacked component is replaced. Composite fields are always
+     * packed, and so is the bitmap.
+     *
+     * @param retainImage true to retain the raw image
+     */
+    public void setRetainImage (boolean retainImage) {
+        this.retainImage = retainImage;
+        if (!retainImage)
+            image = null;
+    }
+    /**
+     * @return true if the raw image will be retained on unpack
+     */
+    public boolean isRetainImage() {
+        return retainImage;
+    }
+    /**
+     * @return true if this message holds a raw image captured on unpack
+     */
+    public boolean hasImage() {
+        return image != null;
+    }
+    /**
+     * discards the raw image (if any), forcing a full pack
+     */
+    public void discardImage() {
+        image = null;
+    }
+    Image getImage() {
+        return image;
+    }
+    void setImage (byte[] b, int[] bounds, ISOPackager p) {
+        image = new Image (b, bounds, p, fields);
+    }
     /**
      * dump the message to a PrintStream. The output is sorta
      * XML, intended to be easily parsed.
@@ -761,6 +811,8 @@ public class ISOMsg extends ISOComponent
         try {
             ISOMsg m = (ISOMsg) super.clone();
             m.fields = (TreeMap) ((TreeMap) fields).clone();
+            if (image != null)
+                m.image = image.copy();
             if (header != null)
                 m.header = (ISOHeader) header.clone();
             if (trailer != null)
@@ -786,6 +838,8 @@ public class ISOMsg extends ISOComponent
         try {
             ISOMsg m = (ISOMsg) super.clone();
             m.fields = new TreeMap();
+            if (image != null)
+                m.image = image.copy();
             for (int field : fields) {
                 if (hasField(field)) {
                     try {
@@ -815,6 +869,8 @@ public class ISOMsg extends ISOComponent
         try {
             ISOMsg m = (ISOMsg) super.clone();
             m.fields = new TreeMap();
+            if (image != null)
+                m.image = image.copy();
             for (String fpath : fpaths) {
                 try {
                     ISOComponent component = getComponent(fpath);
@@ -1129,6 +1185,91 @@ public class ISOMsg extends ISOComponent
             throw new IOException (e.getMessage());
         }
     }
+    @Override
+    public void encode (BinaryCodec.Output out) throws IOException {
+        out.writeInt (fieldNumber);
+        out.writeByte (direction);
+        byte[] h = header != null && header.getLength() > 0 ? header.pack() : null;
+        out.writeObject (h);
+        out.writeObject (packager != null ? packager.getClass().getName() : null);
+        try {
+            for (Map.Entry<Integer,Object> entry : fields.entrySet()) {
+                Object c = entry.getValue();
+                if (c instanceof ISOMsg) {
+                    out.writeByte ('M');
+                    out.writeNested ((ISOMsg) c);
+                } else if (c instanceof ISOBinaryField) {
+                    out.writeByte ('B');
+                    out.writeInt (entry.getKey());
+                    out.writeBytes (((ISOBinaryField) c).getBytes());
+                } else if (c instanceof ISOAmount) {
+                    out.writeByte ('A');
+                    out.writeInt (entry.getKey());
+                    out.writeString ((String) ((ISOAmount) c).getValue());
+                } else if (c instanceof ISOField) {
+                    out.writeByte ('F');
+                    out.writeInt (entry.getKey());
+                    out.writeString ((String) ((ISOField) c).getValue());
+                }
+            }
+        } catch (ISOException e) {
+            throw new IOException (e);
+        }
+        out.writeByte ('E');
+    }
+
+    @Override
+    public void decode (BinaryCodec.Input in) throws IOException, ClassNotFoundException {
+        fieldNumber = in.readInt();
+        direction = in.readByte();
+        byte[] h = (byte[]) in.readObject();
+        if (h != null)
+            setHeader (h);
+        String pclass = (String) in.readObject();
+        if (pclass != null)
+            setPackager (packagerFor (pclass));
+        int fieldType;
+        try {
+            while ((fieldType = in.readByte()) != 'E') {
+                switch (fieldType) {
+                    case 'M':
+                        ISOMsg m = new ISOMsg();
+                        in.readNested (m);
+                        set (m);
+                        break;
+                    case 'B':
+                        set (new ISOBinaryField (in.readInt(), in.readBytes()));
+                        break;
+                    case 'A':
+                        ISOAmount a = new ISOAmount (in.readInt());
+                        a.setValue (in.readString());
+                        set (a);
+                        break;
+                    case 'F':
+                        set (new ISOField (in.readInt(), in.readString()));
+                        break;
+                    default:
+                        throw new StreamCorruptedException ("invalid field type " + fieldType);
+                }
+            }
+        } catch (ISOException e) {
+            throw new IOException (e.getMessage());
+        }
+    }
+
+    /**
+     * Instantiates the packager referenced by a decoded message, as
+     * {@link #readPackager(ObjectInput)} does.
+     * @return a new packager, or null if pclass is not an available ISOPackager
+     */
+    private static ISOPackager packagerFor (String pclass) {
+        try {
+            Class<?> c = Class.forName (pclass, false, ISOMsg.class.getClassLoader());
+            if (ISOPackager.class.isAssignableFrom (c))
+                return (ISOPackager) c.newInstance();
+        } catch (Exception ignored) { }
+        return null;
+    }
     /**
      * Let this ISOMsg object hold a weak reference to an ISOSource
      * (usually used to carry a reference to the incoming ISOChannel)
@@ -1150,5 +1291,78 @@ public class ISOMsg extends ISOComponent
     private int parseInt (String s) {
         return s.startsWith("0x") ? Integer.parseInt(s.substring(2), 16) : Integer.parseInt(s);
     }
+
+    /**
+     * Raw image captured on unpack, along with the offsets of each field
+     * and the components they were unpacked into.
+     */
+    static final class Image implements Cloneable {
+        private final byte[] b;
+        private final int[] bounds;     // start/end pairs, indexed by field number
+        private final ISOPackager packager;
+        private final ISOComponent[] components;
+        private final Object[] values;
+        private BitSet touched;
+
+        Image (byte[] b, int[] bounds, ISOPackager packager, Map<Integer,Object> fields) {
+            this.b = b;
+            this.bounds = bounds;
+            this.packager = packager;
+            components = new ISOComponent[bounds.length >> 1];
+            values = new Object[components.length];
+            touched = new BitSet (components.length);
+            for (Map.Entry<Integer,Object> entry : fields.entrySet()) {
+                int i = entry.getKey();
+                if (i >= 0 && i < components.length && bounds[i << 1] >= 0) {
+                    components[i] = (ISOComponent) entry.getValue();
+                    values[i] = valueOf (components[i]);
+                }
+            }
+        }
+        void touch (int fldno) {
+            if (fldno >= 0)
+                touched.set (fldno);
+        }
+        Image copy() {
+            try {
+                Image img = (Image) super.clone();
+                img.touched = (BitSet) touched.clone();
+                return img;
+            } catch (CloneNotSupportedException e) {
+                throw new InternalError();
+            }
+        }
+        ISOPackager getPackager() {
+            return packager;
+        }
+        /**
+         * @param fldno field number
+         * @param c current component
+         * @return true if c can be emitted straight from the raw image
+         */
+        boolean isPristine (int fldno, ISOComponent c) {
+            return fldno >= 0 && fldno < components.length
+              && !touched.get (fldno)
+              && components[fldno] == c
+              && c.getComposite() == null
+              && valueOf (c) == values[fldno];
+        }
+        byte[] bytes() {
+            return b;
+        }
+        int offset (int fldno) {
+            return bounds[fldno << 1];
+        }
+        int length (int fldno) {
+            return bounds[(fldno << 1) + 1] - bounds[fldno << 1];
+        }
+        private static Object valueOf (ISOComponent c) {
+            try {
+                return c.getValue();
+            } catch (ISOException e) {
+                return e; // never equal to anything else, forces a pack
+            }
+        }
+    }
 }
 
@@ -0,0 +1,99 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import org.jpos.util.Metrics;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records values in a {@link Metrics} instance broken down by message type
+ * indicator, processing code (field 3) and response code, under keys like
+ * <code>[prefix.]0200.010000.00</code>.
+ * <p>
+ * Cardinality is bounded: once <code>maxKeys</code> distinct keys have been
+ * seen, new combinations are recorded under <code>[prefix.]other</code>.
+ * Dimension values are limited to {@value #MAX_VALUE_LENGTH} letters or digits.
+ */
+public class ISOMsgMetrics {
+    public static final String OTHER = "other";
+    public static final String NONE = "-";
+    public static final String EXPIRED = "expired";
+    public static final int MAX_VALUE_LENGTH = 8;
+    private final Metrics metrics;
+    private final int maxKeys;
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param metrics where values get recorded
+     * @param maxKeys maximum number of distinct keys (per ISOMsgMetrics instance)
+     */
+    public ISOMsgMetrics (Metrics metrics, int maxKeys) {
+        this.metrics = metrics;
+        this.maxKeys = maxKeys;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param prefix optional key prefix, such as a destination name (may be null)
+     * @param m message providing MTI and processing code
+     * @param rc response code, {@link #EXPIRED} if no response was received
+     * @param elapsed value to record
+     */
+    public void record (String prefix, ISOMsg m, String rc, long elapsed) {
+        metrics.record (getKey (prefix, m, rc), elapsed);
+    }
+
+    /**
+     * @return key under which a message gets recorded, taking maxKeys into account
+     */
+    public String getKey (String prefix, ISOMsg m, String rc) {
+        StringBuilder sb = new StringBuilder(32);
+        if (prefix != null)
+            sb.append(prefix).append('.');
+        int len = sb.length();
+        append (sb, m.getString(0)).append('.');
+        append (sb, m.getString(3)).append('.');
+        append (sb, rc);
+        String key = sb.toString();
+        if (keys.contains(key))
+            return key;
+        if (keys.size() < maxKeys) {
+            keys.add(key);
+            return key;
+        }
+        sb.setLength(len);
+        return sb.append(OTHER).toString();
+    }
+
+    private static StringBuilder append (StringBuilder sb, String value) {
+        if (value == null || value.isEmpty())
+            return sb.append(NONE);
+        int len = Math.min(value.length(), MAX_VALUE_LENGTH);
+        for (int i=0; i<len; i++) {
+            char c = value.charAt(i);
+            sb.append(c < 0x80 && Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return sb;
+    }
+}
@@ -20,6 +20,7 @@ package org.jpos.iso;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author joconnor
@@ -111,6 +112,22 @@ public class ISOStringFieldPackager extends ISOFieldPackager
         return prefixer.getPackedLength() + interpreter.getPackedLength(getLength());
     }
 
+    private static final ClassValue<Boolean> INHERITS_PACK_UNPACK = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return inheritsPackUnpack(type, ISOStringFieldPackager.class);
+        }
+    };
+
+    /**
+     * @return true if the {@link ByteBuffer} based pack/unpack can be used, i.e. the interpreter and
+     * prefixer support it, and no subclass customizes the byte array based pack/unpack
+     */
+    private boolean usesBuffers() {
+        return interpreter instanceof BufferInterpreter && prefixer instanceof BufferPrefixer
+          && INHERITS_PACK_UNPACK.get(getClass());
+    }
+
     /** Create a nice readable message for errors */
     private String makeExceptionMessage(ISOComponent c, String operation) {
         Object fieldKey = "unknown";
@@ -158,6 +175,82 @@ public class ISOStringFieldPackager extends ISOFieldPackager
         }
     }
 
+    /**
+     * Packs the component straight into the buffer.
+     * <p>
+     * When both the interpreter and the prefixer support {@link ByteBuffer}s,
+     * no intermediate byte array is created and the field value is only copied
+     * into a padded String if it actually needs padding.
+     *
+     * @param c the component to pack
+     * @param b destination buffer
+     * @return number of bytes written
+     * @throws ISOException on error
+     */
+    @Override
+    public int packInto(ISOComponent c, ByteBuffer b) throws ISOException
+    {
+        if (!usesBuffers())
+            return super.packInto(c, b);
+        int start = b.position();
+        try
+        {
+            CharSequence data;
+            if(c.getValue() instanceof byte[])
+                data = new String(c.getBytes(), ISOUtil.CHARSET); // transparent handling of complex fields
+            else
+                data = (String)c.getValue();
+
+            if (data.length() > getLength())
+            {
+                throw new ISOException("Field length " + data.length() + " too long. Max: " + getLength());
+            }
+            if (needsPadding(data))
+                data = padder.pad(data.toString(), getLength());
+            ((BufferPrefixer) prefixer).writeLength(data.length(), b);
+            ((BufferInterpreter) interpreter).interpret(data, b);
+            return b.position() - start;
+        } catch(Exception e)
+        {
+            b.position(start);
+            throw new ISOException(makeExceptionMessage(c, "packing"), e);
+        }
+    }
+
+    /**
+     * Unpacks the component straight from the buffer, advancing its position.
+     *
+     * @param c the component to unpack into
+     * @param b source buffer
+     * @return the number of bytes consumed
+     * @throws ISOException on error
+     */
+    @Override
+    public int unpackFrom(ISOComponent c, ByteBuffer b) throws ISOException
+    {
+        if (!usesBuffers())
+            return super.unpackFrom(c, b);
+        int start = b.position();
+        try
+        {
+            int len = ((BufferPrefixer) prefixer).readLength(b);
+            if (len == -1) {
+                // The prefixer doesn't know how long the field is, so use
+                // maxLength instead
+                len = trim ? Math.min(getLength(), b.remaining()) : getLength();
+            }
+            else if (getLength() > 0 && len > getLength())
+                throw new ISOException("Field length " + len + " too long. Max: " + getLength());
+
+            c.setValue(((BufferInterpreter) interpreter).uninterpret(b, len));
+            return b.position() - start;
+        } catch(Exception e)
+        {
+            b.position(start);
+            throw new ISOException(makeExceptionMessage(c, "unpacking"), e);
+        }
+    }
+
     /**
      * Unpacks the byte array into the component.
      * @param c The component to unpack into.
@@ -219,6 +312,17 @@ public class ISOStringFieldPackager extends ISOFieldPackager
         }
     }
 
+    /**
+     * Stock padders return the data unchanged when it already has the field's length,
+     * so we can skip building a padded copy in that case.
+     */
+    private boolean needsPadding (CharSequence data) {
+        if (padder == NullPadder.INSTANCE)
+            return false;
+        return data.length() != getLength() ||
+          !(padder instanceof LeftPadder || padder instanceof RightPadder);
+    }
+
     @Override
     public void setTrim (boolean trim) {
         super.setTrim (trim);
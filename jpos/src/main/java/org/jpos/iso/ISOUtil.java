@@ -82,28 +82,30 @@ public class ISOUtil {
     public static final byte ETX = 0x03;
 
     public static String ebcdicToAscii(byte[] e) {
-        return EBCDIC.decode(ByteBuffer.wrap(e)).toString();
+        return ISOCodec.ebcdicToAscii(e, 0, e.length);
     }
     public static String ebcdicToAscii(byte[] e, int offset, int len) {
-        return EBCDIC.decode(ByteBuffer.wrap(e, offset, len)).toString();
+        return ISOCodec.ebcdicToAscii(e, offset, len);
     }
     public static byte[] ebcdicToAsciiBytes (byte[] e) {
         return ebcdicToAsciiBytes (e, 0, e.length);
     }
     public static byte[] ebcdicToAsciiBytes (byte[] e, int offset, int len) {
-        return ebcdicToAscii(e, offset, len).getBytes(CHARSET);
+        return ISOCodec.ebcdicToAsciiBytes(e, offset, len);
     }
     public static byte[] asciiToEbcdic(String s) {
-        return EBCDIC.encode(s).array();
+        return ISOCodec.asciiToEbcdic(s);
     }
     public static byte[] asciiToEbcdic(byte[] a) {
-        return EBCDIC.encode(new String(a, CHARSET)).array();
+        byte[] e = new byte[a.length];
+        ISOCodec.asciiToEbcdic(a, e, 0);
+        return e;
     }
     public static void asciiToEbcdic(String s, byte[] e, int offset) {
-        System.arraycopy (asciiToEbcdic(s), 0, e, offset, s.length());
+        ISOCodec.asciiToEbcdic(s, e, offset);
     }
     public static void asciiToEbcdic(byte[] s, byte[] e, int offset) {
-        asciiToEbcdic(new String(s, CHARSET), e, offset);
+        ISOCodec.asciiToEbcdic(s, e, offset);
     }
 
     /**
@@ -213,11 +215,7 @@ public class ISOUtil {
      * @return BCD representation of the number
      */
     public static byte[] str2bcd(String s, boolean padLeft, byte[] d, int offset) {
-        int len = s.length();
-        int start = (len & 1) == 1 && padLeft ? 1 : 0;
-        for (int i=start; i < len+start; i++) 
-            d [offset + (i >> 1)] |= s.charAt(i-start)-'0' << ((i & 1) == 1 ? 0 : 4);
-        return d;
+        return ISOCodec.str2bcd(s, padLeft, d, offset);
     }
 
     /**
@@ -280,17 +278,7 @@ public class ISOUtil {
     public static String bcd2str(byte[] b, int offset,
                         int len, boolean padLeft)
     {
-        StringBuilder d = new StringBuilder(len);
-        int start = (len & 1) == 1 && padLeft ? 1 : 0;
-        for (int i=start; i < len+start; i++) {
-            int shift = (i & 1) == 1 ? 0 : 4;
-            char c = Character.forDigit (
-                    b[offset+ (i>>1)] >> shift & 0x0F, 16);
-            if (c == 'd')
-                c = '=';
-            d.append (Character.toUpperCase (c));
-        }
-        return d.toString();
+        return ISOCodec.bcd2str(b, offset, len, padLeft);
     }
     /**
      * converts a a byte array to a String with padding support
@@ -303,16 +291,7 @@ public class ISOUtil {
     public static String hex2str(byte[] b, int offset,
                                  int len, boolean padLeft)
     {
-        StringBuilder d = new StringBuilder(len);
-        int start = (len & 1) == 1 && padLeft ? 1 : 0;
-
-        for (int i=start; i < len+start; i++) {
-            int shift = (i & 1) == 1 ? 0 : 4;
-            char c = Character.forDigit (
-                    b[offset+ (i>>1)] >> shift & 0x0F, 16);
-            d.append (Character.toUpperCase (c));
-        }
-        return d.toString();
+        return ISOCodec.hex2str(b, offset, len, padLeft);
     }
 
     /**
@@ -322,11 +301,7 @@ public class ISOUtil {
      * @return String representation
      */
     public static String hexString(byte[] b) {
-        StringBuilder d = new StringBuilder(b.length * 2);
-        for (byte aB : b) {
-            d.append(hexStrings[(int) aB & 0xFF]);
-        }
-        return d.toString();
+        return ISOCodec.hexString(b, 0, b.length);
     }
     /**
      * converts a byte array to printable characters
@@ -407,12 +382,7 @@ public class ISOUtil {
      * @return String representation
      */
     public static String hexString(byte[] b, int offset, int len) {
-        StringBuilder d = new StringBuilder(len * 2);
-        len += offset;
-        for (int i=offset; i<len; i++) {
-            d.append(hexStrings[(int)b[i] & 0xFF]);
-        }
-        return d.toString();
+        return ISOCodec.hexString(b, offset, len);
     }
 
     /**
@@ -661,12 +631,7 @@ public class ISOUtil {
      * @return  byte[len]
      */
     public static byte[] hex2byte (byte[] b, int offset, int len) {
-        byte[] d = new byte[len];
-        for (int i=0; i<len*2; i++) {
-            int shift = i%2 == 1 ? 0 : 4;
-            d[i>>1] |= Character.digit((char) b[offset+i], 16) << shift;
-        }
-        return d;
+        return ISOCodec.hex2byte(b, offset, len);
     }
     /**
      * Converts a hex string into a byte array
@@ -675,7 +640,7 @@ public class ISOUtil {
      */
     public static byte[] hex2byte (String s) {
         if (s.length() % 2 == 0) {
-            return hex2byte (s.getBytes(), 0, s.length() >> 1);
+            return ISOCodec.hex2byte (s);
         } else {
         	// Padding left zero to make it even size #Bug raised by tommy
         	return hex2byte("0"+s);
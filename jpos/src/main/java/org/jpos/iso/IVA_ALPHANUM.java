@@ -67,6 +67,7 @@ public class IVA_ALPHANUM extends ISOFieldValidator {
      * Validate that component has alphanumeric value.
      *
      * @see ISOUtil#isAlphaNumeric method
+     * @see CharClass#ALPHANUMERIC
      */
     public ISOComponent validate ( ISOComponent f ) throws ISOException {
         ISOField c = (ISOField)f;
@@ -74,7 +75,7 @@ public class IVA_ALPHANUM extends ISOFieldValidator {
             /** length validation **/
             c = (ISOField)super.validate( c );
             /** alphanum validations **/
-            if ( !ISOUtil.isAlphaNumeric( (String)c.getValue() ) ){
+            if ( !CharClass.ALPHANUMERIC.matches( (String)c.getValue() ) ){
                 ISOVError e = new ISOVError( "Invalid Value Error. " + c.getValue() + " is not an alphanumeric value. ", getRejCode( ISOVError.ERR_INVALID_VALUE ) );
                 if ( c instanceof ISOVField )
                     ((ISOVField)c).addISOVError( e );
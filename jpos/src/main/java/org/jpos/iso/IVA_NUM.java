@@ -47,7 +47,7 @@ public class IVA_NUM extends ISOFieldValidator {
 
     public IVA_NUM( String Description, int radix ) {
         super( Description );
-        this.radix = radix;
+        setRadix( radix );
     }
 
     public IVA_NUM( int maxLen, String Description ) {
@@ -56,7 +56,7 @@ public class IVA_NUM extends ISOFieldValidator {
 
     public IVA_NUM( int maxLen, String Description, int radix ) {
         super( maxLen, Description );
-        this.radix = radix;
+        setRadix( radix );
     }
 
     /**
@@ -78,7 +78,7 @@ public class IVA_NUM extends ISOFieldValidator {
      */
     public IVA_NUM( int minLen, int maxLen, String Description, int radix ) {
         super( minLen, maxLen, Description );
-        this.radix = radix;
+        setRadix( radix );
     }
 
     public IVA_NUM( boolean breakOnError, String Description ) {
@@ -119,7 +119,7 @@ public class IVA_NUM extends ISOFieldValidator {
      */
     public void setConfiguration(Configuration cfg) throws ConfigurationException {
         super.setConfiguration( cfg );
-        this.radix = cfg.getInt( "radix", 10 );
+        setRadix( cfg.getInt( "radix", 10 ) );
     }
 
     /**
@@ -131,7 +131,8 @@ public class IVA_NUM extends ISOFieldValidator {
     public ISOComponent validate( ISOComponent f ) throws ISOException {
         ISOField c = (ISOField)f;
         c = (ISOField)super.validate( c );
-        if ( !ISOUtil.isNumeric( (String)c.getValue(), this.radix ) ){
+        String v = (String)c.getValue();
+        if ( v.length() == 0 || !charClass.matches( v ) ){
             ISOVError e = new ISOVError(
                     "Invalid Value Error. " + c.getValue() +
                     " is not a numeric value in radix " +
@@ -146,6 +147,14 @@ public class IVA_NUM extends ISOFieldValidator {
         return c;
     }
 
+    private void setRadix( int radix ) {
+        this.radix = radix;
+        this.charClass = radix == 10 ? DECIMAL : CharClass.radix( radix );
+    }
+
     /** by default is decimal **/
     protected int radix = 10;
+    /** digits valid in radix, built once when the radix is set **/
+    private CharClass charClass = DECIMAL;
+    private static final CharClass DECIMAL = CharClass.radix( 10 );
 }
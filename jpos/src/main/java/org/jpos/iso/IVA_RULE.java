@@ -0,0 +1,92 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.validator.ISOVException;
+
+/**
+ * Validator driven by a {@link FieldRule} spec (i.e. <code>ans1..16</code>),
+ * so the same compiled rules used by
+ * {@link org.jpos.transaction.participant.CheckFields} can be plugged into
+ * a validating packager.
+ *
+ * <pre>
+ *  &lt;property name="rule" value="[A-Za-z0-9 ]1..16" /&gt;
+ * </pre>
+ */
+public class IVA_RULE extends ISOFieldValidator {
+    protected FieldRule rule;
+    private FieldRule valueRule;
+
+    public IVA_RULE() {
+        super();
+    }
+
+    public IVA_RULE( String spec, String Description ) {
+        super( Description );
+        setRule( FieldRule.parse( spec ) );
+    }
+
+    public IVA_RULE( boolean breakOnError, String spec, String Description ) {
+        this( spec, Description );
+        this.breakOnError = breakOnError;
+    }
+
+    public void setConfiguration(Configuration cfg) throws ConfigurationException {
+        super.setConfiguration( cfg );
+        try {
+            setRule( FieldRule.parse( cfg.get( "rule" ) ) );
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException( e.getMessage(), e );
+        }
+    }
+
+    public void setRule( FieldRule rule ) {
+        this.rule = rule;
+        this.minLen = rule.getMinLength();
+        this.maxLen = rule.getMaxLength();
+        // length is checked by ISOFieldValidator
+        this.valueRule = new FieldRule( 0, Integer.MAX_VALUE, rule.getCharClass(), rule.getPattern() );
+    }
+
+    public FieldRule getRule() {
+        return rule;
+    }
+
+    public ISOComponent validate( ISOComponent f ) throws ISOException {
+        ISOField c = (ISOField)f;
+        c = (ISOField)super.validate( c );
+        Object v = c.getValue();
+        String error = v instanceof String && valueRule != null ? valueRule.check( (String) v ) : null;
+        if ( error != null ) {
+            ISOVError e = new ISOVError(
+                    "Invalid Value Error. " + v + " " + error + " (" + rule + ")",
+                    getRejCode( ISOVError.ERR_INVALID_VALUE ) );
+            if ( c instanceof ISOVField )
+                ((ISOVField)c).addISOVError( e );
+            else
+                c = new ISOVField( c, e );
+            if ( breakOnError )
+                throw new ISOVException ( "Error on field " + c.getKey(), c );
+        }
+        return c;
+    }
+}
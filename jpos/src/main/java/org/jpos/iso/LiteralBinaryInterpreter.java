@@ -18,11 +18,13 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * This interpreter does no conversion and leaves the input the same as the output.
  * @author jonathan.oconnor@xcom.de
  */
-public class LiteralBinaryInterpreter implements BinaryInterpreter
+public class LiteralBinaryInterpreter implements BufferBinaryInterpreter
 {
     /**
      * The only instance of this interpreter.
@@ -54,6 +56,20 @@ public class LiteralBinaryInterpreter implements BinaryInterpreter
         return ret;
     }
 
+    @Override
+    public void interpret(byte[] data, ByteBuffer b)
+    {
+        b.put(data);
+    }
+
+    @Override
+    public byte[] uninterpret(ByteBuffer b, int length)
+    {
+        byte[] ret = new byte[length];
+        b.get(ret);
+        return ret;
+    }
+
     /**
      * Returns nBytes because we are not doing any conversion.
      */
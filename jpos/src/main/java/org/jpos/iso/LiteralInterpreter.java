@@ -18,13 +18,15 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * Implements a Literal Interpreter. No conversion is done.
  * 
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class LiteralInterpreter implements Interpreter
+public class LiteralInterpreter implements BufferInterpreter
 {
     /** An instance of this Interpreter. Only one needed for the whole system */
     public static final LiteralInterpreter INSTANCE = new LiteralInterpreter();
@@ -49,6 +51,16 @@ public class LiteralInterpreter implements Interpreter
         return new String(rawData, offset, length, ISOUtil.CHARSET);
     }
 
+    @Override
+    public void interpret(CharSequence data, ByteBuffer b) {
+        ISOCodec.putAscii(data, b);
+    }
+
+    @Override
+    public String uninterpret(ByteBuffer b, int length) {
+        return ISOCodec.getAscii(b, length);
+    }
+
     /**
 	 * (non-Javadoc)
 	 *
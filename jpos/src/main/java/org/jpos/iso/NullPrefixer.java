@@ -18,13 +18,15 @@
 
 package org.jpos.iso;
 
+import java.nio.ByteBuffer;
+
 /**
  * AsciiPrefixer constructs a prefix for ASCII messages.
  * 
  * @author joconnor
  * @version $Revision$ $Date$
  */
-public class NullPrefixer implements Prefixer
+public class NullPrefixer implements BufferPrefixer
 {
     /** A handy instance of the null prefixer. */
     public static final NullPrefixer INSTANCE = new NullPrefixer();
@@ -45,6 +47,15 @@ public class NullPrefixer implements Prefixer
         return -1;
     }
 
+    @Override
+    public void writeLength(int length, ByteBuffer b) {}
+
+    @Override
+    public int readLength(ByteBuffer b)
+    {
+        return -1;
+    }
+
     @Override
     public int getPackedLength()
     {
@@ -25,15 +25,29 @@ import org.jpos.iso.ISOChannel;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOMsg;
 import org.jpos.iso.ISOPackager;
+import org.jpos.util.Chronometer;
+import org.jpos.util.EndpointHealth;
 import org.jpos.util.LogEvent;
 import org.jpos.util.LogSource;
 import org.jpos.util.Logger;
 import org.jpos.util.NameRegistrar;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * An ISOChannel that connects to the first available channel out of a pool.
+ * <p>
+ * With <code>mode</code> set to <code>health</code>, channels that failed to
+ * connect or send are ejected for <code>eject-time</code> millis (default 30000)
+ * after <code>eject-failures</code> consecutive failures (default 3, as in MUXPool)
+ * and the rest are tried in order of EWMA connect time.
+ */
 @SuppressWarnings("unchecked")
 public class ChannelPool implements ISOChannel, LogSource, Configurable, Cloneable {
     boolean usable = true;
@@ -43,6 +57,8 @@ public class ChannelPool implements ISOChannel, LogSource, Configurable, Cloneab
     Configuration cfg = null;
     List pool;
     ISOChannel current;
+    boolean healthCheck;
+    Map<ISOChannel,EndpointHealth> health = new ConcurrentHashMap<>();
 
     public ChannelPool () {
         super ();
@@ -55,20 +71,35 @@ public class ChannelPool implements ISOChannel, LogSource, Configurable, Cloneab
         current = null;
         LogEvent evt = new LogEvent (this, "connect");
         evt.addMessage ("pool-size=" + Integer.toString (pool.size()));
-        for (int i=0; i<pool.size(); i++) {
+        List<ISOChannel> channels = healthCheck ? byHealth() : pool;
+        for (int i=0; i<channels.size(); i++) {
+            ISOChannel c = channels.get (i);
+            EndpointHealth h = healthCheck ? getHealth (c) : null;
+            Chronometer chrono = new Chronometer();
+            if (h != null)
+                h.begin();
             try {
-                evt.addMessage ("pool-" + Integer.toString (i));
-                ISOChannel c = (ISOChannel) pool.get (i);
+                evt.addMessage ("pool-" + Integer.toString (pool.indexOf (c)));
                 c.connect ();
                 if (c.isConnected()) {
+                    if (h != null)
+                        h.success (chrono.elapsed());
                     current = c;
                     usable = true;
                     break;
                 }
+                if (h != null)
+                    h.failure (chrono.elapsed());
             } catch (IOException e) {
+                if (h != null)
+                    h.failure (chrono.elapsed());
                 evt.addMessage (e);
             }
         }
+        if (healthCheck) {
+            for (int i=channels.indexOf (current)+1; current != null && i<channels.size(); i++)
+                getHealth (channels.get (i)).cancel(); // release probes we didn't get to
+        }
         if (current == null)
             evt.addMessage ("connect failed");
         Logger.log (evt);
@@ -104,10 +135,22 @@ public class ChannelPool implements ISOChannel, LogSource, Configurable, Cloneab
         return getCurrent().receive ();
     }
     public void send (ISOMsg m) throws IOException, ISOException {
-        getCurrent().send (m);
+        ISOChannel c = getCurrent();
+        try {
+            c.send (m);
+        } catch (IOException e) {
+            sendFailed (c);
+            throw e;
+        }
     }
     public void send (byte[] b) throws IOException, ISOException {
-        getCurrent().send (b);
+        ISOChannel c = getCurrent();
+        try {
+            c.send (b);
+        } catch (IOException e) {
+            sendFailed (c);
+            throw e;
+        }
     }
     public void setUsable(boolean b) {
         this.usable = b;
@@ -136,6 +179,7 @@ public class ChannelPool implements ISOChannel, LogSource, Configurable, Cloneab
         throws ConfigurationException
     {
         this.cfg = cfg;
+        healthCheck = "health".equals (cfg.get ("mode", "failover"));
         String channelName[] = cfg.getAll ("channel");
         for (String aChannelName : channelName) {
             try {
@@ -171,6 +215,50 @@ public class ChannelPool implements ISOChannel, LogSource, Configurable, Cloneab
         return current;
     }
     
+    /**
+     * @param c a pooled channel
+     * @return connect/failure tracking for <code>c</code> (mode <code>health</code>)
+     */
+    public EndpointHealth getHealth (ISOChannel c) {
+        return health.computeIfAbsent (c, k -> new EndpointHealth (
+          k.getName(),
+          cfg != null ? cfg.getDouble ("ewma-alpha", 0.2D) : 0.2D,
+          cfg != null ? cfg.getInt ("eject-failures", 3) : 3,
+          cfg != null ? cfg.getLong ("eject-time", 30000L) : 30000L
+        ));
+    }
+
+    /**
+     * Connect order in <code>health</code> mode: healthy channels (and those due
+     * for a probe) by EWMA connect time, then ejected ones as a last resort.
+     */
+    private List<ISOChannel> byHealth() {
+        long now = System.currentTimeMillis();
+        List<ISOChannel> available = new ArrayList<>();
+        List<ISOChannel> ejected = new ArrayList<>();
+        for (Object o : pool) {
+            ISOChannel c = (ISOChannel) o;
+            EndpointHealth h = getHealth (c);
+            if (h.tryProbe (now) || !h.isEjected (now)) // claim the probe if it's due
+                available.add (c);
+            else
+                ejected.add (c);
+        }
+        Comparator<ISOChannel> byLatency = Comparator.comparingDouble (c -> getHealth(c).getLatency());
+        available.sort (byLatency);
+        ejected.sort (byLatency);
+        available.addAll (ejected);
+        return available;
+    }
+
+    private void sendFailed (ISOChannel c) {
+        if (healthCheck) {
+            EndpointHealth h = getHealth (c);
+            h.begin();
+            h.failure (0L);
+        }
+    }
+
     public Object clone(){
       try {
         return super.clone();
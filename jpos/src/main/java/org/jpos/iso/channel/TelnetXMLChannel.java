@@ -19,12 +19,9 @@
 package org.jpos.iso.channel;
 
 import org.jpos.iso.*;
-import org.jpos.iso.packager.XMLPackager;
 
-import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -42,10 +39,7 @@ import java.net.Socket;
  * @see ISOChannel
  */
 public class TelnetXMLChannel extends BaseChannel {
-    BufferedReader reader = null;
-
-    static final String isomsgStartTag = "<" + XMLPackager.ISOMSG_TAG + ">";
-    static final String isomsgEndTag = "</" + XMLPackager.ISOMSG_TAG + ">";
+    XMLFrameReader reader = null;
 
     /**
      * Public constructor (used by Class.forName("...").newInstance())
@@ -101,45 +95,11 @@ public class TelnetXMLChannel extends BaseChannel {
      * @exception IOException
      */
     protected byte[] streamReceive() throws IOException {
-        int sp = 0;
-        StringBuilder sb = new StringBuilder();
-        while (reader != null) {
-            /*
-             * Throw away any telnet commands - each is 3 bytes first being
-             * x'FF'...
-             */
-            reader.mark(3); // Mark the current position in case there are no
-                            // telnet commands (FFnnmm)
-            while (reader.read() == 255) {
-                reader.skip(2);
-                reader.mark(3);
-            }
-            reader.reset(); // Return to the first byte that was *not* a telnet
-                            // command (IAC).
-
-            // Now the commands are out of the way continue with the xml stream
-            // until it closes with </isomsg>.
-            String s = reader.readLine();
-            if (s == null)
-                throw new EOFException();
-            int isomsgStart = s.indexOf(isomsgStartTag);
-            if (isomsgStart >= 0) {
-                sp++;
-                sb.append(s, isomsgStart, s.length() - isomsgStart);
-            } else {
-                int isomsgEnd = s.indexOf(isomsgEndTag);
-                if (isomsgEnd >= 0) {
-                    sb.append(s,0,isomsgEnd + isomsgEndTag.length());
-                    if (--sp <= 0)
-                        break;
-                } else {
-                    if (sp > 0)
-                        sb.append(s);
-                }
-            }
-
-        }
-        return sb.toString().getBytes();
+        // telnet commands (IAC, x'FF' followed by two bytes) and anything
+        // outside <isomsg>...</isomsg> are discarded by the reader
+        if (reader == null)
+            throw new EOFException();
+        return reader.read (serverIn);
     }
 
     protected int getHeaderLength() {
@@ -153,13 +113,11 @@ public class TelnetXMLChannel extends BaseChannel {
 
     protected void connect(Socket socket) throws IOException {
         super.connect(socket);
-        reader = new BufferedReader(new InputStreamReader(serverIn));
+        reader = new XMLFrameReader(true, getMaxPacketLength());
     }
 
     public void disconnect() throws IOException {
         super.disconnect();
-        if (reader != null)
-            reader.close();
         reader = null;
     }
 }
@@ -19,12 +19,9 @@
 package org.jpos.iso.channel;
 
 import org.jpos.iso.*;
-import org.jpos.iso.packager.XMLPackager;
 
-import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -39,7 +36,7 @@ import java.net.Socket;
  * @see ISOChannel
  */
 public class XMLChannel extends BaseChannel {
-    BufferedReader reader = null;
+    XMLFrameReader reader = null;
     /**
      * Public constructor (used by Class.forName("...").newInstance())
      */
@@ -82,21 +79,9 @@ public class XMLChannel extends BaseChannel {
      * @exception IOException
      */
     protected byte[] streamReceive() throws IOException {
-        int sp = 0;
-        StringBuilder sb = new StringBuilder();
-        while (reader != null) {
-            String s = reader.readLine();
-            if (s == null)
-                throw new EOFException();
-            sb.append (s);
-            if (s.contains("<" + XMLPackager.ISOMSG_TAG))
-                sp++;
-            if (s.contains("</" + XMLPackager.ISOMSG_TAG + ">") && --sp <= 0)
-                break;
-        }
-        if (sb.length() == 0)
+        if (reader == null)
             throw new EOFException();
-        return sb.toString().getBytes();
+        return reader.read (serverIn);
     }
 
 
@@ -109,12 +94,10 @@ public class XMLChannel extends BaseChannel {
     }
     protected void connect (Socket socket) throws IOException {
         super.connect (socket);
-        reader = new BufferedReader (new InputStreamReader (serverIn));
+        reader = new XMLFrameReader (false, getMaxPacketLength());
     }
     public void disconnect () throws IOException {
         super.disconnect ();
-        if (reader != null)
-            reader.close ();
         reader = null;
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.channel;
+
+import org.jpos.iso.packager.XMLPackager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream into <code>&lt;isomsg&gt;...&lt;/isomsg&gt;</code> frames.
+ * <p>
+ * Data is accumulated in a {@link ByteBuffer} and scanned incrementally,
+ * keeping track of nested <code>isomsg</code> elements, so partial reads
+ * never get scanned twice and no line or String conversion takes place.
+ * Frames are returned as the raw bytes to be given to the packager.
+ * <p>
+ * Not thread safe, each channel uses its own reader.
+ */
+class XMLFrameReader {
+    private static final byte[] START_TAG = ("<" + XMLPackager.ISOMSG_TAG).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_TAG = ("</" + XMLPackager.ISOMSG_TAG + ">").getBytes(StandardCharsets.US_ASCII);
+    private static final int IAC = 0xFF;
+    private static final int TELNET_COMMAND_LENGTH = 3;
+
+    private final boolean telnet;
+    private final int maxLength;
+    private ByteBuffer buf;
+    private int scan;
+    private int frameStart = -1;
+    private int depth;
+
+    /**
+     * @param telnet true to discard telnet commands and anything received outside an isomsg
+     * @param maxLength maximum frame length
+     */
+    XMLFrameReader (boolean telnet, int maxLength) {
+        this.telnet = telnet;
+        this.maxLength = maxLength;
+        this.buf = ByteBuffer.allocate(Math.min(4096, Math.max(maxLength, END_TAG.length)));
+    }
+
+    /**
+     * Reads from <code>in</code> until a full frame is available.
+     *
+     * @param in input stream
+     * @return next frame
+     * @throws EOFException if the stream ends before a frame is complete
+     * @throws IOException on read errors or if the frame is longer than maxLength
+     */
+    byte[] read (InputStream in) throws IOException {
+        byte[] frame;
+        while ((frame = next()) == null) {
+            ensureRemaining();
+            int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (n < 0)
+                throw new EOFException();
+            buf.position(buf.position() + n);
+        }
+        return frame;
+    }
+
+    /**
+     * @return frame, if a complete one has been received, null otherwise
+     */
+    private byte[] next() {
+        byte[] b = buf.array();
+        int end = buf.position();
+        while (scan < end) {
+            int c = b[scan] & 0xFF;
+            if (telnet && c == IAC) {
+                if (end - scan < TELNET_COMMAND_LENGTH)
+                    break;
+                System.arraycopy(b, scan + TELNET_COMMAND_LENGTH, b, scan, end - scan - TELNET_COMMAND_LENGTH);
+                end -= TELNET_COMMAND_LENGTH;
+                buf.position(end);
+                continue;
+            }
+            if (frameStart < 0 && !telnet && !Character.isWhitespace(c))
+                frameStart = scan;
+            if (c == '<') {
+                int available = end - scan;
+                if (matches(b, scan, available, START_TAG)) {
+                    if (available <= START_TAG.length)
+                        break; // need the next byte to tell <isomsg> from <isomsgs>
+                    if (isDelimiter(b[scan + START_TAG.length])) {
+                        if (depth++ == 0 && frameStart < 0)
+                            frameStart = scan;
+                        scan += START_TAG.length;
+                        continue;
+                    }
+                } else if (matches(b, scan, available, END_TAG)) {
+                    if (available < END_TAG.length)
+                        break;
+                    scan += END_TAG.length;
+                    if (depth > 0 && --depth == 0)
+                        return frame();
+                    continue;
+                }
+            }
+            scan++;
+        }
+        if (frameStart < 0)
+            discard(scan);
+        return null;
+    }
+
+    private byte[] frame() {
+        byte[] frame = Arrays.copyOfRange(buf.array(), frameStart, scan);
+        frameStart = -1;
+        discard(scan);
+        return frame;
+    }
+
+    /**
+     * Discards the first <code>n</code> bytes in the buffer
+     */
+    private void discard (int n) {
+        if (n > 0) {
+            byte[] b = buf.array();
+            int end = buf.position();
+            System.arraycopy(b, n, b, 0, end - n);
+            buf.position(end - n);
+            scan -= n;
+            if (frameStart > 0)
+                frameStart -= n;
+        }
+    }
+
+    private void ensureRemaining() throws IOException {
+        if (frameStart > 0)
+            discard(frameStart);
+        if (!buf.hasRemaining()) {
+            if (buf.capacity() >= maxLength)
+                throw new IOException ("XML message exceeds maximum length " + maxLength);
+            ByteBuffer b = ByteBuffer.allocate(Math.min(maxLength, buf.capacity() << 1));
+            buf.flip();
+            b.put(buf);
+            buf = b;
+        }
+    }
+
+    /**
+     * @return true if the <code>available</code> bytes at <code>offset</code> are a prefix of (or match) <code>tag</code>
+     */
+    private static boolean matches (byte[] b, int offset, int available, byte[] tag) {
+        int len = Math.min(available, tag.length);
+        for (int i=0; i<len; i++) {
+            if (b[offset + i] != tag[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDelimiter (byte b) {
+        return b == '>' || b == '/' || Character.isWhitespace(b);
+    }
+}
@@ -23,11 +23,16 @@ import org.jpos.core.Configuration;
 import org.jpos.iso.ISOChannel;
 import org.jpos.iso.ISOFilter;
 import org.jpos.iso.ISOMsg;
+import org.jpos.util.KeyedThroughputControl;
 import org.jpos.util.LogEvent;
 import org.jpos.util.ThroughputControl;
 
 public class ThroughputControlFilter implements ISOFilter, Configurable {
     ThroughputControl tc;
+    KeyedThroughputControl ktc;
+    String key;
+    int keyLength;
+    boolean reject;
     public ThroughputControlFilter () {
         super();
         tc = null;
@@ -38,20 +43,47 @@ public class ThroughputControlFilter implements ISOFilter, Configurable {
     * <ul>
     *  <li>transactions</li>
     *  <li>period (in millis)</li>
+    *  <li>mode - <code>delay</code> (default) waits for the next slot,
+    *      <code>reject</code> vetoes the message instead</li>
+    *  <li>key - optional field path, limits apply per distinct value (i.e. 41 for terminal id)</li>
+    *  <li>key-length - optional key prefix length (i.e. 6 with key 2 to limit per BIN)</li>
+    *  <li>max-keys - keys tracked before idle ones are purged (default 10000)</li>
     * </ul>
     */
     public void setConfiguration (Configuration cfg) {
-        tc = new ThroughputControl (cfg.getInts ("transactions"), cfg.getInts ("period"));
+        int[] transactions = cfg.getInts ("transactions");
+        int[] period = cfg.getInts ("period");
+        reject = "reject".equals (cfg.get ("mode", "delay"));
+        key = cfg.get ("key", null);
+        keyLength = cfg.getInt ("key-length", 0);
+        if (key != null)
+            ktc = new KeyedThroughputControl (transactions, period, cfg.getInt ("max-keys", 10000));
+        else
+            tc = new ThroughputControl (transactions, period);
     }
 
     public ISOMsg filter (ISOChannel channel, ISOMsg m, LogEvent evt) 
+        throws VetoException
     {
-        if (tc != null) {
-            long delay = tc.control ();
-            if (delay > 0L)
-                evt.addMessage ("ThroughputControl=" + delay);
+        ThroughputControl t = tc;
+        if (ktc != null) {
+            String k = m.getString (key);
+            if (k == null)
+                return m;
+            if (keyLength > 0 && k.length() > keyLength)
+                k = k.substring (0, keyLength);
+            t = ktc.get (k);
+        }
+        if (t != null) {
+            if (reject) {
+                if (!t.tryAcquire())
+                    throw new VetoException ("ThroughputControl");
+            } else {
+                long delay = t.control ();
+                if (delay > 0L)
+                    evt.addMessage ("ThroughputControl=" + delay);
+            }
         }
         return m;
     }
 }
-
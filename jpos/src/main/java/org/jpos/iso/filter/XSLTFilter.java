@@ -21,32 +21,56 @@ package org.jpos.iso.filter;
 import org.jpos.core.Configurable;
 import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOAmount;
+import org.jpos.iso.ISOBinaryField;
 import org.jpos.iso.ISOChannel;
+import org.jpos.iso.ISOComponent;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOFilter;
 import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
 import org.jpos.iso.packager.XMLPackager;
 import org.jpos.util.LogEvent;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements ISOFilter by means of XSL-Transformations
+ * <p>
+ * Compiled stylesheets ({@link Templates}) are cached and shared by all
+ * filters using the same file, each thread gets its own {@link Transformer}.
+ * The message is fed to the transformation as SAX events and the result is
+ * unpacked straight from the transformer output, neither side is ever
+ * serialized to XML text.
+ *
  * @author <a href="mailto:apr@cs.com.uy">Alejandro P. Revilla</a>
  * @version $Revision$ $Date$
  */
 public class XSLTFilter implements ISOFilter, Configurable {
+    private static final Map<String,CachedTemplates> cache = new ConcurrentHashMap<>();
     boolean reread;
     String xsltfile;
     TransformerFactory tfactory;
+    /**
+     * No longer used: Transformers are not thread safe, each thread gets its own one
+     */
     Transformer transformer;
     XMLPackager packager;
+    private final ThreadLocal<Worker> workers = new ThreadLocal<>();
+    private volatile Templates templates;
 
     /**
      * Default noargs constructor
@@ -62,7 +86,7 @@ public class XSLTFilter implements ISOFilter, Configurable {
 
     /**
      * @param xsltfile XSL Transformation file
-     * @param reread true if you want XSLT file re-read from disk
+     * @param reread true if you want XSLT file re-read from disk when it changes
      * @throws ISOException
      */
     public XSLTFilter (String xsltfile, boolean reread) 
@@ -72,8 +96,7 @@ public class XSLTFilter implements ISOFilter, Configurable {
         try {
             this.xsltfile    = xsltfile;
             this.reread      = reread;
-            this.transformer = 
-                tfactory.newTransformer(new StreamSource(xsltfile));
+            templates        = loadTemplates();
         } catch (TransformerConfigurationException e) {
             throw new ISOException (e);
         }
@@ -85,7 +108,7 @@ public class XSLTFilter implements ISOFilter, Configurable {
     *
     * <ul>
     *  <li>xsltfile - source XSL-T file
-    *  <li>reread   - something != "no" will re-read source file
+    *  <li>reread   - something != "no" will re-read source file when it changes
     * </ul>
     *
     * @param cfg new ConfigurationFile
@@ -94,11 +117,9 @@ public class XSLTFilter implements ISOFilter, Configurable {
         throws ConfigurationException
     {
         try {
-            transformer = tfactory.newTransformer(
-                new StreamSource(cfg.get("xsltfile"))
-            );
-            String s = cfg.get ("reread");
-            reread   = s == null || s.equals ("no");
+            xsltfile = cfg.get("xsltfile");
+            reread   = !"no".equals (cfg.get ("reread", null));
+            templates = loadTemplates();
         } catch (Exception e) {
             throw new ConfigurationException (e);
         }
@@ -115,21 +136,181 @@ public class XSLTFilter implements ISOFilter, Configurable {
         throws VetoException
     {
         try {
-            m.setPackager (packager);
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-
-            if (reread || transformer == null)
-                transformer = tfactory.newTransformer(
-                    new StreamSource(xsltfile)
-                );
-            transformer.transform (
-                new StreamSource(new ByteArrayInputStream (m.pack())),
-                new StreamResult(os)
-            );
-            m.unpack (os.toByteArray());
+            m.setDirection(0);  // avoid "direction=xxxxxx" in XML msg
+            Worker w = getWorker();
+            w.packager.unpack (m, w.transformer,
+              new SAXSource (new ISOMsgReader (m), new InputSource()));
         } catch (Exception e) {
             throw new VetoException(e);
         }
         return m;
     }
+
+    private Worker getWorker() throws ISOException, TransformerConfigurationException {
+        Templates t = getTemplates();
+        Worker w = workers.get();
+        if (w == null || w.templates != t) {
+            w = new Worker (t, w != null ? w.packager : new XMLPackager());
+            workers.set (w);
+        }
+        return w;
+    }
+
+    /**
+     * @return templates loaded at configuration time, or the current ones if reread is on
+     */
+    private Templates getTemplates() throws TransformerConfigurationException {
+        Templates t = templates;
+        if (t == null || reread)
+            templates = t = loadTemplates();
+        return t;
+    }
+
+    /**
+     * @return compiled xsltfile, recompiled if it changed since it was cached
+     */
+    private Templates loadTemplates() throws TransformerConfigurationException {
+        File f = new File (xsltfile);
+        String key = f.getAbsolutePath();
+        CachedTemplates c = cache.get (key);
+        long lastModified = f.lastModified();
+        if (c == null || c.lastModified != lastModified) {
+            c = new CachedTemplates (tfactory.newTemplates (new StreamSource (f)), lastModified);
+            cache.put (key, c);
+        }
+        return c.templates;
+    }
+
+    private static class CachedTemplates {
+        final Templates templates;
+        final long lastModified;
+
+        CachedTemplates (Templates templates, long lastModified) {
+            this.templates = templates;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private class Worker {
+        final Templates templates;
+        final Transformer transformer;
+        final XMLPackager packager;
+
+        Worker (Templates templates, XMLPackager packager) throws TransformerConfigurationException {
+            this.templates = templates;
+            this.transformer = templates.newTransformer();
+            this.packager = packager;
+            packager.setLogger (XSLTFilter.this.packager.getLogger(), XSLTFilter.this.packager.getRealm());
+        }
+    }
+
+    /**
+     * Produces the same SAX events a parser would report for
+     * {@link ISOMsg#dump} output (as packed by {@link XMLPackager})
+     */
+    static class ISOMsgReader extends XMLFilterImpl {
+        private static final String CDATA = "CDATA";
+        private final ISOMsg msg;
+
+        ISOMsgReader (ISOMsg msg) {
+            this.msg = msg;
+        }
+
+        @Override
+        public boolean getFeature (String name) throws SAXNotRecognizedException {
+            if ("http://xml.org/sax/features/namespaces".equals (name))
+                return true;
+            if ("http://xml.org/sax/features/namespace-prefixes".equals (name))
+                return false;
+            throw new SAXNotRecognizedException (name);
+        }
+
+        @Override
+        public void setFeature (String name, boolean value) throws SAXNotRecognizedException {
+            if (getFeature (name) != value)
+                throw new SAXNotRecognizedException (name);
+        }
+
+        @Override
+        public void parse (InputSource input) throws SAXException {
+            startDocument();
+            try {
+                emit (msg, -1);
+            } catch (ISOException e) {
+                throw new SAXException (e);
+            }
+            endDocument();
+        }
+
+        @Override
+        public void parse (String systemId) throws SAXException {
+            parse ((InputSource) null);
+        }
+
+        private void emit (ISOMsg m, int fieldNumber) throws SAXException, ISOException {
+            AttributesImpl atts = new AttributesImpl();
+            if (fieldNumber != -1)
+                addAttribute (atts, XMLPackager.ID_ATTR, Integer.toString (fieldNumber));
+            startElement (XMLPackager.ISOMSG_TAG, atts);
+            byte[] header = m.getHeader();
+            if (header != null) {
+                startElement (XMLPackager.HEADER_TAG, new AttributesImpl());
+                characters (ISOUtil.hexString (header));
+                endElement (XMLPackager.HEADER_TAG);
+            }
+            int maxField = m.getMaxField();
+            for (int i=0; i<=maxField; i++) {
+                ISOComponent c = m.getComponent (i);
+                if (c instanceof ISOMsg)
+                    emit ((ISOMsg) c, i);
+                else if (c != null)
+                    emitField (c, i);
+            }
+            endElement (XMLPackager.ISOMSG_TAG);
+        }
+
+        private void emitField (ISOComponent c, int fieldNumber) throws SAXException, ISOException {
+            AttributesImpl atts = new AttributesImpl();
+            addAttribute (atts, XMLPackager.ID_ATTR, Integer.toString (fieldNumber));
+            String text = null;
+            if (c instanceof ISOBinaryField) {
+                addAttribute (atts, XMLPackager.VALUE_ATTR, c.toString());
+                addAttribute (atts, XMLPackager.TYPE_ATTR, XMLPackager.TYPE_BINARY);
+            } else if (c instanceof ISOAmount) {
+                ISOAmount a = (ISOAmount) c;
+                addAttribute (atts, XMLPackager.CURRENCY_ATTR, ISOUtil.zeropad (a.getCurrencyCode(), 3));
+                addAttribute (atts, XMLPackager.TYPE_ATTR, XMLPackager.TYPE_AMOUNT);
+                addAttribute (atts, XMLPackager.VALUE_ATTR, a.getAmount().toString());
+            } else {
+                Object v = c.getValue();
+                if (v == null)
+                    return;
+                String s = v.toString();
+                if (s.indexOf('<') >= 0 || s.startsWith("{"))
+                    text = s;
+                else
+                    addAttribute (atts, XMLPackager.VALUE_ATTR, s);
+            }
+            startElement (XMLPackager.ISOFIELD_TAG, atts);
+            if (text != null)
+                characters (text);
+            endElement (XMLPackager.ISOFIELD_TAG);
+        }
+
+        private void startElement (String name, AttributesImpl atts) throws SAXException {
+            startElement ("", name, name, atts);
+        }
+
+        private void endElement (String name) throws SAXException {
+            endElement ("", name, name);
+        }
+
+        private void characters (String s) throws SAXException {
+            characters (s.toCharArray(), 0, s.length());
+        }
+
+        private void addAttribute (AttributesImpl atts, String name, String value) {
+            atts.addAttribute ("", name, name, CDATA, value);
+        }
+    }
 }
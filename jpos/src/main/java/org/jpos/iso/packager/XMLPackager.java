@@ -22,6 +22,7 @@ import org.jpos.iso.*;
 import org.jpos.iso.header.BaseHeader;
 import org.jpos.util.LogEvent;
 import org.jpos.util.LogSource;
+import org.jpos.util.Loggeable;
 import org.jpos.util.Logger;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -30,12 +31,29 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
 import java.io.*;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Stack;
+import java.util.function.Function;
 
 /**
  * packs/unpacks ISOMsgs into XML representation
+ * <p>
+ * pack and unpack are reentrant: messages are written straight into a
+ * per-thread buffer (producing the same output as {@link ISOMsg#dump}) and
+ * parsed with per-thread StAX readers, so channels sharing a packager
+ * don't have to wait for each other.
  *
  * @author apr@cs.com.uy
  * @version $Id$
@@ -47,10 +65,7 @@ public class XMLPackager extends DefaultHandler
 {
     protected Logger logger = null;
     protected String realm = null;
-    private ByteArrayOutputStream out;
-    private PrintStream p;
-    private XMLReader reader;
-    private Stack stk;
+    private Stack<Object> stk;
 
     public static final String ISOMSG_TAG    = "isomsg";
     public static final String ISOFIELD_TAG  = "field";
@@ -65,26 +80,37 @@ public class XMLPackager extends DefaultHandler
     public static final String ENCODING_ATTR = "encoding";
     public static final String ASCII_ENCODING= "ascii";
 
+    private static final String VALIDATION_FEATURE = "http://xml.org/sax/features/validation";
+    private static final String DISALLOW_DOCTYPE_FEATURE = "http://apache.org/xml/features/disallow-doctype-decl";
+    private static final String EXTERNAL_GENERAL_ENTITIES_FEATURE = "http://xml.org/sax/features/external-general-entities";
+    private static final String EXTERNAL_PARAMETER_ENTITIES_FEATURE = "http://xml.org/sax/features/external-parameter-entities";
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<XMLWriter> writers = ThreadLocal.withInitial(XMLWriter::new);
+    private static final Set<Class<?>> WELL_KNOWN = new HashSet<>(Arrays.asList(
+      ISOMsg.class, ISOVMsg.class, ISOField.class, ISOVField.class, ISOBinaryField.class, ISOAmount.class
+    ));
+
     // fields that will be forced to be interpreted as binary data
     private int[] binaryFields= null;
 
+    // parser restrictions, set for security and maybe PCI compliance
+    private volatile boolean disallowDoctype = true;
+    private volatile boolean externalEntities = false;
+    private volatile boolean externalParameterEntities = false;
+    private volatile ThreadLocal<XMLInputFactory> factories;
+    // SAX reader, only used if a subclass provides its own or sets features StAX can't honor
+    private volatile XMLReader reader;
+
     public XMLPackager() throws ISOException {
         super();
-        out = new ByteArrayOutputStream();
-        try {
-            p   = new PrintStream(out, false, "utf-8");
-        } catch (UnsupportedEncodingException ignored) {
-            // utf-8 is a supported encoding
-        }
-        stk = new Stack();
+        stk = new Stack<>();
         try {
-            reader = createXMLReader();
-
-            // some parser restrictions have been set for security and maybe PCI compliance
-            setXMLParserFeature("http://xml.org/sax/features/validation", false);
-            setXMLParserFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            setXMLParserFeature("http://xml.org/sax/features/external-general-entities", false);
-            setXMLParserFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            if (overridesCreateXMLReader())
+                reader = createXMLReader();
+            setXMLParserFeature(VALIDATION_FEATURE, false);
+            setXMLParserFeature(DISALLOW_DOCTYPE_FEATURE, true);
+            setXMLParserFeature(EXTERNAL_GENERAL_ENTITIES_FEATURE, false);
+            setXMLParserFeature(EXTERNAL_PARAMETER_ENTITIES_FEATURE, false);
         } catch (Exception e) {
             throw new ISOException (e.toString());
         }
@@ -100,12 +126,14 @@ public class XMLPackager extends DefaultHandler
             if (!(c instanceof ISOMsg))
                 throw new ISOException ("cannot pack "+c.getClass());
             ISOMsg m = (ISOMsg) c;
+            m.setDirection(0);  // avoid "direction=xxxxxx" in XML msg
+            XMLWriter w = writers.get();
             byte[] b;
-            synchronized (this) {
-                m.setDirection(0);  // avoid "direction=xxxxxx" in XML msg
-                m.dump (p, "");
-                b = out.toByteArray();
-                out.reset();
+            try {
+                w.writeComponent (m, "");
+                b = w.toByteArray();
+            } finally {
+                w.reset();
             }
             if (logger != null)
                 evt.addMessage (m);
@@ -118,7 +146,7 @@ public class XMLPackager extends DefaultHandler
         }
     }
 
-    public synchronized int unpack (ISOComponent c, byte[] b)
+    public int unpack (ISOComponent c, byte[] b)
         throws ISOException
     {
         LogEvent evt = new LogEvent (this, "unpack");
@@ -127,31 +155,45 @@ public class XMLPackager extends DefaultHandler
                 throw new ISOException
                     ("Can't call packager on non Composite");
 
-            while (!stk.empty())    // purge from possible previous error
-                stk.pop();
-
-            InputSource src = new InputSource (new ByteArrayInputStream(b));
-            reader.parse (src);
-            if (stk.empty())
-                throw new ISOException ("error parsing");
-
-            ISOMsg m = (ISOMsg) c;
-            ISOMsg m1 = (ISOMsg) stk.pop();
-            m.merge (m1);
-            m.setHeader (m1.getHeader());
-
-            fixupBinary(m, binaryFields);
+            if (reader != null)
+                unpack ((ISOMsg) c, new InputSource (new ByteArrayInputStream(b)));
+            else
+                unpack ((ISOMsg) c, factories.get().createXMLStreamReader (new ByteArrayInputStream(b)));
 
             if (logger != null)
-                evt.addMessage (m);
+                evt.addMessage (c);
             return b.length;
         } catch (ISOException e) {
             evt.addMessage (e);
             throw e;
-        } catch (IOException e) {
+        } catch (IOException | SAXException | XMLStreamException e) {
             evt.addMessage (e);
             throw new ISOException (e.toString());
-        } catch (SAXException e) {
+        } finally {
+            Logger.log (evt);
+        }
+    }
+
+    public void unpack (ISOComponent c, InputStream in)
+        throws ISOException, IOException
+    {
+        LogEvent evt = new LogEvent (this, "unpack");
+        try {
+            if (!(c instanceof ISOMsg))
+                throw new ISOException
+                    ("Can't call packager on non Composite");
+
+            if (reader != null)
+                unpack ((ISOMsg) c, new InputSource (in));
+            else
+                unpack ((ISOMsg) c, factories.get().createXMLStreamReader (in));
+
+            if (logger != null)
+                evt.addMessage (c);
+        } catch (ISOException e) {
+            evt.addMessage (e);
+            throw e;
+        } catch (SAXException | XMLStreamException e) {
             evt.addMessage (e);
             throw new ISOException (e.toString());
         } finally {
@@ -159,8 +201,19 @@ public class XMLPackager extends DefaultHandler
         }
     }
 
-    public synchronized void unpack (ISOComponent c, InputStream in)
-        throws ISOException, IOException
+    /**
+     * Unpacks the outcome of transforming <code>src</code> with <code>t</code>.
+     * <p>
+     * The transformation result is received as SAX events, the XML
+     * representation of the message is never serialized.
+     *
+     * @param c an ISOMsg
+     * @param t transformer
+     * @param src transformation source
+     * @throws ISOException on transformation or unpacking error
+     */
+    public synchronized void unpack (ISOComponent c, Transformer t, Source src)
+        throws ISOException
     {
         LogEvent evt = new LogEvent (this, "unpack");
         try {
@@ -171,7 +224,7 @@ public class XMLPackager extends DefaultHandler
             while (!stk.empty())    // purge from possible previous error
                 stk.pop();
 
-            reader.parse (new InputSource (in));
+            t.transform (src, new SAXResult (this));
             if (stk.empty())
                 throw new ISOException ("error parsing");
 
@@ -187,7 +240,7 @@ public class XMLPackager extends DefaultHandler
         } catch (ISOException e) {
             evt.addMessage (e);
             throw e;
-        } catch (SAXException e) {
+        } catch (TransformerException e) {
             evt.addMessage (e);
             throw new ISOException (e.toString());
         } finally {
@@ -195,13 +248,72 @@ public class XMLPackager extends DefaultHandler
         }
     }
 
+    private synchronized void unpack (ISOMsg m, InputSource src) throws ISOException, IOException, SAXException {
+        while (!stk.empty())    // purge from possible previous error
+            stk.pop();
+
+        reader.parse (src);
+        if (stk.empty())
+            throw new ISOException ("error parsing");
+
+        ISOMsg m1 = (ISOMsg) stk.pop();
+        m.merge (m1);
+        m.setHeader (m1.getHeader());
+
+        fixupBinary(m, binaryFields);
+    }
+
+    private void unpack (ISOMsg m, XMLStreamReader reader) throws ISOException, XMLStreamException {
+        Stack<Object> stk = new Stack<>();
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement (stk, reader.getLocalName(), name -> reader.getAttributeValue(null, name));
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement (stk, reader.getLocalName());
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (!stk.empty())
+                            characters (stk, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.DTD:
+                        if (disallowDoctype)
+                            throw new ISOException ("DOCTYPE is disallowed");
+                        break;
+                }
+            }
+        } catch (SAXException e) {
+            throw new ISOException (e.toString());
+        } finally {
+            reader.close();
+        }
+        if (stk.empty())
+            throw new ISOException ("error parsing");
+
+        ISOMsg m1 = (ISOMsg) stk.pop();
+        m.merge (m1);
+        m.setHeader (m1.getHeader());
+
+        fixupBinary(m, binaryFields);
+    }
+
     public void startElement
         (String ns, String name, String qName, Attributes atts)
         throws SAXException
+    {
+        startElement (stk, name, atts::getValue);
+    }
+
+    private void startElement (Stack<Object> stk, String name, Function<String,String> atts)
+        throws SAXException
     {
         int fieldNumber = -1;
         try {
-            String id       = atts.getValue(ID_ATTR);
+            String id       = atts.apply(ID_ATTR);
             if (id != null) {
                 try {
                     fieldNumber = Integer.parseInt (id);
@@ -222,8 +334,8 @@ public class XMLPackager extends DefaultHandler
                 }
             } else if (name.equals (ISOFIELD_TAG)) {
                 ISOMsg m     = (ISOMsg) stk.peek();
-                String value = atts.getValue(VALUE_ATTR);
-                String type  = atts.getValue(TYPE_ATTR);
+                String value = atts.apply(VALUE_ATTR);
+                String type  = atts.apply(TYPE_ATTR);
                 if (id == null)
                     throw new SAXException ("invalid field");
                 value = value == null ? "" : value;
@@ -240,7 +352,7 @@ public class XMLPackager extends DefaultHandler
                 else if (TYPE_AMOUNT.equals (type)) {
                     ic =  new ISOAmount(
                         fieldNumber,
-                        Integer.parseInt (atts.getValue(CURRENCY_ATTR)),
+                        Integer.parseInt (atts.apply(CURRENCY_ATTR)),
                         new BigDecimal (value)
                     );
                 }
@@ -251,7 +363,7 @@ public class XMLPackager extends DefaultHandler
                 stk.push (ic);
             } else if (HEADER_TAG.equals (name)) {
                 BaseHeader bh = new BaseHeader();
-                bh.setAsciiEncoding (ASCII_ENCODING.equalsIgnoreCase(atts.getValue(ENCODING_ATTR)));
+                bh.setAsciiEncoding (ASCII_ENCODING.equalsIgnoreCase(atts.apply(ENCODING_ATTR)));
                 stk.push (bh);
             }
         } catch (ISOException e) {
@@ -260,6 +372,9 @@ public class XMLPackager extends DefaultHandler
         }
     }
     public void characters (char ch[], int start, int length) {
+        characters (stk, ch, start, length);
+    }
+    private void characters (Stack<Object> stk, char ch[], int start, int length) {
         Object obj = stk.peek();
         if (obj instanceof ISOField) {
             ISOField f = (ISOField) obj;
@@ -287,6 +402,9 @@ public class XMLPackager extends DefaultHandler
     public void endElement (String ns, String name, String qname)
         throws SAXException
     {
+        endElement (stk, name);
+    }
+    private void endElement (Stack<Object> stk, String name) {
         if (name.equals (ISOMSG_TAG)) {
             ISOMsg m = (ISOMsg) stk.pop();
             if (stk.empty())
@@ -333,6 +451,14 @@ public class XMLPackager extends DefaultHandler
         return getClass().getName();
     }
 
+    /**
+     * Messages are parsed using StAX, unless a subclass overrides this method
+     * or a feature StAX can't honor is set, in which case unpacking goes
+     * through the returned SAX reader, one message at a time.
+     *
+     * @return a SAX reader using this packager as its content handler
+     * @throws SAXException if no SAX parser is available
+     */
     protected XMLReader createXMLReader () throws SAXException {
         XMLReader reader;
         try {
@@ -351,8 +477,257 @@ public class XMLPackager extends DefaultHandler
         return reader;
     }
 
+    /**
+     * Sets a parser feature, using SAX feature names.
+     * <p>
+     * <code>disallow-doctype-decl</code>, <code>external-general-entities</code>,
+     * <code>external-parameter-entities</code> and disabling <code>validation</code>
+     * are honored by the StAX parser. Any other feature is passed to the SAX reader
+     * returned by {@link #createXMLReader()}, which is used from then on.
+     *
+     * @param fname SAX feature name
+     * @param val feature value
+     * @throws SAXException if the SAX reader doesn't recognize or support the feature
+     */
     public void setXMLParserFeature(String fname, boolean val) throws SAXException  {
-        reader.setFeature(fname, val);
+        boolean stax = true;
+        switch (fname) {
+            case VALIDATION_FEATURE:
+                stax = !val;
+                break;
+            case DISALLOW_DOCTYPE_FEATURE:
+                disallowDoctype = val;
+                break;
+            case EXTERNAL_GENERAL_ENTITIES_FEATURE:
+                externalEntities = val;
+                break;
+            case EXTERNAL_PARAMETER_ENTITIES_FEATURE:
+                externalParameterEntities = val;
+                break;
+            default:
+                stax = false;
+        }
+        if (!stax && reader == null)
+            reader = createSAXReader();
+        if (reader != null)
+            reader.setFeature (fname, val);
+        factories = ThreadLocal.withInitial(this::createXMLInputFactory);
     }
-}
 
+    /**
+     * @return a reader from {@link #createXMLReader()}, with the current StAX restrictions applied
+     */
+    private XMLReader createSAXReader() throws SAXException {
+        XMLReader r = createXMLReader();
+        r.setFeature (VALIDATION_FEATURE, false);
+        r.setFeature (DISALLOW_DOCTYPE_FEATURE, disallowDoctype);
+        r.setFeature (EXTERNAL_GENERAL_ENTITIES_FEATURE, externalEntities);
+        r.setFeature (EXTERNAL_PARAMETER_ENTITIES_FEATURE, externalParameterEntities);
+        return r;
+    }
+
+    private boolean overridesCreateXMLReader() {
+        for (Class<?> c = getClass(); c != XMLPackager.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod ("createXMLReader");
+                return true;
+            } catch (NoSuchMethodException ignored) { }
+        }
+        return false;
+    }
+
+    protected XMLInputFactory createXMLInputFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_COALESCING, true);
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, !disallowDoctype);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, externalEntities || externalParameterEntities);
+        if (!externalEntities && !externalParameterEntities)
+            f.setXMLResolver((publicID, systemID, baseURI, namespace) -> new ByteArrayInputStream(new byte[0]));
+        return f;
+    }
+
+    /**
+     * Writes the same XML {@link ISOMsg#dump} produces, UTF-8 encoded.
+     */
+    private static class XMLWriter extends ByteArrayOutputStream {
+        private static final String EOL = System.lineSeparator();
+        private PrintStream p;
+
+        XMLWriter() {
+            super(1024);
+        }
+
+        void writeComponent (ISOComponent c, String indent) throws ISOException {
+            if (!WELL_KNOWN.contains(c.getClass()))
+                c.dump (printStream(), indent);
+            else if (c instanceof ISOMsg)
+                writeMsg ((ISOMsg) c, indent);
+            else if (c instanceof ISOBinaryField)
+                writeBinaryField ((ISOBinaryField) c, indent);
+            else if (c instanceof ISOAmount)
+                writeAmount ((ISOAmount) c, indent);
+            else
+                writeField ((ISOField) c, indent);
+        }
+
+        private void writeMsg (ISOMsg m, String indent) throws ISOException {
+            ascii(indent).ascii("<").ascii(ISOMSG_TAG);
+            if (m.isIncoming())
+                ascii(" direction=\"incoming\"");
+            else if (m.isOutgoing())
+                ascii(" direction=\"outgoing\"");
+            if (m.getFieldNumber() != -1)
+                ascii(" ").ascii(ID_ATTR).ascii("=\"").number(m.getFieldNumber()).ascii("\"");
+            ascii(">").ascii(EOL);
+            String newIndent = indent + "  ";
+            if (m.getPackager() != null)
+                ascii(newIndent).ascii("<!-- ").text(m.getPackager().getDescription()).ascii(" -->").ascii(EOL);
+            ISOHeader header = m.getISOHeader();
+            if (header != null && header.getClass() == BaseHeader.class) {
+                byte[] b = header.pack();
+                if (b != null)
+                    ascii(newIndent).ascii("<").ascii(HEADER_TAG).ascii(">").ascii(ISOUtil.hexString(b))
+                      .ascii("</").ascii(HEADER_TAG).ascii(">").ascii(EOL);
+            } else if (header instanceof Loggeable) {
+                ((Loggeable) header).dump (printStream(), newIndent);
+            }
+            int maxField = m.getMaxField();
+            for (int i=0; i<=maxField; i++) {
+                ISOComponent c = m.getComponent(i);
+                if (c != null)
+                    writeComponent (c, newIndent);
+            }
+            ascii(indent).ascii("</").ascii(ISOMSG_TAG).ascii(">").ascii(EOL);
+        }
+
+        private void writeField (ISOField f, String indent) {
+            String value = (String) f.getValue();
+            if (value == null)
+                return;
+            ascii(indent).ascii("<").ascii(ISOFIELD_TAG).ascii(" ").ascii(ID_ATTR).ascii("=\"").number(f.getFieldNumber());
+            if (value.indexOf('<') >= 0 || value.startsWith("{")) {
+                ascii("\"><![CDATA[").text(value).ascii("]]></").ascii(ISOFIELD_TAG).ascii(">");
+            } else {
+                ascii("\" ").ascii(VALUE_ATTR).ascii("=\"").normalized(value).ascii("\"/>");
+            }
+            ascii(EOL);
+        }
+
+        private void writeBinaryField (ISOBinaryField f, String indent) {
+            ascii(indent).ascii("<").ascii(ISOFIELD_TAG).ascii(" ").ascii(ID_ATTR).ascii("=\"").number(f.getFieldNumber())
+              .ascii("\" ").ascii(VALUE_ATTR).ascii("=\"").ascii(f.toString())
+              .ascii("\" ").ascii(TYPE_ATTR).ascii("=\"").ascii(TYPE_BINARY).ascii("\"/>").ascii(EOL);
+        }
+
+        private void writeAmount (ISOAmount a, String indent) {
+            ascii(indent).ascii("<").ascii(ISOFIELD_TAG).ascii(" ").ascii(ID_ATTR).ascii("=\"").number(a.getFieldNumber())
+              .ascii("\" currency=\"").ascii(ISOUtil.zeropad(a.getCurrencyCode(), 3))
+              .ascii("\" ").ascii(TYPE_ATTR).ascii("=\"amount\" ")
+              .ascii(VALUE_ATTR).ascii("=\"").ascii(a.getAmount().toString()).ascii("\"/>").ascii(EOL);
+        }
+
+        private XMLWriter ascii (String s) {
+            int len = s.length();
+            ensureCapacity (count + len);
+            for (int i=0; i<len; i++)
+                buf[count++] = (byte) s.charAt(i);
+            return this;
+        }
+
+        private XMLWriter number (int n) {
+            return ascii (Integer.toString(n));
+        }
+
+        private XMLWriter text (String s) {
+            int len = s.length();
+            for (int i=0; i<len; i++)
+                character (s, i);
+            return this;
+        }
+
+        /**
+         * Same output as {@link ISOUtil#normalize(String)}
+         */
+        private XMLWriter normalized (String s) {
+            int len = s.length();
+            for (int i=0; i<len; i++) {
+                char ch = s.charAt(i);
+                switch (ch) {
+                    case '<':
+                        ascii("&lt;");
+                        break;
+                    case '>':
+                        ascii("&gt;");
+                        break;
+                    case '&':
+                        ascii("&amp;");
+                        break;
+                    case '"':
+                        ascii("&quot;");
+                        break;
+                    case '\'':
+                        ascii("&apos;");
+                        break;
+                    default:
+                        if (ch < 0x20)
+                            ascii(String.format("\\u%04x", (int) ch));
+                        else
+                            character (s, i);
+                }
+            }
+            return this;
+        }
+
+        private void character (String s, int i) {
+            ensureCapacity (count + 4);
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                buf[count++] = (byte) ch;
+            } else if (ch < 0x800) {
+                buf[count++] = (byte) (0xC0 | ch >> 6);
+                buf[count++] = (byte) (0x80 | ch & 0x3F);
+            } else if (Character.isHighSurrogate(ch) && i+1 < s.length() && Character.isLowSurrogate(s.charAt(i+1))) {
+                // written in full when the high surrogate is seen, the low one is skipped below
+                int cp = Character.toCodePoint(ch, s.charAt(i+1));
+                buf[count++] = (byte) (0xF0 | cp >> 18);
+                buf[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buf[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buf[count++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isLowSurrogate(ch) && i > 0 && Character.isHighSurrogate(s.charAt(i-1))) {
+                // already written
+            } else if (Character.isSurrogate(ch)) {
+                buf[count++] = '?';
+            } else {
+                buf[count++] = (byte) (0xE0 | ch >> 12);
+                buf[count++] = (byte) (0x80 | ch >> 6 & 0x3F);
+                buf[count++] = (byte) (0x80 | ch & 0x3F);
+            }
+        }
+
+        private void ensureCapacity (int capacity) {
+            if (capacity > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, capacity));
+        }
+
+        /**
+         * @return a PrintStream writing to this buffer, used to dump components we don't know about
+         */
+        private PrintStream printStream() {
+            if (p == null) {
+                try {
+                    p = new PrintStream(this, true, "utf-8");
+                } catch (UnsupportedEncodingException ignored) {
+                    // utf-8 is a supported encoding
+                }
+            }
+            return p;
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            if (buf.length > MAX_RETAINED_BUFFER)
+                buf = new byte[1024];
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2;
+
+import org.jdom2.Element;
+
+import java.io.File;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Dependencies between the QBean descriptors deployed together by Q2.
+ * <p>
+ * A descriptor depends on another one when:
+ * <ul>
+ *  <li>it lists its name in a <code>depends</code> attribute, e.g.
+ *      <code>&lt;mux name="m" depends="channel-a channel-b" ...&gt;</code></li>
+ *  <li>a <code>mux</code> or <code>channel</code> reference (a property with
+ *      such a name, or an element such as <code>&lt;muxes&gt;</code>) names it,
+ *      optionally with a <code>mux.</code> or <code>channel.</code> prefix</li>
+ *  <li>a <code>space</code> reference uses a <code>replicated:</code> space
+ *      deployed by a {@link org.jpos.q2.qbean.ReplicatedSpaceAdaptor}</li>
+ * </ul>
+ * References to names not deployed together (e.g. QBeans already running)
+ * are ignored.
+ */
+class DeployGraph {
+    private static final Pattern REFERENCE = Pattern.compile(".*(mux|channel).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SPACE_REFERENCE = Pattern.compile(".*space.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SEPARATOR = Pattern.compile("[\\s,]+");
+    private final List<File> files;
+    private final Map<File,Set<File>> dependencies = new HashMap<>();
+    private final List<String> warnings = new ArrayList<>();
+
+    /**
+     * @param descriptors root elements of the descriptors to deploy, in deploy (file name) order
+     */
+    DeployGraph (Map<File,Element> descriptors) {
+        files = new ArrayList<>(descriptors.keySet());
+        Map<String,File> providers = new HashMap<>();
+        Map<String,File> spaces = new HashMap<>();
+        for (Map.Entry<File,Element> entry : descriptors.entrySet()) {
+            Element e = entry.getValue();
+            providers.putIfAbsent(getName(e), entry.getKey());
+            String space = getReplicatedSpace(e);
+            if (space != null)
+                spaces.putIfAbsent(space, entry.getKey());
+        }
+
+        for (Map.Entry<File,Element> entry : descriptors.entrySet()) {
+            File f = entry.getKey();
+            Element e = entry.getValue();
+            Set<File> deps = new LinkedHashSet<>();
+            String depends = e.getAttributeValue("depends");
+            if (depends != null) {
+                for (String name : SEPARATOR.split(depends.trim())) {
+                    File d = providers.get(name);
+                    if (d != null)
+                        deps.add(d);
+                    else if (!name.isEmpty())
+                        warnings.add(String.format("%s: depends on '%s', not deployed along with it", f.getName(), name));
+                }
+            }
+            Set<String> refs = new HashSet<>();
+            Set<String> spaceRefs = new HashSet<>();
+            collectReferences(e, refs, spaceRefs);
+            for (String ref : refs) {
+                File d = providers.get(ref);
+                if (d != null)
+                    deps.add(d);
+            }
+            for (String ref : spaceRefs) {
+                File d = spaces.get(ref);
+                if (d != null)
+                    deps.add(d);
+            }
+            deps.remove(f);
+            dependencies.put(f, deps);
+        }
+    }
+
+    /**
+     * @return descriptors the given one has to wait for
+     */
+    Set<File> getDependencies (File f) {
+        Set<File> deps = dependencies.get(f);
+        return deps != null ? deps : Collections.emptySet();
+    }
+
+    /**
+     * @return descriptors sorted so that each one comes after its dependencies
+     * (preserving file name order otherwise), or null if there's a cycle
+     */
+    List<File> sort() {
+        List<File> sorted = new ArrayList<>(files.size());
+        Set<File> done = new HashSet<>();
+        while (sorted.size() < files.size()) {
+            boolean progress = false;
+            for (File f : files) {
+                if (!done.contains(f) && done.containsAll(getDependencies(f))) {
+                    sorted.add(f);
+                    done.add(f);
+                    progress = true;
+                }
+            }
+            if (!progress)
+                return null;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return problems found while resolving declared dependencies
+     */
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    static String getName (Element e) {
+        String name = e.getAttributeValue("name");
+        return name != null ? name : e.getName();
+    }
+
+    /**
+     * @return URI of the space deployed by a ReplicatedSpaceAdaptor, null for other descriptors
+     */
+    private static String getReplicatedSpace (Element e) {
+        String clazz = e.getAttributeValue("class");
+        if (clazz == null || !clazz.endsWith("ReplicatedSpaceAdaptor"))
+            return null;
+        String space = getProperty(e, "space");
+        return "replicated:" + (space != null ? space : getName(e));
+    }
+
+    private static void collectReferences (Element e, Set<String> refs, Set<String> spaceRefs) {
+        for (Element child : e.getChildren()) {
+            String name = child.getName();
+            String value = child.getTextTrim();
+            if ("property".equals(name)) {
+                name = child.getAttributeValue("name");
+                value = child.getAttributeValue("value");
+            }
+            if (name != null && value != null) {
+                if (REFERENCE.matcher(name).matches())
+                    addTokens(value, refs);
+                else if (SPACE_REFERENCE.matcher(name).matches())
+                    addTokens(value, spaceRefs);
+            }
+            collectReferences(child, refs, spaceRefs);
+        }
+    }
+
+    private static void addTokens (String s, Set<String> refs) {
+        for (String token : SEPARATOR.split(s.trim())) {
+            if (token.startsWith("mux."))
+                token = token.substring(4);
+            else if (token.startsWith("channel."))
+                token = token.substring(8);
+            if (!token.isEmpty())
+                refs.add(token);
+        }
+    }
+
+    private static String getProperty (Element e, String name) {
+        for (Element p : e.getChildren("property")) {
+            if (name.equals(p.getAttributeValue("name")))
+                return p.getAttributeValue("value");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches Q2's deploy (and lib) directories so that Q2 only rescans them
+ * when something actually changed.
+ * <p>
+ * Bursts of events (an editor saving a descriptor in several writes, a
+ * batch of files being copied) are coalesced: once a change is seen, events
+ * are drained until the directories have been quiet for
+ * <code>quietPeriod</code> millis (but no longer than <code>maxDelay</code>),
+ * so Q2 runs a single rescan for the whole burst.
+ * <p>
+ * If no native WatchService is available (or it is the JDK's polling
+ * implementation), {@link #isPolling()} returns true and callers should
+ * keep rescanning every {@link Q2#SCAN_INTERVAL}.
+ */
+class DeployWatcher implements Closeable {
+    private final WatchService service;
+    private final boolean polling;
+    private final long quietPeriod;
+    private final long maxDelay;
+    private final Map<WatchKey,Path> keys = new HashMap<>();
+
+    /**
+     * @param quietPeriod time (in millis) without events that ends a burst
+     * @param maxDelay maximum time (in millis) a burst is allowed to delay the rescan
+     */
+    DeployWatcher (long quietPeriod, long maxDelay) {
+        WatchService ws = null;
+        try {
+            ws = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException ignored) {
+            // NOPMD fall back to polling
+        }
+        this.service = ws;
+        this.polling = ws == null || ws.getClass().getName().endsWith("PollingWatchService");
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Starts watching a directory (no-op if it is already watched or doesn't exist).
+     * @param dir directory
+     * @return false if the directory can't be watched
+     */
+    synchronized boolean watch (Path dir) {
+        if (service == null)
+            return false;
+        if (keys.containsValue(dir))
+            return true;
+        if (!Files.isDirectory(dir))
+            return false;
+        try {
+            keys.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+            return true;
+        } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+            return false;
+        }
+    }
+
+    boolean isPolling() {
+        return polling;
+    }
+
+    /**
+     * @return WatchService implementation class name, or null if there is none
+     */
+    String getServiceClassname() {
+        return service != null ? service.getClass().getName() : null;
+    }
+
+    /**
+     * Waits for changes, coalescing bursts of events.
+     *
+     * @param timeout time (in millis) to wait for the first event
+     * @return changes seen, empty if the timeout expired without changes
+     * @throws InterruptedException if interrupted
+     */
+    Changes await (long timeout) throws InterruptedException {
+        Changes changes = new Changes();
+        if (service == null) {
+            Thread.sleep(timeout);
+            return changes;
+        }
+        WatchKey key = service.poll(timeout, TimeUnit.MILLISECONDS);
+        long deadline = System.currentTimeMillis() + maxDelay;
+        while (key != null) {
+            process(key, changes);
+            long remaining = Math.min(quietPeriod, deadline - System.currentTimeMillis());
+            key = remaining > 0L ? service.poll(remaining, TimeUnit.MILLISECONDS) : service.poll();
+            if (key == null && remaining <= 0L)
+                break;
+        }
+        return changes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (service != null)
+            service.close();
+    }
+
+    private void process (WatchKey key, Changes changes) {
+        Path dir;
+        synchronized (this) {
+            dir = keys.get(key);
+        }
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == OVERFLOW)
+                changes.overflow = true;
+            else if (dir != null)
+                changes.add(ev.kind(), dir.resolve((Path) ev.context()));
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                keys.remove(key);
+            }
+            if (dir != null)
+                changes.invalid.add(dir);
+        }
+    }
+
+    /**
+     * Changes seen by {@link DeployWatcher#await(long)}, the last event
+     * kind seen for each path (in arrival order).
+     */
+    static class Changes {
+        private final Map<Path,WatchEvent.Kind<?>> events = new LinkedHashMap<>();
+        private final Set<Path> invalid = new HashSet<>();
+        private boolean overflow;
+
+        void add (WatchEvent.Kind<?> kind, Path path) {
+            WatchEvent.Kind<?> previous = events.remove(path);
+            // a file created and then modified within the same burst is still new
+            events.put(path, previous == ENTRY_CREATE && kind == ENTRY_MODIFY ? ENTRY_CREATE : kind);
+        }
+
+        boolean isEmpty() {
+            return events.isEmpty() && invalid.isEmpty() && !overflow;
+        }
+
+        /**
+         * @return true if events were lost, so a full rescan is required
+         */
+        boolean isOverflow() {
+            return overflow;
+        }
+
+        /**
+         * @param dir directory
+         * @return true if dir is no longer watchable (e.g. it was removed)
+         */
+        boolean isInvalid (Path dir) {
+            return invalid.contains(dir);
+        }
+
+        Map<Path,WatchEvent.Kind<?>> getEvents() {
+            return Collections.unmodifiableMap(events);
+        }
+    }
+}
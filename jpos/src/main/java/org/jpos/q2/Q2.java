@@ -35,6 +35,7 @@ import org.jpos.core.Environment;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOUtil;
 import org.jpos.q2.install.ModuleUtils;
+import org.jpos.q2.qbean.Warmup;
 import org.jpos.q2.ssh.SshService;
 import org.jpos.security.SystemSeed;
 import org.jpos.util.Log;
@@ -42,6 +43,7 @@ import org.jpos.util.LogEvent;
 import org.jpos.util.Logger;
 import org.jpos.util.NameRegistrar;
 import org.jpos.util.PGPHelper;
+import org.jpos.util.Profiler;
 import org.jpos.util.SimpleLogListener;
 import org.jpos.util.slf4j.Slf4JDynamicBinder;
 import org.osgi.framework.Bundle;
@@ -59,19 +61,21 @@ import javax.management.MBeanServerFactory;
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import java.io.*;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
 import java.lang.management.ManagementFactory;
-import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.security.GeneralSecurityException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.ResourceBundle.getBundle;
@@ -99,6 +103,8 @@ public class Q2 implements FileFilter, Runnable {
 
     public static final String PROTECTED_QBEAN        = "protected-qbean";
     public static final int SCAN_INTERVAL             = 2500;
+    public static final long RESCAN_INTERVAL          = 60000;
+    public static final long COALESCE_PERIOD          = 250;
     public static final long SHUTDOWN_TIMEOUT         = 60000;
 
     private MBeanServer server;
@@ -131,6 +137,10 @@ public class Q2 implements FileFilter, Runnable {
     private boolean enableSsh;
     private boolean disableDeployScan;
     private boolean disableDynamicClassloader;
+    private int deployThreads;
+    private long rescanInterval = RESCAN_INTERVAL;
+    private boolean trainingRun;
+    private DeployWatcher watcher;
     private int sshPort;
     private String sshAuthorizedKeys;
     private String sshUser;
@@ -180,17 +190,15 @@ public class Q2 implements FileFilter, Runnable {
     public void run () {
         started = true;
         Thread.currentThread().setName ("Q2-"+getInstanceId().toString());
+        long jvmStartup = ManagementFactory.getRuntimeMXBean().getUptime();
+        Profiler prof = new Profiler();
 
         Path dir = Paths.get(deployDir.getAbsolutePath());
-        FileSystem fs = dir.getFileSystem();
-        try (WatchService service = fs.newWatchService()) {
-            watchServiceClassname = service.getClass().getName();
-            dir.register(
-              service,
-              StandardWatchEventKinds.ENTRY_CREATE,
-              StandardWatchEventKinds.ENTRY_MODIFY,
-              StandardWatchEventKinds.ENTRY_DELETE
-            );
+        Path lib = Paths.get(libDir.getAbsolutePath());
+        try (DeployWatcher watcher = new DeployWatcher(COALESCE_PERIOD, SCAN_INTERVAL)) {
+            this.watcher = watcher;
+            watchServiceClassname = watcher.getServiceClassname();
+            boolean polling = watcher.isPolling() || !watcher.watch(dir);
             /*
             * The following code determines whether a MBeanServer exists 
             * already. If so then the first one in the list is used. 
@@ -225,6 +233,7 @@ public class Q2 implements FileFilter, Runnable {
                 else
                     t.printStackTrace();
             }
+            prof.checkPoint("classloader");
             factory = new QFactory(loaderName, this);
             writePidFile();
             initSystemLogger();
@@ -242,33 +251,66 @@ public class Q2 implements FileFilter, Runnable {
                   "05_sshd-" + getInstanceId() + ".xml", false, true);
             }
 
+            if (polling && !disableDeployScan)
+                log.info ("deploy directory changes are not watched, polling every " + SCAN_INTERVAL + "ms");
+
+            prof.checkPoint("init");
             deployInternal();
+            prof.checkPoint("internal");
+            boolean rescan = true;
+            long lastScan = 0L;
             for (int i = 1; shutdown.getCount() > 0; i++) {
                 try {
                     if (i > 1 && disableDeployScan) {
                         shutdown.await();
                         break;
                     }
-                    boolean forceNewClassLoader = scan() && i > 1;
-                    QClassLoader oldClassLoader = loader;
-                    loader = loader.scan(forceNewClassLoader);
-                    if (loader != oldClassLoader) {
-                        oldClassLoader = null; // We want this to be null so it gets GCed.
-                        System.gc();  // force a GC
-                        log.info(
-                          "new classloader ["
-                            + Integer.toString(loader.hashCode(), 16)
-                            + "] has been created"
-                        );
-                        q2Thread.setContextClassLoader(loader);
+                    if (rescan) {
+                        watcher.watch(lib);
+                        boolean forceNewClassLoader = scan() && i > 1;
+                        QClassLoader oldClassLoader = loader;
+                        loader = loader.scan(forceNewClassLoader);
+                        if (loader != oldClassLoader) {
+                            oldClassLoader = null; // We want this to be null so it gets GCed.
+                            System.gc();  // force a GC
+                            log.info(
+                              "new classloader ["
+                                + Integer.toString(loader.hashCode(), 16)
+                                + "] has been created"
+                            );
+                            q2Thread.setContextClassLoader(loader);
+                        }
+                        deploy();
+                        if (i == 1)
+                            prof.checkPoint("deploy");
+                        lastScan = System.currentTimeMillis();
                     }
                     logVersion();
-
-                    deploy();
                     checkModified();
+                    if (i == 1) {
+                        if (trainingRun) {
+                            awaitWarmup();
+                            prof.checkPoint("warmup");
+                        }
+                        logStartup(prof, jvmStartup);
+                    }
                     ready.countDown();
-                    if (!waitForChanges(service))
+                    if (trainingRun) {
+                        log.info ("training run done, shutting down");
+                        shutdown.countDown();
+                        unregisterQ2();
                         break;
+                    }
+                    DeployWatcher.Changes changes = waitForChanges(watcher);
+                    if (changes.isInvalid(dir)) {
+                        getLog().warn(String.format (
+                          "deploy directory '%s' no longer valid",
+                          deployDir.getAbsolutePath())
+                        );
+                        break;
+                    }
+                    rescan = polling || !changes.isEmpty()
+                      || rescanInterval > 0L && System.currentTimeMillis() - lastScan >= rescanInterval;
                 } catch (InterruptedException | IllegalAccessError ignored) {
                     // NOPMD
                 } catch (Throwable t) {
@@ -383,8 +425,11 @@ public class Q2 implements FileFilter, Runnable {
     }
 
     private void deploy () {
-        List<ObjectInstance> startList = new ArrayList<ObjectInstance>();
+        List<File> startList = new ArrayList<File>();
         List<File> osgiBundelList = new ArrayList<File>();
+        List<File> parallelList = new ArrayList<File>();
+        Map<File,long[]> times = new LinkedHashMap<>();
+        long begin = System.nanoTime();
         Iterator<Map.Entry<File,QEntry>> iter = dirMap.entrySet().iterator();
 
         try {
@@ -398,13 +443,21 @@ public class Q2 implements FileFilter, Runnable {
                         osgiBundelList.add(f);
                         qentry.setDeployed (f.lastModified ());
                     }
-                    else if (deploy(f)) {
-                        if (qentry.isQBean ())
-                            startList.add (qentry.getInstance());
-                        qentry.setDeployed (f.lastModified ());
-                    } else {
-                        // deploy failed, clean up.
-                        iter.remove();
+                    else if (deployThreads > 0) {
+                        parallelList.add(f);
+                    }
+                    else {
+                        long t = System.nanoTime();
+                        boolean deployedOk = deploy(f);
+                        times.put(f, new long[] { millisSince(t), 0L });
+                        if (deployedOk) {
+                            if (qentry.isQBean ())
+                                startList.add (f);
+                            qentry.setDeployed (f.lastModified ());
+                        } else {
+                            // deploy failed, clean up.
+                            iter.remove();
+                        }
                     }
                 } else if (deployed != f.lastModified ()) {
                     undeploy (f);
@@ -414,12 +467,105 @@ public class Q2 implements FileFilter, Runnable {
             }
             for (File f : osgiBundelList)
                 registerOSGIBundle(f);
-            for (ObjectInstance instance : startList)
-                start(instance);
+            if (!parallelList.isEmpty())
+                deployParallel(parallelList, times);
+            for (File f : startList) {
+                long t = System.nanoTime();
+                start(dirMap.get(f).getInstance());
+                times.get(f)[1] = millisSince(t);
+            }
         }
         catch (Exception e){
             log.error ("deploy", e);
         }
+        if (!times.isEmpty() && log != null) {
+            LogEvent evt = log.createInfo();
+            for (Map.Entry<File,long[]> entry : times.entrySet())
+                evt.addMessage(String.format("%s init=%dms start=%dms",
+                  entry.getKey().getName(), entry.getValue()[0], entry.getValue()[1]));
+            evt.addMessage(String.format("deployed %d descriptor(s) in %dms%s",
+              times.size(), millisSince(begin), deployThreads > 0 ? " (" + deployThreads + " threads)" : ""));
+            Logger.log(evt);
+        }
+    }
+
+    /**
+     * Deploys and starts descriptors concurrently, each one as soon as the
+     * descriptors it depends on (see {@link DeployGraph}) have been started.
+     */
+    private void deployParallel (List<File> files, Map<File,long[]> times) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(deployThreads, r -> {
+            Thread t = new Thread(r, "Q2-deploy");
+            t.setDaemon(true);
+            t.setContextClassLoader(loader);
+            return t;
+        });
+        try {
+            Map<File,CompletableFuture<Document>> parsed = new LinkedHashMap<>();
+            for (File f : files)
+                parsed.put(f, CompletableFuture.supplyAsync(() -> readDescriptorQuietly(f), executor));
+            Map<File,Element> roots = new LinkedHashMap<>();
+            for (Map.Entry<File,CompletableFuture<Document>> entry : parsed.entrySet()) {
+                Document doc = entry.getValue().join();
+                if (doc != null)
+                    roots.put(entry.getKey(), doc.getRootElement());
+            }
+            DeployGraph graph = new DeployGraph(roots);
+            for (String warning : graph.getWarnings())
+                log.warn(warning);
+            List<File> order = graph.sort();
+            if (order == null)
+                log.warn("circular dependency between descriptors, deploying them one at a time");
+
+            Map<File,CompletableFuture<Boolean>> deployed = new LinkedHashMap<>();
+            CompletableFuture<Boolean> previous = CompletableFuture.completedFuture(true);
+            for (File f : files) {
+                if (!roots.containsKey(f))
+                    deployed.put(f, CompletableFuture.supplyAsync(() -> deployAndStart(f, null, times), executor));
+            }
+            for (File f : order != null ? order : roots.keySet()) {
+                CompletableFuture<?>[] deps = order != null ?
+                  graph.getDependencies(f).stream().map(deployed::get).toArray(CompletableFuture<?>[]::new) :
+                  new CompletableFuture<?>[] { previous };
+                Document doc = parsed.get(f).join();
+                previous = CompletableFuture.allOf(deps)
+                  .handle((v, t) -> null)
+                  .thenApplyAsync(v -> deployAndStart(f, doc, times), executor);
+                deployed.put(f, previous);
+            }
+            for (File f : files) {
+                Boolean ok = deployed.get(f).handle((v, t) -> t == null && v).join();
+                if (ok)
+                    dirMap.get(f).setDeployed(f.lastModified());
+                else
+                    dirMap.remove(f);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private boolean deployAndStart (File f, Document doc, Map<File,long[]> times) {
+        if (shutdown.getCount() == 0)
+            return false;
+        long t = System.nanoTime();
+        boolean ok = doc != null ? deploy(f, doc) : deploy(f);
+        long init = millisSince(t);
+        long start = 0L;
+        QEntry qentry = dirMap.get(f);
+        if (ok && qentry.isQBean()) {
+            t = System.nanoTime();
+            start(qentry.getInstance());
+            start = millisSince(t);
+        }
+        synchronized (times) {
+            times.put(f, new long[] { init, start });
+        }
+        return ok;
+    }
+
+    private static long millisSince (long nanoTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanoTime);
     }
 
     private void undeploy () {
@@ -545,6 +691,8 @@ public class Q2 implements FileFilter, Runnable {
     private boolean register (File f) {
         boolean rc = false;
         if (f.isDirectory()) {
+            if (watcher != null)
+                watcher.watch(Paths.get(f.getAbsolutePath()));
             File file[] = f.listFiles (this);
             for (File aFile : file) {
                 if (register(aFile))
@@ -557,20 +705,41 @@ public class Q2 implements FileFilter, Runnable {
         return rc;
     }
 
+    private Document readDescriptor (File f)
+        throws Exception
+    {
+        SAXBuilder builder = createSAXBuilder();
+        if(decorator!=null && !f.getName().equals(LOGGER_CONFIG))
+        {
+            return decrypt(builder.build(new StringReader(decorator.decorateFile(f))));
+        }
+        else
+        {
+            return decrypt(builder.build(f));
+        }
+    }
+
+    /**
+     * @return the descriptor, or null if it can't be read (deploy reports the problem)
+     */
+    private Document readDescriptorQuietly (File f) {
+        try {
+            return readDescriptor(f);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     private boolean deploy (File f) {
+        return deploy (f, null);
+    }
+
+    private boolean deploy (File f, Document doc) {
         LogEvent evt = log != null ? log.createInfo() : null;
         try {
             QEntry qentry = dirMap.get (f);
-            SAXBuilder builder = createSAXBuilder();
-            Document doc;
-            if(decorator!=null && !f.getName().equals(LOGGER_CONFIG))
-            {
-                doc=decrypt(builder.build(new StringReader(decorator.decorateFile(f))));
-            }
-            else
-            {
-                doc=decrypt(builder.build(f));
-            }
+            if (doc == null)
+                doc = readDescriptor(f);
 
             Element rootElement = doc.getRootElement();
             String iuuid = rootElement.getAttributeValue ("instance");
@@ -739,8 +908,11 @@ public class Q2 implements FileFilter, Runnable {
         options.addOption ("su", "ssh-user", true, "SSH user (defaults to 'admin')");
         options.addOption ("sh", "ssh-host-key-file", true, "SSH host key file, defaults to 'cfg/hostkeys.ser'");
         options.addOption ("Ns", "no-scan", false, "Disables deploy directory scan");
+        options.addOption ("Tr", "training-run", false, "Deploy, wait for warmup QBeans and shut down (e.g. with -XX:ArchiveClassesAtExit to create a class-data-sharing archive)");
+        options.addOption ("Ri", "rescan-interval", true, "Full deploy directory rescan interval in millis, in addition to watched changes (defaults to 60000, 0 disables)");
         options.addOption ("Nd", "no-dynamic", false, "Disables dynamic classloader");
         options.addOption ("E", "environment", true, "Environment name");
+        options.addOption ("Pd", "parallel-deploy", true, "Deploy independent QBeans concurrently using the given number of threads");
 
         try {
             CommandLine line = parser.parse (options, args);
@@ -781,6 +953,9 @@ public class Q2 implements FileFilter, Runnable {
             }
             disableDeployScan = line.hasOption("Ns");
             disableDynamicClassloader = line.hasOption("Nd");
+            deployThreads = Integer.parseInt(line.getOptionValue("Pd", "0"));
+            trainingRun = line.hasOption("Tr");
+            rescanInterval = Long.parseLong(line.getOptionValue("Ri", Long.toString(RESCAN_INTERVAL)));
             enableSsh = line.hasOption("s");
             sshPort = Integer.parseInt(line.getOptionValue("sp", "2222"));
             sshAuthorizedKeys = line.getOptionValue ("sa", "cfg/authorized_keys");
@@ -1113,34 +1288,69 @@ public class Q2 implements FileFilter, Runnable {
         }
     }
 
-    private boolean waitForChanges (WatchService service) throws InterruptedException {
-        WatchKey key = service.poll (SCAN_INTERVAL, TimeUnit.MILLISECONDS);
-        if (key != null) {
+    /**
+     * Waits up to {@link #SCAN_INTERVAL} for changes in the deploy and lib directories,
+     * logging them (a burst of changes is reported, and rescanned, once).
+     */
+    private DeployWatcher.Changes waitForChanges (DeployWatcher watcher) throws InterruptedException {
+        DeployWatcher.Changes changes = watcher.await(SCAN_INTERVAL);
+        if (!changes.isEmpty()) {
             LogEvent evt = getLog().createInfo();
-            for (WatchEvent<?> ev : key.pollEvents()) {
-                if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
-                    evt.addMessage(String.format ("created %s/%s", deployDir.getName(), ev.context()));
-                } else if (ev.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
-                    evt.addMessage(String.format ("removed %s/%s", deployDir.getName(), ev.context()));
-                } else if (ev.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
-                    evt.addMessage(String.format ("modified %s/%s", deployDir.getName(), ev.context()));
+            Path dir = Paths.get(deployDir.getAbsolutePath());
+            for (Map.Entry<Path,WatchEvent.Kind<?>> ev : changes.getEvents().entrySet()) {
+                String f = deployDir.getName() + "/" + dir.relativize(ev.getKey());
+                if (ev.getValue() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    evt.addMessage(String.format ("created %s", f));
+                } else if (ev.getValue() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    evt.addMessage(String.format ("removed %s", f));
+                } else if (ev.getValue() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                    evt.addMessage(String.format ("modified %s", f));
                 }
             }
+            if (changes.isOverflow())
+                evt.addMessage("events lost, rescanning " + deployDir.getName());
             Logger.log(evt);
-            if (!key.reset()) {
-                getLog().warn(String.format (
-                  "deploy directory '%s' no longer valid",
-                  deployDir.getAbsolutePath())
-                );
-                return false; // deploy directory no longer valid
-            }
             try {
                 Environment.reload();
             } catch (IOException e) {
                 getLog().warn(e);
             }
         }
-        return true;
+        return changes;
+    }
+
+    /**
+     * Logs startup phase timings, along with JVM startup time (until Q2 started),
+     * classloading and JIT compilation figures, so that class-data-sharing and
+     * warmup effects can be measured.
+     */
+    private void logStartup (Profiler prof, long jvmStartup) {
+        LogEvent evt = getLog().createLogEvent("startup");
+        evt.addMessage(String.format ("jvm %dms (%s)", jvmStartup, System.getProperty("java.vm.info")));
+        evt.addMessage(prof);
+        evt.addMessage(String.format ("total %dms since JVM start", ManagementFactory.getRuntimeMXBean().getUptime()));
+        ClassLoadingMXBean cl = ManagementFactory.getClassLoadingMXBean();
+        evt.addMessage(String.format ("classes loaded %d (%d total)", cl.getLoadedClassCount(), cl.getTotalLoadedClassCount()));
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        if (jit != null && jit.isCompilationTimeMonitoringSupported())
+            evt.addMessage(String.format ("jit %s %dms", jit.getName(), jit.getTotalCompilationTime()));
+        Logger.log(evt);
+    }
+
+    /**
+     * Waits for deployed {@link Warmup} QBeans to finish (used by training runs),
+     * giving each one its configured timeout plus {@link #SHUTDOWN_TIMEOUT} for
+     * the packager iterations that run before its transactions.
+     */
+    private void awaitWarmup () throws InterruptedException {
+        for (QEntry qentry : dirMap.values()) {
+            Object obj = qentry.getObject();
+            if (obj instanceof Warmup) {
+                Warmup warmup = (Warmup) obj;
+                if (!warmup.await(warmup.getTimeout() + SHUTDOWN_TIMEOUT))
+                    getLog().warn("warmup " + warmup.getName() + " did not finish");
+            }
+        }
     }
 
     private void registerQ2() {
@@ -45,7 +45,8 @@ public class DUMPMETRICS implements CLICommand {
         NameRegistrar.getAsMap().forEach((key, value) -> {
             if (value instanceof MetricsProvider) {
                 Metrics metrics = ((MetricsProvider) value).getMetrics();
-                metrics.dumpHistograms(dir, key + "-");
+                if (metrics != null)
+                    metrics.dumpHistograms(dir, key + "-");
             }
         });
     }
@@ -38,8 +38,19 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.net.SocketTimeoutException;
 import java.util.Date;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Runs an ISOChannel, sending messages taken from the <code>in</code> queue
+ * and placing received ones in the <code>out</code> queue.
+ * <p>
+ * A QMUX configured with a <code>channel</code> element binds to this adaptor
+ * and bypasses both queues: requests are written by the caller's thread
+ * (see {@link #write(ISOMsg, long)}, at most <code>max-pending-writes</code>
+ * callers at a time) and responses are handed straight to the QMUX by the
+ * receiver thread. The queues are still used while no QMUX is bound.
+ *
  * @author Alejandro Revilla
  */
 @SuppressWarnings("unchecked")
@@ -50,6 +61,7 @@ public class ChannelAdaptor
     protected Space sp;
     private ISOChannel channel;
     String in, out, ready, reconnect;
+    String[] waitFor;
     long delay;
     boolean keepAlive = false;
     boolean ignoreISOExceptions = false;
@@ -61,6 +73,8 @@ public class ChannelAdaptor
     private Thread receiver;
     private Thread sender;
     private final Object disconnectLock = Boolean.TRUE;
+    private volatile QMUX mux;
+    private Semaphore writers;
 
     public ChannelAdaptor () {
         super ();
@@ -188,6 +202,96 @@ public class ChannelAdaptor
         return out;
     }
 
+    /**
+     * Binds a QMUX, received messages are then dispatched to it
+     * instead of being placed in the <code>out</code> queue.
+     * @param mux the QMUX
+     */
+    public void bind (QMUX mux) {
+        this.mux = mux;
+    }
+    /**
+     * Unbinds a QMUX previously bound with {@link #bind(QMUX)}.
+     * @param mux the QMUX
+     */
+    public void unbind (QMUX mux) {
+        if (this.mux == mux)
+            this.mux = null;
+    }
+    /**
+     * @return the bound QMUX, or null
+     */
+    public QMUX getMUX () {
+        return mux;
+    }
+
+    /**
+     * Writes a message to the channel from the caller's thread, bypassing
+     * the <code>in</code> queue and the Sender thread.
+     *
+     * @param m message to send
+     * @param timeout max time (in millis) to wait for a write slot, 0 waits forever
+     * @return false if the channel is not ready, so the caller can queue the message instead
+     * @throws ISOException if no write slot is available within timeout, or the write fails
+     */
+    public boolean write (ISOMsg m, long timeout) throws ISOException {
+        if (!running() || !isConnected())
+            return false;
+        try {
+            if (timeout > 0) {
+                if (!writers.tryAcquire (timeout, TimeUnit.MILLISECONDS))
+                    throw new ISOException ("channel busy");
+            } else {
+                writers.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ISOException ("interrupted", e);
+        }
+        ISOChannel c = null;
+        try {
+            c = getWriteChannel();
+            if (c == null || !c.isConnected())
+                return false;
+            c.send (m);
+            synchronized (this) { tx++; }
+            return true;
+        } catch (ISOFilter.VetoException e) {
+            throw e;
+        } catch (ISOException e) {
+            getLog().warn ("channel-writer-"+in, e.getMessage ());
+            if (!ignoreISOExceptions)
+                disconnect (c);
+            throw e;
+        } catch (IOException e) {
+            getLog().warn ("channel-writer-"+in, e.getMessage ());
+            disconnect (c);
+            throw new ISOException (e.getMessage(), e);
+        } finally {
+            writers.release();
+        }
+    }
+    /**
+     * @return channel used by {@link #write(ISOMsg, long)}
+     */
+    protected ISOChannel getWriteChannel () {
+        return channel;
+    }
+
+    /**
+     * Hands a received message to the bound QMUX, or places it in the <code>out</code> queue.
+     * @param m received message
+     */
+    protected void deliver (ISOMsg m) {
+        QMUX mux = this.mux;
+        if (mux != null && mux.running())
+            mux.dispatch (m);
+        else if (timeout > 0)
+            sp.out (out, m, timeout);
+        else
+            sp.out (out, m);
+    }
+
     public ISOChannel newChannel (Element e, QFactory f) 
         throws ConfigurationException
     {
@@ -277,8 +381,15 @@ public class ChannelAdaptor
         String t = Environment.get(persist.getChildTextTrim("timeout"));
         timeout = t != null && t.length() > 0 ? Long.parseLong(t) : 0l;
         ready   = getName() + ".ready";
+        String w = Environment.get(persist.getChildTextTrim ("wait-for"));
+        waitFor = w != null ? w.trim().split("[\\s,]+") : new String[0];
         reconnect = getName() + ".reconnect";
         waitForWorkersOnStop = "yes".equalsIgnoreCase(Environment.get(persist.getChildTextTrim ("wait-for-workers-on-stop")));
+        String p = Environment.get(persist.getChildTextTrim ("max-pending-writes"));
+        int permits = p != null && p.length() > 0 ? Integer.parseInt(p) : 100;
+        if (permits < 1)
+            throw new ConfigurationException ("invalid max-pending-writes " + permits);
+        writers = new Semaphore (permits);
     }
 
     @SuppressWarnings("unchecked")
@@ -332,10 +443,7 @@ public class ChannelAdaptor
                     ISOMsg m = channel.receive ();
                     rx++;
                     lastTxn = System.currentTimeMillis();
-                    if (timeout > 0)
-                        sp.out (out, m, timeout);
-                    else
-                        sp.out (out, m);
+                    deliver (m);
                 } catch (ISOFilter.VetoException e) {
                     getLog().warn ("channel-receiver-"+out+"-veto-exception", e.getMessage());
                 } catch (ISOException e) {
@@ -386,8 +494,23 @@ public class ChannelAdaptor
             else
                 connects++;
         }
-        if (running() && sp.rdp (ready) == null)
-            sp.out (ready, new Date());
+        if (running() && sp.rdp (ready) == null) {
+            waitForReadyIndicators();
+            if (running())
+                sp.out (ready, new Date());
+        }
+    }
+    /**
+     * Blocks until every <code>wait-for</code> space entry (e.g. <code>warmup.ready</code>)
+     * is present, so the channel is not marked ready before them.
+     */
+    protected void waitForReadyIndicators () {
+        for (String key : waitFor) {
+            if (key.isEmpty())
+                continue;
+            while (running() && sp.rd (key, 1000L) == null)
+                ; // NOPMD just wait
+        }
     }
     protected void disconnect () {
         // do not synchronize on this as both Sender and Receiver can deadlock against a thread calling stop()
@@ -400,6 +523,12 @@ public class ChannelAdaptor
             }
         }
     }
+    /**
+     * Disconnects after a failed write on channel <code>c</code>.
+     */
+    protected void disconnect (ISOChannel c) {
+        disconnect();
+    }
     public synchronized void setHost (String host) {
         setProperty (getProperties ("channel"), "host", host);
         setModified (true);
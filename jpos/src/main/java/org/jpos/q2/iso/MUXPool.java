@@ -18,30 +18,42 @@
 
 package org.jpos.q2.iso;
 
+import org.HdrHistogram.AtomicHistogram;
 import org.jdom2.Element;
 import org.jpos.core.ConfigurationException;
 import org.jpos.iso.*;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.space.Space;
 import org.jpos.space.SpaceFactory;
+import org.jpos.util.Chronometer;
+import org.jpos.util.EndpointHealth;
+import org.jpos.util.Loggeable;
+import org.jpos.util.Metrics;
+import org.jpos.util.MetricsProvider;
 import org.jpos.util.NameRegistrar;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author apr
  */
-public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
+public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean, Loggeable, MetricsProvider {
     int strategy = 0;
     String[] muxName;
     MUX[] mux;
+    EndpointHealth[] health;
+    Metrics metrics = new Metrics(new AtomicHistogram(60000, 2));
+    ISOMsgMetrics msgMetrics = new ISOMsgMetrics(metrics, QMUX.DEFAULT_METRICS_MAX_KEYS);
     AtomicInteger msgno = new AtomicInteger();
     public static final int ROUND_ROBIN = 1;
     public static final int PRIMARY_SECONDARY = 0;
     public static final int ROUND_ROBIN_WITH_OVERRIDE = 2;
     public static final int SPLIT_BY_DIVISOR = 3;
+    public static final int LEAST_OUTSTANDING = 4;
+    public static final int LEAST_LATENCY = 5;
     String[] overrideMTIs;
     String originalChannelField = "";
     String splitField = "";
@@ -57,11 +69,19 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
         splitField = e.getChildTextTrim("split-field");
         checkEnabled = cfg.getBoolean("check-enabled");
         sp = grabSpace (e.getChild ("space"));
+        msgMetrics = new ISOMsgMetrics(metrics, cfg.getInt("metrics-max-keys", QMUX.DEFAULT_METRICS_MAX_KEYS));
         mux = new MUX[muxName.length];
+        health = new EndpointHealth[muxName.length];
         try {
-            for (int i=0; i<mux.length; i++)
+            for (int i=0; i<mux.length; i++) {
                 mux[i] = QMUX.getMUX (muxName[i]);
-        } catch (NameRegistrar.NotFoundException ex) {
+                health[i] = new EndpointHealth (muxName[i],
+                  cfg.getDouble ("ewma-alpha", 0.2D),
+                  cfg.getInt ("eject-failures", 3),
+                  cfg.getLong ("eject-time", 30000L)
+                );
+            }
+        } catch (NameRegistrar.NotFoundException | IllegalArgumentException ex) {
             throw new ConfigurationException (ex);
         }
         NameRegistrar.register ("mux."+getName (), this);
@@ -76,7 +96,8 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
         if (mux != null) {
             timeout = maxWait - System.currentTimeMillis();
             if (timeout >= 0)
-                return mux.request (m, timeout);
+                return request (mux, m, timeout);
+            cancel (mux);
         }
         return null;
     }
@@ -87,7 +108,11 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
         if (mux == null)
             throw new ISOException ("No available MUX");
 
-        mux.send(m);
+        try {
+            mux.send(m);
+        } finally {
+            cancel (mux); // no response to tell whether a probe succeeded
+        }
     }
     public boolean isConnected() {
         for (MUX m : mux)
@@ -135,8 +160,9 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
         if (mux != null) {
             timeout = maxWait - System.currentTimeMillis();
             if (timeout >= 0)
-                mux.request(m, timeout,r, handBack);
+                request (mux, m, timeout, r, handBack);
             else {
+                cancel (mux);
                 new Thread() {
                     public void run() {
                         r.expired (handBack);
@@ -201,6 +227,10 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
             return ROUND_ROBIN_WITH_OVERRIDE;
         else if("split-by-divisor".equals(stg))
             return SPLIT_BY_DIVISOR;
+        else if("least-outstanding".equals(stg))
+            return LEAST_OUTSTANDING;
+        else if("least-latency".equals(stg))
+            return LEAST_LATENCY;
         else
             return PRIMARY_SECONDARY;
     }
@@ -209,10 +239,140 @@ public class MUXPool extends QBeanSupport implements MUX, MUXPoolMBean {
             case ROUND_ROBIN: return nextAvailableMUX(msgno.incrementAndGet(), maxWait);
             case ROUND_ROBIN_WITH_OVERRIDE: return nextAvailableWithOverrideMUX(m, maxWait);
             case SPLIT_BY_DIVISOR: return splitByDivisorMUX(m, maxWait);
+            case LEAST_OUTSTANDING:
+            case LEAST_LATENCY: return balancedMUX(maxWait);
             default: return firstAvailableMUX(maxWait);
         }
     }
     
+    /**
+     * Picks the healthy MUX with the lowest score, that is, the one with less
+     * outstanding requests (<code>least-outstanding</code>) or the lowest
+     * EWMA latency weighted by its outstanding requests (<code>least-latency</code>).
+     * <p>
+     * Ejected MUXes are skipped until they are due for a probe. If every usable
+     * MUX happens to be ejected, the best one among them is used anyway.
+     */
+    protected MUX balancedMUX (long maxWait) {
+        do {
+            long now = System.currentTimeMillis();
+            int start = msgno.incrementAndGet() & Integer.MAX_VALUE; // rotate ties
+            int best = -1, ejected = -1;
+            for (int i=0; i<mux.length; i++) {
+                int j = (start + i) % mux.length;
+                if (!isUsable(mux[j]))
+                    continue;
+                EndpointHealth h = health[j];
+                if (h.isEjected(now)) {
+                    if (ejected < 0 || score(h) < score(health[ejected]))
+                        ejected = j;
+                    continue;
+                }
+                if (h.tryProbe(now))
+                    return mux[j];
+                if (best < 0 || score(h) < score(health[best]))
+                    best = j;
+            }
+            if (best < 0)
+                best = ejected;
+            if (best >= 0)
+                return mux[best];
+            ISOUtil.sleep (1000);
+        } while (System.currentTimeMillis() < maxWait);
+        return null;
+    }
+
+    private double score (EndpointHealth h) {
+        if (strategy == LEAST_LATENCY)
+            return h.getLatency() * (h.getOutstanding() + 1);
+        return h.getOutstanding() + h.getLatency() / (h.getLatency() + 1D);
+    }
+
+    private ISOMsg request (MUX mux, ISOMsg m, long timeout) throws ISOException {
+        EndpointHealth h = getHealth (mux);
+        Chronometer c = new Chronometer();
+        ISOMsg resp = null;
+        h.begin();
+        try {
+            resp = mux.request (m, timeout);
+        } finally {
+            completed (h, resp != null, c.elapsed());
+        }
+        msgMetrics.record (h.getName(), m, resp != null ? resp.getString(39) : ISOMsgMetrics.EXPIRED, c.elapsed());
+        return resp;
+    }
+
+    private void request (MUX mux, final ISOMsg m, long timeout, final ISOResponseListener r, Object handBack)
+      throws ISOException
+    {
+        final EndpointHealth h = getHealth (mux);
+        final Chronometer c = new Chronometer();
+        h.begin();
+        try {
+            mux.request (m, timeout, new ISOResponseListener() {
+                public void responseReceived (ISOMsg resp, Object handBack) {
+                    long elapsed = c.elapsed();
+                    completed (h, true, elapsed);
+                    msgMetrics.record (h.getName(), m, resp.getString(39), elapsed);
+                    r.responseReceived (resp, handBack);
+                }
+                public void expired (Object handBack) {
+                    long elapsed = c.elapsed();
+                    completed (h, false, elapsed);
+                    msgMetrics.record (h.getName(), m, ISOMsgMetrics.EXPIRED, elapsed);
+                    r.expired (handBack);
+                }
+            }, handBack);
+        } catch (ISOException | RuntimeException e) {
+            completed (h, false, c.elapsed());
+            throw e;
+        }
+    }
+
+    private void completed (EndpointHealth h, boolean ok, long elapsed) {
+        if (ok) {
+            h.success (elapsed);
+            metrics.record (h.getName() + ".ok", elapsed);
+        } else
+            h.failure (elapsed);
+        metrics.record (h.getName() + ".all", elapsed);
+    }
+
+    private void cancel (MUX mux) {
+        getHealth(mux).cancel();
+    }
+
+    /**
+     * @return health of a pooled MUX; a MUX that is not in the pool (i.e. one
+     * picked by a subclass) gets a fresh, untracked and never ejected instance
+     */
+    private EndpointHealth getHealth (MUX m) {
+        for (int i=0; i<mux.length; i++)
+            if (mux[i] == m)
+                return health[i];
+        return new EndpointHealth (String.valueOf (m), 0.2D, 0, 0L);
+    }
+
+    /**
+     * @return per-MUX latency histograms (<code>&lt;mux&gt;.all</code>, <code>&lt;mux&gt;.ok</code>)
+     */
+    @Override
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public EndpointHealth[] getHealth() {
+        return health;
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        if (health != null)
+            for (EndpointHealth h : health)
+                h.dump (p, indent);
+        metrics.dump (p, indent);
+    }
+
     @Override
     public String[] getMuxNames() {
         return muxName;
@@ -28,8 +28,30 @@ import org.jpos.util.NameRegistrar;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * ISOChannel adaptor using several sessions (connections) to the same endpoint.
+ * <p>
+ * By default received messages are placed in the <code>out</code> queue,
+ * where a QMUX picks them up. With a <code>dispatch</code> element they are
+ * handed straight to the named QMUX instead, skipping the space:
+ * <pre>
+ *   &lt;dispatch mux="jcard"&gt;direct&lt;/dispatch&gt;
+ *   &lt;dispatch mux="jcard" threads="4" queue="1000"&gt;striped&lt;/dispatch&gt;
+ * </pre>
+ * <code>direct</code> dispatches from the session's receiver thread;
+ * <code>striped</code> uses <code>threads</code> dispatcher threads, each
+ * session always going through the same one, so responses and unsolicited
+ * messages of a session are processed in order. Messages fall back to the
+ * <code>out</code> queue while the QMUX is not running.
+ * <p>
+ * A QMUX bound to this adaptor (see {@link ChannelAdaptor}) gets received
+ * messages directly, the <code>mux</code> attribute can then be omitted;
+ * its direct writes are spread across sessions in round robin.
+ *
  * @author apr
  * @since 1.8.5
  */
@@ -41,6 +63,12 @@ public class MultiSessionChannelAdaptor
     int sessions = 1;
     ISOChannel[] channels;
     int roundRobinCounter = 0;
+    private final Object roundRobinLock = new Object();
+    String dispatch;
+    String dispatchMux;
+    int dispatchThreads;
+    int dispatchQueue;
+    Stripe[] stripes;
 
     public MultiSessionChannelAdaptor () {
         super ();
@@ -61,6 +89,17 @@ public class MultiSessionChannelAdaptor
 
                 }
                 channels[i] = c;
+            }
+            if (!writeOnly && "striped".equals(dispatch)) {
+                stripes = new Stripe[dispatchThreads];
+                for (int i=0; i<stripes.length; i++) {
+                    stripes[i] = new Stripe(dispatchQueue);
+                    Thread t = new Thread (stripes[i], "channel-dispatcher-" + in + "-" + i);
+                    t.setDaemon(true);
+                    t.start();
+                }
+            }
+            for (int i=0; i<sessions; i++) {
                 if (!writeOnly)
                     new Thread (new Receiver (i), "channel-receiver-" + in + "-" + i).start ();
             }
@@ -70,6 +109,15 @@ public class MultiSessionChannelAdaptor
         }
     }
 
+    public void stopService () {
+        super.stopService();
+        if (stripes != null) {
+            for (Stripe stripe : stripes)
+                stripe.stop();
+            stripes = null;
+        }
+    }
+
     public int getSessions() {
         return sessions;
     }
@@ -137,10 +185,7 @@ public class MultiSessionChannelAdaptor
                     ISOMsg m = channel.receive ();
                     rx++;
                     lastTxn = System.currentTimeMillis();
-                    if (timeout > 0)
-                        sp.out (out, m, timeout);
-                    else
-                        sp.out (out, m);
+                    deliver (slot, m);
                 } catch (ISOException e) {
                     if (running()) {
                         getLog().warn ("channel-receiver-"+out, e);
@@ -165,6 +210,45 @@ public class MultiSessionChannelAdaptor
         Element persist = getPersist ();
         String s = persist.getChildTextTrim("sessions");
         setSessions(s != null && s.length() > 0 ? Integer.parseInt(s) : 1);
+        Element e = persist.getChild("dispatch");
+        dispatch = e != null ? e.getTextTrim() : "space";
+        if ("direct".equals(dispatch) || "striped".equals(dispatch)) {
+            dispatchMux = e.getAttributeValue("mux");
+            try {
+                dispatchThreads = Integer.parseInt(e.getAttributeValue("threads", Integer.toString(sessions)));
+                dispatchQueue = Integer.parseInt(e.getAttributeValue("queue", "1000"));
+            } catch (NumberFormatException ex) {
+                throw new ConfigurationException ("invalid dispatch threads/queue", ex);
+            }
+            if (dispatchThreads < 1 || dispatchQueue < 1)
+                throw new ConfigurationException ("invalid dispatch threads/queue");
+        } else if (!"space".equals(dispatch)) {
+            throw new ConfigurationException ("invalid dispatch '" + dispatch + "'");
+        }
+    }
+
+    /**
+     * Hands a received message to the QMUX (directly or through the session's
+     * stripe), or places it in the <code>out</code> queue.
+     */
+    protected void deliver (int slot, ISOMsg m) throws InterruptedException {
+        QMUX mux = dispatchMux != null ? getDispatchMUX() : getMUX();
+        if (mux != null && mux.running()) {
+            Stripe[] s = stripes;
+            if (s != null)
+                s[slot % s.length].put(mux, m);
+            else
+                mux.dispatch(m);
+        } else if (timeout > 0) {
+            sp.out (out, m, timeout);
+        } else {
+            sp.out (out, m);
+        }
+    }
+
+    private QMUX getDispatchMUX () {
+        Object o = NameRegistrar.getIfExists("mux." + dispatchMux);
+        return o instanceof QMUX ? (QMUX) o : null;
     }
 
     private void connect (int slot) {
@@ -178,7 +262,12 @@ public class MultiSessionChannelAdaptor
             }
         }
     }
-    private void disconnect (ISOChannel channel) {
+    @Override
+    protected ISOChannel getWriteChannel () {
+        return getNextChannel();
+    }
+    @Override
+    protected void disconnect (ISOChannel channel) {
         try {
             if (getConnectedCount() <= 1)
                 SpaceUtil.wipe(sp, ready);
@@ -192,15 +281,53 @@ public class MultiSessionChannelAdaptor
     }
     private ISOChannel getNextChannel() {
         ISOChannel c = null;
-        for (int size = channels.length; size > 0; size--) {
-            c = channels[roundRobinCounter++ % channels.length];
-            if (c != null && c.isConnected())
-                break;
+        synchronized (roundRobinLock) { // Sender and direct writers
+            for (int size = channels.length; size > 0; size--) {
+                c = channels[roundRobinCounter++ % channels.length];
+                if (c != null && c.isConnected())
+                    break;
+            }
         }
         if (c == null)
             SpaceUtil.wipe(sp, ready);
         return c;
     }
+    /**
+     * Dispatcher thread serving a fixed subset of sessions, in order.
+     */
+    class Stripe implements Runnable {
+        private final BlockingQueue<Object[]> queue;
+        private volatile boolean running = true;
+
+        Stripe (int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Queues a message, blocking (and so slowing down the receiver) while the stripe is busy.
+         */
+        void put (QMUX mux, ISOMsg m) throws InterruptedException {
+            queue.put(new Object[] { mux, m });
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    Object[] o = queue.poll(1000L, TimeUnit.MILLISECONDS);
+                    if (o != null)
+                        ((QMUX) o[0]).dispatch((ISOMsg) o[1]);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    getLog().warn ("channel-dispatcher-" + in, e);
+                }
+            }
+        }
+    }
     private int getConnectedCount() {
         int connected = 0;
         for (ISOChannel c : channels) {
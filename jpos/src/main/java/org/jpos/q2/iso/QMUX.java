@@ -35,6 +35,15 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Matches requests with their responses over the <code>out</code> and
+ * <code>in</code> queues of a channel adaptor.
+ * <p>
+ * With a <code>channel</code> element naming a ChannelAdaptor (or a
+ * MultiSessionChannelAdaptor), the QMUX binds to it and skips the space:
+ * requests are written to the channel by the calling thread and responses
+ * are dispatched by the channel's receiver. The queues are still used while
+ * the channel is not deployed or not connected, so they must be configured.
+ *
  * @author Alejandro Revilla
  */
 @SuppressWarnings("unchecked")
@@ -44,8 +53,11 @@ public class QMUX
 {
     static final String nomap = "0123456789";
     static final String DEFAULT_KEY = "41, 11";
+    static final int DEFAULT_METRICS_MAX_KEYS = 100;
     protected LocalSpace sp;
     protected String in, out, unhandled;
+    protected String channelName;
+    private volatile ChannelAdaptor channel;
     protected String[] ready;
     protected String[] key;
     protected String ignorerc;
@@ -55,6 +67,7 @@ public class QMUX
     private LocalSpace isp; // internal space
     private Map<String,String[]> mtiKey = new HashMap<>();
     private Metrics metrics = new Metrics(new AtomicHistogram(60000, 2));
+    private ISOMsgMetrics msgMetrics = new ISOMsgMetrics(metrics, DEFAULT_METRICS_MAX_KEYS);
 
     List<ISORequestListener> listeners;
     private volatile int rx, tx, rxExpired, txExpired, rxPending, rxUnhandled, rxForwarded;
@@ -77,6 +90,7 @@ public class QMUX
         ignorerc  = Environment.get(e.getChildTextTrim ("ignore-rc"));
         key = toStringArray(DEFAULT_KEY, ", ", null);
         returnRejects = cfg.getBoolean("return-rejects", false);
+        msgMetrics = new ISOMsgMetrics(metrics, cfg.getInt("metrics-max-keys", DEFAULT_METRICS_MAX_KEYS));
         for (Element keyElement : e.getChildren("key")) {
             String mtiOverride = QFactory.getAttributeValue(keyElement, "mti");
             if (mtiOverride != null && mtiOverride.length() >= 2) {
@@ -91,6 +105,7 @@ public class QMUX
             mtiMapping = new String[] { nomap, nomap, "0022446789" };
         addListeners ();
         unhandled = Environment.get(e.getChildTextTrim ("unhandled"));
+        channelName = Environment.get(e.getChildTextTrim ("channel"));
         NameRegistrar.register ("mux."+getName (), this);
     }
     public void startService () {
@@ -104,10 +119,15 @@ public class QMUX
                     sp.out(in, o);
             }
         }
+        getChannelAdaptor();
     }
     public void stopService () {
         listenerRegistered = false;
         sp.removeListener (in, this);
+        ChannelAdaptor ca = channel;
+        if (ca != null)
+            ca.unbind (this);
+        channel = null;
     }
     public void destroyService () {
         NameRegistrar.unregister ("mux."+getName ());
@@ -125,9 +145,14 @@ public class QMUX
     }
 
     /**
+     * When bound to a channel adaptor, the time spent waiting for a write slot
+     * is part of <code>timeout</code>.
+     *
      * @param m message to send
      * @param timeout amount of time in millis to wait for a response
      * @return response or null
+     * @throws ISOException on duplicate keys and, when bound to a channel adaptor,
+     *   if no write slot is available within timeout ("channel busy") or the write fails
      */
     public ISOMsg request (ISOMsg m, long timeout) throws ISOException {
         String key = getKey (m);
@@ -139,17 +164,20 @@ public class QMUX
         }
         m.setDirection(0);
         Chronometer c = new Chronometer();
-        if (timeout > 0)
-            sp.out (out, m, timeout);
-        else
-            sp.out (out, m);
+        try {
+            transmit (m, timeout);
+        } catch (ISOException e) {
+            isp.inp (req);
+            throw e;
+        }
 
         ISOMsg resp;
         try {
             synchronized (this) { tx++; rxPending++; }
 
+            long end = System.currentTimeMillis() + (timeout > 0 ? timeout - c.elapsed() : timeout);
             for (;;) {
-                resp = (ISOMsg) isp.in (key, timeout);
+                resp = (ISOMsg) isp.in (key, timeout > 0 ? Math.max (end - System.currentTimeMillis(), 0L) : timeout);
                 if (!shouldIgnore (resp))
                     break;
             }
@@ -175,8 +203,20 @@ public class QMUX
         metrics.record("all", elapsed);
         if (resp != null)
             metrics.record("ok", elapsed);
+        msgMetrics.record(null, m, resp != null ? resp.getString(39) : ISOMsgMetrics.EXPIRED, elapsed);
         return resp;
     }
+    /**
+     * Sends a request and reports its response, or its expiration, to a listener.
+     *
+     * @param m message to send
+     * @param timeout amount of time in millis to wait for a response, including
+     *   the time spent waiting for a write slot when bound to a channel adaptor
+     * @param rl listener notified of the response or its expiration
+     * @param handBack opaque object handed back to the listener
+     * @throws ISOException on duplicate keys and, when bound to a channel adaptor,
+     *   if no write slot is available within timeout ("channel busy") or the write fails
+     */
     public void request (ISOMsg m, long timeout, ISOResponseListener rl, Object handBack)
       throws ISOException
     {
@@ -186,18 +226,24 @@ public class QMUX
             if (isp.rdp (req) != null)
                 throw new ISOException ("Duplicate key '" + req + "' detected.");
             m.setDirection(0);
-            AsyncRequest ar = new AsyncRequest (rl, handBack);
+            AsyncRequest ar = new AsyncRequest (m, rl, handBack);
+            synchronized (this) { rxPending++; } // before the expiration can run
             synchronized (ar) {
                 if (timeout > 0)
                     ar.setFuture(getScheduledThreadPoolExecutor().schedule(ar, timeout, TimeUnit.MILLISECONDS));
             }
             isp.out (req, ar, timeout);
+            try {
+                transmit (m, timeout);
+            } catch (ISOException e) {
+                isp.inp (req);
+                if (ar.future != null && !ar.future.cancel (false))
+                    return; // expired while waiting for a write slot, listener already notified
+                synchronized (this) { rxPending--; }
+                throw e;
+            }
         }
-        if (timeout > 0)
-            sp.out (out, m, timeout);
-        else
-            sp.out (out, m);
-        synchronized (this) { tx++; rxPending++; }
+        synchronized (this) { tx++; }
     }
 
     protected boolean isNotifyEligible(ISOMsg msg) {
@@ -217,30 +263,41 @@ public class QMUX
     @Override
     public void notify (Object k, Object value) {
         Object obj = sp.inp (k);
-        if (obj instanceof ISOMsg) {
-            ISOMsg m = (ISOMsg) obj;
-            try {
-                if (isNotifyEligible(m)) {
-                    String key = getKey (m);
-                    String req = key + ".req";
-                    Object r = isp.inp (req);
-                    if (r != null) {
-                        if (r instanceof AsyncRequest) {
-                            ((AsyncRequest) r).responseReceived (m);
-                        } else {
-                            isp.out (key, m);
-                        }
-                        return;
+        if (obj instanceof ISOMsg)
+            dispatch ((ISOMsg) obj);
+    }
+
+    /**
+     * Correlates a received message with its pending request, or handles it as
+     * unhandled (request listeners, unhandled queue).
+     * <p>
+     * Called by {@link #notify(Object, Object)} for messages placed in the <code>in</code>
+     * queue, and directly by channel adaptors configured to skip the space hop.
+     *
+     * @param m received message
+     */
+    public void dispatch (ISOMsg m) {
+        try {
+            if (isNotifyEligible(m)) {
+                String key = getKey (m);
+                String req = key + ".req";
+                Object r = isp.inp (req);
+                if (r != null) {
+                    if (r instanceof AsyncRequest) {
+                        ((AsyncRequest) r).responseReceived (m);
+                    } else {
+                        isp.out (key, m);
                     }
+                    return;
                 }
-            } catch (ISOException e) {
-                LogEvent evt = getLog().createLogEvent("notify");
-                evt.addMessage(e);
-                evt.addMessage(obj);
-                Logger.log(evt);
             }
-            processUnhandled (m);
+        } catch (ISOException e) {
+            LogEvent evt = getLog().createLogEvent("notify");
+            evt.addMessage(e);
+            evt.addMessage(m);
+            Logger.log(evt);
         }
+        processUnhandled (m);
     }
 
     public String getKey (ISOMsg m) throws ISOException {
@@ -453,7 +510,40 @@ public class QMUX
     public void send(ISOMsg m) throws IOException, ISOException {
         if (!isConnected())
             throw new ISOException ("MUX is not connected");
-        sp.out (out, m);
+        transmit (m, 0L);
+    }
+
+    /**
+     * Writes a message to the bound channel, or places it in the <code>out</code> queue.
+     */
+    private void transmit (ISOMsg m, long timeout) throws ISOException {
+        ChannelAdaptor ca = getChannelAdaptor();
+        if (ca != null && ca.write (m, timeout))
+            return;
+        if (timeout > 0)
+            sp.out (out, m, timeout);
+        else
+            sp.out (out, m);
+    }
+
+    /**
+     * Looks up the channel adaptor named by the <code>channel</code> element,
+     * binding to it if it has been (re)deployed since last seen.
+     *
+     * @return the channel adaptor, or null
+     */
+    private ChannelAdaptor getChannelAdaptor () {
+        if (channelName == null)
+            return null;
+        Object o = NameRegistrar.getIfExists (channelName);
+        if (!(o instanceof ChannelAdaptor))
+            return null;
+        ChannelAdaptor ca = (ChannelAdaptor) o;
+        if (ca != channel || ca.getMUX() != this) {
+            ca.bind (this);
+            channel = ca;
+        }
+        return ca;
     }
 
     public boolean isConnected() {
@@ -509,12 +599,17 @@ public class QMUX
         sb.append (value);
     }
     public class AsyncRequest implements Runnable {
+        ISOMsg request;
         ISOResponseListener rl;
         Object handBack;
         ScheduledFuture future;
         Chronometer chrono;
         public AsyncRequest (ISOResponseListener rl, Object handBack) {
+            this (null, rl, handBack);
+        }
+        public AsyncRequest (ISOMsg request, ISOResponseListener rl, Object handBack) {
             super();
+            this.request = request;
             this.rl = rl;
             this.handBack = handBack;
             this.chrono = new Chronometer();
@@ -532,6 +627,8 @@ public class QMUX
                 long elapsed = chrono.elapsed();
                 metrics.record("all", elapsed);
                 metrics.record("ok", elapsed);
+                if (request != null)
+                    msgMetrics.record(null, request, response.getString(39), elapsed);
                 rl.responseReceived(response, handBack);
             }
         }
@@ -539,7 +636,10 @@ public class QMUX
             synchronized(QMUX.this) {
                 rxPending--;
             }
-            metrics.record("all", chrono.elapsed());
+            long elapsed = chrono.elapsed();
+            metrics.record("all", elapsed);
+            if (request != null)
+                msgMetrics.record(null, request, ISOMsgMetrics.EXPIRED, elapsed);
             rl.expired(handBack);
         }
     }
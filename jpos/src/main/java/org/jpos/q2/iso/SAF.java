@@ -0,0 +1,606 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.iso;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.*;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.*;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Store and forward queue (reversals, advices) with one bounded backlog per destination.
+ * <p>
+ * Messages are persisted to the configured space, one entry per message
+ * (<code>&lt;name&gt;.&lt;destination&gt;.&lt;seq&gt;</code>) along with the destination's
+ * head and tail sequence numbers, so any persistent space survives restarts.
+ * Delivery is asynchronous through the destination's MUX, with up to
+ * <code>concurrency</code> requests in flight, so a large backlog drains at link
+ * speed while the cap (and optional <code>max-tps</code>) keeps room for live traffic.
+ * <p>
+ * A response with a result code not listed in <code>retry-rc</code> acknowledges
+ * the message; timeouts and retry codes schedule a retransmission (with the
+ * retransmission MTI, e.g. 0421) using exponential backoff. Acknowledged entries are
+ * removed from the space in batches. Delivery is at-least-once: a restart may
+ * resend messages acknowledged since the last batch.
+ * <p>
+ * The destination's head only moves past contiguous acknowledged messages, so
+ * a message that keeps failing would hold back the release of every later one.
+ * After <code>park-after</code> unsuccessful attempts (default 10, 0 disables it)
+ * such a message is moved to the <code>&lt;name&gt;.&lt;destination&gt;.parked</code>
+ * queue, from where {@link #resubmitParked(String)} can store it again.
+ * <code>max-attempts</code>, when set, gives up on (drops) a message instead.
+ * <pre>
+ *  &lt;saf class="org.jpos.q2.iso.SAF" logger="Q2"&gt;
+ *    &lt;property name="space" value="jdbm:saf" /&gt;
+ *    &lt;property name="timeout" value="30000" /&gt;
+ *    &lt;property name="retry-rc" value="91 96" /&gt;
+ *    &lt;destination name="visa" mux="visa" concurrency="16" max-size="500000" /&gt;
+ *    &lt;destination name="mc" mux="mc" max-tps="200" /&gt;
+ *  &lt;/saf&gt;
+ * </pre>
+ * Without <code>destination</code> elements, a single destination named after the
+ * <code>mux</code> property is used.
+ */
+public class SAF extends QBeanSupport implements SAFMBean, Loggeable, MetricsProvider {
+    private Space<String,Object> sp;
+    private final Map<String,Destination> destinations = new LinkedHashMap<>();
+    private long timeout;
+    private long initialDelay;
+    private long maxDelay;
+    private int maxAttempts;
+    private int parkAfter;
+    private Set<String> retryRC;
+    private boolean retransmissionMTI;
+    private int ackBatch;
+    private long ackInterval;
+    private final Object ackSignal = new Object();
+    private final List<Thread> threads = new ArrayList<>();
+    private Metrics metrics = new Metrics(new AtomicHistogram(60000, 2));
+    private ISOMsgMetrics msgMetrics = new ISOMsgMetrics(metrics, QMUX.DEFAULT_METRICS_MAX_KEYS);
+
+    @Override
+    public void initService () throws ConfigurationException {
+        sp = grabSpace(cfg.get("space", ""));
+        timeout = cfg.getLong("timeout", 30000L);
+        initialDelay = cfg.getLong("initial-delay", 1000L);
+        maxDelay = cfg.getLong("max-delay", 60000L);
+        maxAttempts = cfg.getInt("max-attempts", 0);
+        parkAfter = cfg.getInt("park-after", 10);
+        retryRC = new HashSet<>(Arrays.asList(cfg.get("retry-rc", "").trim().split("[\\s,]+")));
+        retryRC.remove("");
+        retransmissionMTI = cfg.getBoolean("retransmission-mti", true);
+        ackBatch = cfg.getInt("ack-batch", 100);
+        ackInterval = cfg.getLong("ack-interval", 100L);
+        msgMetrics = new ISOMsgMetrics(metrics, cfg.getInt("metrics-max-keys", QMUX.DEFAULT_METRICS_MAX_KEYS));
+
+        destinations.clear();
+        for (Element e : getPersist().getChildren("destination"))
+            addDestination(e.getAttributeValue("name"), e.getAttributeValue("mux"), e);
+        if (destinations.isEmpty())
+            addDestination(cfg.get("mux", null), cfg.get("mux", null), null);
+        NameRegistrar.register(getName(), this);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Space<String,Object> grabSpace (String uri) {
+        return (Space<String,Object>) SpaceFactory.getSpace(uri);
+    }
+
+    @Override
+    public void startService () {
+        threads.clear();
+        for (Destination d : destinations.values()) {
+            d.recover();
+            threads.add(new Thread(d::send, getName() + "-" + d.name));
+        }
+        threads.add(new Thread(this::ack, getName() + "-ack"));
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    @Override
+    public void stopService () {
+        for (Thread t : threads)
+            t.interrupt();
+        for (Thread t : threads) {
+            try {
+                t.join(5000L);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        threads.clear();
+        for (Destination d : destinations.values())
+            d.flush();
+    }
+
+    @Override
+    public void destroyService () {
+        NameRegistrar.unregister(getName());
+        for (Destination d : destinations.values())
+            d.tps.stop();
+    }
+
+    /**
+     * Stores a message for the first (default) destination.
+     * @param m message
+     * @return false if the destination's backlog is full
+     */
+    public boolean store (ISOMsg m) {
+        return store(destinations.keySet().iterator().next(), m);
+    }
+
+    /**
+     * Stores a message for later delivery.
+     * @param destination destination name
+     * @param m message (a copy is stored)
+     * @return false if the destination's backlog is full
+     * @throws IllegalArgumentException if the destination is not configured
+     */
+    public boolean store (String destination, ISOMsg m) {
+        Destination d = destinations.get(destination);
+        if (d == null)
+            throw new IllegalArgumentException("invalid destination " + destination);
+        return d.store((ISOMsg) m.clone());
+    }
+
+    /**
+     * Stores parked messages (see class description) again, at the end of the backlog.
+     * @param destination destination name
+     * @return number of messages stored, stops early if the backlog is full
+     * @throws IllegalArgumentException if the destination is not configured
+     */
+    @Override
+    public int resubmitParked (String destination) {
+        Destination d = destinations.get(destination);
+        if (d == null)
+            throw new IllegalArgumentException("invalid destination " + destination);
+        int n = 0;
+        Object o;
+        while ((o = sp.inp(d.key + ".parked")) instanceof Entry) {
+            if (!d.store(((Entry) o).getMsg())) {
+                sp.push(d.key + ".parked", o);
+                break;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    public static SAF getSAF (String name) throws NameRegistrar.NotFoundException {
+        return (SAF) NameRegistrar.get(name);
+    }
+
+    @Override
+    public String[] getDestinations() {
+        return destinations.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public int getBacklog() {
+        int n = 0;
+        for (Destination d : destinations.values())
+            n += d.backlog.get();
+        return n;
+    }
+
+    /**
+     * @param destination destination name
+     * @return messages not yet acknowledged, -1 if the destination is not configured
+     */
+    public int getBacklog (String destination) {
+        Destination d = destinations.get(destination);
+        return d != null ? d.backlog.get() : -1;
+    }
+
+    @Override
+    public int getInFlight() {
+        int n = 0;
+        for (Destination d : destinations.values())
+            n += d.inFlight.get();
+        return n;
+    }
+
+    @Override
+    public long getDelivered() {
+        long n = 0L;
+        for (Destination d : destinations.values())
+            n += d.delivered.get();
+        return n;
+    }
+
+    @Override
+    public int getTPS() {
+        int n = 0;
+        for (Destination d : destinations.values())
+            n += d.tps.intValue();
+        return n;
+    }
+
+    @Override
+    public long getAge() {
+        long age = 0L;
+        for (Destination d : destinations.values())
+            age = Math.max(age, d.getAge());
+        return age;
+    }
+
+    @Override
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        String inner = indent + "  ";
+        for (Destination d : destinations.values()) {
+            p.printf("%s<destination name=\"%s\" mux=\"%s\">%n", indent, d.name, d.mux);
+            p.printf("%sbacklog=%d, age=%dms, in-flight=%d, delivered=%d, retries=%d, rejected=%d, failed=%d, parked=%d, tps=%d%n",
+              inner, d.backlog.get(), d.getAge(), d.inFlight.get(), d.delivered.get(),
+              d.retries.get(), d.rejected.get(), d.failed.get(), d.parked.get(), d.tps.intValue());
+            p.printf("%s</destination>%n", indent);
+        }
+        metrics.dump(p, indent);
+    }
+
+    private void addDestination (String name, String mux, Element e) throws ConfigurationException {
+        if (name == null || mux == null)
+            throw new ConfigurationException("destination requires name and mux");
+        if (destinations.containsKey(name))
+            throw new ConfigurationException("duplicate destination " + name);
+        int maxSize = getInt(e, "max-size", cfg.getInt("max-size", 100000));
+        int concurrency = getInt(e, "concurrency", cfg.getInt("concurrency", 8));
+        int maxTps = getInt(e, "max-tps", cfg.getInt("max-tps", 0));
+        if (maxSize < 1 || concurrency < 1)
+            throw new ConfigurationException("invalid max-size/concurrency for destination " + name);
+        destinations.put(name, new Destination(name, mux, maxSize, concurrency, maxTps));
+    }
+
+    private static int getInt (Element e, String attr, int def) throws ConfigurationException {
+        String s = e != null ? e.getAttributeValue(attr) : null;
+        try {
+            return s != null ? Integer.parseInt(s.trim()) : def;
+        } catch (NumberFormatException ex) {
+            throw new ConfigurationException("invalid " + attr + " '" + s + "'", ex);
+        }
+    }
+
+    private void ack () {
+        while (running()) {
+            synchronized (ackSignal) {
+                try {
+                    ackSignal.wait(ackInterval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            for (Destination d : destinations.values())
+                d.flush();
+        }
+    }
+
+    private long backoff (int attempts) {
+        long delay = initialDelay;
+        for (int i=1; i<attempts && delay < maxDelay; i++)
+            delay <<= 1;
+        return Math.min(delay, maxDelay);
+    }
+
+    /**
+     * A stored message
+     */
+    public static class Entry implements Serializable {
+        private static final long serialVersionUID = 5823154609815837221L;
+        private final ISOMsg msg;
+        private final long created;
+
+        public Entry (ISOMsg msg, long created) {
+            this.msg = msg;
+            this.created = created;
+        }
+        public ISOMsg getMsg() {
+            return msg;
+        }
+        public long getCreated() {
+            return created;
+        }
+    }
+
+    private static class Ticket implements Delayed {
+        final long seq;
+        final int generation;
+        int attempts;
+        long due;
+        ISOMsg sent;
+        Chronometer chrono;
+
+        Ticket (long seq, int generation) {
+            this.seq = seq;
+            this.generation = generation;
+        }
+
+        @Override
+        public long getDelay (TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo (Delayed o) {
+            Ticket t = (Ticket) o;
+            int c = Long.compare(due, t.due);
+            return c != 0 ? c : Long.compare(seq, t.seq);
+        }
+    }
+
+    private class Destination implements ISOResponseListener {
+        final String name;
+        final String mux;
+        final int maxSize;
+        final int concurrency;
+        volatile Semaphore permits;
+        final ThroughputControl throughput;
+        final String key;
+        final DelayQueue<Ticket> retryQueue = new DelayQueue<>();
+        final Queue<Long> acks = new ConcurrentLinkedQueue<>();
+        final TreeSet<Long> acked = new TreeSet<>();
+        final AtomicInteger backlog = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong parked = new AtomicLong();
+        final TPS tps = new TPS(true);
+        volatile int generation; // tickets issued before the last recover() are stale
+        volatile long head;
+        long next;
+        long tail;
+
+        Destination (String name, String mux, int maxSize, int concurrency, int maxTps) {
+            this.name = name;
+            this.mux = mux;
+            this.maxSize = maxSize;
+            this.concurrency = concurrency;
+            this.permits = new Semaphore(concurrency);
+            this.throughput = maxTps > 0 ? new ThroughputControl(maxTps, 1000) : null;
+            this.key = getName() + "." + name;
+        }
+
+        synchronized void recover() {
+            generation++; // responses to requests sent before the restart are ignored
+            permits = new Semaphore(concurrency);
+            inFlight.set(0);
+            head = getLong(key + ".head");
+            tail = Math.max(head, getLong(key + ".tail"));
+            long stored = tail;
+            while (sp.rdp(key + "." + tail) instanceof Entry)
+                tail++; // stored, but tail not updated before a crash
+            if (tail > stored) {
+                getLog().warn(String.format("%s: recovered %d message(s) beyond tail %d", name, tail - stored, stored));
+                sp.put(key + ".tail", tail);
+            }
+            next = head;
+            retryQueue.clear();
+            acks.clear();
+            acked.clear();
+            backlog.set((int) (tail - head));
+            if (tail > head)
+                getLog().info(String.format("%s: %d message(s) pending", name, tail - head));
+        }
+
+        boolean store (ISOMsg m) {
+            synchronized (this) {
+                if (backlog.get() >= maxSize) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                // put, so that an entry left behind by a crash before tail was updated is replaced
+                sp.put(key + "." + tail, new Entry(m, System.currentTimeMillis()));
+                sp.put(key + ".tail", ++tail);
+                backlog.incrementAndGet();
+                notifyAll();
+            }
+            return true;
+        }
+
+        void send() {
+            while (running()) {
+                try {
+                    MUX m = (MUX) NameRegistrar.getIfExists("mux." + mux);
+                    if (m == null || !m.isConnected()) {
+                        Thread.sleep(1000L);
+                        continue;
+                    }
+                    Semaphore p = permits;
+                    if (!p.tryAcquire(1000L, TimeUnit.MILLISECONDS))
+                        continue;
+                    Ticket t = take();
+                    if (t == null) {
+                        p.release();
+                        continue;
+                    }
+                    if (!send(m, t))
+                        p.release();
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        private Ticket take() throws InterruptedException {
+            Ticket t = retryQueue.poll();
+            if (t != null)
+                return t;
+            synchronized (this) {
+                if (next < tail)
+                    return new Ticket(next++, generation);
+                Ticket r = retryQueue.peek();
+                long wait = r != null ? Math.max(1L, r.getDelay(TimeUnit.MILLISECONDS)) : 1000L;
+                wait(Math.min(wait, 1000L));
+            }
+            return null;
+        }
+
+        /**
+         * @return true if a request is in flight (its permit is released by the response)
+         */
+        private boolean send (MUX m, Ticket t) {
+            Object o = sp.rdp(key + "." + t.seq);
+            if (!(o instanceof Entry)) {
+                // acknowledged before a restart, but not yet reflected in head
+                acknowledge(t, false);
+                return false;
+            }
+            ISOMsg msg = (ISOMsg) ((Entry) o).getMsg().clone();
+            try {
+                if (t.attempts > 0 && retransmissionMTI && msg.isRequest())
+                    msg.setRetransmissionMTI();
+                if (throughput != null)
+                    throughput.control();
+                t.attempts++;
+                t.sent = msg;
+                t.chrono = new Chronometer();
+                inFlight.incrementAndGet();
+                m.request(msg, timeout, this, t);
+                return true;
+            } catch (ISOException e) {
+                inFlight.decrementAndGet();
+                getLog().warn(name + ": " + e.getMessage());
+                retry(t);
+                return false;
+            }
+        }
+
+        @Override
+        public void responseReceived (ISOMsg resp, Object handBack) {
+            Ticket t = (Ticket) handBack;
+            if (t.generation != generation)
+                return; // sent before a restart, recover() already accounted for it
+            inFlight.decrementAndGet();
+            permits.release();
+            String rc = resp != null ? resp.getString(39) : ISOMsgMetrics.EXPIRED;
+            msgMetrics.record(name, t.sent, rc, t.chrono.elapsed());
+            t.sent = null;
+            if (resp != null && !retryRC.contains(rc)) {
+                delivered.incrementAndGet();
+                tps.tick();
+                acknowledge(t, true);
+            } else if (maxAttempts > 0 && t.attempts >= maxAttempts) {
+                failed.incrementAndGet();
+                getLog().warn(String.format("%s: giving up on message %d after %d attempts (%s)", name, t.seq, t.attempts, rc));
+                acknowledge(t, true);
+            } else if (parkAfter > 0 && t.attempts >= parkAfter) {
+                park(t, rc);
+            } else {
+                retry(t);
+            }
+        }
+
+        /**
+         * Moves a message that keeps failing out of the way, so head can advance
+         */
+        private void park (Ticket t, String rc) {
+            Object o = sp.rdp(key + "." + t.seq);
+            if (o instanceof Entry)
+                sp.out(key + ".parked", o);
+            parked.incrementAndGet();
+            getLog().warn(String.format("%s: parking message %d after %d attempts (%s)", name, t.seq, t.attempts, rc));
+            acknowledge(t, true);
+        }
+
+        private void retry (Ticket t) {
+            retries.incrementAndGet();
+            t.due = System.currentTimeMillis() + backoff(t.attempts);
+            retryQueue.add(t);
+        }
+
+        private void acknowledge (Ticket t, boolean delete) {
+            backlog.decrementAndGet();
+            acks.add(delete ? t.seq : -t.seq - 1);
+            if (acks.size() >= ackBatch) {
+                synchronized (ackSignal) {
+                    ackSignal.notify();
+                }
+            }
+        }
+
+        /**
+         * Removes acknowledged entries and advances (and persists) head.
+         */
+        void flush() {
+            synchronized (acked) {
+                flushAcks();
+            }
+        }
+
+        private void flushAcks() {
+            boolean changed = false;
+            for (Long seq = acks.poll(); seq != null; seq = acks.poll()) {
+                if (seq >= 0L)
+                    sp.inp(key + "." + seq);
+                else
+                    seq = -seq - 1;
+                acked.add(seq);
+                changed = true;
+            }
+            if (!changed)
+                return;
+            long h = head;
+            while (acked.remove(h))
+                h++;
+            if (h != head) {
+                head = h;
+                sp.put(key + ".head", h);
+            }
+        }
+
+        long getAge() {
+            long h = head;
+            long limit;
+            synchronized (this) {
+                limit = Math.min(tail, h + 1000L);
+            }
+            for (long seq = h; seq < limit; seq++) {
+                Object o = sp.rdp(key + "." + seq);
+                if (o instanceof Entry)
+                    return System.currentTimeMillis() - ((Entry) o).getCreated();
+            }
+            return 0L;
+        }
+
+        private long getLong (String k) {
+            Object o = sp.rdp(k);
+            return o instanceof Long ? (Long) o : 0L;
+        }
+    }
+}
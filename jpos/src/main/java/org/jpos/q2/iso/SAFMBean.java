@@ -0,0 +1,49 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.iso;
+
+/**
+ * MBean interface.
+ */
+public interface SAFMBean extends org.jpos.q2.QBeanSupportMBean {
+    String[] getDestinations();
+
+    /**
+     * @return messages stored and not yet acknowledged
+     */
+    int getBacklog();
+
+    int getInFlight();
+
+    long getDelivered();
+
+    int getTPS();
+
+    /**
+     * @return age (in millis) of the oldest message not yet acknowledged
+     */
+    long getAge();
+
+    /**
+     * @param destination destination name
+     * @return number of parked messages stored again
+     */
+    int resubmitParked (String destination);
+}
@@ -0,0 +1,258 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.HdrHistogram.Histogram;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.q2.iso.ChannelAdaptor;
+import org.jpos.q2.iso.QMUX;
+import org.jpos.transaction.TransactionManager;
+import org.jpos.util.ConcurrentUtil;
+import org.jpos.util.Metrics;
+import org.jpos.util.MetricsProvider;
+import org.jpos.util.NameRegistrar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the metrics of every {@link MetricsProvider} (QMUX, MUXPool,
+ * TransactionManager, ...) along with QMUX, ChannelAdaptor and
+ * TransactionManager counters in Prometheus text format.
+ * <pre>
+ *  &lt;prometheus class="org.jpos.q2.qbean.PrometheusExporter" logger="Q2"&gt;
+ *    &lt;property name="port" value="9091" /&gt;
+ *    &lt;property name="path" value="/metrics" /&gt;
+ *    &lt;property name="rollover-interval" value="60000" /&gt;
+ *  &lt;/prometheus&gt;
+ * </pre>
+ * Histograms are exported as summaries. Quantiles are taken from the last
+ * <code>rollover-interval</code>, while <code>_count</code> and <code>_sum</code>
+ * are cumulative. Setting <code>rollover-interval</code> to 0 disables
+ * rollovers, and quantiles become cumulative too.
+ */
+public class PrometheusExporter extends QBeanSupport {
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private String host;
+    private int port;
+    private String path;
+    private long rolloverInterval;
+    private HttpServer server;
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        super.setConfiguration(cfg);
+        host = cfg.get("host", null);
+        port = cfg.getInt("port", 9091);
+        path = cfg.get("path", "/metrics");
+        rolloverInterval = cfg.getLong("rollover-interval", 60000L);
+    }
+
+    @Override
+    protected void startService () throws IOException {
+        server = HttpServer.create(
+          host != null ? new InetSocketAddress(host, port) : new InetSocketAddress(port), 0
+        );
+        server.createContext(path, this::handle);
+        server.start();
+        if (rolloverInterval > 0) {
+            scheduler = ConcurrentUtil.newScheduledThreadPoolExecutor();
+            scheduler.scheduleAtFixedRate(this::rollover, rolloverInterval, rolloverInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void stopService () {
+        if (scheduler != null)
+            scheduler.shutdown();
+        if (server != null)
+            server.stop(0);
+        scheduler = null;
+        server = null;
+    }
+
+    /**
+     * @return port the HTTP server is bound to, useful when configured with port 0
+     */
+    public int getLocalPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * @return current metrics, in Prometheus text exposition format
+     */
+    public String export() {
+        Exposition e = new Exposition();
+        Map<String,Object> registrar = new TreeMap<>(NameRegistrar.getAsMap());
+        registrar.forEach((name, value) -> {
+            if (value instanceof MetricsProvider) {
+                Metrics m = ((MetricsProvider) value).getMetrics();
+                if (m != null)
+                    export (e, name, m);
+            }
+            if (value instanceof QMUX)
+                export (e, name, (QMUX) value);
+            else if (value instanceof ChannelAdaptor)
+                export (e, name, (ChannelAdaptor) value);
+            else if (value instanceof TransactionManager)
+                export (e, name, (TransactionManager) value);
+        });
+        return e.toString();
+    }
+
+    private void export (Exposition e, String source, Metrics m) {
+        Map<String,Histogram> intervals = rolloverInterval > 0 ? m.intervals() : null;
+        m.metrics().forEach((key, total) -> {
+            String labels = label("source", source) + "," + label("name", key);
+            Histogram h = intervals != null ? intervals.get(key) : total;
+            for (double q : QUANTILES) {
+                long v = h != null && h.getTotalCount() > 0 ? h.getValueAtPercentile(q * 100D) : 0L;
+                e.add("jpos_elapsed", "summary", labels + "," + label("quantile", Double.toString(q)), v);
+            }
+            e.add("jpos_elapsed_sum", null, labels, total.getMean() * total.getTotalCount());
+            e.add("jpos_elapsed_count", null, labels, total.getTotalCount());
+        });
+    }
+
+    private void export (Exposition e, String name, QMUX mux) {
+        String labels = label("mux", name);
+        e.add("jpos_mux_tx_total", "counter", labels, mux.getTXCounter());
+        e.add("jpos_mux_rx_total", "counter", labels, mux.getRXCounter());
+        e.add("jpos_mux_tx_expired_total", "counter", labels, mux.getTXExpired());
+        e.add("jpos_mux_rx_expired_total", "counter", labels, mux.getRXExpired());
+        e.add("jpos_mux_rx_unhandled_total", "counter", labels, mux.getRXUnhandled());
+        e.add("jpos_mux_rx_forwarded_total", "counter", labels, mux.getRXForwarded());
+        e.add("jpos_mux_tx_pending", "gauge", labels, mux.getTXPending());
+        e.add("jpos_mux_rx_pending", "gauge", labels, mux.getRXPending());
+        e.add("jpos_mux_connected", "gauge", labels, mux.isConnected() ? 1 : 0);
+    }
+
+    private void export (Exposition e, String name, ChannelAdaptor channel) {
+        String labels = label("channel", name);
+        e.add("jpos_channel_tx_total", "counter", labels, channel.getTXCounter());
+        e.add("jpos_channel_rx_total", "counter", labels, channel.getRXCounter());
+        e.add("jpos_channel_connects_total", "counter", labels, channel.getConnectsCounter());
+        e.add("jpos_channel_connected", "gauge", labels, channel.isConnected() ? 1 : 0);
+    }
+
+    private void export (Exposition e, String name, TransactionManager tm) {
+        String labels = label("txnmgr", name);
+        e.add("jpos_txnmgr_active_sessions", "gauge", labels, tm.getActiveSessions());
+        e.add("jpos_txnmgr_max_sessions", "gauge", labels, tm.getMaxSessions());
+        e.add("jpos_txnmgr_active_transactions", "gauge", labels, tm.getActiveTransactions());
+        e.add("jpos_txnmgr_outstanding_transactions", "gauge", labels, tm.getOutstandingTransactions());
+        e.add("jpos_txnmgr_paused_transactions", "gauge", labels, tm.getPausedCounter());
+        e.add("jpos_txnmgr_tps", "gauge", labels, tm.getTPSAvg());
+    }
+
+    private void rollover() {
+        NameRegistrar.getAsMap().values().forEach(value -> {
+            if (value instanceof MetricsProvider) {
+                Metrics m = ((MetricsProvider) value).getMetrics();
+                if (m != null)
+                    m.rollover();
+            }
+        });
+    }
+
+    private void handle (HttpExchange exchange) throws IOException {
+        try {
+            byte[] b = "GET".equals(exchange.getRequestMethod()) ?
+              export().getBytes(StandardCharsets.UTF_8) : null;
+            if (b == null) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, b.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(b);
+            }
+        } catch (RuntimeException e) {
+            getLog().warn(e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String label (String name, String value) {
+        StringBuilder sb = new StringBuilder(name).append("=\"");
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Samples grouped by metric family, as required by the exposition format
+     */
+    private static class Exposition {
+        private final Map<String,String> types = new LinkedHashMap<>();
+        private final Map<String,List<String>> samples = new LinkedHashMap<>();
+
+        void add (String metric, String type, String labels, Number value) {
+            String family = type != null ? metric : metric.substring(0, metric.lastIndexOf('_'));
+            if (type != null)
+                types.putIfAbsent(family, type);
+            samples.computeIfAbsent(family, k -> new ArrayList<>())
+              .add(metric + "{" + labels + "} " + value);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            samples.forEach((family, lines) -> {
+                String type = types.get(family);
+                if (type != null)
+                    sb.append("# TYPE ").append(family).append(' ').append(type).append('\n');
+                lines.forEach(l -> sb.append(l).append('\n'));
+            });
+            return sb.toString();
+        }
+    }
+}
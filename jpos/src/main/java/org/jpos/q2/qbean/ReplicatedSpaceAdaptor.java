@@ -0,0 +1,102 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.ReplicatedSpace;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.NameRegistrar;
+
+import java.io.IOException;
+
+/**
+ * Deploys a {@link ReplicatedSpace}, available as <code>replicated:name</code>.
+ * <pre>
+ *  &lt;replicated-space class="org.jpos.q2.qbean.ReplicatedSpaceAdaptor" logger="Q2"&gt;
+ *    &lt;property name="space" value="tm" /&gt;
+ *    &lt;property name="role" value="active" /&gt;
+ *    &lt;property name="port" value="9600" /&gt;
+ *    &lt;property name="peer" value="standby-host:9600" /&gt;
+ *    &lt;property name="ack" value="quorum" /&gt;
+ *    &lt;property name="secret" value="${replication.secret}" /&gt;
+ *  &lt;/replicated-space&gt;
+ * </pre>
+ * The standby node uses the same configuration with <code>role</code> set
+ * to <code>standby</code> and the active node as its <code>peer</code>, so
+ * that it can take over after a {@link #promote()}.
+ */
+public class ReplicatedSpaceAdaptor extends QBeanSupport implements ReplicatedSpaceAdaptorMBean {
+    private ReplicatedSpace<Object,Object> sp;
+    private String uri;
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        super.setConfiguration(cfg);
+        sp = new ReplicatedSpace<>();
+        sp.setConfiguration(cfg);
+    }
+
+    @Override
+    protected void initService () {
+        uri = SpaceFactory.REPLICATED + ":" + cfg.get("space", getName());
+        sp.setLogger(getLog().getLogger(), getLog().getRealm());
+        NameRegistrar.register(uri, sp);
+    }
+
+    @Override
+    protected void startService () throws IOException {
+        sp.start();
+    }
+
+    @Override
+    protected void stopService () {
+        sp.close();
+    }
+
+    @Override
+    protected void destroyService () {
+        NameRegistrar.unregister(uri);
+    }
+
+    public ReplicatedSpace<Object,Object> getSpace() {
+        return sp;
+    }
+
+    @Override
+    public String getRole() {
+        return sp.getRole().name();
+    }
+
+    @Override
+    public long getEpoch() {
+        return sp.getEpoch();
+    }
+
+    @Override
+    public long getSeq() {
+        return sp.getSeq();
+    }
+
+    @Override
+    public void promote() {
+        sp.promote();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.SpaceFactory;
+import org.jpos.space.TCPSpaceServer;
+import org.jpos.util.BinaryCodec;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Serves a local Space to {@link org.jpos.space.TCPSpace} clients
+ * (<code>tcp:host:port</code> space URIs).
+ * <pre>
+ *  &lt;tcp-space class="org.jpos.q2.qbean.TCPSpaceAdaptor" logger="Q2"&gt;
+ *    &lt;property name="space" value="tspace:default" /&gt;
+ *    &lt;property name="host" value="10.0.0.1" /&gt;
+ *    &lt;property name="port" value="9500" /&gt;
+ *    &lt;property name="secret" value="${tcpspace.secret}" /&gt;
+ *    &lt;property name="workers" value="8" /&gt;
+ *  &lt;/tcp-space&gt;
+ * </pre>
+ * The server listens on the loopback interface unless <code>host</code> is set,
+ * and a <code>secret</code> (see {@link org.jpos.space.TCPSpace#setSecret(String)})
+ * is required to listen on any other address. Optional properties:
+ * <code>allow</code> (additional {@link BinaryCodec.ClassFilter} patterns clients may
+ * send Java serialized), <code>max-connections</code> (100) and
+ * <code>max-frame-length</code> (1048576).
+ */
+public class TCPSpaceAdaptor extends QBeanSupport {
+    private String spaceName;
+    private String host;
+    private int port;
+    private int workers;
+    private String secret;
+    private String allow;
+    private int maxConnections;
+    private int maxFrameLength;
+    private TCPSpaceServer server;
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        super.setConfiguration(cfg);
+        spaceName = cfg.get("space", "");
+        host = cfg.get("host", "127.0.0.1");
+        port = cfg.getInt("port", 9500);
+        workers = cfg.getInt("workers", Runtime.getRuntime().availableProcessors());
+        secret = cfg.get("secret", null);
+        allow = cfg.get("allow", null);
+        maxConnections = cfg.getInt("max-connections", 100);
+        maxFrameLength = cfg.getInt("max-frame-length", 1024*1024);
+        if (workers < 1)
+            throw new ConfigurationException ("invalid workers " + workers);
+        try {
+            if (secret == null && !InetAddress.getByName(host).isLoopbackAddress())
+                throw new ConfigurationException ("secret required to listen on " + host);
+        } catch (UnknownHostException e) {
+            throw new ConfigurationException (e);
+        }
+    }
+
+    @Override
+    protected void startService () throws IOException {
+        server = new TCPSpaceServer(
+          SpaceFactory.getSpace(spaceName),
+          new InetSocketAddress(host, port),
+          workers,
+          secret
+        );
+        server.setLogger(getLog().getLogger(), getLog().getRealm());
+        server.setClassFilter(BinaryCodec.ClassFilter.BASE.with(allow));
+        server.setMaxConnections(maxConnections);
+        server.setMaxFrameLength(maxFrameLength);
+    }
+
+    @Override
+    protected void stopService () {
+        if (server != null)
+            server.close();
+        server = null;
+    }
+
+    /**
+     * @return port the server is bound to, useful when configured with port 0
+     */
+    public int getLocalPort() {
+        return server != null ? server.getLocalPort() : port;
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.qbean;
+
+import org.jdom2.Element;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.*;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.q2.QFactory;
+import org.jpos.q2.iso.ChannelAdaptor;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
+import org.jpos.space.SpaceUtil;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.ContextConstants;
+import org.jpos.transaction.TransactionManager;
+import org.jpos.transaction.TransactionStatusEvent;
+import org.jpos.transaction.TransactionStatusListener;
+import org.jpos.util.LogEvent;
+import org.jpos.util.Logger;
+import org.jpos.util.NameRegistrar;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs synthetic traffic through the cold code paths of a freshly started
+ * Q2 (packagers, transaction manager participants) so that the first real
+ * transactions don't pay for classloading and JIT warmup.
+ * <p>
+ * A synthetic message is built for every packager, explicitly configured or
+ * borrowed from a {@link ChannelAdaptor}, and packed/unpacked
+ * <code>iterations</code> times. Then <code>transactions</code> contexts,
+ * flagged with a {@link #WARMUP} entry and carrying the synthetic message as
+ * <code>REQUEST</code>, are queued to the given transaction manager and
+ * awaited. {@link org.jpos.transaction.participant.QueryHost} and
+ * {@link org.jpos.transaction.participant.SendResponse} skip these contexts;
+ * every other participant with side effects (sending to a remote host, writing
+ * to a database) in that transaction manager must check for the {@link #WARMUP}
+ * entry too, or <code>txnmgr</code> should name a transaction manager dedicated
+ * to the warmup.
+ * <p>
+ * The ready key is placed even if the warmup fails, so that a broken warmup
+ * doesn't keep channels down, but the failure is logged as a warning.
+ * <p>
+ * When done, <code>&lt;name&gt;.ready</code> is placed in the space. A
+ * ChannelAdaptor configured with <code>&lt;wait-for&gt;warmup.ready&lt;/wait-for&gt;</code>
+ * doesn't mark itself ready (so MUXes don't route traffic to it) until then.
+ * <pre>
+ *  &lt;warmup class="org.jpos.q2.qbean.Warmup" logger="Q2"&gt;
+ *    &lt;property name="iterations" value="10000" /&gt;
+ *    &lt;property name="channel" value="jcard-channel" /&gt;
+ *    &lt;packager class="org.jpos.iso.packager.GenericPackager"&gt;
+ *      &lt;property name="packager-config" value="cfg/packager.xml" /&gt;
+ *    &lt;/packager&gt;
+ *    &lt;property name="txnmgr" value="txnmgr" /&gt;
+ *    &lt;property name="transactions" value="100" /&gt;
+ *    &lt;property name="timeout" value="60000" /&gt;
+ *  &lt;/warmup&gt;
+ * </pre>
+ */
+public class Warmup extends QBeanSupport implements TransactionStatusListener {
+    /** same as {@link ContextConstants#WARMUP} */
+    public static final String WARMUP = "WARMUP";
+    private static final String MTI = "0200";
+    private static final int MAX_VARIABLE_LENGTH = 16;
+    private Space<String,Object> sp;
+    private int iterations;
+    private String[] channels;
+    private String txnmgr;
+    private int transactions;
+    private long timeout;
+    private final Map<String,ISOPackager> packagers = new LinkedHashMap<>();
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile CountDownLatch done = new CountDownLatch(1);
+    private Thread thread;
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        super.setConfiguration(cfg);
+        sp = grabSpace(cfg.get("space", ""));
+        iterations = cfg.getInt("iterations", 10000);
+        channels = cfg.getAll("channel");
+        txnmgr = cfg.get("txnmgr", null);
+        transactions = cfg.getInt("transactions", 100);
+        timeout = cfg.getLong("timeout", 60000L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Space<String,Object> grabSpace (String uri) {
+        return (Space<String,Object>) SpaceFactory.getSpace(uri);
+    }
+
+    @Override
+    protected void initService () throws ConfigurationException {
+        packagers.clear();
+        QFactory f = getFactory();
+        for (Element e : getPersist().getChildren("packager")) {
+            String clazz = QFactory.getAttributeValue(e, "class");
+            ISOPackager p = f.newInstance(clazz);
+            f.setConfiguration(p, e);
+            packagers.put(clazz, p);
+        }
+    }
+
+    @Override
+    protected void startService () {
+        SpaceUtil.wipe(sp, getReadyKey());
+        done = new CountDownLatch(1);
+        thread = new Thread(this::warmup, getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected void stopService () {
+        if (thread != null)
+            thread.interrupt();
+        SpaceUtil.wipe(sp, getReadyKey());
+    }
+
+    /**
+     * @return space key placed once warmup is done
+     */
+    public String getReadyKey() {
+        return getName() + ".ready";
+    }
+
+    /**
+     * @return time (in millis) the warmup waits for its transactions to complete
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits for the warmup to finish
+     * @param timeout time to wait in millis
+     * @return true if done
+     * @throws InterruptedException if interrupted
+     */
+    public boolean await (long timeout) throws InterruptedException {
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void update (TransactionStatusEvent e) {
+        if (e.getState() == TransactionStatusEvent.State.DONE
+          && e.getContext() instanceof Context && ((Context) e.getContext()).get(WARMUP) != null)
+            completed.incrementAndGet();
+    }
+
+    private void warmup() {
+        LogEvent evt = getLog().createInfo();
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            ISOMsg request = null;
+            for (Map.Entry<String,ISOPackager> entry : getPackagers().entrySet()) {
+                ISOMsg m = warmup(entry.getKey(), entry.getValue(), evt);
+                if (request == null)
+                    request = m;
+            }
+            if (txnmgr != null && transactions > 0)
+                warmup(request, evt);
+            evt.addMessage(String.format("warmup done in %dms", millisSince(start)));
+        } catch (InterruptedException e) {
+            evt.addMessage("interrupted");
+        } catch (Throwable t) {
+            failure = t;
+            evt.addMessage(t);
+        } finally {
+            if (running()) {
+                if (failure != null)
+                    getLog().warn("warmup failed, placing " + getReadyKey() + " anyway", failure);
+                sp.out(getReadyKey(), new Date());
+            }
+            done.countDown();
+            Logger.log(evt);
+        }
+    }
+
+    private Map<String,ISOPackager> getPackagers() {
+        Map<String,ISOPackager> map = new LinkedHashMap<>(packagers);
+        QFactory f = getFactory();
+        for (String name : channels) {
+            Object o = NameRegistrar.getIfExists(name);
+            Element e = o instanceof ChannelAdaptor ? ((ChannelAdaptor) o).getPersist().getChild("channel") : null;
+            String clazz = e != null ? QFactory.getAttributeValue(e, "packager") : null;
+            if (clazz == null) {
+                getLog().warn("no packager found for channel " + name);
+                continue;
+            }
+            try {
+                ISOPackager p = f.newInstance(clazz);
+                f.setConfiguration(p, e);
+                map.put(name, p);
+            } catch (ConfigurationException ex) {
+                getLog().warn("channel " + name, ex);
+            }
+        }
+        return map;
+    }
+
+    private ISOMsg warmup (String name, ISOPackager p, LogEvent evt) throws ISOException {
+        ISOMsg m = createMessage(p);
+        if (m == null) {
+            evt.addMessage(String.format("%s: unable to create a synthetic message", name));
+            return null;
+        }
+        long first = 0L;
+        long start = System.nanoTime();
+        for (int i=0; i<iterations && running(); i++) {
+            ISOMsg u = p.createISOMsg();
+            u.setPackager(p);
+            u.unpack(m.pack());
+            if (i == 0)
+                first = System.nanoTime() - start;
+        }
+        long elapsed = System.nanoTime() - start;
+        evt.addMessage(String.format("%s: %d fields, %d iterations in %dms, first %dus, average %dns",
+          name, countFields(m), iterations, elapsed / 1000000L,
+          first / 1000L, iterations > 0 ? elapsed / iterations : 0L));
+        m.setPackager(null);
+        return m;
+    }
+
+    private void warmup (ISOMsg request, LogEvent evt) throws InterruptedException {
+        TransactionManager tm = (TransactionManager) NameRegistrar.getIfExists(txnmgr);
+        if (tm == null) {
+            evt.addMessage("transaction manager " + txnmgr + " not found");
+            return;
+        }
+        completed.set(0);
+        tm.addListener(this);
+        long start = System.nanoTime();
+        try {
+            for (int i=0; i<transactions && running(); i++) {
+                Context ctx = new Context();
+                ctx.put(WARMUP, Boolean.TRUE);
+                if (request != null)
+                    ctx.put(ContextConstants.REQUEST.toString(), request.clone());
+                tm.queue(ctx);
+            }
+            long end = System.currentTimeMillis() + timeout;
+            while (completed.get() < transactions && running() && System.currentTimeMillis() < end)
+                Thread.sleep(10L);
+        } finally {
+            tm.removeListener(this);
+        }
+        evt.addMessage(String.format("%s: %d/%d transactions in %dms",
+          txnmgr, completed.get(), transactions, millisSince(start)));
+    }
+
+    /**
+     * Creates a message with as many fields as the packager can pack and unpack
+     * back, filled with synthetic values.
+     *
+     * @param p packager
+     * @return synthetic message, or null if the packager can't pack a message
+     */
+    public static ISOMsg createMessage (ISOPackager p) {
+        ISOMsg m = new ISOMsg(MTI);
+        m.setPackager(p);
+        if (p instanceof ISOBasePackager) {
+            ISOBasePackager bp = (ISOBasePackager) p;
+            for (int i=2; i<=128; i++) {
+                ISOFieldPackager fp = bp.getFieldPackager(i);
+                if (fp == null || fp instanceof ISOBitMapPackager || fp.getLength() <= 0)
+                    continue;
+                // variable length fields take a short value, fixed length ones need their full length
+                for (int len : new int[] { Math.min(fp.getLength(), MAX_VARIABLE_LENGTH), fp.getLength() }) {
+                    ISOComponent c = createComponent(fp, i, len);
+                    if (c != null && accepts(p, c)) {
+                        try {
+                            m.set(c);
+                        } catch (ISOException ignored) {
+                            // NOPMD accepts already set it
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return roundTrip(m) ? m : null;
+    }
+
+    private static ISOComponent createComponent (ISOFieldPackager fp, int fieldNumber, int len) {
+        try {
+            ISOComponent c = fp.createComponent(fieldNumber);
+            if (c instanceof ISOBinaryField) {
+                byte[] b = new byte[len];
+                for (int i=0; i<len; i++)
+                    b[i] = (byte) (i + fieldNumber);
+                c.setValue(b);
+            } else if (c instanceof ISOField) {
+                StringBuilder sb = new StringBuilder(len);
+                for (int i=0; i<len; i++)
+                    sb.append((char) ('0' + (i + fieldNumber) % 10));
+                c.setValue(sb.toString());
+            } else {
+                return null;
+            }
+            return c;
+        } catch (ISOException e) {
+            return null;
+        }
+    }
+
+    private static boolean accepts (ISOPackager p, ISOComponent c) {
+        ISOMsg m = new ISOMsg(MTI);
+        m.setPackager(p);
+        try {
+            m.set(c);
+        } catch (ISOException e) {
+            return false;
+        }
+        return roundTrip(m);
+    }
+
+    private static boolean roundTrip (ISOMsg m) {
+        try {
+            byte[] b = m.pack();
+            ISOMsg u = new ISOMsg();
+            u.setPackager(m.getPackager());
+            u.unpack(b);
+            return Arrays.equals(b, u.pack());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int countFields (ISOMsg m) {
+        int n = 0;
+        for (int i=2; i<=m.getMaxField(); i++)
+            if (m.hasField(i))
+                n++;
+        return n;
+    }
+
+    private static long millisSince (long start) {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+}
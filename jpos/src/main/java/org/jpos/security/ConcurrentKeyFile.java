@@ -0,0 +1,465 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package  org.jpos.security;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOUtil;
+import org.jpos.util.ConcurrentUtil;
+import org.jpos.util.Destroyable;
+import org.jpos.util.LogEvent;
+import org.jpos.util.LogSource;
+import org.jpos.util.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * SecureKeyStore backed by the same properties file used by
+ * {@link SimpleKeyFile}, intended for high concurrency.
+ * <p>
+ * The file is parsed once into an immutable snapshot; {@link #getKey(String)}
+ * reads that snapshot without locking and without touching the disk.
+ * Changes made to the file by other processes (or by hand) are picked up
+ * through a {@link WatchService} and the new snapshot is swapped in atomically.
+ * <p>
+ * {@link #setKey(String, SecureKey)} is visible to readers immediately, but the
+ * file is only rewritten <code>write-delay</code> milliseconds later, so a burst
+ * of key changes results in a single write. Use {@link #flush()} (or
+ * {@link #destroy()}) to force pending changes to disk.
+ *
+ * <pre>
+ *  &lt;property name="key-file" value="cfg/keys.properties" /&gt;
+ *  &lt;property name="file-header" value="Key File" /&gt;
+ *  &lt;property name="write-delay" value="1000" /&gt;  &lt;!-- 0 writes synchronously --&gt;
+ *  &lt;property name="watch" value="true" /&gt;
+ * </pre>
+ * @see SimpleKeyFile
+ */
+public class ConcurrentKeyFile
+        implements SecureKeyStore, Configurable, LogSource, Destroyable {
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(new Properties()));
+    private final Map<String,String> pending = new LinkedHashMap<>();
+    private final Object lock = new Object();
+    private File file;
+    private String header = "Key File";
+    private long writeDelay = 1000L;
+    private boolean watch = true;
+    private ScheduledThreadPoolExecutor executor;
+    private ScheduledFuture<?> scheduledFlush;
+    private WatchService watchService;
+    private Thread watcher;
+    protected Logger logger = null;
+    protected String realm = null;
+
+    public ConcurrentKeyFile () {
+    }
+
+    public ConcurrentKeyFile (String keyFileName) throws SecureKeyStoreException {
+        init(keyFileName);
+    }
+
+    public void init (String keyFileName) throws SecureKeyStoreException {
+        file = new File(keyFileName);
+        try {
+            if (!file.exists())
+                file.createNewFile();
+            reload();
+            if (watch)
+                startWatcher();
+        } catch (SecureKeyStoreException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SecureKeyStoreException(e);
+        }
+    }
+
+    @Override
+    public void setLogger (Logger logger, String realm) {
+        this.logger = logger;
+        this.realm = realm;
+    }
+
+    @Override
+    public Logger getLogger () {
+        return logger;
+    }
+
+    @Override
+    public String getRealm () {
+        return realm;
+    }
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        header = cfg.get("file-header", header);
+        writeDelay = cfg.getLong("write-delay", writeDelay);
+        watch = cfg.getBoolean("watch", watch);
+        try {
+            init(cfg.get("key-file"));
+        } catch (Exception e) {
+            throw new ConfigurationException(e);
+        }
+    }
+
+    public void setWriteDelay (long writeDelay) {
+        this.writeDelay = writeDelay;
+    }
+
+    public long getWriteDelay () {
+        return writeDelay;
+    }
+
+    public void setWatch (boolean watch) {
+        this.watch = watch;
+    }
+
+    public boolean isWatch () {
+        return watch;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends SecureKey> T getKey (String alias) throws SecureKeyStoreException {
+        Entry entry = snapshot.get().keys.get(alias);
+        if (entry == null)
+            entry = new Entry(new SecureKeyStoreException(
+              "Key can't be retrieved. Can't get property: " + alias + ".class"));
+        if (logger != null || entry.error != null) {
+            LogEvent evt = new LogEvent(this, entry.error == null ? "get-key" : "get-key-error");
+            evt.addMessage("alias", alias);
+            evt.addMessage(entry.error == null ? entry.key : entry.error);
+            Logger.log(evt);
+        }
+        if (entry.error != null)
+            throw entry.error;
+        return (T) entry.copy();
+    }
+
+    @Override
+    public void setKey (String alias, SecureKey secureKey) throws SecureKeyStoreException {
+        LogEvent evt = new LogEvent(this, "set-key");
+        evt.addMessage("alias", alias);
+        evt.addMessage(secureKey);
+        try {
+            if (!(secureKey instanceof SecureDESKey))
+                throw new SecureKeyStoreException("Unsupported SecureKey class: " +
+                        (secureKey != null ? secureKey.getClass().getName() : null));
+            Map<String,String> entries = new LinkedHashMap<>();
+            entries.put(alias + ".class", secureKey.getClass().getName());
+            entries.put(alias + ".key", ISOUtil.hexString(secureKey.getKeyBytes()));
+            entries.put(alias + ".length", Short.toString(secureKey.getKeyLength()));
+            entries.put(alias + ".type", secureKey.getKeyType());
+            entries.put(alias + ".checkvalue", ISOUtil.hexString(((SecureDESKey) secureKey).getKeyCheckValue()));
+            synchronized (lock) {
+                pending.putAll(entries);
+                Properties p = snapshot.get().copyProperties();
+                p.putAll(entries);
+                snapshot.set(new Snapshot(p));
+                if (writeDelay <= 0L)
+                    flush();
+                else if (scheduledFlush == null)
+                    scheduledFlush = executor().schedule(this::scheduledFlush, writeDelay, TimeUnit.MILLISECONDS);
+            }
+        } catch (SecureKeyStoreException e) {
+            evt.addMessage(e);
+            throw e;
+        } finally {
+            Logger.log(evt);
+        }
+    }
+
+    @Override
+    public <T extends SecureKey> Map<String, T> getKeys () throws SecureKeyStoreException {
+        Map<String, T> keys = new HashMap<>();
+        for (String alias : snapshot.get().keys.keySet())
+            keys.put(alias, getKey(alias));
+        return keys;
+    }
+
+    public String getProperty (String alias, String subName) throws SecureKeyStoreException {
+        String key = alias + "." + subName;
+        String value = snapshot.get().props.getProperty(key);
+        if (value == null)
+            throw new SecureKeyStoreException("Key can't be retrieved. Can't get property: " + key);
+        return value.trim();
+    }
+
+    /**
+     * Re-reads the key file, keeping changes not yet flushed, and
+     * atomically replaces the current snapshot.
+     * @throws SecureKeyStoreException if the file can't be read
+     */
+    public void reload () throws SecureKeyStoreException {
+        synchronized (lock) {
+            Properties p = load();
+            p.putAll(pending);
+            snapshot.set(new Snapshot(p));
+        }
+    }
+
+    /**
+     * Writes pending changes to the key file.
+     * <p>
+     * The file is re-read first (so manual changes are not lost), then written
+     * to a temporary file that atomically replaces the original.
+     * @throws SecureKeyStoreException if the file can't be read or written
+     */
+    public void flush () throws SecureKeyStoreException {
+        synchronized (lock) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pending.isEmpty())
+                return;
+            Properties p = load();
+            p.putAll(pending);
+            store(p);
+            pending.clear();
+            snapshot.set(new Snapshot(p));
+        }
+    }
+
+    /**
+     * @return number of key changes not yet written to disk
+     */
+    public int getPendingCount () {
+        synchronized (lock) {
+            return pending.size() / 5;
+        }
+    }
+
+    /**
+     * Flushes pending changes and stops the file watcher.
+     */
+    @Override
+    public void destroy () {
+        try {
+            flush();
+        } catch (SecureKeyStoreException e) {
+            Logger.log(new LogEvent(this, "flush-error", e));
+        }
+        synchronized (lock) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException ignored) { }
+                watchService = null;
+            }
+        }
+    }
+
+    private void scheduledFlush () {
+        try {
+            flush();
+        } catch (SecureKeyStoreException e) {
+            Logger.log(new LogEvent(this, "flush-error", e));
+        }
+    }
+
+    private ScheduledThreadPoolExecutor executor () {
+        if (executor == null)
+            executor = ConcurrentUtil.newScheduledThreadPoolExecutor();
+        return executor;
+    }
+
+    private void startWatcher () throws IOException {
+        synchronized (lock) {
+            if (watchService != null)
+                return;
+            Path path = file.getCanonicalFile().toPath();
+            Path dir = path.getParent();
+            Path name = path.getFileName();
+            WatchService service = dir.getFileSystem().newWatchService();
+            dir.register(service,
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+            watchService = service;
+            watcher = new Thread(() -> watch(service, name), "ConcurrentKeyFile-" + name);
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    private void watch (WatchService service, Path name) {
+        try {
+            for (;;) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> ev : key.pollEvents())
+                    changed |= name.equals(ev.context()) || ev.kind() == StandardWatchEventKinds.OVERFLOW;
+                if (changed) {
+                    try {
+                        reload();
+                        if (logger != null)
+                            Logger.log(new LogEvent(this, "reload", file.getPath()));
+                    } catch (SecureKeyStoreException e) {
+                        // file might be in the middle of being written, next event will retry
+                        Logger.log(new LogEvent(this, "reload-error", e));
+                    }
+                }
+                if (!key.reset())
+                    break;
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // destroyed
+        }
+    }
+
+    private Properties load () throws SecureKeyStoreException {
+        Properties p = new Properties();
+        try {
+            if (!file.canRead())
+                throw new SecureKeyStoreException("Can't read from file: " + file.getCanonicalPath());
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+                p.load(in);
+            }
+        } catch (SecureKeyStoreException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SecureKeyStoreException(e);
+        }
+        return p;
+    }
+
+    private void store (Properties p) throws SecureKeyStoreException {
+        try {
+            if (!file.canWrite())
+                throw new SecureKeyStoreException("Can't write to file: " + file.getCanonicalPath());
+            Path path = file.toPath();
+            Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), file.getName(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    p.store(out, header);
+                }
+                try {
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (SecureKeyStoreException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SecureKeyStoreException(e);
+        }
+    }
+
+    /**
+     * Immutable view of the key file, with every alias already parsed.
+     */
+    private static final class Snapshot {
+        final Properties props;
+        final Map<String,Entry> keys;
+
+        Snapshot (Properties props) {
+            this.props = props;
+            Map<String,Entry> m = new HashMap<>();
+            for (String k : props.stringPropertyNames()) {
+                int i = k.lastIndexOf('.');
+                if (i > 0) {
+                    String alias = k.substring(0, i);
+                    if (!m.containsKey(alias))
+                        m.put(alias, parse(props, alias));
+                }
+            }
+            this.keys = Collections.unmodifiableMap(m);
+        }
+
+        Properties copyProperties () {
+            Properties p = new Properties();
+            p.putAll(props);
+            return p;
+        }
+
+        private static Entry parse (Properties props, String alias) {
+            try {
+                Class<?> c = Class.forName(get(props, alias, "class"));
+                if (!SecureDESKey.class.isAssignableFrom(c))
+                    throw new SecureKeyStoreException("Unsupported SecureKey class: " + c.getName());
+                return new Entry(new SecureDESKey(
+                  Short.parseShort(get(props, alias, "length")),
+                  get(props, alias, "type"),
+                  ISOUtil.hex2byte(get(props, alias, "key")),
+                  ISOUtil.hex2byte(get(props, alias, "checkvalue"))
+                ));
+            } catch (SecureKeyStoreException e) {
+                return new Entry(e);
+            } catch (Exception e) {
+                return new Entry(new SecureKeyStoreException(e));
+            }
+        }
+
+        private static String get (Properties props, String alias, String subName) throws SecureKeyStoreException {
+            String key = alias + "." + subName;
+            String value = props.getProperty(key);
+            if (value == null)
+                throw new SecureKeyStoreException("Key can't be retrieved. Can't get property: " + key);
+            return value.trim();
+        }
+    }
+
+    private static final class Entry {
+        final SecureDESKey key;
+        final SecureKeyStoreException error;
+
+        Entry (SecureDESKey key) {
+            this.key = key;
+            this.error = null;
+        }
+
+        Entry (SecureKeyStoreException error) {
+            this.key = null;
+            this.error = error;
+        }
+
+        SecureDESKey copy () {
+            return new SecureDESKey(key.getKeyLength(), key.getKeyType(),
+              key.getKeyBytes().clone(), key.getKeyCheckValue().clone());
+        }
+    }
+}
@@ -173,6 +173,8 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
      *             Default is DESEDEMAC from BouncyCastle provider<br>
      *             that is suitable for BASE24 with double length MAC key<br>
      *             ANSI X9.19<br>
+     *    key-cache-size: number of clear working keys and derived ICC master keys to cache (default 0, disabled)<br>
+     *    key-cache-ttl: time (in millis) a cached key is kept (default 300000)<br>
      * @throws ConfigurationException
      */
     @Override
@@ -180,11 +182,20 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
         this.cfg = cfg;
         try {
             init(cfg.get("provider"), cfg.get("lmk", null), cfg.getBoolean("rebuildlmk"));
+            int cacheSize = cfg.getInt("key-cache-size", 0);
+            keyCache = cacheSize > 0 ? new WorkingKeyCache(cacheSize, cfg.getLong("key-cache-ttl", 300000L)) : null;
         } catch (SMException e) {
             throw  new ConfigurationException(e);
         }
     }
 
+    /**
+     * @return the working key cache, null if disabled
+     */
+    public WorkingKeyCache getKeyCache() {
+        return keyCache;
+    }
+
     @Override
     public SecureDESKey generateKeyImpl (short keyLength, String keyType) throws SMException {
         Key generatedClearKey = jceHandler.generateDESKey(keyLength);
@@ -473,7 +484,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
           mkdm = MKDMethod.OPTION_A;
 
         byte[] panpsn = formatPANPSN_dCVD(accountNo, null, mkdm);
-        Key mkac = deriveICCMasterKey(decryptFromLMK(imkac), panpsn);
+        Key mkac = getICCMasterKey(imkac, panpsn);
 
         String alteredPAN = ISOUtil.hexString(atc) + accountNo.substring(4);
 
@@ -509,7 +520,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
         if (mkdm==null)
           mkdm = MKDMethod.OPTION_A;
         byte[] panpsn = formatPANPSN_dCVD(accountNo, acctSeqNo, mkdm);
-        Key mkcvc3 = deriveICCMasterKey(decryptFromLMK(imkcvc3), panpsn);
+        Key mkcvc3 = getICCMasterKey(imkcvc3, panpsn);
         byte[] ivcvc3 = data;
         if (ivcvc3.length != 2)
           //Compute IVCVC3
@@ -737,6 +748,32 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
         return jceHandler.formDESKey(SMAdapter.LENGTH_DES3_2KEY, mk);
     }
 
+    /**
+     * Derives the ICC Master Key from an Issuer Master Key under LMK,
+     * going through the working key cache if enabled
+     *
+     * @param imk Issuer Master Key under LMK
+     * @param panpsn preformated PAN and PAN Sequence Number
+     * @return derived ICC Master Key
+     * @throws SMException
+     */
+    protected Key getICCMasterKey(SecureDESKey imk, byte[] panpsn) throws SMException {
+        if (keyCache == null)
+            return deriveICCMasterKey(decryptFromLMK(imk), panpsn);
+        byte[] id = cacheId(imk, panpsn);
+        byte[] mk = keyCache.get(id);
+        if (mk == null) {
+            mk = jceHandler.extractDESKeyMaterial(SMAdapter.LENGTH_DES3_2KEY,
+                    deriveICCMasterKey(decryptFromLMK(imk), panpsn));
+            keyCache.put(id, mk);
+        }
+        try {
+            return jceHandler.formDESKey(SMAdapter.LENGTH_DES3_2KEY, mk);
+        } finally {
+            Arrays.fill(mk, (byte) 0);
+        }
+    }
+
     protected String calculatePVV(EncryptedPIN pinUnderLmk, Key key, int keyIdx
                                ,List<String> excludes) throws SMException {
         String pin = decryptPINImpl(pinUnderLmk);
@@ -948,7 +985,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
             mkdm = MKDMethod.OPTION_A;
 
         byte[] panpsn = formatPANPSN(accountNo, accntSeqNo, mkdm);
-        Key mkac = deriveICCMasterKey(decryptFromLMK(imkac), panpsn);
+        Key mkac = getICCMasterKey(imkac, panpsn);
         Key skac = mkac;
         switch(skdm){
             case VSDC:
@@ -987,7 +1024,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
             mkdm = MKDMethod.OPTION_A;
 
         byte[] panpsn = formatPANPSN(accountNo, accntSeqNo, mkdm);
-        Key mkac = deriveICCMasterKey(decryptFromLMK(imkac), panpsn);
+        Key mkac = getICCMasterKey(imkac, panpsn);
         Key skarpc = mkac;
         switch(skdm){
             case VSDC:
@@ -1017,7 +1054,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
             mkdm = MKDMethod.OPTION_A;
 
         byte[] panpsn = formatPANPSN(accountNo, accntSeqNo, mkdm);
-        Key mkac = deriveICCMasterKey(decryptFromLMK(imkac), panpsn);
+        Key mkac = getICCMasterKey(imkac, panpsn);
         Key skac = mkac;
         Key skarpc = mkac;
         switch(skdm){
@@ -1079,7 +1116,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
         if (mkdm==null)
           mkdm = MKDMethod.OPTION_A;
         byte[] panpsn = formatPANPSN(accountNo, accntSeqNo, mkdm);
-        Key mksmi = deriveICCMasterKey(decryptFromLMK(imksmi), panpsn);
+        Key mksmi = getICCMasterKey(imksmi, panpsn);
         Key smi;
         switch(skdm){
           case VSDC:
@@ -1107,7 +1144,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
         if (mkdm==null)
           mkdm = MKDMethod.OPTION_A;
         byte[] panpsn = formatPANPSN(accountNo, accntSeqNo, mkdm);
-        Key mksmc = deriveICCMasterKey(decryptFromLMK(imksmc), panpsn);
+        Key mksmc = getICCMasterKey(imksmc, panpsn);
         Key smc;
         PaddingMethod derivedPADM;
         switch(skdm){
@@ -1133,7 +1170,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
 
         Key udk = null;
         if (isVSDCPinBlockFormat(destinationPINBlockFormat))
-          udk = deriveICCMasterKey(decryptFromLMK(imkac), panpsn);
+          udk = getICCMasterKey(imkac, panpsn);
 
         EncryptedPIN pin =  translatePINExt(currentPIN, newPIN, decryptFromLMK(kd1)
                             ,smc, destinationPINBlockFormat, udk, padm);
@@ -1425,6 +1462,46 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
      * @throws SMException
      */
     protected Key decryptFromLMK (SecureDESKey secureDESKey) throws SMException {
+        byte[] clearKeyBytes = null;
+        byte[] id = null;
+        if (keyCache != null) {
+            id = cacheId(secureDESKey, null);
+            clearKeyBytes = keyCache.get(id);
+        }
+        if (clearKeyBytes == null) {
+            clearKeyBytes = decryptKeyBytesFromLMK(secureDESKey);
+            if (id != null)
+                keyCache.put(id, clearKeyBytes);
+        }
+        try {
+            return jceHandler.formDESKey(secureDESKey.getKeyLength(), clearKeyBytes);
+        } finally {
+            Arrays.fill(clearKeyBytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Identifies a key under LMK (and optionally data derived from it)
+     * in the working key cache
+     */
+    private static byte[] cacheId (SecureDESKey key, byte[] derivationData) {
+        byte[] type = key.getKeyType() != null ? key.getKeyType().getBytes(ISOUtil.CHARSET) : new byte[0];
+        byte[] kb = key.getKeyBytes();
+        byte[] kcv = key.getKeyCheckValue() != null ? key.getKeyCheckValue() : new byte[0];
+        byte[] dd = derivationData != null ? derivationData : new byte[0];
+        ByteBuffer b = ByteBuffer.allocate(16 + type.length + kb.length + kcv.length + dd.length);
+        b.putShort(key.getKeyLength());
+        b.put(key.getVariant());
+        KeyScheme scheme = key.getScheme();
+        b.put(scheme != null ? (byte) scheme.ordinal() : (byte) -1);
+        b.putInt(type.length).put(type);
+        b.putShort((short) kb.length).put(kb);
+        b.putShort((short) kcv.length).put(kcv);
+        b.putInt(dd.length).put(dd);
+        return b.array();
+    }
+
+    private byte[] decryptKeyBytesFromLMK (SecureDESKey secureDESKey) throws SMException {
         Key left, medium, right;
         byte[] keyBytes = secureDESKey.getKeyBytes();
         byte[] bl = new byte[SMAdapter.LENGTH_DES>>3];
@@ -1467,7 +1544,7 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
         }
         if (!Util.isDESParityAdjusted(clearKeyBytes))
             throw new JCEHandlerException("Parity not adjusted");
-        return jceHandler.formDESKey(secureDESKey.getKeyLength(), clearKeyBytes);
+        return clearKeyBytes;
     }
 
     private char[] formatPINBlock(String pin, int checkDigit){
@@ -1785,6 +1862,8 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
      * @throws SMException
      */
     private void init (String jceProviderClassName, String lmkFile, boolean lmkRebuild) throws SMException {
+        if (keyCache != null)
+            keyCache.clear();
         File lmk = lmkFile != null ? new File(lmkFile) : null;
         if (lmk == null && !lmkRebuild)
             throw new SMException ("null lmkFile - needs rebuild");
@@ -2030,6 +2109,11 @@ public class JCESecurityModule extends BaseSMAdapter<SecureDESKey> {
 
     protected JCEHandler jceHandler;
 
+    /**
+     * Optional cache of clear working keys (see key-cache-size)
+     */
+    protected WorkingKeyCache keyCache;
+
     //--------------------------------------------------------------------------------------------------
     // DUKPT
     //--------------------------------------------------------------------------------------------------
@@ -0,0 +1,155 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security.jceadapter;
+
+import org.jpos.util.Loggeable;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, time-limited cache of clear key material, used by
+ * {@link JCESecurityModule} to avoid decrypting the same working keys
+ * under the LMK (and deriving the same ICC master keys) over and over.
+ * <p>
+ * Entries are evicted least recently used first once <code>maxSize</code>
+ * is reached, and on access once older than <code>ttl</code> millis.
+ * Evicted key material is overwritten with zeros. Callers get a copy of
+ * the material on every hit and are expected to wipe it once used.
+ */
+public class WorkingKeyCache implements Loggeable {
+    private final int maxSize;
+    private final long ttl;
+    private final Map<ByteBuffer,CachedKey> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of keys held
+     * @param ttl time to live in millis (0 for no expiration)
+     */
+    public WorkingKeyCache (int maxSize, long ttl) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException ("invalid size " + maxSize);
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<ByteBuffer,CachedKey>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<ByteBuffer,CachedKey> eldest) {
+                if (size() > WorkingKeyCache.this.maxSize) {
+                    evicted (eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param id key identifier
+     * @return a copy of the clear key material, or null
+     */
+    public byte[] get (byte[] id) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            ByteBuffer k = ByteBuffer.wrap(id);
+            CachedKey e = entries.get (k);
+            if (e != null && ttl > 0L && now - e.created > ttl) {
+                entries.remove (k);
+                evicted (e);
+                e = null;
+            }
+            if (e == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return e.material.clone();
+        }
+    }
+
+    /**
+     * @param id key identifier
+     * @param material clear key material (copied)
+     */
+    public void put (byte[] id, byte[] material) {
+        CachedKey e = new CachedKey (material.clone(), System.currentTimeMillis());
+        synchronized (entries) {
+            CachedKey old = entries.put (ByteBuffer.wrap(id.clone()), e);
+            if (old != null)
+                evicted (old);
+        }
+    }
+
+    /**
+     * Evicts (and wipes) every entry
+     */
+    public void clear() {
+        synchronized (entries) {
+            for (Iterator<CachedKey> iter = entries.values().iterator(); iter.hasNext(); ) {
+                evicted (iter.next());
+                iter.remove();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private void evicted (CachedKey e) {
+        Arrays.fill (e.material, (byte) 0);
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        p.printf ("%s<key-cache size=\"%d\" max-size=\"%d\" hits=\"%d\" misses=\"%d\" evictions=\"%d\"/>%n",
+          indent, size(), maxSize, getHits(), getMisses(), getEvictions());
+    }
+
+    private static class CachedKey {
+        final byte[] material;
+        final long created;
+        CachedKey (byte[] material, long created) {
+            this.material = material;
+            this.created = created;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import jdbm.RecordManagerOptions;
 import jdbm.helper.FastIterator;
 import jdbm.helper.Serializer;
 import jdbm.htree.HTree;
+import org.jpos.util.BinaryCodec;
 import org.jpos.util.DefaultTimer;
 
 import java.io.Externalizable;
@@ -45,6 +46,7 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
     protected HTree htree;
     protected RecordManager recman;
     protected static final Serializer refSerializer = new Ref ();
+    protected static final Serializer valueSerializer = new Value ();
     protected static final Map<String,Space> spaceRegistrar = new HashMap<String,Space> ();
     protected boolean autoCommit = true;
     protected String name;
@@ -186,7 +188,7 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
             throw new NullPointerException ("key=" + key + ", value=" + value);
         try {
             synchronized (this) {
-                long recid = recman.insert (value);
+                long recid = recman.insert (value, valueSerializer);
 
                 long expiration = timeout == -1 ? Long.MAX_VALUE :
                         System.currentTimeMillis() + timeout;
@@ -233,7 +235,7 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
             throw new NullPointerException ("key=" + key + ", value=" + value);
         try {
             synchronized (this) {
-                long recid = recman.insert (value);
+                long recid = recman.insert (value, valueSerializer);
                 long expiration = timeout == -1 ? Long.MAX_VALUE :
                         System.currentTimeMillis() + timeout;
                 Ref dataRef = new Ref (recid, expiration);
@@ -271,7 +273,7 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
             Object obj = null;
             Ref ref = getFirst (key, false);
             if (ref != null) 
-                obj = recman.fetch (ref.recid);
+                obj = recman.fetch (ref.recid, valueSerializer);
             if (autoCommit)
                 recman.commit ();
             return (V) obj;
@@ -294,7 +296,7 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
             Object obj = null;
             Ref ref = getFirst (key, true);
             if (ref != null) {
-                obj = recman.fetch (ref.recid);
+                obj = recman.fetch (ref.recid, valueSerializer);
                 recman.delete (ref.recid);
             }
             if (autoCommit)
@@ -587,7 +589,7 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
                     unlinkRef (recid, head, r, previousRef, previousRecId);
                     unlinkCount++;
                 } else  {
-                    Object o = recman.fetch (r.recid);
+                    Object o = recman.fetch (r.recid, valueSerializer);
                     if (o != null && tmpl.equals(o)) {
                         obj = o;
                         if (remove) {
@@ -691,6 +693,24 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
             return d;
         }
     }
+    /**
+     * Stores values using {@link BinaryCodec}, reads both BinaryCodec
+     * and Java serialized (legacy) values.
+     */
+    static class Value implements Serializer {
+        static final long serialVersionUID = 1L;
+
+        public byte[] serialize (Object obj) throws IOException {
+            return BinaryCodec.encode (obj);
+        }
+        public Object deserialize (byte[] serialized) throws IOException {
+            try {
+                return BinaryCodec.decode (serialized);
+            } catch (ClassNotFoundException e) {
+                throw new IOException (e);
+            }
+        }
+    }
     static void putLong (byte[] b, int off, long val) {
         b[off+7] = (byte) val;
         b[off+6] = (byte) (val >>>  8);
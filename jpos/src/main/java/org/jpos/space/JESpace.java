@@ -40,6 +40,7 @@ import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
 
 import org.jpos.iso.ISOUtil;
+import org.jpos.util.BinaryCodec;
 import org.jpos.util.Log;
 import org.jpos.util.Loggeable;
 import org.jpos.util.Profiler;
@@ -521,30 +522,21 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
             Class cls = obj.getClass();
             if (isPersistent (cls))
                 return obj;
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
             try {
-                ObjectOutputStream os = new ObjectOutputStream(baos);
-                os.writeObject(obj);
-                obj = baos.toByteArray();
+                return BinaryCodec.encode(obj);
             } catch (IOException e) {
                 throw new SpaceError (e);
             }
-            return obj;
         }
         private Object deserialize (Object obj) {
             Class cls = obj.getClass();
             if (isPersistent (cls))
                 return obj;
-
-            ByteArrayInputStream bais = new ByteArrayInputStream((byte[]) obj);
             try {
-                ObjectInputStream is = new ObjectInputStream (bais);
-                return is.readObject();
+                return BinaryCodec.decode((byte[]) obj);
             } catch (Exception e) {
                 throw new SpaceError (e);
             }
-
         }
     }
     
@@ -0,0 +1,862 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.iso.ISOUtil;
+import org.jpos.util.BinaryCodec;
+import org.jpos.util.Log;
+import org.jpos.util.Loggeable;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent space backed by an append-only, segmented, memory mapped log
+ * and an in-memory index.
+ * <p>
+ * Every operation appends a record to the active segment: <code>out</code>
+ * and <code>push</code> append the entry, while <code>in</code>/<code>inp</code>
+ * append a small 'take' record. The index is rebuilt by replaying the
+ * segments on startup; a torn record at the end of the log is discarded.
+ * <p>
+ * When <code>sync</code> is true (the default), operations that modify the
+ * space return once their record has been forced to disk. Concurrent writers
+ * are grouped so that a single <code>force</code> covers all of them; a
+ * <code>sync.interval</code> (in millis) can be used to wait for larger groups.
+ * With <code>sync=false</code> the log is forced every <code>sync.interval</code>
+ * millis (1000 by default) and records written after the last force can be lost
+ * if the operating system (not just the JVM) crashes.
+ * <p>
+ * A background task drops expired entries and compacts the log, starting from
+ * the oldest segment: segments where less than <code>compact.ratio</code> of
+ * the data is still live get their live entries copied to the active segment
+ * and are deleted.
+ * <pre>
+ *  mmap:name:path[,segment.size=67108864][,sync=true][,sync.interval=0][,compact.ratio=0.5]
+ * </pre>
+ *
+ * @since 2.1.4
+ */
+@SuppressWarnings("unchecked")
+public class MMapSpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Runnable {
+    public static final long GC_DELAY = 15*1000L;
+    public static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+    private static final long NRD_RESOLUTION = 500L;
+    private static final int MAGIC = 0x4A504D53; // JPMS
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER = 8;
+    private static final int RECORD_HEADER = 8; // length + crc
+    private static final int PAYLOAD_HEADER = 1 + 8 + 8 + 4; // type, id, expires, key length
+    private static final byte OUT = 1;
+    private static final byte PUSH = 2;
+    private static final byte TAKE = 3;
+
+    private final String name;
+    private final File dir;
+    private final int segmentSize;
+    private final boolean sync;
+    private final long syncInterval;
+    private final double compactRatio;
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private final Map<String,TreeMap<Long,Entry>> index = new HashMap<>();
+    private final CRC32 crc = new CRC32();
+    private volatile Segment active;
+    private long nextOutId = 1L;
+    private long nextPushId = -1L;
+    private int count;
+
+    private final Object syncLock = new Object();
+    private final Object compactLock = new Object();
+    private long appended;  // records appended so far, guarded by this
+    private long requested; // guarded by syncLock
+    private long synced;    // guarded by syncLock
+    private volatile boolean running = true;
+    private final Thread flusher;
+    private Future<?> gcTask;
+    private LocalSpace<Object,SpaceListener<K,V>> sl;
+
+    static final Map<String,MMapSpace<?,?>> spaceRegistrar = new HashMap<>();
+
+    /**
+     * @param name space name, used as the segment file prefix
+     * @param params directory, optionally followed by comma separated name=value parameters
+     * @throws SpaceError if the log can't be opened or recovered
+     */
+    public MMapSpace (String name, String params) throws SpaceError {
+        super();
+        String[] p = ISOUtil.commaDecode(params);
+        this.name = name;
+        this.dir = new File(p[0]);
+        this.segmentSize = (int) getParam ("segment.size", p, DEFAULT_SEGMENT_SIZE);
+        this.sync = getParam ("sync", p, 1L) != 0L;
+        this.syncInterval = getParam ("sync.interval", p, sync ? 0L : 1000L);
+        this.compactRatio = Double.parseDouble(getParam ("compact.ratio", p, "0.5"));
+        if (segmentSize <= SEGMENT_HEADER + RECORD_HEADER + PAYLOAD_HEADER)
+            throw new SpaceError ("invalid segment.size " + segmentSize);
+        try {
+            dir.mkdirs();
+            recover();
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+        flusher = new Thread (this::flush, "MMapSpace-flusher-" + name);
+        flusher.setDaemon(true);
+        flusher.start();
+        gcTask = SpaceFactory.getGCExecutor().scheduleAtFixedRate(this, GC_DELAY, GC_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    public void out (K key, V value) {
+        out (key, value, 0L);
+    }
+    public void out (K key, V value, long timeout) {
+        write (OUT, key, value, timeout);
+    }
+    public void push (K key, V value) {
+        push (key, value, 0L);
+    }
+    public void push (K key, V value, long timeout) {
+        write (PUSH, key, value, timeout);
+    }
+    public void put (K key, V value) {
+        put (key, value, 0L);
+    }
+    public void put (K key, V value, long timeout) {
+        long seq;
+        byte[] b = serialize (value);
+        synchronized (this) {
+            TreeMap<Long,Entry> entries = index.get(key.toString());
+            if (entries != null) {
+                for (Entry e : new ArrayList<>(entries.values()))
+                    remove (e);
+            }
+            append (OUT, nextOutId++, expiration(timeout), key.toString(), b);
+            seq = appended;
+            notifyAll();
+        }
+        await (seq);
+        if (sl != null)
+            notifyListeners(key, value);
+    }
+
+    public V rdp (Object key) {
+        byte[] b;
+        synchronized (this) {
+            b = get (key, false);
+        }
+        return b != null ? (V) deserialize(b) : null;
+    }
+    public V inp (Object key) {
+        byte[] b;
+        long seq;
+        synchronized (this) {
+            b = get (key, true);
+            seq = appended;
+        }
+        if (b == null)
+            return null;
+        await (seq);
+        return (V) deserialize(b);
+    }
+    public V in (Object key) {
+        byte[] b;
+        long seq;
+        synchronized (this) {
+            while ((b = get (key, true)) == null) {
+                try {
+                    this.wait ();
+                } catch (InterruptedException ignored) { }
+            }
+            seq = appended;
+        }
+        await (seq);
+        return (V) deserialize(b);
+    }
+    public V in (Object key, long timeout) {
+        byte[] b;
+        long seq;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long end = now + timeout;
+            while ((b = get (key, true)) == null &&
+                    (now = System.currentTimeMillis()) < end)
+            {
+                try {
+                    this.wait (end - now);
+                } catch (InterruptedException ignored) { }
+            }
+            seq = appended;
+        }
+        if (b == null)
+            return null;
+        await (seq);
+        return (V) deserialize(b);
+    }
+    public V rd (Object key) {
+        byte[] b;
+        synchronized (this) {
+            while ((b = get (key, false)) == null) {
+                try {
+                    this.wait ();
+                } catch (InterruptedException ignored) { }
+            }
+        }
+        return (V) deserialize(b);
+    }
+    public V rd (Object key, long timeout) {
+        byte[] b;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long end = now + timeout;
+            while ((b = get (key, false)) == null &&
+                    (now = System.currentTimeMillis()) < end)
+            {
+                try {
+                    this.wait (end - now);
+                } catch (InterruptedException ignored) { }
+            }
+        }
+        return b != null ? (V) deserialize(b) : null;
+    }
+    public synchronized void nrd (Object key) {
+        while (get (key, false) != null) {
+            try {
+                this.wait (NRD_RESOLUTION);
+            } catch (InterruptedException ignored) { }
+        }
+    }
+    public V nrd (Object key, long timeout) {
+        byte[] b;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long end = now + timeout;
+            while ((b = get (key, false)) != null &&
+                    (now = System.currentTimeMillis()) < end)
+            {
+                try {
+                    this.wait (Math.min(NRD_RESOLUTION, end - now));
+                } catch (InterruptedException ignored) { }
+            }
+        }
+        return b != null ? (V) deserialize(b) : null;
+    }
+    public boolean existAny (Object[] keys) {
+        for (Object key : keys) {
+            if (rdp(key) != null)
+                return true;
+        }
+        return false;
+    }
+    public boolean existAny (Object[] keys, long timeout) {
+        long now = System.currentTimeMillis();
+        long end = now + timeout;
+        while ((now = System.currentTimeMillis()) < end) {
+            if (existAny (keys))
+                return true;
+            synchronized (this) {
+                try {
+                    wait (end - now);
+                } catch (InterruptedException ignored) { }
+            }
+        }
+        return false;
+    }
+
+    public synchronized void addListener (K key, SpaceListener<K,V> listener) {
+        getSL().out (key, listener);
+    }
+    public synchronized void addListener (K key, SpaceListener<K,V> listener, long timeout) {
+        getSL().out (key, listener);
+    }
+    public synchronized void removeListener (K key, SpaceListener<K,V> listener) {
+        if (sl != null)
+            sl.inp (new ObjectTemplate (key, listener));
+    }
+    public synchronized Set<K> getKeySet() {
+        return (Set<K>) new HashSet<>(index.keySet()); // keys are stored as strings
+    }
+    public synchronized int size (Object key) {
+        TreeMap<Long,Entry> entries = index.get(key.toString());
+        if (entries == null)
+            return 0;
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Entry e : entries.values())
+            if (!e.isExpired(now))
+                count++;
+        return count;
+    }
+
+    /**
+     * Drops expired entries from the index and compacts the oldest segments.
+     * @throws IOException on I/O errors while compacting
+     */
+    public void gc () throws IOException {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (TreeMap<Long,Entry> entries : new ArrayList<>(index.values())) {
+                for (Entry e : new ArrayList<>(entries.values()))
+                    if (e.isExpired(now))
+                        drop (e);
+            }
+            if (sl != null && sl.getKeySet().isEmpty())
+                sl = null;
+        }
+        synchronized (compactLock) {
+            compact();
+        }
+    }
+    public void run() {
+        try {
+            gc();
+        } catch (Exception e) {
+            warn (e);
+        }
+    }
+
+    /**
+     * Stops background tasks, forces the log to disk and unregisters the space.
+     */
+    public void close () {
+        gcTask.cancel(false);
+        synchronized (MMapSpace.class) {
+            spaceRegistrar.remove (name, this);
+        }
+        synchronized (syncLock) {
+            running = false;
+            syncLock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException ignored) { }
+        synchronized (this) {
+            for (Segment s : segments)
+                s.buffer.force();
+        }
+    }
+
+    public synchronized static <K,V> MMapSpace<K,V> getSpace (String name, String params) {
+        MMapSpace<K,V> sp = (MMapSpace<K,V>) spaceRegistrar.get (name);
+        if (sp == null) {
+            sp = new MMapSpace<>(name, params);
+            spaceRegistrar.put (name, sp);
+        }
+        return sp;
+    }
+    public static <K,V> MMapSpace<K,V> getSpace (String name) {
+        return getSpace (name, name);
+    }
+
+    /**
+     * @return number of segment files currently in use
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized void dump (PrintStream p, String indent) {
+        long live = 0L;
+        long used = 0L;
+        for (Segment s : segments) {
+            live += s.live;
+            used += s.position;
+        }
+        p.printf ("%s<segments count='%d' used='%d' live='%d' entries='%d'/>%n",
+          indent, segments.size(), used, live, count);
+        for (Map.Entry<String,TreeMap<Long,Entry>> e : new TreeMap<>(index).entrySet())
+            p.printf ("%s<key size='%d'>%s</key>%n", indent, e.getValue().size(), e.getKey());
+        p.println(indent+"<keycount>"+index.size()+"</keycount>");
+    }
+
+    private void write (byte type, K key, V value, long timeout) {
+        long seq;
+        byte[] b = serialize (value);
+        synchronized (this) {
+            long id = type == PUSH ? nextPushId-- : nextOutId++;
+            append (type, id, expiration(timeout), key.toString(), b);
+            seq = appended;
+            notifyAll();
+        }
+        await (seq);
+        if (sl != null)
+            notifyListeners(key, value);
+    }
+
+    /**
+     * Returns the serialized value of the first live entry matching key,
+     * optionally taking it. Called with the lock held.
+     */
+    private byte[] get (Object key, boolean remove) {
+        Template tmpl = null;
+        if (key instanceof Template) {
+            tmpl = (Template) key;
+            key  = tmpl.getKey();
+        }
+        TreeMap<Long,Entry> entries = index.get(key.toString());
+        if (entries == null)
+            return null;
+        long now = System.currentTimeMillis();
+        for (Entry e : new ArrayList<>(entries.values())) {
+            if (e.isExpired(now)) {
+                drop (e);
+                continue;
+            }
+            byte[] b = e.value();
+            if (tmpl != null && !tmpl.equals (deserialize(b)))
+                continue;
+            if (remove)
+                remove (e);
+            return b;
+        }
+        return null;
+    }
+
+    /**
+     * Appends a take record for e and removes it from the index.
+     */
+    private void remove (Entry e) {
+        append (TAKE, e.id, 0L, e.key, null);
+        drop (e);
+    }
+
+    /**
+     * Removes e from the index without logging it (used for expired entries,
+     * which are skipped on replay anyway).
+     */
+    private void drop (Entry e) {
+        TreeMap<Long,Entry> entries = index.get(e.key);
+        if (entries != null && entries.remove(e.id) == e) {
+            e.segment.live -= e.size;
+            count--;
+            if (entries.isEmpty())
+                index.remove(e.key);
+        }
+    }
+
+    private void append (byte type, long id, long expires, String key, byte[] value) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value != null ? value.length : 0;
+        int len = PAYLOAD_HEADER + k.length + valueLength;
+        ByteBuffer payload = ByteBuffer.allocate(len);
+        payload.put(type).putLong(id).putLong(expires).putInt(k.length).put(k);
+        if (value != null)
+            payload.put(value);
+        crc.reset();
+        crc.update(payload.array(), 0, len);
+        try {
+            Segment s = reserve (RECORD_HEADER + len);
+            int offset = s.position;
+            ByteBuffer buf = s.buffer.duplicate();
+            buf.position(offset + 4);
+            buf.putInt((int) crc.getValue());
+            buf.put(payload.array());
+            s.buffer.putInt(offset, len); // written last, so a torn record is never valid
+            s.position += RECORD_HEADER + len;
+            appended++;
+            if (type != TAKE)
+                index (new Entry(key, id, expires, s, offset, RECORD_HEADER + len, k.length));
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+    }
+
+    /**
+     * @return segment with room for a record of the given size, rolling over if necessary
+     */
+    private Segment reserve (int size) throws IOException {
+        if (size > segmentSize - SEGMENT_HEADER)
+            throw new SpaceError ("entry too large (" + size + " bytes) for segment.size " + segmentSize);
+        Segment s = active;
+        if (s.position + size > s.size) {
+            s.buffer.force();
+            s = new Segment (segmentFile(s.seq + 1), s.seq + 1, segmentSize);
+            segments.add (s);
+            active = s;
+        }
+        return s;
+    }
+
+    private void index (Entry e) {
+        TreeMap<Long,Entry> entries = index.computeIfAbsent(e.key, k -> new TreeMap<>());
+        Entry prev = entries.put(e.id, e);
+        e.segment.live += e.size;
+        if (prev != null)
+            prev.segment.live -= prev.size;
+        else
+            count++;
+    }
+
+    /**
+     * Copies the live entries of the oldest segments to the active one and
+     * deletes them. Only the oldest segment is ever deleted, so take records
+     * never outlive the entries they refer to.
+     * <p>
+     * Segments other than the active one are immutable, so their live records
+     * are read without holding the space lock; the lock is only taken to
+     * append them to the active segment and to point the index at the copies.
+     * Called with <code>compactLock</code> held.
+     */
+    private void compact () throws IOException {
+        for (;;) {
+            Segment oldest;
+            List<Entry> live = new ArrayList<>();
+            synchronized (this) {
+                if (segments.size() < 2)
+                    return;
+                oldest = segments.getFirst();
+                if (oldest.live > 0L && oldest.live >= compactRatio * (oldest.position - SEGMENT_HEADER))
+                    return;
+                if (oldest.live > 0L) {
+                    for (TreeMap<Long,Entry> entries : index.values())
+                        for (Entry e : entries.values())
+                            if (e.segment == oldest)
+                                live.add(e);
+                }
+            }
+            List<byte[]> records = new ArrayList<>(live.size());
+            for (Entry e : live)
+                records.add (e.record());
+
+            Segment target;
+            synchronized (this) {
+                for (int i=0; i<live.size(); i++) {
+                    Entry e = live.get(i);
+                    TreeMap<Long,Entry> entries = index.get(e.key);
+                    if (entries != null && entries.get(e.id) == e)
+                        relocate (e, records.get(i)); // still live, not taken while copying
+                }
+                segments.removeFirst();
+                target = active;
+            }
+            if (!live.isEmpty())
+                target.buffer.force(); // earlier segments were forced on rollover
+            unmap (oldest.buffer);
+            if (!oldest.file.delete())
+                warn ("Unable to delete " + oldest.file);
+        }
+    }
+
+    private void relocate (Entry e, byte[] record) throws IOException {
+        Segment s = reserve (record.length);
+        ByteBuffer dst = s.buffer.duplicate();
+        dst.position(s.position);
+        dst.put(record);
+        index (new Entry(e.key, e.id, e.expires, s, s.position, record.length, e.keyLength));
+        s.position += record.length;
+        appended++;
+    }
+
+    private void recover () throws IOException {
+        File[] files = dir.listFiles((d, n) -> n.startsWith(name + "-") && n.endsWith(".seg"));
+        long[] seqs = new long[files != null ? files.length : 0];
+        for (int i=0; i<seqs.length; i++) {
+            String n = files[i].getName();
+            try {
+                seqs[i] = Long.parseLong(n.substring(name.length() + 1, n.length() - 4));
+            } catch (NumberFormatException e) {
+                seqs[i] = -1L;
+            }
+        }
+        Arrays.sort(seqs);
+        long now = System.currentTimeMillis();
+        for (long seq : seqs) {
+            if (seq < 0L)
+                continue;
+            Segment s = new Segment(segmentFile(seq), seq, 0);
+            segments.add(s);
+            replay (s, now);
+        }
+        if (segments.isEmpty())
+            segments.add(new Segment(segmentFile(0L), 0L, segmentSize));
+        active = segments.getLast();
+        active.truncate();
+    }
+
+    private void replay (Segment s, long now) {
+        ByteBuffer buf = s.buffer;
+        int pos = SEGMENT_HEADER;
+        while (pos + RECORD_HEADER + PAYLOAD_HEADER <= s.size) {
+            int len = buf.getInt(pos);
+            if (len < PAYLOAD_HEADER || pos + RECORD_HEADER + len > s.size)
+                break;
+            byte[] b = new byte[len];
+            ByteBuffer payload = buf.duplicate();
+            payload.position(pos + RECORD_HEADER);
+            payload.get(b);
+            crc.reset();
+            crc.update(b, 0, len);
+            if ((int) crc.getValue() != buf.getInt(pos + 4))
+                break;
+            payload = ByteBuffer.wrap(b);
+            byte type = payload.get();
+            long id = payload.getLong();
+            long expires = payload.getLong();
+            int keyLength = payload.getInt();
+            if (keyLength < 0 || keyLength > len - PAYLOAD_HEADER)
+                break;
+            String key = new String(b, PAYLOAD_HEADER, keyLength, StandardCharsets.UTF_8);
+            nextOutId = Math.max(nextOutId, id + 1);
+            nextPushId = Math.min(nextPushId, id - 1);
+            if (type == TAKE) {
+                TreeMap<Long,Entry> entries = index.get(key);
+                Entry e = entries != null ? entries.get(id) : null;
+                if (e != null)
+                    drop (e);
+            } else if (expires == 0L || expires > now) {
+                index (new Entry(key, id, expires, s, pos, RECORD_HEADER + len, keyLength));
+            }
+            pos += RECORD_HEADER + len;
+        }
+        s.position = pos;
+    }
+
+    private File segmentFile (long seq) {
+        return new File (dir, String.format ("%s-%010d.seg", name, seq));
+    }
+
+    /**
+     * Group commit: waits until the record with the given sequence number has been forced.
+     */
+    private void await (long seq) {
+        if (!sync)
+            return;
+        synchronized (syncLock) {
+            if (seq > requested) {
+                requested = seq;
+                syncLock.notifyAll();
+            }
+            while (synced < seq && running) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException ignored) { }
+            }
+        }
+    }
+
+    private void flush() {
+        while (running) {
+            long target;
+            try {
+                synchronized (syncLock) {
+                    if (sync) {
+                        while (requested <= synced && running)
+                            syncLock.wait();
+                        if (syncInterval > 0L)
+                            syncLock.wait(syncInterval);
+                    } else {
+                        syncLock.wait(syncInterval);
+                    }
+                    if (!running)
+                        break;
+                }
+                synchronized (this) {
+                    target = appended;
+                }
+                // records up to target are in the active segment or in
+                // segments that were forced when they were rolled over
+                active.buffer.force();
+                synchronized (syncLock) {
+                    synced = Math.max(synced, target);
+                    syncLock.notifyAll();
+                }
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                warn (e);
+            }
+        }
+        synchronized (syncLock) {
+            syncLock.notifyAll();
+        }
+    }
+
+    private long expiration (long timeout) {
+        return timeout > 0L ? System.currentTimeMillis() + timeout : 0L;
+    }
+
+    private LocalSpace<Object,SpaceListener<K,V>> getSL() {
+        synchronized (this) {
+            if (sl == null)
+                sl = new TSpace<>();
+        }
+        return sl;
+    }
+
+    private void notifyListeners (K key, V value) {
+        Set<SpaceListener<K,V>> listeners = new HashSet<>();
+        synchronized (this) {
+            if (sl == null)
+                return;
+            SpaceListener<K,V> s;
+            while ((s = sl.inp(key)) != null)
+                listeners.add(s);
+            for (SpaceListener<K,V> spl: listeners)
+                sl.out(key, spl);
+        }
+        for (SpaceListener<K,V> spl: listeners)
+            spl.notify (key, value);
+    }
+
+    private static byte[] serialize (Object obj) {
+        try {
+            return BinaryCodec.encode(obj);
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+    }
+
+    private static Object deserialize (byte[] b) {
+        try {
+            return BinaryCodec.decode(b);
+        } catch (Exception e) {
+            throw new SpaceError (e);
+        }
+    }
+
+    private static long getParam (String name, String[] params, long defaultValue) {
+        return Long.parseLong(getParam (name, params, Long.toString(defaultValue)));
+    }
+
+    private static String getParam (String name, String[] params, String defaultValue) {
+        for (int i=1; i<params.length; i++) {
+            String s = params[i].trim();
+            int pos = s.indexOf('=');
+            if (pos > 0 && s.substring(0, pos).trim().equals(name)) {
+                String v = s.substring(pos+1).trim();
+                if ("true".equalsIgnoreCase(v))
+                    return "1";
+                return "false".equalsIgnoreCase(v) ? "0" : v;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Releases the mapping of a segment that is no longer referenced, instead
+     * of waiting for the buffer to be garbage collected (until then the file's
+     * disk space can't be reclaimed, and on some platforms it can't be deleted).
+     * Uses <code>Unsafe.invokeCleaner</code> on Java 9+ and the buffer's cleaner
+     * on Java 8; if neither is available the mapping is left to the collector.
+     */
+    private static void unmap (MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception ignored) { }
+    }
+
+    private static class Segment {
+        final File file;
+        final long seq;
+        final int size;
+        final MappedByteBuffer buffer;
+        int position;
+        long live;
+
+        /**
+         * Maps an existing segment file (size 0) or creates a new one
+         */
+        Segment (File file, long seq, int size) throws IOException {
+            this.file = file;
+            this.seq = seq;
+            boolean create = size > 0;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (create)
+                    raf.setLength(size);
+                this.size = (int) raf.length();
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+            }
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                position = SEGMENT_HEADER;
+            } else if (this.size < SEGMENT_HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new SpaceError ("invalid segment " + file);
+            }
+        }
+
+        /**
+         * Zeroes whatever follows the last valid record, so that a torn
+         * record can't be mistaken for a valid one later on.
+         */
+        void truncate() {
+            if (position + 4 <= size && buffer.getInt(position) != 0) {
+                for (int i=position; i<size; i++)
+                    buffer.put(i, (byte) 0);
+                buffer.force();
+            }
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final long id;
+        final long expires;
+        final Segment segment;
+        final int offset;
+        final int size;
+        final int keyLength;
+
+        Entry (String key, long id, long expires, Segment segment, int offset, int size, int keyLength) {
+            this.key = key;
+            this.id = id;
+            this.expires = expires;
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.keyLength = keyLength;
+        }
+        boolean isExpired (long now) {
+            return expires > 0L && expires < now;
+        }
+        byte[] record() {
+            byte[] b = new byte[size];
+            ByteBuffer buf = segment.buffer.duplicate();
+            buf.position(offset);
+            buf.get(b);
+            return b;
+        }
+        byte[] value() {
+            int off = offset + RECORD_HEADER + PAYLOAD_HEADER + keyLength;
+            byte[] b = new byte[size - RECORD_HEADER - PAYLOAD_HEADER - keyLength];
+            ByteBuffer buf = segment.buffer.duplicate();
+            buf.position(off);
+            buf.get(b);
+            return b;
+        }
+    }
+}
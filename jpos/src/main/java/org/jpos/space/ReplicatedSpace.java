@@ -0,0 +1,1049 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.util.BinaryCodec;
+import org.jpos.util.Log;
+import org.jpos.util.Loggeable;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory LocalSpace replicated from an active node to one or more
+ * standby nodes over TCP.
+ * <p>
+ * Every node listens on <code>port</code>. The active node connects to its
+ * <code>peer</code>s and streams every mutation (out, push, put and the
+ * entries taken by in/inp) as a numbered record. A peer that (re)connects
+ * reports the last record it applied; it gets the missing records if they
+ * are still in the active node's in-memory log (<code>log-size</code>
+ * records), or a snapshot of the whole space otherwise.
+ * <p>
+ * Standby nodes can be read, but operations that modify the space throw
+ * {@link SpaceError} until the node is {@link #promote()}d. Promotion starts
+ * a new epoch; a previously active node that comes back with an older epoch
+ * is rejected by its peers and becomes a standby. An active node never
+ * overwrites a peer that has more records of its epoch than itself (i.e. the
+ * active node was restarted): if it hasn't modified the space yet it copies
+ * the peer's contents, otherwise it steps down so that a node can be promoted.
+ * <p>
+ * Nodes only accept replication connections from the hosts of their
+ * <code>peer</code>s, so standby nodes have to list the nodes that may become
+ * active. With a <code>secret</code>, both ends of a connection prove they
+ * know it (HMAC-SHA256 challenge/response) before any data is exchanged.
+ * <p>
+ * <code>ack</code> controls when a mutation returns:
+ * <ul>
+ *  <li><code>async</code> - as soon as it has been applied locally</li>
+ *  <li><code>leader-ack</code> - once every connected peer acknowledged it</li>
+ *  <li><code>quorum</code> - once a majority of the nodes (including this one) have it</li>
+ * </ul>
+ * If acknowledgements don't arrive within <code>ack-timeout</code>, out/push/put
+ * throw {@link SpaceError} (the entry stays in the space and keeps being
+ * replicated), while in/inp log a warning and return the entry.
+ * <pre>
+ *  role            active|standby (default standby)
+ *  host            optional local address to bind
+ *  port            replication port
+ *  peer            host:port of a peer node (multiple allowed)
+ *  ack             async|leader-ack|quorum (default async)
+ *  ack-timeout     default 5000
+ *  log-size        records kept for peer catch-up (default 100000)
+ *  reconnect-delay default 1000
+ *  secret          shared by all the nodes, optional
+ *  allow           additional {@link BinaryCodec.ClassFilter} patterns that may be Java deserialized
+ * </pre>
+ * Entry expiration relies on the nodes' clocks being reasonably in sync.
+ *
+ * @since 2.1.4
+ */
+@SuppressWarnings("unchecked")
+public class ReplicatedSpace<K,V> extends Log implements LocalSpace<K,V>, Configurable, Loggeable, Closeable {
+    public enum Role { ACTIVE, STANDBY }
+    public enum Ack { ASYNC, LEADER_ACK, QUORUM }
+
+    private static final int MAX_FRAME_LENGTH = 64*1024*1024;
+    private static final byte HELLO    = 1; // epoch, seq
+    private static final byte POSITION = 2; // epoch, seq
+    private static final byte REJECT   = 3; // epoch
+    private static final byte SNAPSHOT = 4; // epoch, seq, count, entries
+    private static final byte RECORD   = 5; // seq, op, key, id, [value, expires]
+    private static final byte ACK      = 6; // seq
+    private static final byte CHALLENGE = 7; // nonce
+    private static final byte PULL     = 8;
+    private static final int NONCE_LENGTH = 16;
+    private static final int MAX_HANDSHAKE_LENGTH = 256;
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+    private static final byte OUT  = 1;
+    private static final byte PUSH = 2;
+    private static final byte PUT  = 3;
+    private static final byte TAKE = 4;
+
+    private final TSpace<K,Object> store = new TSpace<>();
+    private volatile Role role = Role.STANDBY;
+    private Ack ack = Ack.ASYNC;
+    private long ackTimeout;
+    private int logSize;
+    private long reconnectDelay;
+    private InetSocketAddress address;
+    private final List<InetSocketAddress> peerAddresses = new ArrayList<>();
+    private String secret;
+    private BinaryCodec.ClassFilter filter = BinaryCodec.ClassFilter.BASE;
+    private final SecureRandom random = new SecureRandom();
+
+    private long epoch;       // highest epoch seen, guarded by this
+    private long dataEpoch;   // epoch our contents come from, guarded by this
+    private long seq;         // last record applied, guarded by this
+    private long snapshots;   // snapshots received, guarded by this
+    private final ArrayDeque<Record> log = new ArrayDeque<>();
+    private final List<Peer> peers = new ArrayList<>();
+    private final Object acks = new Object();
+    private ServerSocket server;
+    private Socket leader;
+    private volatile boolean running;
+
+    @Override
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        try {
+            role = Role.valueOf(cfg.get("role", "standby").toUpperCase());
+            ack = Ack.valueOf(cfg.get("ack", "async").toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException (e.getMessage(), e);
+        }
+        ackTimeout = cfg.getLong("ack-timeout", 5000L);
+        logSize = cfg.getInt("log-size", 100000);
+        reconnectDelay = cfg.getLong("reconnect-delay", 1000L);
+        secret = cfg.get("secret", null);
+        filter = BinaryCodec.ClassFilter.BASE.with(cfg.get("allow", null));
+        String host = cfg.get("host", null);
+        int port = cfg.getInt("port", 0);
+        address = host != null ? new InetSocketAddress(host, port) : new InetSocketAddress(port);
+        peerAddresses.clear();
+        for (String p : cfg.getAll("peer")) {
+            int i = p.lastIndexOf(':');
+            if (i <= 0)
+                throw new ConfigurationException ("invalid peer " + p);
+            peerAddresses.add(new InetSocketAddress(p.substring(0, i), Integer.parseInt(p.substring(i+1))));
+        }
+        if (ack == Ack.QUORUM && peerAddresses.isEmpty())
+            throw new ConfigurationException ("quorum requires at least one peer");
+    }
+
+    /**
+     * Starts listening for replication connections and, on the active node,
+     * starts streaming to peers.
+     * @throws IOException if unable to listen on the replication port
+     */
+    public synchronized void start() throws IOException {
+        if (running)
+            return;
+        server = new ServerSocket();
+        try {
+            server.setReuseAddress(true);
+            server.bind(address);
+        } catch (IOException e) {
+            closeQuietly(server);
+            throw e;
+        }
+        running = true;
+        daemon(this::accept, "ReplicatedSpace-accept-" + getPort());
+        if (role == Role.ACTIVE) {
+            if (epoch == 0L)
+                epoch = dataEpoch = 1L;
+            startPeers();
+        }
+    }
+
+    /**
+     * Stops replication; the space contents are kept and replication can be started again.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            stopPeers();
+            closeQuietly(server);
+            closeQuietly(leader);
+            leader = null;
+        }
+        synchronized (acks) {
+            acks.notifyAll();
+        }
+    }
+
+    /**
+     * Turns a standby node into the active one, starting a new epoch.
+     */
+    public synchronized void promote() {
+        if (role == Role.ACTIVE)
+            return;
+        closeQuietly(leader);
+        leader = null;
+        role = Role.ACTIVE;
+        dataEpoch = ++epoch;
+        log.clear();
+        info ("promoted, epoch " + epoch + ", seq " + seq);
+        if (running)
+            startPeers();
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return sequence number of the last record applied
+     */
+    public synchronized long getSeq() {
+        return seq;
+    }
+
+    /**
+     * @return number of snapshots received from active nodes
+     */
+    public synchronized long getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * @return replication port, useful when configured with port 0
+     */
+    public int getPort() {
+        return server != null ? server.getLocalPort() : address.getPort();
+    }
+
+    @Override
+    public void out (K key, V value) {
+        write (OUT, key, value, 0L);
+    }
+
+    @Override
+    public void out (K key, V value, long timeout) {
+        write (OUT, key, value, timeout);
+    }
+
+    @Override
+    public void push (K key, V value) {
+        write (PUSH, key, value, 0L);
+    }
+
+    @Override
+    public void push (K key, V value, long timeout) {
+        write (PUSH, key, value, timeout);
+    }
+
+    @Override
+    public void put (K key, V value) {
+        write (PUT, key, value, 0L);
+    }
+
+    @Override
+    public void put (K key, V value, long timeout) {
+        write (PUT, key, value, timeout);
+    }
+
+    @Override
+    public V inp (Object key) {
+        Object k = wrap(key);
+        Entry e;
+        long s;
+        synchronized (this) {
+            checkActive();
+            e = (Entry) store.inp(k);
+            if (e == null)
+                return null;
+            s = append(TAKE, key instanceof Template ? ((Template) key).getKey() : key, e, 0L);
+        }
+        if (!await(s))
+            warn ("take " + s + " not acknowledged in " + ackTimeout + "ms");
+        return (V) e.value;
+    }
+
+    @Override
+    public V in (Object key) {
+        Object k = wrap(key);
+        for (;;) {
+            V v = inp(key);
+            if (v != null)
+                return v;
+            synchronized (store) {
+                if (store.rdp(k) == null) {
+                    try {
+                        store.wait();
+                    } catch (InterruptedException ignored) { }
+                }
+            }
+        }
+    }
+
+    @Override
+    public V in (Object key, long timeout) {
+        Object k = wrap(key);
+        long end = System.currentTimeMillis() + timeout;
+        for (;;) {
+            V v = inp(key);
+            long now = System.currentTimeMillis();
+            if (v != null || now >= end)
+                return v;
+            synchronized (store) {
+                if (store.rdp(k) == null) {
+                    try {
+                        store.wait(end - now);
+                    } catch (InterruptedException ignored) { }
+                }
+            }
+        }
+    }
+
+    @Override
+    public V rdp (Object key) {
+        return unwrap(store.rdp(wrap(key)));
+    }
+
+    @Override
+    public V rd (Object key) {
+        return unwrap(store.rd(wrap(key)));
+    }
+
+    @Override
+    public V rd (Object key, long timeout) {
+        return unwrap(store.rd(wrap(key), timeout));
+    }
+
+    @Override
+    public void nrd (Object key) {
+        store.nrd(wrap(key));
+    }
+
+    @Override
+    public V nrd (Object key, long timeout) {
+        return unwrap(store.nrd(wrap(key), timeout));
+    }
+
+    @Override
+    public boolean existAny (K[] keys) {
+        return store.existAny(keys);
+    }
+
+    @Override
+    public boolean existAny (K[] keys, long timeout) {
+        return store.existAny(keys, timeout);
+    }
+
+    @Override
+    public void addListener (K key, SpaceListener<K,V> listener) {
+        store.addListener(key, new Listener<>(listener));
+    }
+
+    @Override
+    public void addListener (K key, SpaceListener<K,V> listener, long timeout) {
+        store.addListener(key, new Listener<>(listener), timeout);
+    }
+
+    @Override
+    public void removeListener (K key, SpaceListener<K,V> listener) {
+        store.removeListener(key, new Listener<>(listener));
+    }
+
+    @Override
+    public Set<K> getKeySet() {
+        return store.getKeySet();
+    }
+
+    @Override
+    public int size (K key) {
+        return store.size(key);
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        String inner = indent + "  ";
+        synchronized (this) {
+            p.printf ("%s<replicated-space role=\"%s\" epoch=\"%d\" seq=\"%d\" log=\"%d\" snapshots=\"%d\">%n",
+              indent, role, epoch, seq, log.size(), snapshots);
+            for (Peer peer : peers)
+                p.printf ("%s<peer address=\"%s\" connected=\"%s\" acked=\"%d\"/>%n",
+                  inner, peer.address, peer.live, peer.acked);
+        }
+        store.dump(p, inner);
+        p.printf ("%s</replicated-space>%n", indent);
+    }
+
+    private void write (byte op, K key, V value, long timeout) {
+        if (key == null || value == null)
+            throw new NullPointerException ("key=" + key + ", value=" + value);
+        long s;
+        synchronized (this) {
+            checkActive();
+            Entry e = new Entry(seq + 1, value);
+            apply(op, key, e, timeout);
+            s = append(op, key, e, timeout > 0L ? System.currentTimeMillis() + timeout : 0L);
+        }
+        if (!await(s))
+            throw new SpaceError ("record " + s + " not acknowledged in " + ackTimeout + "ms");
+    }
+
+    private void apply (byte op, Object key, Entry e, long timeout) {
+        switch (op) {
+            case OUT:
+                if (timeout > 0L)
+                    store.out((K) key, e, timeout);
+                else
+                    store.out((K) key, e);
+                break;
+            case PUSH:
+                if (timeout > 0L)
+                    store.push((K) key, e, timeout);
+                else
+                    store.push((K) key, e);
+                break;
+            case PUT:
+                if (timeout > 0L)
+                    store.put((K) key, e, timeout);
+                else
+                    store.put((K) key, e);
+                break;
+            case TAKE:
+                store.inp(new IdTemplate(key, e.id));
+                break;
+        }
+    }
+
+    /**
+     * Logs a record and queues it to connected peers; called with the lock held.
+     * @return record's sequence number
+     */
+    private long append (byte op, Object key, Entry e, long expires) {
+        Record r = new Record(++seq);
+        try {
+            BinaryCodec.Output out = new BinaryCodec.Output();
+            out.writeByte(RECORD);
+            out.writeVarLong(r.seq);
+            out.writeByte(op);
+            out.writeObject(key);
+            out.writeVarLong(e.id);
+            if (op != TAKE) {
+                out.writeObject(e.value);
+                out.writeLong(expires);
+            }
+            r.frame = out.toByteArray();
+        } catch (IOException ex) {
+            throw new SpaceError (ex);
+        }
+        log.add(r);
+        while (log.size() > logSize)
+            log.poll();
+        for (Peer peer : peers) {
+            if (peer.live)
+                peer.queue.add(r.frame);
+        }
+        return r.seq;
+    }
+
+    /**
+     * Waits for record s to be acknowledged as required by the ack mode
+     * @return false on timeout
+     */
+    private boolean await (long s) {
+        if (ack == Ack.ASYNC)
+            return true;
+        long end = System.currentTimeMillis() + ackTimeout;
+        synchronized (acks) {
+            while (!isAcknowledged(s)) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0L || !running)
+                    return false;
+                try {
+                    acks.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isAcknowledged (long s) {
+        int acked = 0;
+        int live = 0;
+        List<Peer> pp;
+        synchronized (this) {
+            pp = new ArrayList<>(peers);
+        }
+        for (Peer peer : pp) {
+            if (peer.acked >= s)
+                acked++;
+            else if (peer.live)
+                live++;
+        }
+        return ack == Ack.QUORUM ? acked >= (peerAddresses.size() + 1) / 2 : live == 0;
+    }
+
+    private void checkActive() {
+        if (role != Role.ACTIVE)
+            throw new SpaceError ("standby space is read-only");
+    }
+
+    private void startPeers() {
+        for (InetSocketAddress a : peerAddresses) {
+            Peer peer = new Peer(a);
+            peers.add(peer);
+            daemon(peer, "ReplicatedSpace-peer-" + a);
+        }
+    }
+
+    private void stopPeers() {
+        for (Peer peer : peers) {
+            peer.live = false;
+            closeQuietly(peer.socket);
+        }
+        peers.clear();
+    }
+
+    /**
+     * Steps down without a newer epoch, a node has to be promoted
+     */
+    private synchronized void stepDown (String reason) {
+        if (role != Role.ACTIVE)
+            return;
+        warn (reason + ", stepping down from epoch " + epoch);
+        role = Role.STANDBY;
+        stopPeers();
+    }
+
+    /**
+     * Steps down after a peer reported a newer epoch
+     */
+    private synchronized void demote (long newEpoch) {
+        if (role != Role.ACTIVE || newEpoch <= epoch)
+            return;
+        warn ("peer is at epoch " + newEpoch + ", stepping down from epoch " + epoch);
+        epoch = newEpoch;
+        role = Role.STANDBY;
+        stopPeers();
+    }
+
+    private byte[] snapshot() throws IOException {
+        BinaryCodec.Output out = new BinaryCodec.Output();
+        out.writeByte(SNAPSHOT);
+        out.writeVarLong(dataEpoch);
+        out.writeVarLong(seq);
+        List<Object[]> entries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (store) {
+            for (Map.Entry<Object,List<Object>> me : ((Map<Object,List<Object>>) store.getEntries()).entrySet()) {
+                for (Object o : me.getValue()) {
+                    long expires = 0L;
+                    if (o instanceof TSpace.Expirable) {
+                        expires = ((TSpace.Expirable) o).expires;
+                        o = ((TSpace.Expirable) o).value;
+                        if (expires <= now)
+                            continue;
+                    }
+                    entries.add(new Object[] { me.getKey(), o, expires });
+                }
+            }
+        }
+        out.writeVarInt(entries.size());
+        for (Object[] e : entries) {
+            out.writeObject(e[0]);
+            out.writeVarLong(((Entry) e[1]).id);
+            out.writeObject(((Entry) e[1]).value);
+            out.writeLong((Long) e[2]);
+        }
+        return out.toByteArray();
+    }
+
+    private void applySnapshot (BinaryCodec.Input in) throws IOException, ClassNotFoundException {
+        long snapshotEpoch = in.readVarLong();
+        long snapshotSeq = in.readVarLong();
+        synchronized (store) {
+            store.getEntries().clear();
+        }
+        int count = in.readVarInt();
+        long now = System.currentTimeMillis();
+        for (int i=0; i<count; i++) {
+            Object key = in.readObject();
+            Entry e = new Entry(in.readVarLong(), in.readObject());
+            long expires = in.readLong();
+            if (expires == 0L)
+                apply(OUT, key, e, 0L);
+            else if (expires > now)
+                apply(OUT, key, e, expires - now);
+        }
+        dataEpoch = snapshotEpoch;
+        seq = snapshotSeq;
+        snapshots++;
+    }
+
+    private void applyRecord (BinaryCodec.Input in) throws IOException, ClassNotFoundException {
+        long s = in.readVarLong();
+        if (s <= seq)
+            return; // already applied
+        if (s != seq + 1)
+            throw new IOException ("expected record " + (seq + 1) + ", got " + s);
+        byte op = (byte) in.readByte();
+        Object key = in.readObject();
+        long id = in.readVarLong();
+        if (op == TAKE) {
+            apply(op, key, new Entry(id, null), 0L);
+        } else {
+            Entry e = new Entry(id, in.readObject());
+            long expires = in.readLong();
+            long timeout = expires != 0L ? Math.max(1L, expires - System.currentTimeMillis()) : 0L;
+            apply(op, key, e, timeout);
+        }
+        seq = s;
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket s = server.accept();
+                if (!isPeer(s.getInetAddress())) {
+                    warn ("rejecting " + s.getRemoteSocketAddress() + ", not a peer");
+                    closeQuietly(s);
+                    continue;
+                }
+                s.setTcpNoDelay(true);
+                daemon(() -> follow(s), "ReplicatedSpace-follower-" + s.getRemoteSocketAddress());
+            } catch (IOException e) {
+                if (running)
+                    warn (e);
+            }
+        }
+    }
+
+    /**
+     * Applies the stream sent by an active node
+     */
+    private void follow (Socket s) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            byte[] nonce = nonce();
+            writeFrame(out, CHALLENGE, nonce);
+            out.flush();
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            BinaryCodec.Input hello = readFrame(in, MAX_HANDSHAKE_LENGTH);
+            if (hello.readByte() != HELLO)
+                throw new IOException ("expected HELLO");
+            long leaderEpoch = hello.readVarLong();
+            hello.readVarLong(); // leader's seq
+            byte[] leaderNonce = hello.readBytes();
+            if (!verify(HELLO, nonce, hello.readBytes()))
+                throw new IOException ("authentication failed for " + s.getRemoteSocketAddress());
+            s.setSoTimeout(0);
+            synchronized (this) {
+                if (leaderEpoch <= epoch && (role == Role.ACTIVE || leaderEpoch < epoch)) {
+                    writeFrame(out, REJECT, answer(REJECT, leaderNonce), epoch);
+                    out.flush();
+                    s.close();
+                    return;
+                }
+                if (role == Role.ACTIVE)
+                    demote(leaderEpoch);
+                epoch = leaderEpoch;
+                closeQuietly(leader);
+                leader = s;
+                writeFrame(out, POSITION, answer(POSITION, leaderNonce), dataEpoch, seq);
+                out.flush();
+            }
+            while (running) {
+                BinaryCodec.Input r = readFrame(in);
+                long s0;
+                synchronized (this) {
+                    if (leader != s)
+                        break;
+                    int type = r.readByte();
+                    if (type == SNAPSHOT)
+                        applySnapshot(r);
+                    else if (type == RECORD)
+                        applyRecord(r);
+                    else if (type == PULL) {
+                        writeFrame(out, snapshot()); // restarted active node catching up
+                        out.flush();
+                        continue;
+                    } else
+                        throw new IOException ("unexpected frame " + type);
+                    s0 = seq;
+                }
+                if (in.available() == 0) {
+                    writeFrame(out, ACK, s0);
+                    out.flush();
+                }
+            }
+        } catch (EOFException ignored) {
+        } catch (Exception e) {
+            if (running)
+                warn (e);
+        } finally {
+            closeQuietly(s);
+        }
+    }
+
+    private BinaryCodec.Input readFrame (DataInputStream in) throws IOException {
+        return readFrame (in, MAX_FRAME_LENGTH);
+    }
+
+    private BinaryCodec.Input readFrame (DataInputStream in, int maxLength) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > maxLength)
+            throw new IOException ("invalid frame length " + len);
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new BinaryCodec.Input(b, 0, len, filter);
+    }
+
+    private static void writeFrame (DataOutputStream out, byte type, long... values) throws IOException {
+        writeFrame (out, type, null, values);
+    }
+
+    /**
+     * Writes a frame with the given values followed by bytes (if not null)
+     */
+    private static void writeFrame (DataOutputStream out, byte type, byte[] bytes, long... values) throws IOException {
+        BinaryCodec.Output o = new BinaryCodec.Output();
+        o.writeByte(type);
+        for (long v : values)
+            o.writeVarLong(v);
+        if (bytes != null)
+            o.writeBytes(bytes);
+        out.writeInt(o.size());
+        o.writeTo(out);
+    }
+
+    private boolean isPeer (InetAddress a) {
+        for (InetSocketAddress peer : peerAddresses) {
+            if (a.equals(peer.getAddress()))
+                return true;
+        }
+        return false;
+    }
+
+    private byte[] nonce() {
+        byte[] b = new byte[NONCE_LENGTH];
+        random.nextBytes(b);
+        return b;
+    }
+
+    /**
+     * @return proof of knowing the secret for a frame of the given type answering nonce
+     */
+    private byte[] answer (byte type, byte[] nonce) {
+        byte[] b = new byte[nonce.length + 1];
+        b[0] = type;
+        System.arraycopy(nonce, 0, b, 1, nonce.length);
+        return TCPSpaceProtocol.answer(secret, b);
+    }
+
+    private boolean verify (byte type, byte[] nonce, byte[] answer) {
+        return secret == null || MessageDigest.isEqual(answer(type, nonce), answer);
+    }
+
+    private static void writeFrame (DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+    }
+
+    private static Object wrap (Object key) {
+        return key instanceof Template ? new EntryTemplate((Template) key) : key;
+    }
+
+    private static <V> V unwrap (Object o) {
+        return o instanceof Entry ? (V) ((Entry) o).value : (V) o;
+    }
+
+    private static void daemon (Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private static void closeQuietly (Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * Connection from the active node to a peer
+     */
+    private class Peer implements Runnable {
+        final InetSocketAddress address;
+        final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        volatile boolean live;
+        volatile long acked;
+        volatile Socket socket;
+
+        Peer (InetSocketAddress address) {
+            this.address = address;
+        }
+
+        boolean isActive() {
+            synchronized (ReplicatedSpace.this) {
+                return running && peers.contains(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (isActive()) {
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.setTcpNoDelay(true);
+                    s.connect(address, (int) Math.max(reconnectDelay, 1000L));
+                    if (s.getLocalSocketAddress().equals(s.getRemoteSocketAddress()))
+                        throw new IOException ("connected to itself"); // TCP self-connect, peer is down
+                    stream(s);
+                } catch (EOFException ignored) {
+                } catch (IOException e) {
+                    if (isActive())
+                        trace ("peer " + address + ": " + e);
+                } catch (Exception e) {
+                    warn ("peer " + address, e);
+                } finally {
+                    live = false;
+                    synchronized (acks) {
+                        acks.notifyAll();
+                    }
+                }
+                if (isActive()) {
+                    try {
+                        Thread.sleep(reconnectDelay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void stream (Socket s) throws Exception {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64*1024));
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            BinaryCodec.Input challenge = readFrame(in, MAX_HANDSHAKE_LENGTH);
+            if (challenge.readByte() != CHALLENGE)
+                throw new IOException ("expected CHALLENGE");
+            byte[] peerNonce = challenge.readBytes();
+            byte[] nonce = nonce();
+            BinaryCodec.Output hello = new BinaryCodec.Output();
+            hello.writeByte(HELLO);
+            synchronized (ReplicatedSpace.this) {
+                hello.writeVarLong(epoch);
+                hello.writeVarLong(seq);
+            }
+            hello.writeBytes(nonce);
+            hello.writeBytes(answer(HELLO, peerNonce));
+            writeFrame(out, hello.toByteArray());
+            out.flush();
+            BinaryCodec.Input reply = readFrame(in, MAX_HANDSHAKE_LENGTH);
+            int type = reply.readByte();
+            if (type != REJECT && type != POSITION)
+                throw new IOException ("expected POSITION, got " + type);
+            long peerEpoch = reply.readVarLong();
+            long peerSeq = type == POSITION ? reply.readVarLong() : 0L;
+            if (!verify((byte) type, nonce, reply.readBytes()))
+                throw new IOException ("authentication failed for " + address);
+            if (type == REJECT) {
+                demote(peerEpoch);
+                return;
+            }
+            synchronized (ReplicatedSpace.this) {
+                if (!isActive() || role != Role.ACTIVE)
+                    return;
+                if (peerEpoch > dataEpoch || peerEpoch == dataEpoch && peerSeq > seq) {
+                    if (seq != 0L) {
+                        stepDown ("peer " + address + " has records up to " + peerSeq + " of epoch " + peerEpoch
+                          + ", this node diverged at " + seq + " of epoch " + dataEpoch);
+                        return;
+                    }
+                    writeFrame(out, PULL);
+                    out.flush();
+                    BinaryCodec.Input snapshot = readFrame(in);
+                    if (snapshot.readByte() != SNAPSHOT)
+                        throw new IOException ("expected SNAPSHOT");
+                    applySnapshot(snapshot);
+                    log.clear();
+                    info ("restarted, copied peer " + address + " at epoch " + dataEpoch + ", seq " + seq);
+                }
+                s.setSoTimeout(0);
+                queue.clear();
+                Record first = log.peek();
+                long firstSeq = first != null ? first.seq : seq + 1;
+                if (peerEpoch == dataEpoch && peerSeq >= firstSeq - 1 && peerSeq <= seq) {
+                    for (Record r : log) {
+                        if (r.seq > peerSeq)
+                            queue.add(r.frame);
+                    }
+                    acked = peerSeq;
+                } else {
+                    queue.add(snapshot());
+                    acked = 0L;
+                }
+                live = true;
+            }
+            daemon(() -> readAcks(in), "ReplicatedSpace-acks-" + address);
+            while (live && isActive()) {
+                byte[] frame = queue.poll(1L, TimeUnit.SECONDS);
+                if (frame == null)
+                    continue;
+                writeFrame(out, frame);
+                if (queue.isEmpty())
+                    out.flush();
+            }
+        }
+
+        private void readAcks (DataInputStream in) {
+            try {
+                while (live) {
+                    BinaryCodec.Input r = readFrame(in);
+                    if (r.readByte() == ACK) {
+                        acked = r.readVarLong();
+                        synchronized (acks) {
+                            acks.notifyAll();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                live = false;
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private static class Record {
+        final long seq;
+        byte[] frame;
+
+        Record (long seq) {
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * What actually goes into the underlying TSpace, so that replicas can
+     * take exactly the entry the active node took.
+     */
+    private static final class Entry {
+        final long id;
+        final Object value;
+
+        Entry (long id, Object value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static class IdTemplate implements Template {
+        final Object key;
+        final long id;
+
+        IdTemplate (Object key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public boolean equals (Object obj) {
+            return obj instanceof Entry && ((Entry) obj).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
+        }
+    }
+
+    private static class EntryTemplate implements Template {
+        final Template tmpl;
+
+        EntryTemplate (Template tmpl) {
+            this.tmpl = tmpl;
+        }
+
+        @Override
+        public Object getKey() {
+            return tmpl.getKey();
+        }
+
+        @Override
+        public boolean equals (Object obj) {
+            return obj instanceof Entry && tmpl.equals(((Entry) obj).value);
+        }
+
+        @Override
+        public int hashCode() {
+            return tmpl.hashCode();
+        }
+    }
+
+    private static class Listener<K,V> implements SpaceListener<K,Object> {
+        final SpaceListener<K,V> listener;
+
+        Listener (SpaceListener<K,V> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void notify (K key, Object value) {
+            listener.notify(key, unwrap(value));
+        }
+
+        @Override
+        public boolean equals (Object obj) {
+            return obj instanceof Listener && ((Listener<?,?>) obj).listener.equals(listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return listener.hashCode();
+        }
+    }
+}
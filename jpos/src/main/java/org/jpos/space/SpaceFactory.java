@@ -53,6 +53,15 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
  *
  *   // jdbm space named test, storage located in /tmp/test
  *   Space sp = SpaceFactory.getSpace ("jdbm:test:/tmp/test");  
+ *
+ *   // memory mapped log space named test, storage located in /tmp/test
+ *   Space sp = SpaceFactory.getSpace ("mmap:test:/tmp/test,sync=false");
+ *
+ *   // remote space served by a TCPSpaceAdaptor listening on host:9500
+ *   Space sp = SpaceFactory.getSpace ("tcp:host:9500");
+ *
+ *   // replicated space deployed by a ReplicatedSpaceAdaptor named test
+ *   Space sp = SpaceFactory.getSpace ("replicated:test");
  * </pre>
  *
  */
@@ -63,6 +72,9 @@ public class SpaceFactory {
     public static final String SPACELET   = "spacelet";
     public static final String JDBM       = "jdbm";
     public static final String JE         = "je";
+    public static final String MMAP       = "mmap";
+    public static final String TCP        = "tcp";
+    public static final String REPLICATED = "replicated";
     public static final String DEFAULT    = "default";
     private static ScheduledThreadPoolExecutor gcExecutor = ConcurrentUtil.newScheduledThreadPoolExecutor();
 
@@ -111,7 +123,7 @@ public class SpaceFactory {
             try {
                 sp = (Space) NameRegistrar.get (uri);
             } catch (NameRegistrar.NotFoundException e) {
-                if (SPACELET.equals (scheme) || "rspace".equals(scheme))
+                if (SPACELET.equals (scheme) || "rspace".equals(scheme) || REPLICATED.equals (scheme))
                     throw new SpaceError (uri + " not found.");
 
                 sp = createSpace (scheme, name, param);
@@ -141,6 +153,13 @@ public class SpaceFactory {
                 sp = JESpace.getSpace (name, param);
             else
                 sp = JESpace.getSpace (name);
+        } else if (MMAP.equals (scheme)) {
+            if (param != null)
+                sp = MMapSpace.getSpace (name, param);
+            else
+                sp = MMapSpace.getSpace (name);
+        } else if (TCP.equals (scheme) && param != null) {
+            sp = new TCPSpace<> (name, Integer.parseInt (param));
         }
         return sp;
     }
@@ -0,0 +1,382 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.BinaryCodec;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jpos.space.TCPSpaceProtocol.*;
+
+/**
+ * Client side of a Space served by {@link TCPSpaceServer}.
+ * <p>
+ * Operations issued concurrently by different threads are pipelined over a
+ * single connection and, when they queue up, sent together as one batch
+ * frame. Blocking <code>in</code>/<code>rd</code> calls wait on the server
+ * side and don't poll.
+ * <p>
+ * The connection is established on first use and re-established on the
+ * next operation after a failure; operations in flight when a connection
+ * fails throw {@link SpaceError}.
+ * <p>
+ * The secret used to answer the server's handshake defaults to the
+ * <code>jpos.tcpspace.secret</code> system property, which lets
+ * <code>tcp:host:port</code> spaces obtained from {@link SpaceFactory}
+ * connect to servers that require one.
+ *
+ * @since 2.1.4
+ */
+@SuppressWarnings("unchecked")
+public class TCPSpace<K,V> implements Space<K,V>, Closeable {
+    private static final int MAX_BATCH = 256;
+    private final InetSocketAddress address;
+    private long connectTimeout = 10000L;
+    private long timeout = 30000L;
+    private volatile String secret = System.getProperty("jpos.tcpspace.secret");
+    private volatile BinaryCodec.ClassFilter filter = BinaryCodec.ClassFilter.BASE;
+    private final AtomicInteger ids = new AtomicInteger();
+    private Connection conn;
+
+    public TCPSpace (String host, int port) {
+        this (new InetSocketAddress(host, port));
+    }
+
+    public TCPSpace (InetSocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * @param timeout time to wait for the connection to be established
+     */
+    public void setConnectTimeout (long timeout) {
+        this.connectTimeout = timeout;
+    }
+
+    /**
+     * @param timeout time to wait for a response, in addition to the operation's own timeout
+     */
+    public void setTimeout (long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param secret secret shared with the server, used by the next connection
+     */
+    public void setSecret (String secret) {
+        this.secret = secret;
+    }
+
+    /**
+     * @param filter classes the server may send Java serialized, defaults to {@link BinaryCodec.ClassFilter#BASE}
+     */
+    public void setClassFilter (BinaryCodec.ClassFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public void out (K key, V value) {
+        out (key, value, FOREVER);
+    }
+
+    @Override
+    public void out (K key, V value, long timeout) {
+        call (OUT, 0L, key, value, timeout);
+    }
+
+    @Override
+    public void push (K key, V value) {
+        push (key, value, FOREVER);
+    }
+
+    @Override
+    public void push (K key, V value, long timeout) {
+        call (PUSH, 0L, key, value, timeout);
+    }
+
+    @Override
+    public void put (K key, V value) {
+        put (key, value, FOREVER);
+    }
+
+    @Override
+    public void put (K key, V value, long timeout) {
+        call (PUT, 0L, key, value, timeout);
+    }
+
+    @Override
+    public V rdp (K key) {
+        return (V) call (RDP, 0L, key);
+    }
+
+    @Override
+    public V inp (K key) {
+        return (V) call (INP, 0L, key);
+    }
+
+    @Override
+    public V in (K key) {
+        return (V) call (IN, FOREVER, key, FOREVER);
+    }
+
+    @Override
+    public V rd (K key) {
+        return (V) call (RD, FOREVER, key, FOREVER);
+    }
+
+    @Override
+    public V in (K key, long timeout) {
+        return (V) call (IN, timeout, key, timeout);
+    }
+
+    @Override
+    public V rd (K key, long timeout) {
+        return (V) call (RD, timeout, key, timeout);
+    }
+
+    @Override
+    public void nrd (K key) {
+        call (NRD, FOREVER, key, FOREVER);
+    }
+
+    @Override
+    public V nrd (K key, long timeout) {
+        return (V) call (NRD, timeout, key, timeout);
+    }
+
+    @Override
+    public boolean existAny (K[] keys) {
+        return (Boolean) call (EXIST_ANY, 0L, new ArrayList<>(Arrays.asList(keys)), FOREVER);
+    }
+
+    @Override
+    public boolean existAny (K[] keys, long timeout) {
+        return (Boolean) call (EXIST_ANY, timeout, new ArrayList<>(Arrays.asList(keys)), timeout);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (conn != null) {
+            conn.fail(new SpaceError("TCPSpace closed"));
+            conn = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TCPSpace{" + address.getHostString() + ":" + address.getPort() + "}";
+    }
+
+    /**
+     * @param op operation
+     * @param wait time the server may legitimately hold the operation, FOREVER for no limit
+     * @param args key, [value], [timeout]
+     */
+    private Object call (byte op, long wait, Object... args) {
+        Call c = new Call(op, ids.incrementAndGet());
+        try {
+            c.encode(args);
+        } catch (IOException e) {
+            throw new SpaceError(e);
+        }
+        getConnection().send(c);
+        try {
+            if (wait == FOREVER)
+                c.done.await();
+            else if (!c.done.await(wait + timeout, TimeUnit.MILLISECONDS))
+                throw new SpaceError("Timeout waiting for " + this);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpaceError(e);
+        }
+        if (c.error != null)
+            throw c.error;
+        return c.value;
+    }
+
+    private synchronized Connection getConnection() {
+        if (conn == null || conn.failed) {
+            try {
+                conn = new Connection();
+            } catch (IOException e) {
+                throw new SpaceError("Unable to connect to " + address, e);
+            }
+        }
+        return conn;
+    }
+
+    private static class Call {
+        final byte op;
+        final int id;
+        final CountDownLatch done = new CountDownLatch(1);
+        byte[] request;
+        Object value;
+        SpaceError error;
+
+        Call (byte op, int id) {
+            this.op = op;
+            this.id = id;
+        }
+
+        void encode (Object[] args) throws IOException {
+            BinaryCodec.Output out = new BinaryCodec.Output();
+            out.writeByte(op);
+            out.writeVarInt(id);
+            out.writeObject(args[0]);
+            if (args.length == 3)
+                out.writeObject(args[1]);
+            if (args.length > 1)
+                out.writeLong((Long) args[args.length - 1]);
+            request = out.toByteArray();
+        }
+    }
+
+    private class Connection implements Runnable {
+        final Socket socket;
+        final DataOutputStream out;
+        final DataInputStream in;
+        final BlockingQueue<Call> queue = new LinkedBlockingQueue<>();
+        final Map<Integer,Call> pending = new ConcurrentHashMap<>();
+        volatile boolean failed;
+
+        Connection() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, (int) connectTimeout);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64*1024));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64*1024));
+            handshake();
+            Thread writer = new Thread(this::write, "TCPSpace-writer-" + address);
+            writer.setDaemon(true);
+            writer.start();
+            Thread reader = new Thread(this, "TCPSpace-reader-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void handshake() throws IOException {
+            try {
+                socket.setSoTimeout((int) connectTimeout);
+                if (in.readInt() != NONCE_LENGTH)
+                    throw new IOException("invalid handshake from " + address);
+                byte[] nonce = new byte[NONCE_LENGTH];
+                in.readFully(nonce);
+                byte[] answer = answer(secret, nonce);
+                out.writeInt(answer.length);
+                out.write(answer);
+                out.flush();
+                socket.setSoTimeout(0);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        void send (Call c) {
+            pending.put(c.id, c);
+            queue.add(c);
+            if (failed && pending.remove(c.id) != null) // lost the race against fail()
+                complete(c, null, new SpaceError("Connection to " + address + " failed"));
+        }
+
+        /**
+         * Drains queued calls, sending them as a single batch frame when more than one is waiting
+         */
+        private void write() {
+            List<Call> batch = new ArrayList<>(MAX_BATCH);
+            BinaryCodec.Output frame = new BinaryCodec.Output();
+            try {
+                while (!failed) {
+                    Call c = queue.poll(1L, TimeUnit.SECONDS);
+                    if (c == null)
+                        continue;
+                    batch.clear();
+                    batch.add(c);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    if (batch.size() == 1) {
+                        out.writeInt(c.request.length);
+                        out.write(c.request);
+                    } else {
+                        frame.reset();
+                        frame.writeByte(BATCH);
+                        frame.writeVarInt(batch.size());
+                        for (Call b : batch)
+                            frame.write(b.request);
+                        out.writeInt(frame.size());
+                        frame.writeTo(out);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail(new SpaceError("Connection to " + address + " failed", e));
+            } catch (InterruptedException e) {
+                fail(new SpaceError(e));
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!failed) {
+                    int len = in.readInt();
+                    if (len < 0 || len > MAX_FRAME_LENGTH)
+                        throw new IOException("invalid frame length " + len);
+                    byte[] b = new byte[len];
+                    in.readFully(b);
+                    BinaryCodec.Input r = new BinaryCodec.Input(b, 0, len, filter);
+                    Call c = pending.remove(r.readVarInt());
+                    if (c == null)
+                        continue;
+                    if (r.readByte() == OK)
+                        complete(c, r.readObject(), null);
+                    else
+                        complete(c, null, new SpaceError((String) r.readObject()));
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                fail(new SpaceError("Connection to " + address + " failed", e));
+            }
+        }
+
+        void fail (SpaceError error) {
+            failed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) { }
+            for (Integer id : pending.keySet()) {
+                Call c = pending.remove(id);
+                if (c != null)
+                    complete(c, null, error);
+            }
+        }
+
+        private void complete (Call c, Object value, SpaceError error) {
+            c.value = value;
+            c.error = error;
+            c.done.countDown();
+        }
+    }
+}
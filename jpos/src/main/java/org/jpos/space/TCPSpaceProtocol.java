@@ -0,0 +1,82 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Wire protocol shared by {@link TCPSpace} and {@link TCPSpaceServer}.
+ * <p>
+ * Every frame is a four byte big endian length followed by a
+ * {@link org.jpos.util.BinaryCodec} encoded payload.
+ * <p>
+ * A connection starts with a handshake: the server sends a random
+ * {@link #NONCE_LENGTH} bytes nonce and the client answers with the
+ * HMAC-SHA256 of the nonce keyed by the shared secret (an empty answer
+ * when it has no secret). Servers configured with a secret close
+ * connections that don't answer correctly.
+ * <ul>
+ *  <li>request: op, request id (varint), op specific arguments</li>
+ *  <li>batch: {@link #BATCH}, number of requests (varint), requests</li>
+ *  <li>response: request id (varint), status, value (or error message)</li>
+ * </ul>
+ * Requests sent over a connection are executed in order; responses to
+ * blocking requests (in/rd/nrd/existAny) are sent whenever they complete.
+ */
+final class TCPSpaceProtocol {
+    static final int MAX_FRAME_LENGTH = 16*1024*1024;
+    static final int NONCE_LENGTH = 16;
+    static final long FOREVER = -1L;
+
+    static final byte OUT       = 1;  // key, value, timeout
+    static final byte PUSH      = 2;  // key, value, timeout
+    static final byte PUT       = 3;  // key, value, timeout
+    static final byte RDP       = 4;  // key
+    static final byte INP       = 5;  // key
+    static final byte RD        = 6;  // key, timeout
+    static final byte IN        = 7;  // key, timeout
+    static final byte NRD       = 8;  // key, timeout
+    static final byte EXIST_ANY = 9;  // keys, timeout
+    static final byte BATCH     = 10;
+
+    static final byte OK        = 0;
+    static final byte ERROR     = 1;
+
+    private TCPSpaceProtocol() { }
+
+    /**
+     * @param secret shared secret, may be null
+     * @param nonce nonce sent by the server
+     * @return handshake answer
+     */
+    static byte[] answer (String secret, byte[] nonce) {
+        if (secret == null)
+            return new byte[0];
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
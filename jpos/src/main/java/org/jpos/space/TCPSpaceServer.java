@@ -0,0 +1,630 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.BinaryCodec;
+import org.jpos.util.ConcurrentUtil;
+import org.jpos.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jpos.space.TCPSpaceProtocol.*;
+
+/**
+ * Serves a Space to {@link TCPSpace} clients.
+ * <p>
+ * A single selector thread accepts connections and reads request frames;
+ * frames are decoded and executed by a fixed pool of worker threads, in
+ * order for any given connection. Blocking requests don't tie up a thread:
+ * <code>in</code>/<code>rd</code> are parked until a {@link SpaceListener}
+ * reports a new entry for their key (LocalSpace) or the next poll (other
+ * spaces), <code>nrd</code>/<code>existAny</code> are re-checked on every
+ * poll, until they complete or time out.
+ * <p>
+ * Clients must answer the handshake described in {@link TCPSpaceProtocol}
+ * when the server has a secret. Reading from a connection is suspended
+ * while too many of its frames are waiting for a worker, and connections
+ * over {@link #setMaxConnections(int)} are refused.
+ *
+ * @since 2.1.4
+ */
+@SuppressWarnings("unchecked")
+public class TCPSpaceServer extends Log implements Runnable, Closeable, SpaceListener<Object,Object> {
+    private static final long POLL_INTERVAL = 100L;
+    private static final long HANDSHAKE_TIMEOUT = 10000L;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_BACKLOG = 64;
+    private final Space<Object,Object> sp;
+    private final String secret;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Object,List<Waiter>> waiters = new HashMap<>();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private volatile BinaryCodec.ClassFilter filter = BinaryCodec.ClassFilter.BASE;
+    private volatile int maxConnections = 100;
+    private volatile int maxFrameLength = 1024*1024;
+    private volatile boolean running = true;
+    private final Thread thread;
+
+    /**
+     * Creates a server that accepts any client
+     *
+     * @param sp space to serve
+     * @param address local address to listen on (port 0 picks an ephemeral port)
+     * @param workers number of worker threads
+     * @throws IOException if unable to listen on address
+     */
+    public TCPSpaceServer (Space<?,?> sp, InetSocketAddress address, int workers) throws IOException {
+        this (sp, address, workers, null);
+    }
+
+    /**
+     * @param sp space to serve
+     * @param address local address to listen on (port 0 picks an ephemeral port)
+     * @param workers number of worker threads
+     * @param secret secret clients have to prove they know, null to accept any client
+     * @throws IOException if unable to listen on address
+     */
+    public TCPSpaceServer (Space<?,?> sp, InetSocketAddress address, int workers, String secret) throws IOException {
+        super();
+        this.sp = (Space<Object,Object>) sp;
+        this.secret = secret;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(workers, daemon("TCPSpaceServer-worker"));
+        scheduler = ConcurrentUtil.newScheduledThreadPoolExecutor();
+        scheduler.setRemoveOnCancelPolicy(true);
+        thread = new Thread(this, "TCPSpaceServer-" + getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param filter classes clients may send Java serialized, defaults to {@link BinaryCodec.ClassFilter#BASE}
+     */
+    public void setClassFilter (BinaryCodec.ClassFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param maxConnections connections accepted at any given time (defaults to 100)
+     */
+    public void setMaxConnections (int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @param maxFrameLength largest request frame accepted (defaults to 1MB)
+     */
+    public void setMaxFrameLength (int maxFrameLength) {
+        this.maxFrameLength = Math.min(maxFrameLength, MAX_FRAME_LENGTH);
+    }
+
+    public int getLocalPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return number of open client connections
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Connection c;
+                while ((c = pendingWrites.poll()) != null)
+                    c.write();
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        c = (Connection) key.attachment();
+                        if (key.isReadable())
+                            c.read();
+                        if (key.isValid() && key.isWritable())
+                            c.write();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (running)
+                    warn (e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            selector.close();
+            server.close();
+        } catch (IOException e) {
+            warn (e);
+        }
+        connections.forEach(Connection::close);
+        workers.shutdownNow();
+        scheduler.shutdownNow();
+        try {
+            thread.join(5000L);
+        } catch (InterruptedException ignored) { }
+    }
+
+    /**
+     * Called by LocalSpaces when an entry is added; serves parked requests for that key.
+     */
+    @Override
+    public void notify (Object key, Object value) {
+        workers.execute(() -> serve(key));
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null)
+            return;
+        if (connections.size() >= maxConnections) {
+            warn ("Refusing " + ch.getRemoteAddress() + ", too many connections");
+            ch.close();
+            return;
+        }
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Connection c = new Connection(ch);
+        c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        connections.add(c);
+        ByteBuffer b = ByteBuffer.allocate(4 + NONCE_LENGTH);
+        b.putInt(NONCE_LENGTH);
+        b.put(c.nonce);
+        b.flip();
+        c.send(b);
+        scheduler.schedule(() -> {
+            if (!c.authenticated) {
+                warn ("Handshake timeout " + c.ch.socket().getRemoteSocketAddress());
+                c.close();
+            }
+        }, HANDSHAKE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decodes and executes a request (or batch) frame, called by the connection's worker
+     */
+    private void frame (Connection c, BinaryCodec.Input in) throws IOException, ClassNotFoundException {
+        int op = in.readByte();
+        if (op == BATCH) {
+            int count = in.readVarInt();
+            for (int i=0; i<count; i++)
+                dispatch(c, in.readByte(), in.readVarInt(), in);
+        } else {
+            dispatch(c, op, in.readVarInt(), in);
+        }
+    }
+
+    private void dispatch (Connection c, int op, int id, BinaryCodec.Input in) throws IOException, ClassNotFoundException {
+        switch (op) {
+            case OUT:
+            case PUSH:
+            case PUT:
+                Object key = in.readObject();
+                Object value = in.readObject();
+                long timeout = in.readLong();
+                c.call(() -> {
+                    if (timeout == FOREVER) {
+                        if (op == OUT)
+                            sp.out(key, value);
+                        else if (op == PUSH)
+                            sp.push(key, value);
+                        else
+                            sp.put(key, value);
+                    } else if (op == OUT)
+                        sp.out(key, value, timeout);
+                    else if (op == PUSH)
+                        sp.push(key, value, timeout);
+                    else
+                        sp.put(key, value, timeout);
+                    return null;
+                }, id);
+                break;
+            case RDP:
+                Object rdpKey = in.readObject();
+                c.call(() -> sp.rdp(rdpKey), id);
+                break;
+            case INP:
+                Object inpKey = in.readObject();
+                c.call(() -> sp.inp(inpKey), id);
+                break;
+            case RD:
+            case IN:
+                Object waitKey = in.readObject();
+                long waitTimeout = in.readLong();
+                park(new Waiter(c, id, waitKey, op == IN, waitTimeout));
+                break;
+            case NRD:
+                Object nrdKey = in.readObject();
+                long nrdTimeout = in.readLong();
+                watch(c, id, () -> sp.rdp(nrdKey) == null, () -> sp.rdp(nrdKey), nrdTimeout);
+                break;
+            case EXIST_ANY:
+                Object[] keys = ((List<Object>) in.readObject()).toArray();
+                long existTimeout = in.readLong();
+                if (existTimeout == FOREVER)
+                    c.call(() -> sp.existAny(keys), id);
+                else
+                    watch(c, id, () -> sp.existAny(keys), () -> sp.existAny(keys), existTimeout);
+                break;
+            default:
+                throw new IOException("invalid op " + op);
+        }
+    }
+
+    private void park (Waiter w) {
+        Object listenerKey = w.key instanceof Template ? ((Template) w.key).getKey() : w.key;
+        w.listenerKey = listenerKey;
+        boolean first;
+        synchronized (waiters) {
+            List<Waiter> l = waiters.get(listenerKey);
+            first = l == null;
+            if (first)
+                waiters.put(listenerKey, l = new ArrayList<>());
+            l.add(w);
+            w.conn.waiters.add(w);
+        }
+        if (first) {
+            if (sp instanceof LocalSpace)
+                ((LocalSpace) sp).addListener(listenerKey, this);
+            else
+                poll(listenerKey);
+        }
+        if (w.timeout != FOREVER)
+            w.timer = scheduler.schedule(() -> expire(w), w.timeout, TimeUnit.MILLISECONDS);
+        serve(listenerKey);
+    }
+
+    /**
+     * Responds with result once done is true or timeout expires, checking every POLL_INTERVAL
+     */
+    private void watch (Connection c, int id, Callable<Boolean> done, Callable<Object> result, long timeout) {
+        long deadline = timeout == FOREVER ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                if (!connections.contains(c))
+                    return;
+                try {
+                    if (!done.call() && System.currentTimeMillis() < deadline) {
+                        scheduler.schedule(() -> workers.execute(this), POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                } catch (Exception e) {
+                    c.respond(id, TCPSpaceProtocol.ERROR, e.toString());
+                    return;
+                }
+                c.call(result, id);
+            }
+        };
+        check.run();
+    }
+
+    private void poll (Object listenerKey) {
+        scheduler.schedule(() -> {
+            boolean pending;
+            synchronized (waiters) {
+                pending = waiters.containsKey(listenerKey);
+            }
+            if (pending) {
+                serve(listenerKey);
+                poll(listenerKey);
+            }
+        }, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands entries available under listenerKey to parked requests, oldest first.
+     */
+    private void serve (Object listenerKey) {
+        synchronized (waiters) {
+            List<Waiter> l = waiters.get(listenerKey);
+            if (l == null)
+                return;
+            Iterator<Waiter> iter = l.iterator();
+            while (iter.hasNext()) {
+                Waiter w = iter.next();
+                Object value;
+                try {
+                    value = w.take ? sp.inp(w.key) : sp.rdp(w.key);
+                } catch (Exception e) {
+                    iter.remove();
+                    w.conn.waiters.remove(w);
+                    w.done(e);
+                    continue;
+                }
+                if (value == null) {
+                    if (w.take)
+                        break;
+                    continue; // rd templates might not match
+                }
+                iter.remove();
+                w.conn.waiters.remove(w);
+                w.done(value);
+            }
+            if (l.isEmpty())
+                unpark(listenerKey);
+        }
+    }
+
+    private void expire (Waiter w) {
+        synchronized (waiters) {
+            if (remove(w))
+                w.done(null);
+        }
+    }
+
+    private boolean remove (Waiter w) {
+        List<Waiter> l = waiters.get(w.listenerKey);
+        if (l == null || !l.remove(w))
+            return false;
+        w.conn.waiters.remove(w);
+        if (l.isEmpty())
+            unpark(w.listenerKey);
+        return true;
+    }
+
+    private void unpark (Object listenerKey) {
+        waiters.remove(listenerKey);
+        if (sp instanceof LocalSpace)
+            ((LocalSpace) sp).removeListener(listenerKey, this);
+    }
+
+    private static ThreadFactory daemon (String name) {
+        return r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setName(name + "-" + t.getName());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private class Waiter {
+        final Connection conn;
+        final int id;
+        final Object key;
+        final boolean take;
+        final long timeout;
+        Object listenerKey;
+        Future<?> timer;
+
+        Waiter (Connection conn, int id, Object key, boolean take, long timeout) {
+            this.conn = conn;
+            this.id = id;
+            this.key = key;
+            this.take = take;
+            this.timeout = timeout;
+        }
+
+        void done (Object value) {
+            if (timer != null)
+                timer.cancel(false);
+            if (value instanceof Exception)
+                conn.respond(id, TCPSpaceProtocol.ERROR, value.toString());
+            else
+                conn.respond(id, TCPSpaceProtocol.OK, value);
+        }
+    }
+
+    private class Connection implements Runnable {
+        final SocketChannel ch;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicInteger backlog = new AtomicInteger();
+        final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+        final BinaryCodec.Output encoder = new BinaryCodec.Output();
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        volatile boolean authenticated;
+        volatile boolean paused;
+
+        Connection (SocketChannel ch) {
+            this.ch = ch;
+            random.nextBytes(nonce);
+        }
+
+        void read() {
+            try {
+                if (ch.read(in) < 0) {
+                    close();
+                    return;
+                }
+                in.flip();
+                while (in.remaining() >= 4) {
+                    int len = in.getInt(in.position());
+                    if (len < 0 || len > (authenticated ? maxFrameLength : 64))
+                        throw new IOException("invalid frame length " + len);
+                    if (in.remaining() < 4 + len) {
+                        if (in.capacity() < 4 + len) {
+                            ByteBuffer b = ByteBuffer.allocate(4 + len);
+                            b.put(in);
+                            in = b;
+                            return;
+                        }
+                        break;
+                    }
+                    byte[] frame = new byte[len];
+                    in.position(in.position() + 4);
+                    in.get(frame);
+                    if (!authenticated) {
+                        authenticate(frame);
+                        continue;
+                    }
+                    backlog.incrementAndGet();
+                    execute(() -> process(frame));
+                }
+                in.compact();
+                if (in.capacity() > BUFFER_SIZE && in.position() <= BUFFER_SIZE) {
+                    in.flip();
+                    in = ByteBuffer.allocate(BUFFER_SIZE).put(in);
+                }
+                if (backlog.get() >= MAX_BACKLOG) {
+                    paused = true;
+                    if (backlog.get() >= MAX_BACKLOG / 2)
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    else
+                        paused = false;
+                }
+            } catch (Exception e) {
+                warn (e);
+                close();
+            }
+        }
+
+        private void authenticate (byte[] answer) throws IOException {
+            if (secret != null && !MessageDigest.isEqual(answer(secret, nonce), answer))
+                throw new IOException("Authentication failed for " + ch.getRemoteAddress());
+            authenticated = true;
+        }
+
+        private void process (byte[] frame) {
+            try {
+                frame(this, new BinaryCodec.Input(frame, 0, frame.length, filter));
+            } catch (Exception e) {
+                warn (e);
+                close();
+            } finally {
+                if (backlog.decrementAndGet() < MAX_BACKLOG / 2 && paused) {
+                    paused = false;
+                    pendingWrites.add(this);
+                    selector.wakeup();
+                }
+            }
+        }
+
+        void execute (Runnable r) {
+            tasks.add(r);
+            if (scheduled.compareAndSet(false, true))
+                workers.execute(this);
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                Runnable r;
+                while ((r = tasks.poll()) != null)
+                    r.run();
+                scheduled.set(false);
+                if (tasks.isEmpty() || !scheduled.compareAndSet(false, true))
+                    return;
+            }
+        }
+
+        void call (Callable<Object> op, int id) {
+            try {
+                respond(id, TCPSpaceProtocol.OK, op.call());
+            } catch (Exception e) {
+                respond(id, TCPSpaceProtocol.ERROR, e.toString());
+            }
+        }
+
+        void respond (int id, byte status, Object value) {
+            ByteBuffer b;
+            synchronized (encoder) {
+                try {
+                    encoder.reset();
+                    encoder.writeVarInt(id);
+                    encoder.writeByte(status);
+                    encoder.writeObject(value);
+                } catch (IOException e) {
+                    encoder.reset();
+                    encoder.writeVarInt(id);
+                    encoder.writeByte(TCPSpaceProtocol.ERROR);
+                    encoder.writeString(e.toString());
+                }
+                b = ByteBuffer.allocate(4 + encoder.size());
+                b.putInt(encoder.size());
+                b.put(encoder.toByteArray());
+                b.flip();
+            }
+            send(b);
+        }
+
+        void send (ByteBuffer b) {
+            out.add(b);
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        void write() {
+            try {
+                ByteBuffer b;
+                while ((b = out.peek()) != null) {
+                    ch.write(b);
+                    if (b.hasRemaining())
+                        break;
+                    out.poll();
+                }
+                if (key.isValid())
+                    key.interestOps((paused ? 0 : SelectionKey.OP_READ) | (out.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!connections.remove(this))
+                return;
+            synchronized (TCPSpaceServer.this.waiters) {
+                for (Waiter w : new ArrayList<>(waiters)) {
+                    if (w.timer != null)
+                        w.timer.cancel(false);
+                    remove(w);
+                }
+            }
+            try {
+                ch.close();
+            } catch (IOException ignored) { }
+        }
+    }
+}
@@ -31,8 +31,15 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import static org.jpos.transaction.ContextConstants.*;
 
-public class Context implements Externalizable, Loggeable, Pausable, Cloneable {
+public class Context implements Externalizable, Loggeable, Pausable, Cloneable, BinaryCodec.Codable {
     private static final long serialVersionUID = -6441115276439791245L;
+    /**
+     * Set system property <code>jpos.context.binary</code> to true to have
+     * {@link #writeExternal(ObjectOutput)} use the BinaryCodec format (version 1),
+     * which can't be read by nodes running releases before 2.1.4. It is also used
+     * for contexts with non String keys, which those releases can't read either.
+     */
+    private static final boolean BINARY_EXTERNAL = Boolean.getBoolean ("jpos.context.binary");
     private transient Map<Object,Object> map; // transient map
     private Map<Object,Object> pmap;          // persistent (serializable) map
     private long timeout;
@@ -169,31 +176,69 @@ public class Context implements Externalizable, Loggeable, Pausable, Cloneable {
         return obj;
     }
     public void writeExternal (ObjectOutput out) throws IOException {
-        out.writeByte (0);  // reserved for future expansion (version id)
-        Set s = getPMap().entrySet();
-        out.writeInt (s.size());
-        Iterator iter = s.iterator();
-        while (iter.hasNext()) {
-            Map.Entry entry = (Map.Entry) iter.next();
-            out.writeObject(entry.getKey());
-            out.writeObject(entry.getValue());
+        if (BINARY_EXTERNAL || hasNonStringKeys()) {
+            out.writeByte (1);  // version id, persistent map encoded using BinaryCodec
+            byte[] b = BinaryCodec.encode (this);
+            out.writeInt (b.length);
+            out.write (b);
+            return;
+        }
+        out.writeByte (0);  // version id
+        Map<Object,Object> p = getPMap();
+        synchronized (p) {
+            out.writeInt (p.size());
+            for (Map.Entry<Object,Object> entry : p.entrySet()) {
+                out.writeObject (entry.getKey());
+                out.writeObject (entry.getValue());
+            }
         }
     }
+    private boolean hasNonStringKeys() {
+        Map<Object,Object> p = getPMap();
+        synchronized (p) {
+            for (Object k : p.keySet())
+                if (!(k instanceof String))
+                    return true;
+        }
+        return false;
+    }
     public void readExternal  (ObjectInput in) 
         throws IOException, ClassNotFoundException
     {
-        in.readByte();  // ignore version for now
+        byte version = in.readByte();
         getMap();       // force creation of map
         getPMap();      // and pmap
-        int size = in.readInt();
-        for (int i=0; i<size; i++) {
-            String k = (String) in.readObject();
-            Object v = in.readObject();
-            map.put (k, v);
-            pmap.put (k, v);
+        if (version == 0) {
+            int size = in.readInt();
+            for (int i=0; i<size; i++) {
+                Object k = in.readObject();
+                Object v = in.readObject();
+                map.put (k, v);
+                pmap.put (k, v);
+            }
+        } else {
+            byte[] b = new byte[in.readInt()];
+            in.readFully (b);
+            Context ctx = (Context) BinaryCodec.decode (b);
+            map.putAll (ctx.pmap);
+            pmap.putAll (ctx.pmap);
+        }
+    }
+    @Override
+    public void encode (BinaryCodec.Output out) throws IOException {
+        Map<Object,Object> p = getPMap();
+        synchronized (p) {
+            out.writeEntries (p);
         }
     }
     @Override
+    public void decode (BinaryCodec.Input in) throws IOException, ClassNotFoundException {
+        Map<Object,Object> m = new LinkedHashMap<>();
+        in.readEntries (m);
+        getMap().putAll (m);
+        getPMap().putAll (m);
+    }
+    @Override
     public Context clone() {
         try {
             Context context = (Context) super.clone();
@@ -42,7 +42,9 @@ public enum ContextConstants {
     ORIGINAL_DATA_ELEMENTS,
     DESTINATION,
     PANIC,
-    PAUSED_TRANSACTION(":paused_transaction");
+    PAUSED_TRANSACTION(":paused_transaction"),
+    /** present in synthetic contexts queued by {@link org.jpos.q2.qbean.Warmup} */
+    WARMUP;
 
     private final String name;
 
@@ -30,6 +30,7 @@ import org.jpos.util.*;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -97,6 +98,10 @@ public class TransactionManager
     boolean abortOnPauseTimeout = true;
     Runnable retryTask = null;
     TPS tps;
+    ThroughputControl admission;
+    KeyedThroughputControl keyedAdmission;
+    String admissionKey;
+    final Set<Serializable> admitted = Collections.synchronizedSet (Collections.newSetFromMap (new IdentityHashMap<>()));
     final Timer timer = DefaultTimer.getTimer();
 
     @Override
@@ -289,6 +294,8 @@ public class TransactionManager
                         checkRetryTask();
                         continue;
                     }
+                    if (!admit (context))
+                        continue;   // requeued once admitted
                     abort = false;
                     id = nextId ();
                     members = new ArrayList ();
@@ -448,9 +455,55 @@ public class TransactionManager
                 throw new ConfigurationException("max-active-sessions < max-sessions");
         }
         callSelectorOnAbort = cfg.getBoolean("call-selector-on-abort", true);
+        int[] admissionTransactions = cfg.getInts ("admission-transactions");
+        if (admissionTransactions.length > 0) {
+            int[] admissionPeriod = cfg.getInts ("admission-period");
+            if (admissionPeriod.length != admissionTransactions.length)
+                throw new ConfigurationException("admission-transactions/admission-period mismatch");
+            admissionKey = cfg.get ("admission-key", null);
+            if (admissionKey != null)
+                keyedAdmission = new KeyedThroughputControl (admissionTransactions, admissionPeriod, cfg.getInt ("admission-max-keys", 10000));
+            else
+                admission = new ThroughputControl (admissionTransactions, admissionPeriod);
+        }
         if (profiler)
             metrics = new Metrics(new AtomicHistogram(cfg.getLong("metrics-highest-trackable-value", 60000), 2));
     }
+    /**
+     * Checks a new transaction against the optional
+     * <code>admission-transactions</code>/<code>admission-period</code> limits,
+     * applied per <code>admission-key</code> Context entry if configured.
+     *
+     * If the transaction has to wait, the session is not blocked: the context is
+     * pushed back to the head of the queue once its admission time arrives and
+     * goes through without a new reservation when it is picked up again.
+     *
+     * @param context transaction context
+     * @return true if the transaction can proceed now, false if it has been deferred
+     */
+    protected boolean admit (Serializable context) {
+        if (admitted.remove (context))
+            return true;
+        ThroughputControl tc = admission;
+        if (keyedAdmission != null && context instanceof Context) {
+            Object k = ((Context) context).get (admissionKey);
+            if (k != null)
+                tc = keyedAdmission.get (k);
+        }
+        if (tc != null) {
+            CompletableFuture<Long> f = tc.acquireAsync();
+            if (!f.isDone()) {
+                admitted.add (context);
+                f.thenAccept (delay -> {
+                    if (debug)
+                        getLog().debug ("admission delay=" + delay);
+                    iisp.push (queue, context);
+                });
+                return false;
+            }
+        }
+        return true;
+    }
     public void addListener (TransactionStatusListener l) {
         synchronized (statusListeners) {
             statusListeners.add (l);
@@ -21,6 +21,7 @@ package org.jpos.transaction.participant;
 import bsh.EvalError;
 import bsh.Interpreter;
 import org.jdom2.Element;
+import org.jpos.bsh.BSHScript;
 import org.jpos.q2.QFactory;
 
 import java.io.FileReader;
@@ -40,6 +41,8 @@ public class BSHMethod {
     
     private String bshData;
     private boolean source;
+    private BSHScript script;
+    private Boolean customInterpreter;
     
     
     /** Creates a BSHMethod from a JDom Element.
@@ -123,8 +126,11 @@ public class BSHMethod {
      *                      is called. All keys must be Strings.
      */
     public Object execute(Map arguments, String resultName) throws EvalError, IOException {
-        Interpreter i = initInterpreter(arguments);
-        return i.get(resultName);
+        if (customInterpreter())
+            return initInterpreter(arguments).get(resultName);
+        Object[] result = new Object[1];
+        getScript().execute(i -> setArguments(i, arguments), i -> result[0] = i.get(resultName));
+        return result[0];
     }
     
     /** Sets the given arguments to the Interpreter, evaluates the script and 
@@ -138,23 +144,86 @@ public class BSHMethod {
      *                      wich`s contents are to be returned.
      */
     public Map execute(Map arguments, Collection returnNames) throws EvalError, IOException {
-        Interpreter i = initInterpreter(arguments);
         Map result = new HashMap();
-        String rName;
-        for (Object returnName : returnNames) {
-            rName = (String) returnName;
-            result.put(rName, i.get(rName));
+        if (customInterpreter()) {
+            Interpreter i = initInterpreter(arguments);
+            for (Object returnName : returnNames)
+                result.put(returnName, i.get((String) returnName));
+            return result;
         }
+        getScript().execute(i -> setArguments(i, arguments), i -> {
+            String rName;
+            for (Object returnName : returnNames) {
+                rName = (String) returnName;
+                result.put(rName, i.get(rName));
+            }
+        });
         return result;
     }
-    
+
+    /** Sets the given arguments to a pooled Interpreter, evaluates the script
+     *  and returns the object stored on the variable named resultName.
+     *
+     *  @param resultName   name of the variable to return
+     *  @param arguments    name/value pairs to set to the Interpreter
+     */
+    public Object execute(String resultName, Object... arguments) throws EvalError, IOException {
+        if (customInterpreter()) {
+            Map<String,Object> m = new HashMap<>();
+            for (int n=0; n<arguments.length; n += 2)
+                m.put((String) arguments[n], arguments[n+1]);
+            return initInterpreter(m).get(resultName);
+        }
+        Object[] result = new Object[1];
+        getScript().execute(i -> {
+            for (int n=0; n<arguments.length; n += 2)
+                i.set((String) arguments[n], arguments[n+1]);
+        }, i -> result[0] = i.get(resultName));
+        return result[0];
+    }
+
+    /**
+     * @return the pooled script used by the execute methods
+     * @see BSHScript
+     */
+    protected BSHScript getScript() {
+        if (script == null) {
+            if (bshData == null)
+                throw new NullPointerException();
+            script = source ? BSHScript.forFile(bshData) :
+              BSHScript.forText("bsh@" + Integer.toHexString(bshData.hashCode()), bshData);
+        }
+        return script;
+    }
+
+    private boolean customInterpreter() {
+        if (customInterpreter == null) {
+            boolean b = false;
+            for (Class<?> c = getClass(); c != BSHMethod.class && !b; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod("initInterpreter", Map.class);
+                    b = true;
+                } catch (NoSuchMethodException ignored) { }
+            }
+            customInterpreter = b;
+        }
+        return customInterpreter;
+    }
+
+    private static void setArguments(Interpreter i, Map<?,?> arguments) throws EvalError {
+        for (Map.Entry<?,?> entry : arguments.entrySet())
+            i.set((String) entry.getKey(), entry.getValue());
+    }
+
+    /** Creates a new, non pooled, Interpreter with the given arguments
+     *  set and the script already evaluated.
+     *
+     *  The execute methods use a pooled {@link BSHScript} unless a subclass
+     *  overrides this method, in which case they call it once per execution.
+     */
     protected Interpreter initInterpreter(Map arguments) throws EvalError, IOException {
         Interpreter i = new Interpreter();
-        Map.Entry entry;
-        for (Object o : arguments.entrySet()) {
-            entry = (Map.Entry) o;
-            i.set((String) entry.getKey(), entry.getValue());
-        }
+        setArguments(i, arguments);
         if (source) {
             i.source(bshData);
         } else {
@@ -31,8 +31,6 @@ import org.jpos.util.SimpleLogSource;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 
 /** A TransactionParticipant whose prepare, commit and abort methods can be 
  *  specified through beanshell scripts. <BR>
@@ -154,12 +152,7 @@ public class BSHTransactionParticipant extends SimpleLogSource
     
     protected Object executeMethod(BSHMethod m, long id, Serializable context, LogEvent evt, String resultName) 
     throws EvalError, IOException {
-        Map params = new HashMap();
-        params.put("context", context);
-        params.put("id", id);
-        params.put("evt", evt);
-        params.put("self", this);
-        return m.execute(params, resultName);
+        return m.execute(resultName, "context", context, "id", id, "evt", evt, "self", this);
     }
 }
 
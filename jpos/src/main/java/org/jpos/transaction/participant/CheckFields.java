@@ -19,11 +19,13 @@
 package org.jpos.transaction.participant;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.StringTokenizer;
 import java.io.Serializable;
-import java.util.regex.Pattern;
 
 import org.jpos.core.*;
 import org.jpos.iso.*;
@@ -36,18 +38,38 @@ import org.jpos.util.Caller;
 
 import static org.jpos.transaction.ContextConstants.*;
 
+/**
+ * Checks mandatory and optional fields, placing the well known ones
+ * (PCODE, CARD, TID, MID, timestamps, ...) in the Context.
+ * <p>
+ * Field content is validated with {@link FieldRule}s, compiled once from
+ * the configuration into character class bitmaps and length boundaries.
+ * Default rules can be overridden, and rules for any other field added,
+ * using <code>rule</code> properties:
+ * <pre>
+ *  &lt;property name="rule" value="41 [A-Za-z0-9 ]8" /&gt;
+ *  &lt;property name="rule" value="43 ans..40" /&gt;
+ *  &lt;property name="rule" value="48 ans..999 /^[A-Z]{2}.*$/" /&gt;
+ * </pre>
+ * Setting <code>report-validation-errors</code> to <code>true</code> also
+ * reports errors already attached to the message by a validating packager
+ * (see {@link ISOVField}), so fields don't need to be validated twice.
+ * Every violation is reported in the Result.
+ */
 public class CheckFields implements TransactionParticipant, Configurable {
+    private static final FieldRule PCODE_RULE = new FieldRule(6, 6, CharClass.WORD.union(CharClass.of("|")), null);
+    private static final FieldRule TID_RULE = new FieldRule(1, 16, CharClass.WORD.union(CharClass.SPACE), null);
+    private static final FieldRule MID_RULE = new FieldRule(1, 15, CharClass.WORD.union(CharClass.SPACE), null);
+    private static final FieldRule TRANSMISSION_TIMESTAMP_RULE = FieldRule.parse("n10");
+    private static final FieldRule LOCAL_TIMESTAMP_RULE = FieldRule.parse("n14");
+    private static final FieldRule CAPTUREDATE_RULE = FieldRule.parse("n4");
+    private static final FieldRule ORIGINAL_DATA_ELEMENTS_RULE = FieldRule.parse("n30..41");
     private Configuration cfg;
     private String request;
-    private Pattern PCODE_PATTERN = Pattern.compile("^[\\d|\\w]{6}$");
-    private Pattern TID_PATTERN = Pattern.compile("^[\\w\\s]{1,16}");
-    private Pattern MID_PATTERN = Pattern.compile("^[\\w\\s]{1,15}");
-    private Pattern TRANSMISSION_TIMESTAMP_PATTERN = Pattern.compile("^\\d{10}");
-    private Pattern LOCAL_TIMESTAMP_PATTERN = Pattern.compile("^\\d{14}");
-    private Pattern CAPTUREDATE_PATTERN = Pattern.compile("^\\d{4}");
-    private Pattern ORIGINAL_DATA_ELEMENTS_PATTERN = Pattern.compile("^\\d{30,41}$");
+    private Map<String,FieldRule> rules = new HashMap<>();
     private boolean ignoreCardValidation = false;
     private boolean allowExtraFields = false;
+    private boolean reportValidationErrors = false;
 
     public int prepare (long id, Serializable context) {
         Context ctx = (Context) context;
@@ -59,6 +81,8 @@ public class CheckFields implements TransactionParticipant, Configurable {
                 return ABORTED | NO_JOIN | READONLY;
             }
             Set<String> validFields = new HashSet<>();
+            if (reportValidationErrors)
+                reportValidationErrors (m, rc);
             assertFields (ctx, m, cfg.get ("mandatory", ""), true, validFields, rc);
             assertFields (ctx, m, cfg.get ("optional", ""), false, validFields, rc);
             if (!allowExtraFields) assertNoExtraFields (m, validFields, rc);
@@ -69,11 +93,24 @@ public class CheckFields implements TransactionParticipant, Configurable {
         return (rc.hasFailures() ? ABORTED : PREPARED) | NO_JOIN | READONLY;
     }
 
-    public void setConfiguration (Configuration cfg) {
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
         this.cfg = cfg;
         request = cfg.get ("request", ContextConstants.REQUEST.toString());
         ignoreCardValidation = cfg.getBoolean("ignore-card-validation", false);
         allowExtraFields = cfg.getBoolean("allow-extra-fields", false);
+        reportValidationErrors = cfg.getBoolean("report-validation-errors", false);
+        Map<String,FieldRule> r = new HashMap<>();
+        for (String s : cfg.getAll ("rule")) {
+            String[] ss = s.trim().split("\\s+", 2);
+            if (ss.length != 2)
+                throw new ConfigurationException ("Invalid rule '" + s + "'");
+            try {
+                r.put (ss[0], FieldRule.parse(ss[1]));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException ("Invalid rule '" + s + "': " + e.getMessage(), e);
+            }
+        }
+        rules = r;
     }
 
     private void assertFields(Context ctx, ISOMsg m, String fields, boolean mandatory, Set<String> validFields, Result rc) {
@@ -99,10 +136,10 @@ public class CheckFields implements TransactionParticipant, Configurable {
                         putMid(ctx, m, mandatory, validFields, rc);
                         break;
                     case TRANSMISSION_TIMESTAMP:
-                        putTimestamp(ctx, m, TRANSMISSION_TIMESTAMP.toString(), 7, TRANSMISSION_TIMESTAMP_PATTERN, mandatory, validFields, rc);
+                        putTimestamp(ctx, m, TRANSMISSION_TIMESTAMP.toString(), 7, TRANSMISSION_TIMESTAMP_RULE, mandatory, validFields, rc);
                         break;
                     case TRANSACTION_TIMESTAMP:
-                        putTimestamp(ctx, m, TRANSACTION_TIMESTAMP.toString(), 12, LOCAL_TIMESTAMP_PATTERN, mandatory, validFields, rc);
+                        putTimestamp(ctx, m, TRANSACTION_TIMESTAMP.toString(), 12, LOCAL_TIMESTAMP_RULE, mandatory, validFields, rc);
                         break;
                     case POS_DATA_CODE:
                         putPDC(ctx, m, mandatory, validFields, rc);
@@ -123,8 +160,10 @@ public class CheckFields implements TransactionParticipant, Configurable {
             if (k == null) {
                 if (mandatory && !m.hasField(s))
                     rc.fail(CMF.MISSING_FIELD, Caller.info(), s);
-                else
+                else {
                     validFields.add(s);
+                    checkRule (m, s, rc);
+                }
             }
         }
     }
@@ -176,7 +215,7 @@ public class CheckFields implements TransactionParticipant, Configurable {
             String s = m.getString(3);
 
             validFields.add("3");
-            if (PCODE_PATTERN.matcher(s).matches()) {
+            if (rule("3", PCODE_RULE).isValid(s)) {
                 ctx.put(ContextConstants.PCODE.toString(), m.getString(3));
             } else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid PCODE '%s'", s);
@@ -189,7 +228,7 @@ public class CheckFields implements TransactionParticipant, Configurable {
         if (m.hasField(41)) {
             String s = m.getString(41);
             validFields.add("41");
-            if (TID_PATTERN.matcher(s).matches()) {
+            if (rule("41", TID_RULE).isValid(s)) {
                 ctx.put(ContextConstants.TID.toString(), m.getString(41));
             } else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid TID '%s'", s);
@@ -202,7 +241,7 @@ public class CheckFields implements TransactionParticipant, Configurable {
         if (m.hasField(42)) {
             String s = m.getString(42);
             validFields.add("42");
-            if (MID_PATTERN.matcher(s).matches()) {
+            if (rule("42", MID_RULE).isValid(s)) {
                 ctx.put(ContextConstants.MID.toString(), m.getString(42));
             } else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid MID '%s'", s);
@@ -210,11 +249,11 @@ public class CheckFields implements TransactionParticipant, Configurable {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), "MID");
         }
     }
-    private void putTimestamp (Context ctx, ISOMsg m, String key, int fieldNumber, Pattern ptrn, boolean mandatory, Set<String> validFields, Result rc) {
+    private void putTimestamp (Context ctx, ISOMsg m, String key, int fieldNumber, FieldRule defaultRule, boolean mandatory, Set<String> validFields, Result rc) {
         if (m.hasField(fieldNumber)) {
             String s = m.getString(fieldNumber);
             validFields.add(Integer.toString(fieldNumber));
-            if (ptrn.matcher(s).matches())
+            if (rule(Integer.toString(fieldNumber), defaultRule).isValid(s))
                 ctx.put (key, ISODate.parseISODate(s));
             else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid %s '%s'", key, s);
@@ -227,7 +266,7 @@ public class CheckFields implements TransactionParticipant, Configurable {
         if (m.hasField(17)) {
             String s = m.getString(17);
             validFields.add("17");
-            if (CAPTUREDATE_PATTERN.matcher(s).matches())
+            if (rule("17", CAPTUREDATE_RULE).isValid(s))
                 ctx.put (CAPTURE_DATE.toString(), ISODate.parseISODate(s + "120000"));
             else
                 rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid %s '%s'", CAPTURE_DATE, s);
@@ -285,7 +324,7 @@ public class CheckFields implements TransactionParticipant, Configurable {
         String s = m.getString(56);
         if (s != null) {
             validFields.add("56");
-            if (ORIGINAL_DATA_ELEMENTS_PATTERN.matcher(s).matches()) {
+            if (rule("56", ORIGINAL_DATA_ELEMENTS_RULE).isValid(s)) {
                 ctx.put (ORIGINAL_MTI.toString(), s.substring(0,4));
                 ctx.put (ORIGINAL_STAN.toString(), s.substring(4,16));
                 ctx.put (ORIGINAL_TIMESTAMP.toString(), ISODate.parseISODate (s.substring(16,30)));
@@ -296,4 +335,29 @@ public class CheckFields implements TransactionParticipant, Configurable {
             rc.fail(CMF.MISSING_FIELD, Caller.info(), ContextConstants.ORIGINAL_DATA_ELEMENTS.toString());
         }
     }
+
+    private FieldRule rule (String fieldName, FieldRule defaultRule) {
+        FieldRule rule = rules.get(fieldName);
+        return rule != null ? rule : defaultRule;
+    }
+
+    private void checkRule (ISOMsg m, String fieldName, Result rc) {
+        FieldRule rule = rules.get(fieldName);
+        String v = rule != null ? m.getString(fieldName) : null;
+        String error = v != null ? rule.check(v) : null;
+        if (error != null)
+            rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid field %s '%s': %s", fieldName, v, error);
+    }
+
+    private void reportValidationErrors (ISOMsg m, Result rc) {
+        for (Object o : m.getChildren().values()) {
+            if (o instanceof ISOVField) {
+                ISOVField f = (ISOVField) o;
+                for (Iterator<?> it = f.errorListIterator(); it.hasNext(); ) {
+                    ISOVError e = (ISOVError) it.next();
+                    rc.fail(CMF.INVALID_FIELD, Caller.info(), "Invalid field %s: %s", f.getKey(), e.getDescription());
+                }
+            }
+        }
+    }
 }
@@ -53,6 +53,8 @@ public class QueryHost implements TransactionParticipant, ISOResponseListener, C
     }
     public int prepare (long id, Serializable ser)  {
         Context ctx = (Context) ser;
+        if (ctx.get (ContextConstants.WARMUP.toString()) != null)
+            return PREPARED | READONLY | NO_JOIN; // synthetic transaction, don't send it
 
         Result result = ctx.getResult();
         String ds = ctx.getString(destination);
@@ -0,0 +1,286 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction.participant;
+
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.XmlConfigurable;
+import org.jpos.q2.QFactory;
+import org.jpos.transaction.AbortParticipant;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.TransactionParticipant;
+import org.jpos.util.Destroyable;
+import org.jpos.util.Log;
+import org.jpos.util.LogEvent;
+import org.jpos.util.Logger;
+
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TransactionParticipant whose prepare, prepareForAbort, commit and abort
+ * methods are implemented by functions of a JSR-223 script
+ * (JavaScript, Groovy or any other engine implementing {@link Invocable}).
+ * <p>
+ * Unlike {@link JSParticipant}, which shares a single engine among all
+ * TransactionManager sessions, ScriptParticipant keeps a pool of engine
+ * instances, each one with the script already compiled (when the engine
+ * is {@link Compilable}) and its own bindings. A session borrows an engine
+ * for the duration of a call, so concurrent sessions never see each other's
+ * script state and the pool grows up to the number of sessions actually
+ * running the participant.
+ * <p>
+ * Functions are called with the transaction id and context; all of them
+ * are optional. prepare and prepareForAbort have to return an int.
+ * <p>
+ * If a <code>timeout</code> (in millis) is configured, the script runs on
+ * one of up to <code>max-threads</code> (default 100) threads; a call that
+ * doesn't complete in time is logged, its engine discarded and, for prepare,
+ * the transaction is aborted. A script ignoring interruption keeps its thread
+ * busy (see {@link #getStuckThreads()}); once all threads are busy, calls are
+ * rejected (and prepare aborts) instead of piling up more threads.
+ *
+ * <pre>
+ *  &lt;participant class="org.jpos.transaction.participant.ScriptParticipant"
+ *     logger="Q2" realm="script" src="cfg/route.js" engine="nashorn" timeout="1000" max-threads="50" /&gt;
+ * </pre>
+ * The engine defaults to the one registered for the <code>src</code> file
+ * extension. The script can also be provided as the element's text.
+ */
+public class ScriptParticipant extends Log
+    implements TransactionParticipant, AbortParticipant, XmlConfigurable, Destroyable
+{
+    private final ConcurrentLinkedQueue<Invocable> pool = new ConcurrentLinkedQueue<>();
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    private ScriptEngineFactory factory;
+    private String script;
+    private String name;
+    private long timeout;
+    private int maxThreads;
+    private ThreadPoolExecutor executor;
+    private final AtomicInteger stuck = new AtomicInteger();
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+    boolean trace;
+
+    @Override
+    public int prepare (long id, Serializable context) {
+        return invokeWithResult ("prepare", id, context);
+    }
+
+    @Override
+    public int prepareForAbort (long id, Serializable context) {
+        return invokeWithResult ("prepareForAbort", id, context);
+    }
+
+    @Override
+    public void commit (long id, Serializable context) {
+        invoke ("commit", id, context);
+    }
+
+    @Override
+    public void abort (long id, Serializable context) {
+        invoke ("abort", id, context);
+    }
+
+    @Override
+    public void setConfiguration (Element e) throws ConfigurationException {
+        String src = QFactory.getAttributeValue (e, "src");
+        String engineName = QFactory.getAttributeValue (e, "engine");
+        trace = "yes".equals (QFactory.getAttributeValue (e, "trace"));
+        String t = QFactory.getAttributeValue (e, "timeout");
+        timeout = t != null ? Long.parseLong (t) : 0L;
+        String m = QFactory.getAttributeValue (e, "max-threads");
+        maxThreads = m != null ? Integer.parseInt (m) : 100;
+        if (maxThreads < 1)
+            throw new ConfigurationException ("invalid max-threads " + maxThreads);
+        try {
+            if (src != null) {
+                script = new String (Files.readAllBytes (Paths.get (src)), StandardCharsets.UTF_8);
+                name = src;
+            } else {
+                script = e.getTextTrim();
+                name = e.getName();
+            }
+            ScriptEngineManager manager = new ScriptEngineManager();
+            ScriptEngine engine;
+            if (engineName != null)
+                engine = manager.getEngineByName (engineName);
+            else if (src != null && src.lastIndexOf('.') > 0)
+                engine = manager.getEngineByExtension (src.substring (src.lastIndexOf('.') + 1));
+            else
+                engine = manager.getEngineByName ("nashorn");
+            if (engine == null)
+                throw new ConfigurationException ("Script engine not found for " + (engineName != null ? engineName : name));
+            if (!(engine instanceof Invocable))
+                throw new ConfigurationException ("Script engine " + engine.getFactory().getEngineName() + " is not Invocable");
+            factory = engine.getFactory();
+            missing.clear();
+            pool.clear();
+            pool.offer (load (engine)); // compile early so syntax errors show up at deploy time
+            if (timeout > 0L && executor == null) {
+                // no queue: when every thread is busy (possibly stuck in a script) calls get rejected
+                executor = new ThreadPoolExecutor (0, maxThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                    Thread th = new Thread (r, "ScriptParticipant-" + name);
+                    th.setDaemon (true);
+                    return th;
+                });
+            }
+        } catch (ConfigurationException ex) {
+            throw ex;
+        } catch (IOException | ScriptException ex) {
+            throw new ConfigurationException (ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.clear();
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * @return number of idle engines
+     */
+    public int getPoolSize() {
+        return pool.size();
+    }
+
+    /**
+     * @return number of threads still running a call that timed out
+     */
+    public int getStuckThreads() {
+        return stuck.get();
+    }
+
+    private Invocable load (ScriptEngine engine) throws ScriptException {
+        engine.put (ScriptEngine.FILENAME, name);
+        if (engine instanceof Compilable)
+            ((Compilable) engine).compile (script).eval();
+        else
+            engine.eval (script);
+        return (Invocable) engine;
+    }
+
+    private Invocable borrow() throws ScriptException {
+        Invocable js = pool.poll();
+        return js != null ? js : load (factory.getScriptEngine());
+    }
+
+    private int invokeWithResult (String functionName, long id, Serializable context) {
+        if (missing.contains (functionName))
+            return PREPARED | READONLY;
+        try {
+            Object r = call (functionName, id, context);
+            if (r == null && missing.contains (functionName))
+                return PREPARED | READONLY;
+            return ((Number) r).intValue();
+        } catch (Exception e) {
+            error (functionName, id, context, e);
+            return ABORTED;
+        }
+    }
+
+    private void invoke (String functionName, long id, Serializable context) {
+        if (missing.contains (functionName))
+            return;
+        try {
+            call (functionName, id, context);
+        } catch (Exception e) {
+            error (functionName, id, context, e);
+        }
+    }
+
+    private Object call (String functionName, long id, Serializable context) throws Exception {
+        Invocable js = borrow();
+        long start = System.nanoTime();
+        boolean reusable = true;
+        try {
+            if (timeout > 0L) {
+                AtomicInteger state = new AtomicInteger (RUNNING);
+                Future<Object> f = executor.submit (() -> {
+                    try {
+                        return js.invokeFunction (functionName, id, context);
+                    } finally {
+                        if (!state.compareAndSet (RUNNING, DONE)) {
+                            stuck.decrementAndGet();
+                            info (functionName + " " + id + " finished after timeout, stuck threads " + stuck.get());
+                        }
+                    }
+                });
+                try {
+                    return f.get (timeout, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    f.cancel (true);
+                    reusable = false; // engine might still be running the script
+                    int n = stuck.incrementAndGet(); // before ABANDONED is visible to the call's thread
+                    if (state.compareAndSet (RUNNING, ABANDONED))
+                        warn (functionName + " " + id + " timed out, stuck threads " + n);
+                    else
+                        stuck.decrementAndGet();
+                    throw e;
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            return js.invokeFunction (functionName, id, context);
+        } catch (NoSuchMethodException e) {
+            missing.add (functionName);
+            return null;
+        } finally {
+            if (reusable)
+                pool.offer (js);
+            if (trace) {
+                LogEvent evt = createLogEvent (functionName);
+                evt.addMessage (String.format ("id=%d elapsed=%dus%s",
+                  id, (System.nanoTime() - start) / 1000L, reusable ? "" : " (timeout)"));
+                Logger.log (evt);
+            }
+        }
+    }
+
+    private void error (String functionName, long id, Serializable context, Exception e) {
+        if (context instanceof Context) {
+            ((Context) context).log (e);
+        } else {
+            warn (functionName + " " + id, e);
+        }
+    }
+}
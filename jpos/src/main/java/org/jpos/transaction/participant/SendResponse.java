@@ -44,6 +44,8 @@ public class SendResponse implements AbortParticipant, Configurable {
 
     public int prepare (long id, Serializable context) {
         Context ctx = (Context) context;
+        if (ctx.get (WARMUP.toString()) != null)
+            return PREPARED | READONLY | NO_JOIN; // synthetic transaction, nobody to respond to
         ISOSource source = (ISOSource) ctx.get (this.source);
         if (source == null || !source.isConnected())
             return ABORTED | READONLY | NO_JOIN;
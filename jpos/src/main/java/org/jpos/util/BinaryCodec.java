@@ -0,0 +1,739 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.transaction.Context;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact, versioned binary encoding for the objects jPOS persists and
+ * replicates (ISOMsg, Context and common Java types), used by the persistent
+ * spaces and {@link Serializer} in place of Java serialization.
+ * <p>
+ * Values are written as a one byte tag followed by a type specific payload
+ * using variable length integers. Types the codec doesn't know about are
+ * written using Java serialization, unless they implement {@link Codable}
+ * (subclasses that override <code>writeExternal</code> but not
+ * {@link Codable#encode(Output)} are Java serialized too).
+ * Encoded data starts with a two byte magic/version header, which lets
+ * {@link #decode(byte[])} read legacy Java serialized data as well.
+ * <p>
+ * Classes named in the data are only instantiated if they implement
+ * {@link Codable}; Java serialized values are only read if their classes are
+ * accepted by a {@link ClassFilter}. Data coming from the network should be
+ * decoded using {@link ClassFilter#BASE} (plus whatever the application needs);
+ * {@link #decode(byte[])} uses {@link ClassFilter#DEFAULT}, meant for data
+ * this JVM wrote itself. Shared references are not preserved (a value
+ * referenced twice is decoded as two copies) and cyclic graphs are rejected.
+ * <p>
+ * Encoding uses a per thread buffer, so no intermediate streams get
+ * allocated for typical payloads.
+ *
+ * @since 2.1.4
+ */
+public final class BinaryCodec {
+    public static final int MAGIC = 0x6A;
+    public static final int VERSION = 1;
+    private static final int MAX_POOLED_BUFFER = 64*1024;
+    private static final int MAX_DEPTH = 256;
+
+    static final byte NULL        = 0;
+    static final byte TRUE        = 1;
+    static final byte FALSE       = 2;
+    static final byte INT         = 3;
+    static final byte LONG        = 4;
+    static final byte SHORT       = 5;
+    static final byte BYTE        = 6;
+    static final byte CHAR        = 7;
+    static final byte FLOAT       = 8;
+    static final byte DOUBLE      = 9;
+    static final byte STRING      = 10;
+    static final byte BYTES       = 11;
+    static final byte BIG_DECIMAL = 12;
+    static final byte BIG_INTEGER = 13;
+    static final byte DATE        = 14;
+    static final byte UUID        = 15;
+    static final byte LIST        = 16;
+    static final byte MAP         = 17;
+    static final byte SET         = 18;
+    static final byte ENUM        = 19;
+    static final byte ISOMSG      = 20;
+    static final byte CONTEXT     = 21;
+    static final byte CODABLE     = 22;
+    static final byte JAVA        = 127;
+
+    private static final ThreadLocal<Output> buffers = ThreadLocal.withInitial(Output::new);
+
+    /**
+     * A Codable subclass of an Externalizable class (i.e. an ISOMsg subclass) that
+     * overrides writeExternal without overriding encode may hold state encode knows
+     * nothing about, so it's written using Java serialization instead.
+     */
+    private static final ClassValue<Boolean> CODABLE_CLASSES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue (Class<?> c) {
+            if (!Codable.class.isAssignableFrom(c))
+                return false;
+            if (!Externalizable.class.isAssignableFrom(c))
+                return true;
+            try {
+                Class<?> encoder = c.getMethod("encode", Output.class).getDeclaringClass();
+                Class<?> writer = c.getMethod("writeExternal", ObjectOutput.class).getDeclaringClass();
+                return writer.isAssignableFrom(encoder);
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private BinaryCodec() { }
+
+    /**
+     * Implemented by objects that know how to encode themselves.
+     * Implementations need a public no-args constructor.
+     */
+    public interface Codable {
+        void encode (Output out) throws IOException;
+        void decode (Input in) throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * @param obj object to encode (may be null)
+     * @return encoded object, including the magic/version header
+     * @throws IOException if obj, or an object it references, can't be encoded
+     */
+    public static byte[] encode (Object obj) throws IOException {
+        Output out = buffers.get();
+        if (out.busy)
+            out = new Output(); // reentrant call, i.e. from a writeObject method
+        out.busy = true;
+        try {
+            out.write(MAGIC);
+            out.write(VERSION);
+            out.writeObject(obj);
+            return out.toByteArray();
+        } finally {
+            out.recycle();
+        }
+    }
+
+    /**
+     * @param b data produced by {@link #encode(Object)} or by Java serialization
+     * @return decoded object
+     * @throws IOException on invalid data
+     * @throws ClassNotFoundException if a referenced class is not available
+     */
+    public static Object decode (byte[] b) throws IOException, ClassNotFoundException {
+        return decode (b, ClassFilter.DEFAULT);
+    }
+
+    /**
+     * @param b data produced by {@link #encode(Object)} or by Java serialization
+     * @param filter classes that may be Java deserialized
+     * @return decoded object
+     * @throws IOException on invalid data, or if a class is rejected by filter
+     * @throws ClassNotFoundException if a referenced class is not available
+     */
+    public static Object decode (byte[] b, ClassFilter filter) throws IOException, ClassNotFoundException {
+        if (b.length >= 2 && (b[0] & 0xFF) == MAGIC) {
+            if (b[1] != VERSION)
+                throw new StreamCorruptedException ("Unsupported version " + b[1]);
+            return new Input(b, 2, b.length - 2, filter).readObject();
+        }
+        try (ObjectInputStream is = new FilteredObjectInputStream(new ByteArrayInputStream(b), filter)) {
+            return is.readObject();
+        }
+    }
+
+    /**
+     * Classes that may be Java deserialized, given as patterns separated by commas
+     * or semicolons: a class name, <code>package.*</code> (the package and its
+     * subpackages) or <code>*</code>, optionally prefixed by <code>!</code> to reject
+     * matching classes. The first matching pattern wins; classes matching none are
+     * rejected. Array classes are checked by component type, primitives are accepted.
+     */
+    public static final class ClassFilter {
+        /** accepts everything */
+        public static final ClassFilter ANY = new ClassFilter("*");
+        /** common Java value types and jPOS classes */
+        public static final ClassFilter BASE = new ClassFilter(
+          "!java.lang.invoke.*;!java.lang.reflect.*;!java.rmi.*;java.lang.*;java.util.*;java.math.*;java.time.*;java.sql.*;org.jpos.*"
+        );
+        /**
+         * used by {@link #decode(byte[])}; set by the <code>jpos.codec.filter</code>
+         * system property, accepts everything if not set
+         */
+        public static final ClassFilter DEFAULT = new ClassFilter(System.getProperty("jpos.codec.filter", "*"));
+
+        private final String patterns;
+        private final String[] rules;
+
+        public ClassFilter (String patterns) {
+            this.patterns = patterns != null ? patterns.trim() : "";
+            this.rules = this.patterns.isEmpty() ? new String[0] : this.patterns.split("\\s*[,;]\\s*");
+        }
+
+        /**
+         * @param patterns patterns checked ahead of this filter's (may be null)
+         * @return a filter that checks patterns, then this filter's patterns
+         */
+        public ClassFilter with (String patterns) {
+            return patterns == null || patterns.trim().isEmpty() ?
+              this : new ClassFilter(patterns.trim() + ";" + this.patterns);
+        }
+
+        public boolean accept (String className) {
+            for (String r : rules) {
+                boolean reject = r.startsWith("!");
+                String p = reject ? r.substring(1) : r;
+                if (p.equals("*") || p.endsWith(".*") && className.startsWith(p.substring(0, p.length() - 1)) || p.equals(className))
+                    return !reject;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return patterns;
+        }
+    }
+
+    /**
+     * Resolves only the classes accepted by a {@link ClassFilter}
+     */
+    private static class FilteredObjectInputStream extends ObjectInputStream {
+        private final ClassFilter filter;
+
+        FilteredObjectInputStream (InputStream in, ClassFilter filter) throws IOException {
+            super(in);
+            this.filter = filter;
+        }
+
+        @Override
+        protected Class<?> resolveClass (ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            check (desc.getName());
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass (String[] interfaces) throws IOException, ClassNotFoundException {
+            for (String i : interfaces)
+                check (i);
+            return super.resolveProxyClass(interfaces);
+        }
+
+        private void check (String name) throws InvalidClassException {
+            String n = name;
+            while (n.startsWith("["))
+                n = n.substring(1);
+            if (n.length() == 1)
+                return; // primitive array
+            if (n.startsWith("L") && n.endsWith(";"))
+                n = n.substring(1, n.length() - 1);
+            if (!filter.accept(n))
+                throw new InvalidClassException(name, "rejected by class filter");
+        }
+    }
+
+    /**
+     * Output buffer with variable length integer and object writers
+     */
+    public static final class Output extends ByteArrayOutputStream {
+        private boolean busy;
+        private final List<Object> path = new ArrayList<>();
+
+        public Output() {
+            super(512);
+        }
+
+        public void writeByte (int v) {
+            write(v);
+        }
+
+        public void writeBoolean (boolean v) {
+            write(v ? 1 : 0);
+        }
+
+        /**
+         * Writes an unsigned variable length int (7 bits per byte)
+         */
+        public void writeVarInt (int v) {
+            while ((v & ~0x7F) != 0) {
+                write(v & 0x7F | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+
+        public void writeVarLong (long v) {
+            while ((v & ~0x7FL) != 0L) {
+                write((int) v & 0x7F | 0x80);
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        /**
+         * Writes a signed int using zig-zag encoding, so small negative numbers stay small
+         */
+        public void writeInt (int v) {
+            writeVarInt(v << 1 ^ v >> 31);
+        }
+
+        public void writeLong (long v) {
+            writeVarLong(v << 1 ^ v >> 63);
+        }
+
+        public void writeFixedLong (long v) {
+            for (int i=56; i>=0; i-=8)
+                write((int) (v >>> i));
+        }
+
+        public void writeBytes (byte[] b) {
+            writeVarInt(b.length);
+            write(b, 0, b.length);
+        }
+
+        /**
+         * Writes a non-null string as its UTF-8 length and bytes
+         */
+        public void writeString (String s) {
+            int len = s.length();
+            ensure(len + 5);
+            int start = count;
+            writeVarInt(len);
+            int p = count;
+            int i = 0;
+            for (; i<len; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80)
+                    break;
+                buf[p++] = (byte) c;
+            }
+            if (i == len) {
+                count = p;
+            } else {
+                count = start;
+                writeBytes(s.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        public void writeObject (Object obj) throws IOException {
+            if (obj == null) {
+                write(NULL);
+                return;
+            }
+            Class<?> c = obj.getClass();
+            if (c == String.class) {
+                write(STRING);
+                writeString((String) obj);
+            } else if (c == Integer.class) {
+                write(INT);
+                writeInt((Integer) obj);
+            } else if (c == Long.class) {
+                write(LONG);
+                writeLong((Long) obj);
+            } else if (c == Boolean.class) {
+                write((Boolean) obj ? TRUE : FALSE);
+            } else if (c == byte[].class) {
+                write(BYTES);
+                writeBytes((byte[]) obj);
+            } else if (c == ISOMsg.class) {
+                write(ISOMSG);
+                writeNested((Codable) obj);
+            } else if (c == Context.class) {
+                write(CONTEXT);
+                writeNested((Codable) obj);
+            } else if (c == BigDecimal.class) {
+                write(BIG_DECIMAL);
+                BigDecimal d = (BigDecimal) obj;
+                writeInt(d.scale());
+                writeBytes(d.unscaledValue().toByteArray());
+            } else if (c == Short.class) {
+                write(SHORT);
+                writeInt((Short) obj);
+            } else if (c == Byte.class) {
+                write(BYTE);
+                write((Byte) obj);
+            } else if (c == Character.class) {
+                write(CHAR);
+                writeVarInt((Character) obj);
+            } else if (c == Float.class) {
+                write(FLOAT);
+                writeVarInt(Float.floatToIntBits((Float) obj));
+            } else if (c == Double.class) {
+                write(DOUBLE);
+                writeFixedLong(Double.doubleToLongBits((Double) obj));
+            } else if (c == BigInteger.class) {
+                write(BIG_INTEGER);
+                writeBytes(((BigInteger) obj).toByteArray());
+            } else if (c == Date.class) {
+                write(DATE);
+                writeLong(((Date) obj).getTime());
+            } else if (c == java.util.UUID.class) {
+                write(UUID);
+                writeFixedLong(((java.util.UUID) obj).getMostSignificantBits());
+                writeFixedLong(((java.util.UUID) obj).getLeastSignificantBits());
+            } else if (c == ArrayList.class || c == LinkedList.class) {
+                write(LIST);
+                write(c == ArrayList.class ? 0 : 1);
+                writeElements((Collection<?>) obj);
+            } else if (c == HashSet.class || c == LinkedHashSet.class || c == TreeSet.class && ((TreeSet) obj).comparator() == null) {
+                write(SET);
+                write(c == HashSet.class ? 0 : c == LinkedHashSet.class ? 1 : 2);
+                writeElements((Collection<?>) obj);
+            } else if (c == HashMap.class || c == LinkedHashMap.class || c == TreeMap.class && ((TreeMap) obj).comparator() == null) {
+                write(MAP);
+                write(c == HashMap.class ? 0 : c == LinkedHashMap.class ? 1 : 2);
+                writeEntries((Map<?,?>) obj);
+            } else if (obj instanceof Enum) {
+                write(ENUM);
+                writeString(((Enum) obj).getDeclaringClass().getName());
+                writeString(((Enum) obj).name());
+            } else if (CODABLE_CLASSES.get(c)) {
+                write(CODABLE);
+                writeString(c.getName());
+                writeNested((Codable) obj);
+            } else {
+                write(JAVA);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (ObjectOutputStream os = new ObjectOutputStream(baos)) {
+                    os.writeObject(obj);
+                }
+                writeBytes(baos.toByteArray());
+            }
+        }
+
+        /**
+         * Writes the number of entries followed by each key and value
+         */
+        public void writeEntries (Map<?,?> m) throws IOException {
+            enter (m);
+            try {
+                writeVarInt(m.size());
+                for (Map.Entry<?,?> e : m.entrySet()) {
+                    writeObject(e.getKey());
+                    writeObject(e.getValue());
+                }
+            } finally {
+                exit();
+            }
+        }
+
+        /**
+         * Encodes a Codable nested in the one being encoded, i.e. an inner message
+         * @throws NotSerializableException if c is already being encoded (cyclic reference)
+         */
+        public void writeNested (Codable c) throws IOException {
+            enter (c);
+            try {
+                c.encode(this);
+            } finally {
+                exit();
+            }
+        }
+
+        private void writeElements (Collection<?> c) throws IOException {
+            enter (c);
+            try {
+                writeVarInt(c.size());
+                for (Object o : c)
+                    writeObject(o);
+            } finally {
+                exit();
+            }
+        }
+
+        private void enter (Object obj) throws NotSerializableException {
+            for (Object o : path) {
+                if (o == obj)
+                    throw new NotSerializableException("cyclic reference to " + obj.getClass().getName());
+            }
+            if (path.size() >= MAX_DEPTH)
+                throw new NotSerializableException("Nesting deeper than " + MAX_DEPTH);
+            path.add(obj);
+        }
+
+        private void exit() {
+            path.remove(path.size() - 1);
+        }
+
+        private void ensure (int n) {
+            if (count + n > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + n));
+        }
+
+        private void recycle() {
+            busy = false;
+            path.clear();
+            if (buf.length > MAX_POOLED_BUFFER)
+                buf = new byte[512];
+            reset();
+        }
+    }
+
+    /**
+     * Reads data produced by {@link Output}
+     */
+    public static final class Input {
+        private final byte[] b;
+        private int pos;
+        private final int end;
+        private final ClassFilter filter;
+        private int depth;
+
+        /**
+         * Creates an input that Java deserializes the classes accepted by {@link ClassFilter#DEFAULT}
+         */
+        public Input (byte[] b, int offset, int len) {
+            this (b, offset, len, ClassFilter.DEFAULT);
+        }
+
+        /**
+         * @param b data
+         * @param offset offset of the first byte to read
+         * @param len number of bytes available
+         * @param filter classes that may be Java deserialized
+         */
+        public Input (byte[] b, int offset, int len, ClassFilter filter) {
+            this.b = b;
+            this.pos = offset;
+            this.end = offset + len;
+            this.filter = filter;
+        }
+
+        public int readByte() throws EOFException {
+            if (pos >= end)
+                throw new EOFException();
+            return b[pos++];
+        }
+
+        public boolean readBoolean() throws EOFException {
+            return readByte() != 0;
+        }
+
+        public int readVarInt() throws IOException {
+            int v = 0;
+            for (int shift=0; shift<35; shift+=7) {
+                int c = readByte();
+                v |= (c & 0x7F) << shift;
+                if ((c & 0x80) == 0)
+                    return v;
+            }
+            throw new StreamCorruptedException("Invalid varint");
+        }
+
+        public long readVarLong() throws IOException {
+            long v = 0L;
+            for (int shift=0; shift<70; shift+=7) {
+                int c = readByte();
+                v |= (long) (c & 0x7F) << shift;
+                if ((c & 0x80) == 0)
+                    return v;
+            }
+            throw new StreamCorruptedException("Invalid varlong");
+        }
+
+        public int readInt() throws IOException {
+            int v = readVarInt();
+            return v >>> 1 ^ -(v & 1);
+        }
+
+        public long readLong() throws IOException {
+            long v = readVarLong();
+            return v >>> 1 ^ -(v & 1L);
+        }
+
+        public long readFixedLong() throws IOException {
+            long v = 0L;
+            for (int i=0; i<8; i++)
+                v = v << 8 | readByte() & 0xFF;
+            return v;
+        }
+
+        public byte[] readBytes() throws IOException {
+            int len = length();
+            byte[] d = Arrays.copyOfRange(b, pos, pos + len);
+            pos += len;
+            return d;
+        }
+
+        public String readString() throws IOException {
+            int len = length();
+            boolean ascii = true;
+            for (int i=pos; i<pos+len && ascii; i++)
+                ascii = b[i] >= 0;
+            String s = new String(b, pos, len, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        public Object readObject() throws IOException, ClassNotFoundException {
+            if (++depth > MAX_DEPTH)
+                throw new StreamCorruptedException("Nesting deeper than " + MAX_DEPTH);
+            try {
+                return readTagged();
+            } finally {
+                depth--;
+            }
+        }
+
+        /**
+         * Decodes a Codable nested in the one being decoded, i.e. an inner message
+         */
+        public void readNested (Codable c) throws IOException, ClassNotFoundException {
+            if (++depth > MAX_DEPTH)
+                throw new StreamCorruptedException("Nesting deeper than " + MAX_DEPTH);
+            try {
+                c.decode(this);
+            } finally {
+                depth--;
+            }
+        }
+
+        private Object readTagged() throws IOException, ClassNotFoundException {
+            int tag = readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case INT:
+                    return readInt();
+                case LONG:
+                    return readLong();
+                case SHORT:
+                    return (short) readInt();
+                case BYTE:
+                    return (byte) readByte();
+                case CHAR:
+                    return (char) readVarInt();
+                case FLOAT:
+                    return Float.intBitsToFloat(readVarInt());
+                case DOUBLE:
+                    return Double.longBitsToDouble(readFixedLong());
+                case STRING:
+                    return readString();
+                case BYTES:
+                    return readBytes();
+                case BIG_DECIMAL:
+                    int scale = readInt();
+                    return new BigDecimal(new BigInteger(readBytes()), scale);
+                case BIG_INTEGER:
+                    return new BigInteger(readBytes());
+                case DATE:
+                    return new Date(readLong());
+                case UUID:
+                    return new java.util.UUID(readFixedLong(), readFixedLong());
+                case LIST:
+                    return readElements(readByte() == 0 ? new ArrayList<>() : new LinkedList<>());
+                case SET:
+                    int setKind = readByte();
+                    return readElements(setKind == 0 ? new HashSet<>() : setKind == 1 ? new LinkedHashSet<>() : new TreeSet<>());
+                case MAP:
+                    int mapKind = readByte();
+                    Map<Object,Object> m = mapKind == 0 ? new HashMap<>() : mapKind == 1 ? new LinkedHashMap<>() : new TreeMap<>();
+                    readEntries(m);
+                    return m;
+                case ENUM:
+                    try {
+                        return enumValue(loadClass(readString()), readString());
+                    } catch (ClassCastException ex) {
+                        throw new InvalidClassException(ex.getMessage());
+                    }
+                case ISOMSG:
+                    return decode(new ISOMsg());
+                case CONTEXT:
+                    return decode(new Context());
+                case CODABLE:
+                    String name = readString();
+                    Class<?> c = loadClass(name);
+                    if (!Codable.class.isAssignableFrom(c))
+                        throw new InvalidClassException(name, "not Codable");
+                    try {
+                        return decode((Codable) c.newInstance());
+                    } catch (InstantiationException | IllegalAccessException ex) {
+                        throw new InvalidClassException(ex.getMessage());
+                    }
+                case JAVA:
+                    int len = length();
+                    try (ObjectInputStream is = new FilteredObjectInputStream(new ByteArrayInputStream(b, pos, len), filter)) {
+                        pos += len;
+                        return is.readObject();
+                    }
+                default:
+                    throw new StreamCorruptedException("Invalid tag " + tag);
+            }
+        }
+
+        /**
+         * Reads entries written by {@link Output#writeEntries(Map)} into m
+         */
+        public void readEntries (Map<Object,Object> m) throws IOException, ClassNotFoundException {
+            int size = readVarInt();
+            for (int i=0; i<size; i++)
+                m.put(readObject(), readObject());
+        }
+
+        private Collection<Object> readElements (Collection<Object> c) throws IOException, ClassNotFoundException {
+            int size = readVarInt();
+            for (int i=0; i<size; i++)
+                c.add(readObject());
+            return c;
+        }
+
+        private Object decode (Codable c) throws IOException, ClassNotFoundException {
+            c.decode(this);
+            return c;
+        }
+
+        private int length() throws IOException {
+            int len = readVarInt();
+            if (len < 0 || len > end - pos)
+                throw new EOFException();
+            return len;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Enum<?> enumValue (Class<?> type, String name) {
+        return Enum.valueOf((Class<? extends Enum>) type.asSubclass(Enum.class), name);
+    }
+
+    /**
+     * Loads a class using the thread context class loader, falling back to the one that loaded jPOS
+     */
+    static Class<?> loadClass (String name) throws ClassNotFoundException {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl != null) {
+            try {
+                return Class.forName(name, false, cl);
+            } catch (ClassNotFoundException ignored) { }
+        }
+        return Class.forName(name, false, BinaryCodec.class.getClassLoader());
+    }
+}
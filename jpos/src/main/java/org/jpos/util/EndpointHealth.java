@@ -0,0 +1,173 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of outstanding requests, exponentially weighted moving
+ * average latency and consecutive failures of a pooled endpoint
+ * (a MUX, a channel).
+ * <p>
+ * After <code>ejectFailures</code> consecutive failures the endpoint is
+ * ejected for <code>ejectTime</code> milliseconds. Once that time is up,
+ * a single caller is allowed to probe it (see {@link #tryProbe(long)});
+ * a successful probe brings the endpoint back, a failed one ejects it again.
+ * The probe belongs to the thread that claimed it, so only that thread can
+ * {@link #cancel()} it.
+ */
+public class EndpointHealth implements Loggeable {
+    private final String name;
+    private final double alpha;
+    private final int ejectFailures;
+    private final long ejectTime;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong ewma = new AtomicLong(Double.doubleToLongBits(0D));
+    private final AtomicReference<Thread> prober = new AtomicReference<>();
+    private volatile long ejectedUntil;
+
+    public EndpointHealth (String name) {
+        this (name, 0.2D, 3, 30000L);
+    }
+
+    /**
+     * @param name endpoint name
+     * @param alpha EWMA smoothing factor (0 &lt; alpha &lt;= 1)
+     * @param ejectFailures consecutive failures that eject the endpoint (0 disables ejection)
+     * @param ejectTime time (in millis) an endpoint stays ejected before it gets probed
+     */
+    public EndpointHealth (String name, double alpha, int ejectFailures, long ejectTime) {
+        if (alpha <= 0D || alpha > 1D)
+            throw new IllegalArgumentException ("invalid alpha " + alpha);
+        this.name = name;
+        this.alpha = alpha;
+        this.ejectFailures = ejectFailures;
+        this.ejectTime = ejectTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param now current time in millis
+     * @return true if ejected and either not yet due for a probe, or already being probed
+     */
+    public boolean isEjected (long now) {
+        long until = ejectedUntil;
+        return until != 0L && (now < until || prober.get() != null);
+    }
+
+    /**
+     * Claims the probe of an ejected endpoint whose eject time is up.
+     * Only one caller gets to probe it at a time; the probe is owned by the
+     * calling thread until the request completes or the thread cancels it.
+     *
+     * @param now current time in millis
+     * @return true if the caller should send the probe request
+     */
+    public boolean tryProbe (long now) {
+        long until = ejectedUntil;
+        return until != 0L && now >= until && prober.compareAndSet(null, Thread.currentThread());
+    }
+
+    /**
+     * Releases a probe claimed with {@link #tryProbe(long)} that was not sent.
+     * Does nothing unless the probe was claimed by the calling thread, so a
+     * caller that was handed a healthy endpoint can call it unconditionally.
+     */
+    public void cancel() {
+        prober.compareAndSet(Thread.currentThread(), null);
+    }
+
+    /**
+     * Starts tracking a request
+     */
+    public void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Completes a request started with {@link #begin()}
+     * @param elapsed request latency in millis
+     */
+    public void success (long elapsed) {
+        outstanding.decrementAndGet();
+        update (elapsed);
+        failures.set(0);
+        ejectedUntil = 0L;
+        prober.set(null);
+    }
+
+    /**
+     * Completes a request started with {@link #begin()} that timed out or failed.
+     * @param elapsed time (in millis) spent until the failure was detected
+     */
+    public void failure (long elapsed) {
+        outstanding.decrementAndGet();
+        update (elapsed);
+        if (ejectFailures > 0 && failures.incrementAndGet() >= ejectFailures) {
+            ejectedUntil = System.currentTimeMillis() + ejectTime;
+            prober.set(null);
+        }
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public double getLatency() {
+        return Double.longBitsToDouble(ewma.get());
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    private void update (long elapsed) {
+        for (;;) {
+            long bits = ewma.get();
+            double current = Double.longBitsToDouble(bits);
+            double next = current == 0D ? elapsed : current + alpha * (elapsed - current);
+            if (ewma.compareAndSet(bits, Double.doubleToLongBits(next)))
+                break;
+        }
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        p.printf ("%s<endpoint name=\"%s\" outstanding=\"%d\" latency=\"%.2f\" failures=\"%d\"%s/>%n",
+          indent, name, getOutstanding(), getLatency(), getFailures(),
+          isEjected(System.currentTimeMillis()) ? " ejected=\"true\"" : "");
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointHealth{" +
+          "name='" + name + '\'' +
+          ", outstanding=" + getOutstanding() +
+          ", latency=" + getLatency() +
+          ", failures=" + getFailures() +
+          '}';
+    }
+}
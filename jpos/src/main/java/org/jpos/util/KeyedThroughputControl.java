@@ -0,0 +1,98 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-key {@link ThroughputControl}, i.e. per terminal id or per BIN.
+ * <p>
+ * Every key gets its own limits. Once more than <code>maxKeys</code> keys are
+ * tracked, keys whose periods have all expired (and would therefore behave
+ * like a brand new ThroughputControl) are dropped.
+ */
+public class KeyedThroughputControl {
+    private final int[] maxTransactions;
+    private final int[] periodInMillis;
+    private final int maxKeys;
+    private final Map<Object,ThroughputControl> controls = new ConcurrentHashMap<>();
+
+    public KeyedThroughputControl (int maxTransactions, int periodInMillis) {
+        this (new int[] { maxTransactions }, new int[] { periodInMillis }, 10000);
+    }
+
+    /**
+     * @param maxTransactions per key
+     * @param periodInMillis ditto
+     * @param maxKeys number of keys tracked before idle ones are purged
+     */
+    public KeyedThroughputControl (int[] maxTransactions, int[] periodInMillis, int maxKeys) {
+        this.maxTransactions = maxTransactions.clone();
+        this.periodInMillis = periodInMillis.clone();
+        this.maxKeys = maxKeys;
+    }
+
+    public ThroughputControl get (Object key) {
+        ThroughputControl tc = controls.get (key);
+        if (tc == null) {
+            if (controls.size() >= maxKeys)
+                purge();
+            tc = controls.computeIfAbsent (key, k -> new ThroughputControl (maxTransactions, periodInMillis));
+        }
+        return tc;
+    }
+
+    /**
+     * @param key ditto
+     * @return aprox sleep time or zero if no sleep
+     * @see ThroughputControl#control()
+     */
+    public long control (Object key) {
+        return get (key).control();
+    }
+
+    /**
+     * @param key ditto
+     * @return true if the transaction can proceed now
+     * @see ThroughputControl#tryAcquire()
+     */
+    public boolean tryAcquire (Object key) {
+        return get (key).tryAcquire();
+    }
+
+    /**
+     * @param key ditto
+     * @return future completed once the transaction can proceed
+     * @see ThroughputControl#acquireAsync()
+     */
+    public CompletableFuture<Long> acquireAsync (Object key) {
+        return get (key).acquireAsync();
+    }
+
+    public int size() {
+        return controls.size();
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        controls.values().removeIf (tc -> tc.isIdle (now));
+    }
+}
@@ -19,59 +19,92 @@
 package org.jpos.util;
 
 import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 
 import java.io.*;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
+/**
+ * Named latency histograms.
+ * <p>
+ * Values are recorded through HdrHistogram {@link Recorder}s, so
+ * {@link #record(String, long)} is wait-free and never contends with
+ * readers. Readers move the values recorded so far into cumulative
+ * histograms before taking their snapshot. {@link #rollover()} closes the
+ * current interval, whose histograms are available through
+ * {@link #intervals()}.
+ */
 public class Metrics implements Loggeable {
-    private Histogram template;
-    private Map<String,Histogram> metrics = new ConcurrentHashMap<>();
+    private final Histogram template;
+    private final Map<String,Metric> metrics = new ConcurrentHashMap<>();
 
     public Metrics(Histogram template) {
         super();
         this.template = template;
     }
 
+    /**
+     * @return copies of the cumulative histograms, sorted by name
+     */
     public Map<String,Histogram> metrics() {
-        return metrics.entrySet()
-          .stream()
-          .sorted(Map.Entry.comparingByKey())
-          .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().copy()));
+        return metrics ("");
     }
 
+    /**
+     * @param prefix name prefix
+     * @return copies of the cumulative histograms whose name starts with prefix, sorted by name
+     */
     public Map<String,Histogram> metrics (String prefix) {
-        return metrics.entrySet()
+        Map<String,Histogram> m = new LinkedHashMap<>();
+        metrics.entrySet()
           .stream()
           .filter(e -> e.getKey().startsWith(prefix))
           .sorted(Map.Entry.comparingByKey())
-          .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().copy()));
+          .forEach(e -> m.put(e.getKey(), e.getValue().total()));
+        return m;
+    }
+
+    /**
+     * @return copies of the histograms covering the interval between the last two
+     * {@link #rollover()} calls, sorted by name
+     */
+    public Map<String,Histogram> intervals() {
+        Map<String,Histogram> m = new LinkedHashMap<>();
+        metrics.entrySet()
+          .stream()
+          .sorted(Map.Entry.comparingByKey())
+          .forEach(e -> m.put(e.getKey(), e.getValue().interval()));
+        return m;
     }
 
     public void record(String name, long elapsed) {
-        Histogram h = getHistogram(name);
-        long l = Math.min(elapsed, h.getHighestTrackableValue());
+        Metric m = getMetric(name);
+        long l = Math.min(elapsed, m.highestTrackableValue);
         if (l > 0)
-            h.recordValue(l);
+            m.recorder.recordValue(l);
+    }
+
+    /**
+     * Closes the current interval, adding the values recorded so far
+     * to the cumulative histograms.
+     */
+    public void rollover() {
+        metrics.values().forEach(Metric::rollover);
     }
 
-    private Histogram getHistogram (String p) {
-        Histogram h = metrics.get(p);
-        if (h == null) {
-            Histogram hist = new Histogram(template);
-            hist.setTag(p);
-            metrics.putIfAbsent(p, hist);
-            h = metrics.get(p);
+    private Metric getMetric (String p) {
+        Metric m = metrics.get(p);
+        if (m == null) {
+            metrics.putIfAbsent(p, new Metric(template, p));
+            m = metrics.get(p);
         }
-        return h;
+        return m;
     }
 
     public void dump (PrintStream ps, String indent) {
-        metrics.entrySet()
-          .stream()
-          .sorted(Map.Entry.comparingByKey())
-          .forEach(e -> dumpPercentiles (ps, indent, e.getKey(), e.getValue().copy()));
+        metrics().forEach((key, h) -> dumpPercentiles (ps, indent, key, h));
     }
 
     private void dumpPercentiles (PrintStream ps, String indent, String key, Histogram h) {
@@ -100,9 +133,56 @@ public class Metrics implements Loggeable {
     }
 
     public void dumpHistograms (File dir, String prefix) {
-        metrics.entrySet()
-          .stream()
-          .sorted(Map.Entry.comparingByKey())
-          .forEach(e -> dumpHistogram (dir, prefix + e.getKey(), e.getValue().copy()));
+        metrics().forEach((key, h) -> dumpHistogram (dir, prefix + key, h));
+    }
+
+    private static class Metric {
+        final long highestTrackableValue;
+        final Recorder recorder;
+        final Histogram total;
+        Histogram current;
+        Histogram interval;
+        Histogram recycle;
+
+        Metric (Histogram template, String tag) {
+            highestTrackableValue = template.getHighestTrackableValue();
+            recorder = new Recorder(
+              template.getLowestDiscernibleValue(),
+              highestTrackableValue,
+              template.getNumberOfSignificantValueDigits()
+            );
+            total = new Histogram(template);
+            current = new Histogram(template);
+            interval = new Histogram(template);
+            total.setTag(tag);
+            current.setTag(tag);
+            interval.setTag(tag);
+        }
+
+        /**
+         * Moves the values recorded so far into the total and current interval histograms
+         */
+        private void sample() {
+            recycle = recorder.getIntervalHistogram(recycle);
+            total.add(recycle);
+            current.add(recycle);
+        }
+
+        synchronized void rollover() {
+            sample();
+            Histogram h = interval;
+            interval = current;
+            current = h;
+            current.reset();
+        }
+
+        synchronized Histogram total() {
+            sample();
+            return total.copy();
+        }
+
+        synchronized Histogram interval() {
+            return interval.copy();
+        }
     }
 }
@@ -25,16 +25,33 @@ import java.util.Map;
 import java.util.Set;
 
 public class Serializer {
+    /**
+     * Use {@link BinaryCodec} instead of Java serialization in {@link #serialize(Object)}
+     * (<code>jpos.serializer.binary</code> system property). Peers and stores reading
+     * the data must be able to {@link #deserialize(byte[])} it.
+     */
+    private static final boolean BINARY = Boolean.getBoolean("jpos.serializer.binary");
+
+    /**
+     * @param obj object to serialize
+     * @return obj Java serialized, or encoded using {@link BinaryCodec} if
+     * <code>jpos.serializer.binary</code> is set
+     * @throws IOException if obj can't be serialized
+     */
     public static byte[] serialize (Object obj) throws IOException {
+        if (BINARY)
+            return BinaryCodec.encode(obj);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ObjectOutputStream os = new ObjectOutputStream(baos);
         os.writeObject(obj);
         return baos.toByteArray();
     }
+    /**
+     * @param b data produced by {@link #serialize(Object)}, Java serialized or {@link BinaryCodec} encoded
+     * @return deserialized object
+     */
     public static Object deserialize (byte[] b) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(b);
-        ObjectInputStream is = new ObjectInputStream(bais);
-        return is.readObject();
+        return BinaryCodec.decode(b);
     }
     @SuppressWarnings("unchecked")
     public static <T> T deserialize (byte[] b, Class<T> clazz) throws IOException, ClassNotFoundException {
@@ -18,17 +18,27 @@
 
 package org.jpos.util;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * ThroughputControl can be used to limit the throughput 
  * of a system to a maximum number of transactions in 
  * a given period of time.
+ * <p>
+ * Every call reserves an admission time, atomically across all
+ * configured periods: the current time if every period still has room,
+ * otherwise the beginning of the next period of the most constrained one.
+ * No locks are held; {@link #control()} waits for its slot,
+ * {@link #tryAcquire()} only takes it if available right away and
+ * {@link #acquireAsync()} returns a future completed at admission time.
  */
 public class ThroughputControl {
-    private int[] period;
-    private int[] max;
-    private int[] cnt;
-    private long[] start;
-    private long[] sleep;
+    private final int[] period;
+    private final int[] max;
+    private final AtomicReference<long[]> windows; // start and count of current window, per period
 
     /**
      * @param maxTransactions ditto
@@ -47,15 +57,14 @@ public class ThroughputControl {
         int l = maxTransactions.length;
         period = new int[l];
         max = new int[l];
-        cnt = new int[l];
-        start = new long[l];
-        sleep = new long[l];
+        long[] w = new long[l << 1];
+        long now = System.currentTimeMillis();
         for (int i=0; i<l; i++) {
             this.max[i]    = maxTransactions[i];
             this.period[i] = periodInMillis[i];
-            this.sleep[i]  = Math.min(Math.max (periodInMillis[i]/10, 500L),50L);
-            this.start[i]  = System.currentTimeMillis();
+            w[i << 1]      = now;
         }
+        windows = new AtomicReference<>(w);
     }
 
     /**
@@ -65,31 +74,112 @@ public class ThroughputControl {
      * @return aprox sleep time or zero if no sleep
      */
     public long control() {
-        boolean delayed = false;
         long init = System.currentTimeMillis();
-        for (int i=0; i<cnt.length; i++) {
-            synchronized (this) {
-                cnt[i]++;
+        long at = reserve (init, true);
+        if (at <= init)
+            return 0L;
+        boolean interrupted = false;
+        long delay;
+        while ((delay = at - System.currentTimeMillis()) > 0L) {
+            try {
+                Thread.sleep (delay);
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
-            do {
-                if (cnt[i] > max[i]) {
-                    delayed = true;
-                    try { 
-                        Thread.sleep (sleep[i]); 
-                    } catch (InterruptedException e) { }
-                }
-                synchronized (this) {
-                    long now = System.currentTimeMillis();
-                    if (now - start[i] > period[i]) {
-                        long elapsed = now - start[i];
-                        int  allowed = (int) (elapsed * max[i] / period[i]);
-                        start[i] = now;
-                        cnt[i] = Math.max (cnt[i] - allowed, 0);
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return System.currentTimeMillis() - init;
+    }
+
+    /**
+     * Non blocking version of {@link #control()}
+     * @return true if the transaction can proceed now, false if it would have to wait
+     */
+    public boolean tryAcquire() {
+        long now = System.currentTimeMillis();
+        return reserve (now, false) == now;
+    }
+
+    /**
+     * Reserves an admission time without blocking the caller.
+     *
+     * @param executor used to complete delayed admissions
+     * @return future completed with the delay (in millis) once the transaction can proceed
+     */
+    public CompletableFuture<Long> acquireAsync (ScheduledExecutorService executor) {
+        long now = System.currentTimeMillis();
+        long delay = reserve (now, true) - now;
+        if (delay <= 0L)
+            return CompletableFuture.completedFuture (0L);
+        CompletableFuture<Long> f = new CompletableFuture<>();
+        executor.schedule (() -> f.complete (delay), delay, TimeUnit.MILLISECONDS);
+        return f;
+    }
+
+    /**
+     * {@link #acquireAsync(ScheduledExecutorService)} using a shared daemon scheduler
+     * @return future completed with the delay (in millis) once the transaction can proceed
+     */
+    public CompletableFuture<Long> acquireAsync() {
+        return acquireAsync (Scheduler.INSTANCE);
+    }
+
+    /**
+     * @param now current time in millis
+     * @return true if every period has expired, i.e. this instance is as good as a new one
+     */
+    public boolean isIdle (long now) {
+        long[] w = windows.get();
+        for (int i=0; i<max.length; i++)
+            if (now - w[i << 1] <= period[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @param now current time
+     * @param wait false to give up (and return a time after now) if the transaction can't proceed right away
+     * @return admission time
+     */
+    private long reserve (long now, boolean wait) {
+        for (;;) {
+            long[] w = windows.get();
+            long at = now;
+            for (boolean moved = true; moved; ) {
+                moved = false;
+                for (int i=0; i<max.length; i++) {
+                    long start = w[i << 1];
+                    // a window starting after 'at' was reserved by a waiting caller,
+                    // the one before it is full, so 'at' can't be earlier than start
+                    long next = Math.max (at, start);
+                    if (next - start <= period[i] && w[(i << 1) + 1] >= max[i])
+                        next = start + period[i] + 1;
+                    if (next != at) {
+                        at = next;
+                        moved = true; // re-check the periods already seen against the new time
                     }
                 }
-            } while (cnt[i] > max[i]);
+            }
+            if (at > now && !wait)
+                return at;
+            long[] n = new long[w.length];
+            for (int i=0; i<max.length; i++) {
+                int j = i << 1;
+                if (at - w[j] > period[i]) {
+                    n[j] = at;            // period expired, start a new one
+                    n[j+1] = 1;
+                } else {
+                    n[j] = w[j];
+                    n[j+1] = w[j+1] + 1;
+                }
+            }
+            if (windows.compareAndSet (w, n))
+                return at;
         }
-        return delayed ? System.currentTimeMillis() - init : 0L;
     }
-}
 
+    private static class Scheduler {
+        static final ScheduledExecutorService INSTANCE = ConcurrentUtil.newScheduledThreadPoolExecutor();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.bsh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BSHScriptTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testVariablesDoNotLeakBetweenExecutions() throws Exception {
+        BSHScript script = BSHScript.forText("leak", "if (counter == void) counter = 0; counter++; return counter;");
+        for (int i=0; i<3; i++) {
+            Object[] seen = new Object[1];
+            Object ret = script.execute(bsh -> bsh.set("arg", "x"), bsh -> seen[0] = bsh.get("arg"));
+            assertEquals(1, ret);
+            assertEquals("x", seen[0]);
+        }
+        script.execute(null, bsh -> assertNull(bsh.get("arg")));
+    }
+
+    @Test
+    public void testGlobalVariablesDoNotLeakBetweenExecutions() throws Exception {
+        BSHScript script = BSHScript.forText("global-leak",
+          "if (global.counter == void) global.counter = 0; global.counter++; return global.counter;");
+        for (int i=0; i<3; i++)
+            assertEquals(1, script.execute(null));
+    }
+
+    @Test
+    public void testFileIsReloadedWhenModified() throws Exception {
+        File f = new File(dir.toFile(), "script.bsh");
+        Files.write(f.toPath(), "return \"one\";".getBytes());
+        BSHScript script = BSHScript.forFile(f.getPath());
+        assertEquals("one", script.execute(null));
+
+        Files.write(f.toPath(), "return \"two\";".getBytes());
+        f.setLastModified(f.lastModified() + 10000L);
+        assertEquals("one", script.execute(null)); // within check interval
+        script.reset();
+        assertEquals("two", script.execute(null));
+        assertTrue(BSHScript.getMetrics().metrics().containsKey(f.getPath()));
+    }
+
+    @Test
+    public void testMissingFile() {
+        BSHScript script = BSHScript.forFile(new File(dir.toFile(), "missing.bsh").getPath());
+        assertThrows(FileNotFoundException.class, () -> script.execute(null));
+    }
+
+    @Test
+    public void testConcurrentExecutions() throws Exception {
+        BSHScript script = BSHScript.forText("concurrent", "return a + b;");
+        Thread[] threads = new Thread[8];
+        Throwable[] error = new Throwable[1];
+        for (int t=0; t<threads.length; t++) {
+            int base = t * 1000;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i=0; i<200; i++) {
+                        int n = base + i;
+                        Object r = script.execute(bsh -> { bsh.set("a", n); bsh.set("b", 1); });
+                        if (!Integer.valueOf(n + 1).equals(r))
+                            throw new AssertionError("unexpected " + r + " for " + n);
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(error[0]);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.jpos.iso.validator.ISOVException;
+import org.junit.jupiter.api.Test;
+
+public class FieldRuleTest {
+    @Test
+    public void testCharClassMatchesRegex() {
+        Pattern word = Pattern.compile("[\\w\\s|]*");
+        CharClass cc = CharClass.parse("[\\w\\s|]");
+        for (char c=0; c<512; c++) {
+            String s = Character.toString(c);
+            assertEquals(word.matcher(s).matches(), cc.matches(s), "char " + (int) c);
+        }
+        assertTrue(CharClass.parse("A-Fx").matches("ABFx"));
+        assertFalse(CharClass.parse("A-Fx").matches("G"));
+    }
+
+    @Test
+    public void testCharClassMatchesLegacyChecks() {
+        CharClass hex = CharClass.radix(16);
+        for (char c=0; c<1024; c++) {
+            String s = Character.toString(c);
+            boolean alnum = Character.isLetterOrDigit(c) || " .-_?".indexOf(c) >= 0;
+            assertEquals(alnum, CharClass.ALPHANUMERIC.matches(s), "char " + (int) c);
+            assertEquals(ISOUtil.isNumeric(s, 16), hex.matches(s), "char " + (int) c);
+        }
+        assertTrue(CharClass.HEX.matches("0123456789abcdefABCDEF".getBytes(), 0, 22));
+    }
+
+    @Test
+    public void testParse() {
+        FieldRule r = FieldRule.parse("n6");
+        assertTrue(r.isValid("123456"));
+        assertEquals("length 5 not in [6, 6], invalid character at position 2", r.check("12a45"));
+
+        r = FieldRule.parse("ans..10");
+        assertTrue(r.isValid(""));
+        assertTrue(r.isValid("abc 12-#"));
+        assertFalse(r.isValid("abcdefghijk"));
+        assertFalse(r.isValid("é"));
+
+        r = FieldRule.parse("[A-Z0-9 ]1..3 /^[A-Z].*$/");
+        assertTrue(r.isValid("A1"));
+        assertEquals("does not match ^[A-Z].*$", r.check("1A"));
+        assertFalse(r.isValid(""));
+
+        assertTrue(FieldRule.parse("x..3").isValid("éè"));
+        assertThrows(IllegalArgumentException.class, () -> FieldRule.parse("q6"));
+        assertThrows(IllegalArgumentException.class, () -> FieldRule.parse("n"));
+        assertThrows(IllegalArgumentException.class, () -> FieldRule.parse("n9..3"));
+    }
+
+    @Test
+    public void testValidator() throws ISOException {
+        IVA_RULE v = new IVA_RULE("an1..8", "TID");
+        ISOComponent c = v.validate(new ISOField(41, "TERM0001"));
+        assertFalse(c instanceof ISOVField);
+
+        c = v.validate(new ISOField(41, "TERM-0001"));
+        assertTrue(c instanceof ISOVField);
+        assertEquals(2, count((ISOVField) c));
+
+        IVA_RULE strict = new IVA_RULE(true, "an1..8", "TID");
+        assertThrows(ISOVException.class, () -> strict.validate(new ISOField(41, "T-1")));
+        assertNull(new IVA_RULE("an1..8", "TID").getRejCode(ISOVError.ERR_INVALID_VALUE));
+    }
+
+    private int count (ISOVField f) {
+        int n = 0;
+        for (java.util.Iterator<?> it = f.errorListIterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+}
@@ -23,6 +23,9 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.mock;
 
+import java.io.ByteArrayOutputStream;
+
+import org.jpos.iso.packager.ISO87APackager;
 import org.jpos.util.Logger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -86,4 +89,66 @@ public class ISOBasePackagerTest {
         assertThat(iSOBasePackager.getFieldPackager(0), is(iSOFieldPackager));
     }
 
+    @Test
+    public void testPackGrowsBuffer() throws Exception {
+        ISO87APackager p = new ISO87APackager();
+        ISOMsg m = new ISOMsg("0200");
+        m.set(2, "4111111111111111");
+        m.set(11, "000001");
+        m.set(48, ISOUtil.padleft("", 999, 'A'));
+        m.set(62, ISOUtil.padleft("", 999, 'B'));
+        m.set(63, ISOUtil.padleft("", 999, 'C'));
+        m.setPackager(p);
+        m.recalcBitMap();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(p.getFieldPackager(0).pack(m.getComponent(0)));
+        expected.write(p.getFieldPackager(1).pack(m.getComponent(-1)));
+        for (int i : new int[] { 2, 11, 48, 62, 63 })
+            expected.write(p.getFieldPackager(i).pack(m.getComponent(i)));
+
+        assertThat(m.pack(), is(expected.toByteArray()));
+        ISOMsg u = new ISOMsg();
+        u.setPackager(p);
+        u.unpack(expected.toByteArray());
+        assertThat(u.getString(63), is(m.getString(63)));
+        assertThat(m.pack(), is(expected.toByteArray())); // reusing the pooled buffer
+    }
+
+    @Test
+    public void testCompositeFieldIsPackedOnce() throws Exception {
+        int[] packs = new int[1];
+        ISOFieldPackager big = new ISOFieldPackager(2000, "BIG") {
+            @Override
+            public byte[] pack(ISOComponent c) throws ISOException {
+                packs[0]++;
+                return ISOUtil.padleft("", getLength(), 'X').getBytes(ISOUtil.CHARSET);
+            }
+            @Override
+            public int unpack(ISOComponent c, byte[] b, int offset) throws ISOException {
+                c.setValue(new String(b, offset, getLength(), ISOUtil.CHARSET));
+                return getLength();
+            }
+            @Override
+            public int getMaxPackedLength() {
+                return getLength();
+            }
+        };
+        ISOBasePackager p = new ISOBasePackager() { };
+        p.setFieldPackager(new ISOFieldPackager[] {
+            new IFA_NUMERIC(4, "MTI"), new IFA_BITMAP(16, "BITMAP"), big
+        });
+        ISOMsg m = new ISOMsg("0200");
+        m.set(2, "ignored");
+        m.setPackager(p);
+        byte[] b = m.pack();
+        assertThat(packs[0], is(1));
+        assertThat(b.length, is(4 + 16 + 2000));
+
+        ISOMsg u = new ISOMsg();
+        u.setPackager(p);
+        assertThat(u.unpack(b), is(b.length));
+        assertThat(u.getString(2).length(), is(2000));
+    }
+
 }
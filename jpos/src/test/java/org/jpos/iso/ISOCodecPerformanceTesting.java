@@ -0,0 +1,119 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the {@link ISOCodec} kernels against the byte-at-a-time
+ * implementations ISOUtil used to have, for typical field and dump sizes.
+ *
+ * <pre>
+ * java -cp ... org.jpos.iso.ISOCodecPerformanceTesting [iterations]
+ * </pre>
+ */
+public class ISOCodecPerformanceTesting
+{
+    private static final int[] SIZES = { 16, 64, 128, 256, 512 };
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception
+    {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Random r = new Random(8583);
+        for (int size : SIZES) {
+            byte[] b = new byte[size];
+            r.nextBytes(b);
+            byte[] hex = ISOUtil.hexString(b).getBytes(ISOUtil.CHARSET);
+            String ascii = new String(b, ISOUtil.CHARSET);
+            byte[] ebcdic = ISOUtil.asciiToEbcdic(ascii);
+            String digits = ISOUtil.getRandomDigits(r, size, 10);
+            byte[] bcd = ISOUtil.str2bcd(digits, false);
+
+            System.out.printf("--- %d bytes ---%n", size);
+            compare("hexString", iterations,
+              () -> legacyHexString(b), () -> ISOUtil.hexString(b));
+            compare("hex2byte", iterations,
+              () -> legacyHex2byte(hex, 0, size), () -> ISOUtil.hex2byte(hex, 0, size));
+            compare("str2bcd", iterations,
+              () -> legacyStr2bcd(digits, false, new byte[size+1 >> 1], 0), () -> ISOUtil.str2bcd(digits, false));
+            compare("bcd2str", iterations,
+              () -> legacyBcd2str(bcd, 0, size, false), () -> ISOUtil.bcd2str(bcd, 0, size, false));
+            compare("asciiToEbcdic", iterations,
+              () -> ISOUtil.EBCDIC.encode(ascii).array(), () -> ISOUtil.asciiToEbcdic(ascii));
+            compare("ebcdicToAscii", iterations,
+              () -> ISOUtil.EBCDIC.decode(ByteBuffer.wrap(ebcdic)).toString(), () -> ISOUtil.ebcdicToAscii(ebcdic));
+        }
+    }
+
+    private static void compare (String name, int iterations, Supplier<Object> legacy, Supplier<Object> kernel) {
+        run(legacy, iterations); // warm up
+        run(kernel, iterations);
+        long l = run(legacy, iterations);
+        long k = run(kernel, iterations);
+        System.out.printf("%-14s legacy %6d ns/op  kernel %6d ns/op  %5.2fx%n",
+          name, l / iterations, k / iterations, (double) l / k);
+    }
+
+    private static long run (Supplier<Object> s, int iterations) {
+        long start = System.nanoTime();
+        for (int i=0; i<iterations; i++)
+            sink = s.get();
+        return Math.max(1L, System.nanoTime() - start);
+    }
+
+    private static String legacyHexString(byte[] b) {
+        StringBuilder d = new StringBuilder(b.length * 2);
+        for (byte aB : b)
+            d.append(ISOUtil.hexStrings[(int) aB & 0xFF]);
+        return d.toString();
+    }
+
+    private static byte[] legacyHex2byte (byte[] b, int offset, int len) {
+        byte[] d = new byte[len];
+        for (int i=0; i<len*2; i++) {
+            int shift = i%2 == 1 ? 0 : 4;
+            d[i>>1] |= Character.digit((char) b[offset+i], 16) << shift;
+        }
+        return d;
+    }
+
+    private static byte[] legacyStr2bcd(String s, boolean padLeft, byte[] d, int offset) {
+        int len = s.length();
+        int start = (len & 1) == 1 && padLeft ? 1 : 0;
+        for (int i=start; i < len+start; i++)
+            d [offset + (i >> 1)] |= s.charAt(i-start)-'0' << ((i & 1) == 1 ? 0 : 4);
+        return d;
+    }
+
+    private static String legacyBcd2str(byte[] b, int offset, int len, boolean padLeft) {
+        StringBuilder d = new StringBuilder(len);
+        int start = (len & 1) == 1 && padLeft ? 1 : 0;
+        for (int i=start; i < len+start; i++) {
+            int shift = (i & 1) == 1 ? 0 : 4;
+            char c = Character.forDigit (b[offset+ (i>>1)] >> shift & 0x0F, 16);
+            if (c == 'd')
+                c = '=';
+            d.append (Character.toUpperCase (c));
+        }
+        return d.toString();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class ISOCodecTest {
+    private static final String ALL_LATIN1;
+    static {
+        StringBuilder sb = new StringBuilder(256);
+        for (int i=0; i<256; i++)
+            sb.append((char) i);
+        ALL_LATIN1 = sb.toString();
+    }
+
+    @Test
+    public void testEbcdicMatchesCharset() {
+        ByteBuffer b = ByteBuffer.allocate(256);
+        ISOCodec.putEbcdic(ALL_LATIN1, b);
+        assertArrayEquals(ISOUtil.asciiToEbcdic(ALL_LATIN1), b.array());
+        b.flip();
+        assertEquals(ALL_LATIN1, ISOCodec.getEbcdic(b, 256));
+        assertEquals(0, b.remaining());
+    }
+
+    @Test
+    public void testEbcdicDirectBuffer() {
+        ByteBuffer b = ByteBuffer.allocateDirect(256);
+        ISOCodec.putEbcdic(ALL_LATIN1, b);
+        b.flip();
+        assertEquals(ALL_LATIN1, ISOCodec.getEbcdic(b, 256));
+    }
+
+    @Test
+    public void testAscii() {
+        ByteBuffer b = ByteBuffer.allocate(257);
+        ISOCodec.putAscii(ALL_LATIN1 + "€", b);
+        b.flip();
+        assertEquals(ALL_LATIN1 + "?", ISOCodec.getAscii(b, 257));
+    }
+
+    @Test
+    public void testBCD() {
+        for (String s : new String[] { "", "1", "12", "123", "1234567890123", "4111111111111111=2212" }) {
+            for (boolean padLeft : new boolean[] { true, false }) {
+                ByteBuffer b = ByteBuffer.allocate(16);
+                ISOCodec.putBCD(s, padLeft, 0, b);
+                byte[] expected = ISOUtil.str2bcd(s, padLeft);
+                assertArrayEquals(expected, Arrays.copyOf(b.array(), b.position()), s);
+                b.flip();
+                assertEquals(ISOUtil.bcd2str(expected, 0, s.length(), padLeft), ISOCodec.getBCD(b, s.length(), padLeft));
+            }
+        }
+    }
+
+    @Test
+    public void testBCDFPadded() {
+        ByteBuffer b = ByteBuffer.allocate(2);
+        ISOCodec.putBCD("123", false, 0x0F, b);
+        assertArrayEquals(ISOUtil.hex2byte("123F"), b.array());
+        b.clear();
+        ISOCodec.putBCD("123", true, 0x0F, b);
+        assertArrayEquals(ISOUtil.hex2byte("F123"), b.array());
+    }
+
+    @Test
+    public void testHexBytes() {
+        byte[] data = ISOUtil.hex2byte("00FF7F80A5C3");
+        ByteBuffer b = ByteBuffer.allocate(data.length * 2);
+        ISOCodec.putHexBytes(data, "0123456789ABCDEF".getBytes(), b);
+        assertEquals("00FF7F80A5C3", new String(b.array()));
+        b.flip();
+        assertArrayEquals(data, ISOCodec.getHexBytes(b, data.length, false));
+    }
+
+    @Test
+    public void testUnderflow() {
+        ByteBuffer b = ByteBuffer.allocate(2);
+        assertThrows(IndexOutOfBoundsException.class, () -> ISOCodec.getAscii(b, 3));
+    }
+
+    @Test
+    public void testFieldPackagersMatchByteArrayImplementation() throws ISOException {
+        ISOFieldPackager[] packagers = {
+          new IFA_NUMERIC(6, "n"),
+          new IFA_LLNUM(19, "n..19"),
+          new IFA_LLLCHAR(999, "ans..999"),
+          new IF_CHAR(10, "ans10"),
+          new IFB_NUMERIC(6, "n", true),
+          new IFB_NUMERIC(5, "n", false),
+          new IFB_LLNUM(19, "n..19", false),
+          new IFB_LLHNUM(19, "n..19", true),
+          new IFB_LLLCHAR(999, "ans..999"),
+          new IFB_LLHECHAR(99, "ans..99"),
+          new IFE_NUMERIC(6, "n"),
+          new IFE_LLCHAR(99, "ans..99"),
+          new IFE_LLLNUM(9, "n..9"),
+          new IFB_LLHEX(20, "hex"),
+        };
+        String[] values = { "123", "4111111111111111", "jPOSé", "abc", "1234", "12345", "12345", "123", "xyz", "abc", "42", "EBCDIC", "99", "1A2B3" };
+        for (int i=0; i<packagers.length; i++)
+            assertSamePacking(packagers[i], new ISOField(2, values[i]));
+    }
+
+    @Test
+    public void testBinaryFieldPackagersMatchByteArrayImplementation() throws ISOException {
+        byte[] data = ISOUtil.hex2byte("0102A0B0C0D0E0F0");
+        ISOFieldPackager[] packagers = {
+          new IFA_BINARY(8, "b"),
+          new IFA_LLBINARY(99, "b..99"),
+          new IFB_BINARY(8, "b"),
+          new IFB_LLLBINARY(999, "b..999"),
+          new IFE_LLLBINARY(999, "b..999"),
+          new IFE_BINARY(8, "b"),
+        };
+        for (ISOFieldPackager p : packagers)
+            assertSamePacking(p, new ISOBinaryField(52, data));
+    }
+
+    @Test
+    public void testPackTooLongLeavesPositionUntouched() {
+        ByteBuffer b = ByteBuffer.allocate(16);
+        b.put((byte) 1);
+        assertThrows(ISOException.class, () -> new IFA_LLNUM(2, "n..2").packInto(new ISOField(2, "123"), b));
+        assertEquals(1, b.position());
+    }
+
+    @Test
+    public void testByteArrayKernels() {
+        Random r = new Random(8583);
+        for (int len : new int[] { 0, 1, 2, 3, 7, 8, 16, 33, 512 }) {
+            byte[] b = new byte[len];
+            r.nextBytes(b);
+            StringBuilder hex = new StringBuilder();
+            for (byte d : b)
+                hex.append(String.format("%02X", d & 0xFF));
+            assertEquals(hex.toString(), ISOCodec.hexString(b, 0, len));
+            assertArrayEquals(b, ISOCodec.hex2byte(hex));
+            assertArrayEquals(b, ISOCodec.hex2byte(hex.toString().toLowerCase().getBytes(), 0, len));
+
+            String ascii = new String(b, ISOUtil.CHARSET);
+            byte[] ebcdic = ISOUtil.EBCDIC.encode(ascii).array();
+            assertArrayEquals(ebcdic, ISOCodec.asciiToEbcdic(ascii));
+            assertEquals(ascii, ISOCodec.ebcdicToAscii(ebcdic, 0, len));
+            assertArrayEquals(b, ISOCodec.ebcdicToAsciiBytes(ebcdic, 0, len));
+
+            String digits = ISOUtil.getRandomDigits(r, len, 10);
+            for (boolean padLeft : new boolean[] { true, false }) {
+                byte[] bcd = ISOCodec.str2bcd(digits, padLeft, new byte[len + 1 >> 1], 0);
+                assertEquals(digits, ISOCodec.bcd2str(bcd, 0, len, padLeft));
+                assertEquals(digits, ISOCodec.hex2str(bcd, 0, len, padLeft));
+            }
+        }
+    }
+
+    @Test
+    public void testBcd2strOddOffsets() {
+        byte[] b = ISOUtil.hex2byte("00123D45");
+        assertEquals("123=4", ISOCodec.bcd2str(b, 1, 5, false));
+        assertEquals("23=45", ISOCodec.bcd2str(b, 1, 5, true));
+        assertEquals("23D45", ISOCodec.hex2str(b, 1, 5, true));
+    }
+
+    private void assertSamePacking (ISOFieldPackager p, ISOComponent c) throws ISOException {
+        String name = p.getClass().getName();
+        byte[] expected = p.pack(c);
+        ByteBuffer b = ByteBuffer.allocate(expected.length + 8);
+        b.position(3);
+        assertEquals(expected.length, p.packInto(c, b), name);
+        assertArrayEquals(expected, Arrays.copyOfRange(b.array(), 3, b.position()), name);
+
+        b.flip();
+        b.position(3);
+        ISOComponent u = p.createComponent(c.getKey() instanceof Integer ? (Integer) c.getKey() : 0);
+        ISOComponent v = p.createComponent(c.getKey() instanceof Integer ? (Integer) c.getKey() : 0);
+        assertEquals(p.unpack(v, expected, 0), p.unpackFrom(u, b), name);
+        assertEquals(0, b.remaining(), name);
+        if (v.getValue() instanceof byte[])
+            assertArrayEquals((byte[]) v.getValue(), (byte[]) u.getValue(), name);
+        else
+            assertEquals(v.getValue(), u.getValue(), name);
+    }
+}
@@ -24,9 +24,13 @@ import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -184,4 +188,85 @@ public class ISODateTest {
         java.util.Date result = ISODate.parseISODate("101227235657", aus);
         assertThat(result.getTime(), is(1293458217000L));
     }
+
+    @Test
+    public void testFormatDateMatchesSimpleDateFormat() {
+        String[] patterns = { "MMddHHmmss", "HHmmss", "MMdd", "yyMMdd", "yyyyMM", "ddMMyy", "yyDDD",
+          "yyyy-MM-dd HH:mm:ss.SSS", "hh:mm", "d/M/yy", "EEE MMM dd", "yyyy-MM-dd'T'HH:mm" };
+        TimeZone[] zones = { aus, TimeZone.getTimeZone("UTC"), TimeZone.getTimeZone("America/Montevideo"),
+          TimeZone.getTimeZone("Asia/Kolkata"), new SimpleTimeZone(3600000, "custom") };
+        Random r = new Random(8583L);
+        for (int i=0; i<500; i++) {
+            Date d = new Date(Math.abs(r.nextLong() % (100L * ISODate.ONE_YEAR)) + 900000000000L);
+            for (String pattern : patterns) {
+                for (TimeZone tz : zones) {
+                    SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+                    sdf.setTimeZone(tz);
+                    assertThat(pattern + " " + tz.getID() + " " + d.getTime(), ISODate.formatDate(d, pattern, tz), is(sdf.format(d)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFormatDateOutsideJavaTimeRange() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        Calendar cal = new GregorianCalendar(utc);
+        cal.clear();
+        cal.set(1500, Calendar.JANUARY, 1, 12, 0, 0);
+        Date julian = cal.getTime();
+        cal.set(12345, Calendar.JUNE, 16, 12, 0, 0);
+        Date future = cal.getTime();
+        cal.set(2019, Calendar.JUNE, 16, 12, 0, 0);
+        Date dayOfYear = cal.getTime();
+        String[] patterns = { "yyyyMMdd", "yyyyDDD", "yyDD", "DD", "D" };
+        for (Date d : new Date[] { julian, future, dayOfYear }) {
+            for (String pattern : patterns) {
+                SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+                sdf.setTimeZone(utc);
+                assertThat(pattern + " " + d.getTime(), ISODate.formatDate(d, pattern, utc), is(sdf.format(d)));
+            }
+        }
+        assertThat(ISODate.formatDate(julian, "yyyyMMdd", utc), is("15000101"));
+        assertThat(ISODate.formatDate(future, "yyyyMMdd", utc), is("123450616"));
+        assertThat(ISODate.formatDate(dayOfYear, "DD", utc), is("167"));
+    }
+
+    @Test
+    public void testPutAndParseBuffer() {
+        Random r = new Random(8583L);
+        for (int i=0; i<500; i++) {
+            long now = Math.abs(r.nextLong() % (50L * ISODate.ONE_YEAR)) + 900000000000L;
+            long millis = now - now % 1000L + (r.nextInt(20000) - 10000) * 1000L;
+            for (TimeZone tz : new TimeZone[] { aus, TimeZone.getTimeZone("America/Montevideo") }) {
+                ByteBuffer b = ByteBuffer.allocate(20);
+                ISODate.putDateTime(millis, tz, b);
+                ISODate.putTime(millis, tz, b);
+                ISODate.putDate(millis, tz, b);
+                String s = new String(b.array(), 0, b.position(), ISOUtil.CHARSET);
+                Date d = new Date(millis);
+                assertThat(s, is(ISODate.getDateTime(d, tz) + ISODate.getTime(d, tz) + ISODate.getDate(d, tz)));
+                b.flip();
+                assertThat(ISODate.parseISODate(b, 10, now, tz), is(millis));
+                assertThat(ISODate.parseISODate(s.substring(0, 10), now, tz).getTime(), is(millis));
+            }
+        }
+    }
+
+    @Test
+    public void testParseISODatePicksClosestYear() {
+        Calendar cal = new GregorianCalendar(aus);
+        cal.clear();
+        cal.set(2011, Calendar.JANUARY, 1, 0, 30, 0);
+        long now = cal.getTimeInMillis();
+        cal.set(2010, Calendar.DECEMBER, 31, 23, 59, 59);
+        assertThat(ISODate.parseISODate("1231235959", now, aus).getTime(), is(cal.getTimeInMillis()));
+
+        cal.set(2010, Calendar.DECEMBER, 31, 23, 59, 59);
+        now = cal.getTimeInMillis();
+        cal.set(2011, Calendar.JANUARY, 1, 0, 1, 0);
+        ByteBuffer b = ByteBuffer.wrap("110101000100".getBytes());
+        assertThat(ISODate.parseISODate(b, 12, now, aus), is(cal.getTimeInMillis()));
+        assertThat(ISODate.parseISODate("0101000100", now, aus).getTime(), is(cal.getTimeInMillis()));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ISOMsgImageTest {
+    private static final String PAN = "4111111111111111111";
+    private byte[] image;
+
+    @BeforeEach
+    public void setUp() throws ISOException {
+        ISOMsg m = new ISOMsg("0200");
+        m.set(2, PAN);
+        m.set(3, "000000");
+        m.set(4, "000000001000");
+        m.set(11, "000001");
+        m.set(41, "29110001");
+        m.setPackager(new ISO87BPackager());
+        image = m.pack();
+        // odd length BCD field 2 (after MTI and bitmap), filled with F instead of the 0 nibble ISO87BPackager uses
+        image[2 + 8 + 10] |= 0x0F;
+    }
+
+    @Test
+    public void testUnmodifiedFieldsAreCopied() throws ISOException {
+        ISOMsg m = unpack(true);
+        assertTrue(m.hasImage());
+        assertArrayEquals(image, m.pack());
+
+        ISOMsg n = unpack(false);
+        assertFalse(n.hasImage());
+        assertEquals(PAN, n.getString(2));
+        assertFalse(ISOUtil.hexString(image).equals(ISOUtil.hexString(n.pack())));
+    }
+
+    @Test
+    public void testModifiedFieldsArePacked() throws ISOException {
+        ISOMsg m = unpack(true);
+        m.set(4, "000000002000");
+        m.unset(41);
+        m.set(39, "00");
+        m.getComponent(11).setValue("000002");
+
+        byte[] b = m.pack();
+        ISOMsg r = unpack(false, b);
+        assertEquals("000000002000", r.getString(4));
+        assertEquals("000002", r.getString(11));
+        assertEquals("00", r.getString(39));
+        assertFalse(r.hasField(41));
+        // field 2 still comes from the image
+        assertEquals(ISOUtil.hexString(image, 2 + 8, 11), ISOUtil.hexString(b, 2 + 8, 11));
+    }
+
+    @Test
+    public void testCloneTracksItsOwnChanges() throws ISOException {
+        ISOMsg m = unpack(true);
+        ISOMsg r = (ISOMsg) m.clone();
+        r.setResponseMTI();
+        r.set(2, PAN);
+        assertEquals("0210", unpack(false, r.pack()).getMTI());
+        assertArrayEquals(image, m.pack());
+    }
+
+    @Test
+    public void testIncompatiblePackagerPacksEverything() throws ISOException {
+        ISOMsg m = unpack(true);
+        m.setPackager(new ISO87APackager());
+        ISOMsg n = unpack(false);
+        n.setPackager(new ISO87APackager());
+        assertArrayEquals(n.pack(), m.pack());
+
+        m = unpack(true);
+        m.setPackager(new ISO87BPackager());
+        assertArrayEquals(image, m.pack());
+    }
+
+    @Test
+    public void testDiscardImage() throws ISOException {
+        ISOMsg m = unpack(true);
+        m.discardImage();
+        assertArrayEquals(unpack(false).pack(), m.pack());
+    }
+
+    private ISOMsg unpack (boolean retainImage) throws ISOException {
+        return unpack(retainImage, image);
+    }
+
+    private ISOMsg unpack (boolean retainImage, byte[] b) throws ISOException {
+        ISOMsg m = new ISOMsg();
+        m.setPackager(new ISO87BPackager());
+        m.setRetainImage(retainImage);
+        m.unpack(b);
+        return m;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.channel.ASCIIChannel;
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.util.Metrics;
+import org.junit.jupiter.api.Test;
+
+public class ISOMsgMetricsTest {
+    @Test
+    public void testKeys() throws ISOException {
+        ISOMsgMetrics dims = new ISOMsgMetrics(new Metrics(new AtomicHistogram(60000, 2)), 10);
+        ISOMsg m = new ISOMsg("0200");
+        m.set(3, "010000");
+        assertEquals("0200.010000.00", dims.getKey(null, m, "00"));
+        assertEquals("mux.0200.010000.expired", dims.getKey("mux", m, ISOMsgMetrics.EXPIRED));
+        assertEquals("0200.010000.-", dims.getKey(null, m, null));
+        m.set(3, "01 00\"x");
+        assertEquals("0200.01_00_x.-", dims.getKey(null, m, ""));
+        m.set(3, "0123456789");
+        assertEquals("0200.01234567.-", dims.getKey(null, m, null));
+    }
+
+    @Test
+    public void testCardinalityIsBounded() throws ISOException {
+        Metrics metrics = new Metrics(new AtomicHistogram(60000, 2));
+        ISOMsgMetrics dims = new ISOMsgMetrics(metrics, 2);
+        ISOMsg m = new ISOMsg("0800");
+        for (int i=0; i<10; i++)
+            dims.record("tx", m, ISOUtil.zeropad(i, 2), 1L);
+        dims.record("tx", m, "00", 1L);
+        assertEquals(3, metrics.metrics().size());
+        assertEquals(2L, metrics.metrics().get("tx.0800.-.00").getTotalCount());
+        assertEquals(1L, metrics.metrics().get("tx.0800.-.01").getTotalCount());
+        assertEquals(8L, metrics.metrics().get("tx.other").getTotalCount());
+    }
+
+    @Test
+    public void testChannelMetricsAreOptIn() throws Exception {
+        ASCIIChannel channel = new ASCIIChannel(new ISO87APackager());
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        channel.setConfiguration(cfg);
+        assertNull(channel.getMetrics());
+        cfg.put("metrics", "true");
+        channel.setConfiguration(cfg);
+        assertNotNull(channel.getMetrics());
+        assertNotNull(((BaseChannel) channel.clone()).getMetrics());
+    }
+}
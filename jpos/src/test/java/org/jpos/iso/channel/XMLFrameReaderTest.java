@@ -0,0 +1,101 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.channel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class XMLFrameReaderTest {
+    private static final String MSG = "<isomsg>\n  <field id=\"0\" value=\"0800\"/>\n"
+      + "  <isomsg id=\"48\">\n    <field id=\"1\" value=\"a\"/>\n  </isomsg>\n</isomsg>";
+
+    @Test
+    public void testFramesFromStream() throws IOException {
+        XMLFrameReader r = new XMLFrameReader(false, 100000);
+        InputStream in = new ByteArrayInputStream(bytes("  \n" + MSG + "\n" + MSG + "\n"));
+        assertEquals(MSG, string(r.read(in)));
+        assertEquals(MSG, string(r.read(in)));
+        assertThrows(EOFException.class, () -> r.read(in));
+    }
+
+    @Test
+    public void testByteAtATime() throws IOException {
+        XMLFrameReader r = new XMLFrameReader(false, 100000);
+        InputStream in = new ByteArrayInputStream(bytes(MSG + MSG)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        assertEquals(MSG, string(r.read(in)));
+        assertEquals(MSG, string(r.read(in)));
+        assertThrows(EOFException.class, () -> r.read(in));
+    }
+
+    @Test
+    public void testSeveralFramesInOneRead() throws IOException {
+        XMLFrameReader r = new XMLFrameReader(false, 100000);
+        InputStream in = new ByteArrayInputStream(bytes(MSG + MSG + "<isomsg></isomsg>"));
+        assertEquals(MSG, string(r.read(in)));
+        assertEquals(0, in.available());
+        assertEquals(MSG, string(r.read(in)));
+        assertEquals("<isomsg></isomsg>", string(r.read(in)));
+    }
+
+    @Test
+    public void testXMLDeclarationIsKept() throws IOException {
+        XMLFrameReader r = new XMLFrameReader(false, 100000);
+        String s = "<?xml version=\"1.0\"?>" + MSG;
+        assertEquals(s, string(r.read(new ByteArrayInputStream(bytes(s)))));
+    }
+
+    @Test
+    public void testTelnet() throws IOException {
+        XMLFrameReader r = new XMLFrameReader(true, 100000);
+        byte[] msg = bytes("garbage\r\n" + MSG.replace("\n", "\r\n"));
+        byte[] b = new byte[msg.length + 6];
+        b[0] = (byte) 0xFF; b[1] = (byte) 0xFB; b[2] = 1;
+        System.arraycopy(msg, 0, b, 3, 20);
+        b[23] = (byte) 0xFF; b[24] = (byte) 0xFD; b[25] = 3;
+        System.arraycopy(msg, 20, b, 26, msg.length - 20);
+        assertEquals(MSG.replace("\n", "\r\n"), string(r.read(new ByteArrayInputStream(b))));
+    }
+
+    @Test
+    public void testMaxLength() {
+        XMLFrameReader r = new XMLFrameReader(false, 64);
+        assertThrows(IOException.class, () -> r.read(new ByteArrayInputStream(bytes(MSG))));
+    }
+
+    private static byte[] bytes (String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string (byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -18,18 +18,31 @@
 
 package org.jpos.iso.filter;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOAmount;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOFilter;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
 import org.jpos.iso.channel.PADChannel;
 import org.jpos.iso.packager.CTCSubFieldPackager;
+import org.jpos.iso.packager.XMLPackager;
 import org.jpos.util.LogEvent;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class XSLTFilterTest {
 
@@ -67,4 +80,102 @@ public class XSLTFilterTest {
         }
     }
 
+    @Test
+    public void testIdentityTransformation(@TempDir Path dir) throws Throwable {
+        File xsl = write (dir.resolve("identity.xsl"), "<xsl:copy-of select='.'/>");
+        ISOMsg m = createMsg();
+        XMLPackager p = new XMLPackager();
+        m.setPackager(p);
+        byte[] expected = m.pack();
+
+        ISOMsg f = new XSLTFilter(xsl.getPath(), true).filter(null, createMsg(), new LogEvent());
+        f.setPackager(p);
+        assertArrayEquals(expected, f.pack());
+        assertArrayEquals(ISOUtil.hex2byte("00FF"), f.getBytes(52));
+        assertEquals(new BigDecimal("10.00"), ((ISOAmount) f.getComponent(4)).getAmount());
+        assertEquals("<b>", f.getString("48.2"));
+    }
+
+    @Test
+    public void testTransformationAndReread(@TempDir Path dir) throws Throwable {
+        Path xsl = dir.resolve("rc.xsl");
+        write (xsl, "<isomsg><xsl:copy-of select='field'/><field id='39' value='00'/></isomsg>");
+        XSLTFilter filter = new XSLTFilter(xsl.toString(), true);
+        assertEquals("00", filter.filter(null, createMsg(), new LogEvent()).getString(39));
+
+        write (xsl, "<isomsg><xsl:copy-of select='field'/><field id='39' value='05'/></isomsg>");
+        xsl.toFile().setLastModified(System.currentTimeMillis() + 2000L);
+        ISOMsg m = filter.filter(null, createMsg(), new LogEvent());
+        assertEquals("05", m.getString(39));
+        assertEquals("000001", m.getString(11));
+        assertTrue(m.hasField(48)); // output is merged into the original message
+    }
+
+    @Test
+    public void testReconfigureWithoutReread(@TempDir Path dir) throws Throwable {
+        Path xsl = dir.resolve("norr.xsl");
+        write (xsl, "<isomsg><field id='39' value='00'/></isomsg>");
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("xsltfile", xsl.toString());
+        cfg.put("reread", "no");
+        XSLTFilter filter = new XSLTFilter();
+        filter.setConfiguration(cfg);
+        assertEquals("00", filter.filter(null, createMsg(), new LogEvent()).getString(39));
+
+        write (xsl, "<isomsg><field id='39' value='05'/></isomsg>");
+        xsl.toFile().setLastModified(System.currentTimeMillis() + 2000L);
+        assertEquals("00", filter.filter(null, createMsg(), new LogEvent()).getString(39));
+
+        XSLTFilter redeployed = new XSLTFilter();
+        redeployed.setConfiguration(cfg);
+        assertEquals("05", redeployed.filter(null, createMsg(), new LogEvent()).getString(39));
+        filter.setConfiguration(cfg);
+        assertEquals("05", filter.filter(null, createMsg(), new LogEvent()).getString(39));
+    }
+
+    @Test
+    public void testConcurrentFiltering(@TempDir Path dir) throws Throwable {
+        File xsl = write (dir.resolve("stan.xsl"),
+          "<isomsg><field id='37' value='{field[@id=11]/@value}'/></isomsg>");
+        XSLTFilter filter = new XSLTFilter(xsl.getPath(), false);
+        Thread[] threads = new Thread[4];
+        Throwable[] error = new Throwable[1];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i=0; i<200; i++) {
+                        String stan = ISOUtil.zeropad(i, 6);
+                        ISOMsg m = new ISOMsg("0200");
+                        m.set(11, stan);
+                        assertEquals(stan, filter.filter(null, m, new LogEvent()).getString(37));
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(error[0]);
+    }
+
+    private ISOMsg createMsg() throws ISOException {
+        ISOMsg m = new ISOMsg("0200");
+        m.setHeader(ISOUtil.hex2byte("6000010000"));
+        m.set(new ISOAmount(4, 840, new BigDecimal("10.00")));
+        m.set(11, "000001");
+        m.set(41, "TERM & 01");
+        m.set("48.1", "ABC");
+        m.set("48.2", "<b>");
+        m.set(52, ISOUtil.hex2byte("00FF"));
+        return m;
+    }
+
+    private File write (Path path, String template) throws Exception {
+        String xsl = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+          + "<xsl:template match='/isomsg'>" + template + "</xsl:template></xsl:stylesheet>";
+        Files.write(path, xsl.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
 }
@@ -20,19 +20,27 @@ package org.jpos.iso.packager;
 
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.String;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.EmptyStackException;
 import java.util.List;
 
 import org.custommonkey.xmlunit.DetailedDiff;
 import org.custommonkey.xmlunit.XMLUnit;
+import org.jpos.iso.ISOAmount;
+import org.jpos.iso.ISOBitMap;
 import org.jpos.iso.ISOComponent;
 import org.jpos.iso.ISOException;
 import org.jpos.iso.ISOField;
@@ -44,6 +52,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.XMLReader;
 import org.xml.sax.ext.Attributes2Impl;
 
 public class XMLPackagerTest {
@@ -179,7 +189,7 @@ public class XMLPackagerTest {
         XMLUnit.setIgnoreWhitespace(true);
         // XMLAssert.assertXMLEqual(expected, new String(data));
         DetailedDiff myDiff = new DetailedDiff(XMLUnit.compareXML(expected, new String(data)));
-        List allDifferences = myDiff.getAllDifferences();
+        List<?> allDifferences = myDiff.getAllDifferences();
         assertEquals(0, allDifferences.size(), myDiff.toString());
     }
 
@@ -288,4 +298,98 @@ public class XMLPackagerTest {
             assertNull(ex.getMessage(), "ex.getMessage()");
         }
     }
+
+    @Test
+    public void testPackMatchesDump() throws ISOException, IOException {
+        ISOMsg m = new ISOMsg("0200");
+        m.setPackager(xMLPackager);
+        m.setHeader("header".getBytes());
+        m.set(2, "4111111111111111");
+        m.set(new ISOAmount(4, 840, new BigDecimal("12.34")));
+        m.set(41, "A&B \"<x>\" 'é€'\n");
+        m.set(42, "A&B\r\n\u0001'é'");
+        m.set(43, "{json}");
+        m.set(52, ISOUtil.hex2byte("0102FF"));
+        m.set("48.1", "inner");
+        m.set("48.2.1", "😀");
+        m.set(new ISOBitMap(-1));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream p = new PrintStream(out, false, StandardCharsets.UTF_8.name());
+        m.dump(p, "");
+        p.flush();
+        assertArrayEquals(out.toByteArray(), xMLPackager.pack(m));
+
+        ISOMsg r = new ISOMsg();
+        xMLPackager.unpack(r, xMLPackager.pack(m));
+        assertEquals(m.getString(41), r.getString(41));
+        assertEquals(m.getString(42), r.getString(42));
+        assertEquals("😀", r.getString("48.2.1"));
+        assertArrayEquals(m.getBytes(52), r.getBytes(52));
+        assertEquals(new BigDecimal("12.34"), ((ISOAmount) r.getComponent(4)).getAmount());
+    }
+
+    @Test
+    public void testDoctypeIsRejected() {
+        String input = "<!DOCTYPE isomsg [<!ENTITY x \"y\">]><isomsg><field id=\"0\" value=\"&x;\"/></isomsg>";
+        assertThrows(ISOException.class, () -> xMLPackager.unpack(new ISOMsg(), input.getBytes()));
+    }
+
+    @Test
+    public void testUnknownFeatureIsPassedToSAXReader() throws Exception {
+        XMLPackager packager = new XMLPackager();
+        packager.setXMLParserFeature("http://xml.org/sax/features/namespaces", true);
+        assertThrows(SAXNotRecognizedException.class, () -> packager.setXMLParserFeature("urn:jpos:no-such-feature", true));
+        ISOMsg m = new ISOMsg();
+        packager.unpack(m, "<isomsg><field id=\"0\" value=\"0800\"/></isomsg>".getBytes());
+        assertEquals("0800", m.getMTI());
+        String doctype = "<!DOCTYPE isomsg [<!ENTITY x \"y\">]><isomsg><field id=\"0\" value=\"&x;\"/></isomsg>";
+        assertThrows(ISOException.class, () -> packager.unpack(new ISOMsg(), doctype.getBytes()));
+    }
+
+    @Test
+    public void testCreateXMLReaderOverrideIsHonored() throws Exception {
+        int[] created = new int[1];
+        XMLPackager packager = new XMLPackager() {
+            @Override
+            protected XMLReader createXMLReader() throws SAXException {
+                created[0]++;
+                return super.createXMLReader();
+            }
+        };
+        ISOMsg m = new ISOMsg();
+        packager.unpack(m, new ByteArrayInputStream("<isomsg><field id=\"11\" value=\"000001\"/></isomsg>".getBytes()));
+        assertEquals("000001", m.getString(11));
+        assertEquals(1, created[0]);
+    }
+
+    @Test
+    public void testConcurrentPackAndUnpack() throws Throwable {
+        XMLPackager packager = new XMLPackager();
+        Thread[] threads = new Thread[4];
+        Throwable[] error = new Throwable[1];
+        for (int t=0; t<threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i=0; i<500; i++) {
+                        ISOMsg m = new ISOMsg("0800");
+                        m.set(11, ISOUtil.zeropad(i, 6));
+                        m.set(41, "TERM" + id);
+                        ISOMsg r = new ISOMsg();
+                        packager.unpack(r, packager.pack(m));
+                        assertEquals(m.getString(11), r.getString(11));
+                        assertEquals(m.getString(41), r.getString(41));
+                        assertEquals(m.getString(42), r.getString(42));
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(error[0]);
+    }
 }
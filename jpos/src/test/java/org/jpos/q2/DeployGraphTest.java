@@ -0,0 +1,85 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.junit.jupiter.api.Test;
+
+public class DeployGraphTest {
+    private static final File CHANNEL = new File("10_channel.xml");
+    private static final File MUX = new File("20_mux.xml");
+    private static final File POOL = new File("30_pool.xml");
+    private static final File TM = new File("40_tm.xml");
+    private static final File SPACE = new File("05_space.xml");
+
+    @Test
+    public void testInferredDependencies() throws Exception {
+        Map<File,Element> d = new LinkedHashMap<>();
+        d.put(SPACE, parse("<space class='org.jpos.q2.qbean.ReplicatedSpaceAdaptor'><property name='space' value='tm'/></space>"));
+        d.put(CHANNEL, parse("<channel-adaptor name='channel-a'><in>a-send</in><out>a-receive</out></channel-adaptor>"));
+        d.put(MUX, parse("<mux class='org.jpos.q2.iso.QMUX' name='mux-a' depends='channel-a'><in>a-receive</in></mux>"));
+        d.put(POOL, parse("<mux class='org.jpos.q2.iso.MUXPool' name='pool'><muxes>mux-a mux-b</muxes></mux>"));
+        d.put(TM, parse("<txnmgr name='tm'><property name='space' value='replicated:tm'/>" +
+          "<participant class='x'><property name='mux' value='mux.pool'/></participant></txnmgr>"));
+        DeployGraph g = new DeployGraph(d);
+
+        assertEquals(Collections.emptySet(), g.getDependencies(CHANNEL));
+        assertEquals(Collections.singleton(CHANNEL), g.getDependencies(MUX));
+        assertEquals(Collections.singleton(MUX), g.getDependencies(POOL));
+        assertEquals(2, g.getDependencies(TM).size());
+        assertTrue(g.getDependencies(TM).containsAll(Arrays.asList(POOL, SPACE)));
+        assertEquals(Arrays.asList(SPACE, CHANNEL, MUX, POOL, TM), g.sort());
+        assertTrue(g.getWarnings().isEmpty());
+    }
+
+    @Test
+    public void testSortKeepsFileOrderForIndependentDescriptors() throws Exception {
+        Map<File,Element> d = new LinkedHashMap<>();
+        d.put(CHANNEL, parse("<a depends='c'/>"));
+        d.put(MUX, parse("<b/>"));
+        d.put(POOL, parse("<c/>"));
+        assertEquals(Arrays.asList(MUX, POOL, CHANNEL), new DeployGraph(d).sort());
+    }
+
+    @Test
+    public void testCycleAndUnknownDependency() throws Exception {
+        Map<File,Element> d = new LinkedHashMap<>();
+        d.put(CHANNEL, parse("<a depends='b, unknown'/>"));
+        d.put(MUX, parse("<b depends='a'/>"));
+        DeployGraph g = new DeployGraph(d);
+        assertNull(g.sort());
+        assertEquals(1, g.getWarnings().size());
+    }
+
+    private static Element parse (String xml) throws Exception {
+        return new SAXBuilder().build(new StringReader(xml)).getRootElement();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DeployWatcherTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testTimeoutWithoutChanges() throws Exception {
+        try (DeployWatcher watcher = new DeployWatcher(100L, 2000L)) {
+            assumeFalse(watcher.isPolling());
+            assertTrue(watcher.watch(dir));
+            long start = System.currentTimeMillis();
+            assertTrue(watcher.await(200L).isEmpty());
+            assertTrue(System.currentTimeMillis() - start >= 190L);
+        }
+    }
+
+    @Test
+    public void testBurstIsCoalesced() throws Exception {
+        try (DeployWatcher watcher = new DeployWatcher(500L, 5000L)) {
+            assumeFalse(watcher.isPolling());
+            assertTrue(watcher.watch(dir));
+            Path a = dir.resolve("10_a.xml");
+            Path b = dir.resolve("20_b.xml");
+            Files.write(a, "<a/>".getBytes());
+            Files.write(b, "<b/>".getBytes());
+            Files.write(a, "<a name='a'/>".getBytes());
+            Files.delete(b);
+
+            DeployWatcher.Changes changes = watcher.await(5000L);
+            Map<Path,WatchEvent.Kind<?>> events = changes.getEvents();
+            assertEquals(2, events.size(), events.toString());
+            assertEquals(ENTRY_CREATE, events.get(a));
+            assertEquals(ENTRY_DELETE, events.get(b));
+            assertTrue(watcher.await(100L).isEmpty(), "burst reported once");
+        }
+    }
+
+    @Test
+    public void testRemovedDirectoryIsInvalid() throws Exception {
+        try (DeployWatcher watcher = new DeployWatcher(100L, 2000L)) {
+            assumeFalse(watcher.isPolling());
+            Path sub = Files.createDirectory(dir.resolve("sub"));
+            assertTrue(watcher.watch(sub));
+            assertFalse(watcher.watch(dir.resolve("missing")));
+            Files.delete(sub);
+            DeployWatcher.Changes changes = watcher.await(5000L);
+            assertTrue(changes.isInvalid(sub));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParallelDeployTest {
+    static final Map<String,long[]> started = new ConcurrentHashMap<>();
+    static final AtomicInteger running = new AtomicInteger();
+    static final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Test
+    public void testDependentsStartAfterTheirDependencies(@TempDir Path dir) throws Exception {
+        descriptor(dir, "10_mux.xml", "<mux class='org.jpos.q2.ParallelDeployTest$SlowStart' name='m'/>");
+        descriptor(dir, "20_pool.xml",
+          "<pool class='org.jpos.q2.ParallelDeployTest$SlowStart' name='pool'><property name='muxes' value='m'/></pool>");
+        descriptor(dir, "30_x.xml", "<x class='org.jpos.q2.ParallelDeployTest$SlowStart'/>");
+        descriptor(dir, "40_y.xml", "<y class='org.jpos.q2.ParallelDeployTest$SlowStart'/>");
+
+        Q2 q2 = new Q2(new String[] { "-d", dir.toString(), "-Pd", "4" });
+        q2.start();
+        try {
+            assertTrue(q2.ready(10000L), "Q2 not ready");
+            assertEquals(4, started.size());
+            assertTrue(started.get("pool")[0] >= started.get("m")[1], "pool started before its mux");
+            assertTrue(maxRunning.get() > 1, "nothing started concurrently");
+        } finally {
+            q2.shutdown(true);
+        }
+    }
+
+    private static void descriptor (Path dir, String name, String xml) throws IOException {
+        Files.write(dir.resolve(name), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static class SlowStart extends QBeanSupport {
+        @Override
+        public void setConfiguration (Configuration cfg) throws ConfigurationException {
+            super.setConfiguration(cfg);
+        }
+
+        @Override
+        protected void startService () throws InterruptedException {
+            long start = System.nanoTime();
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(200L);
+            running.decrementAndGet();
+            started.put(getName(), new long[] { start, System.nanoTime() });
+        }
+    }
+}
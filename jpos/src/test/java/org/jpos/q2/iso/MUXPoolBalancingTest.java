@@ -0,0 +1,104 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.iso;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.MUX;
+import org.jpos.util.EndpointHealth;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MUXPoolBalancingTest {
+    MUXPool pool;
+    MUX a, b;
+
+    @BeforeEach
+    public void setUp() {
+        a = mock(MUX.class);
+        b = mock(MUX.class);
+        when(a.isConnected()).thenReturn(true);
+        when(b.isConnected()).thenReturn(true);
+        pool = new MUXPool();
+        pool.muxName = new String[] { "a", "b" };
+        pool.mux = new MUX[] { a, b };
+        pool.health = new EndpointHealth[] {
+          new EndpointHealth("a", 0.5D, 2, 60000L),
+          new EndpointHealth("b", 0.5D, 2, 60000L)
+        };
+    }
+
+    @Test
+    public void testLeastOutstanding() {
+        pool.strategy = MUXPool.LEAST_OUTSTANDING;
+        pool.health[0].begin();
+        for (int i=0; i<10; i++)
+            assertSame(b, pool.balancedMUX(0L));
+    }
+
+    @Test
+    public void testLeastLatency() {
+        pool.strategy = MUXPool.LEAST_LATENCY;
+        pool.health[0].begin();
+        pool.health[0].success(10L);
+        pool.health[1].begin();
+        pool.health[1].success(500L);
+        for (int i=0; i<10; i++)
+            assertSame(a, pool.balancedMUX(0L));
+    }
+
+    @Test
+    public void testTimeoutsEjectMUX() throws ISOException {
+        pool.strategy = MUXPool.LEAST_OUTSTANDING;
+        pool.health[0] = new EndpointHealth("a", 0.5D, 1, 60000L);
+        ISOMsg resp = new ISOMsg("0210");
+        when(a.request(any(ISOMsg.class), anyLong())).thenReturn(null);
+        when(b.request(any(ISOMsg.class), anyLong())).thenReturn(resp);
+
+        int answered = 0;
+        for (int i=0; i<20; i++)
+            if (pool.request(new ISOMsg("0200"), 1000L) != null)
+                answered++;
+        assertEquals(19, answered, "a timeout ejects 'a'");
+        assertEquals(1, pool.health[0].getFailures());
+        assertNotNull(pool.getMetrics().metrics().get("b.ok"));
+        assertNull(pool.getMetrics().metrics().get("a.ok"));
+        assertNotNull(pool.getMetrics().metrics().get("b.0200.-.-"));
+        assertNotNull(pool.getMetrics().metrics().get("a.0200.-.expired"));
+    }
+
+    @Test
+    public void testAllEjectedStillRoutes() {
+        pool.strategy = MUXPool.LEAST_OUTSTANDING;
+        for (EndpointHealth h : pool.health) {
+            h.begin(); h.failure(1L);
+            h.begin(); h.failure(1L);
+        }
+        assertNotNull(pool.balancedMUX(0L));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.iso;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISORequestListener;
+import org.jpos.iso.ISOSource;
+import org.jpos.iso.MUX;
+import org.jpos.q2.Q2;
+import org.jpos.util.NameRegistrar;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MultiSessionChannelAdaptorTest {
+    @Test
+    public void testStripedDispatchSkipsTheSpace(@TempDir Path dir) throws Exception {
+        testDispatch(dir, "<dispatch mux='msca-mux' threads='2'>striped</dispatch>");
+    }
+
+    @Test
+    public void testDirectDispatchSkipsTheSpace(@TempDir Path dir) throws Exception {
+        testDispatch(dir, "<dispatch mux='msca-mux'>direct</dispatch>");
+    }
+
+    private void testDispatch (Path dir, String dispatch) throws Exception {
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) {
+            port = ss.getLocalPort();
+        }
+        descriptor(dir, "10_server.xml",
+          "<server class='org.jpos.q2.iso.QServer' name='msca-server'>" +
+          " <attr name='port' type='java.lang.Integer'>" + port + "</attr>" +
+          " <channel class='org.jpos.iso.channel.XMLChannel' packager='org.jpos.iso.packager.XMLPackager'/>" +
+          " <request-listener class='org.jpos.q2.iso.MultiSessionChannelAdaptorTest$Echo'/>" +
+          "</server>");
+        descriptor(dir, "20_channel.xml",
+          "<channel-adaptor class='org.jpos.q2.iso.MultiSessionChannelAdaptor' name='msca-channel'>" +
+          " <channel class='org.jpos.iso.channel.XMLChannel' packager='org.jpos.iso.packager.XMLPackager'>" +
+          "  <property name='host' value='127.0.0.1'/>" +
+          "  <property name='port' value='" + port + "'/>" +
+          " </channel>" +
+          " <sessions>2</sessions>" +
+          " <in>msca-send</in>" +
+          " <out>msca-receive</out>" +
+          " <reconnect-delay>1000</reconnect-delay>" +
+          dispatch +
+          "</channel-adaptor>");
+        // the QMUX doesn't listen to the channel's out queue, responses can only arrive through dispatch
+        descriptor(dir, "30_mux.xml",
+          "<mux class='org.jpos.q2.iso.QMUX' name='msca-mux'>" +
+          " <in>msca-unused</in>" +
+          " <out>msca-send</out>" +
+          " <ready>msca-channel.ready</ready>" +
+          "</mux>");
+
+        Q2 q2 = new Q2(new String[] { "-d", dir.toString() });
+        q2.start();
+        try {
+            assertTrue(q2.ready(10000L), "Q2 not ready");
+            MUX mux = (MUX) NameRegistrar.get("mux.msca-mux", 10000L);
+            long end = System.currentTimeMillis() + 10000L;
+            while (!mux.isConnected() && System.currentTimeMillis() < end)
+                Thread.sleep(50L);
+            for (int i=0; i<20; i++) {
+                ISOMsg m = new ISOMsg("0800");
+                m.set(11, String.format("%06d", i));
+                m.set(70, "301");
+                ISOMsg r = mux.request(m, 5000L);
+                assertNotNull(r, "response " + i);
+                assertEquals("0810", r.getMTI());
+                assertEquals(m.getString(11), r.getString(11));
+            }
+        } finally {
+            q2.shutdown(true);
+        }
+    }
+
+    private static void descriptor (Path dir, String name, String xml) throws IOException {
+        Files.write(dir.resolve(name), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static class Echo implements ISORequestListener {
+        @Override
+        public boolean process (ISOSource source, ISOMsg m) {
+            try {
+                m.setResponseMTI();
+                m.set(39, "00");
+                source.send(m);
+            } catch (ISOException | IOException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+}
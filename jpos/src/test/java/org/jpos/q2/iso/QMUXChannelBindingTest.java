@@ -0,0 +1,132 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.iso;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.q2.Q2;
+import org.jpos.util.NameRegistrar;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class QMUXChannelBindingTest {
+    @Test
+    public void testChannelAdaptor(@TempDir Path dir) throws Exception {
+        testBinding(dir, "org.jpos.q2.iso.ChannelAdaptor", "");
+    }
+
+    @Test
+    public void testMultiSessionChannelAdaptor(@TempDir Path dir) throws Exception {
+        testBinding(dir, "org.jpos.q2.iso.MultiSessionChannelAdaptor", "<sessions>2</sessions>");
+    }
+
+    private void testBinding (Path dir, String clazz, String extra) throws Exception {
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) {
+            port = ss.getLocalPort();
+        }
+        descriptor(dir, "10_server.xml",
+          "<server class='org.jpos.q2.iso.QServer' name='bind-server'>" +
+          " <attr name='port' type='java.lang.Integer'>" + port + "</attr>" +
+          " <channel class='org.jpos.iso.channel.XMLChannel' packager='org.jpos.iso.packager.XMLPackager'/>" +
+          " <request-listener class='org.jpos.q2.iso.MultiSessionChannelAdaptorTest$Echo'/>" +
+          "</server>");
+        descriptor(dir, "20_channel.xml",
+          "<channel-adaptor class='" + clazz + "' name='bind-channel'>" +
+          " <channel class='org.jpos.iso.channel.XMLChannel' packager='org.jpos.iso.packager.XMLPackager'>" +
+          "  <property name='host' value='127.0.0.1'/>" +
+          "  <property name='port' value='" + port + "'/>" +
+          " </channel>" +
+          extra +
+          " <in>bind-send</in>" +
+          " <out>bind-receive</out>" +
+          " <reconnect-delay>1000</reconnect-delay>" +
+          " <max-pending-writes>4</max-pending-writes>" +
+          "</channel-adaptor>");
+        // neither queue is connected to the channel, messages can only go through the binding
+        descriptor(dir, "30_mux.xml",
+          "<mux class='org.jpos.q2.iso.QMUX' name='bind-mux'>" +
+          " <channel>bind-channel</channel>" +
+          " <in>bind-unused-in</in>" +
+          " <out>bind-unused-out</out>" +
+          " <ready>bind-channel.ready</ready>" +
+          "</mux>");
+
+        Q2 q2 = new Q2(new String[] { "-d", dir.toString() });
+        q2.start();
+        try {
+            assertTrue(q2.ready(10000L), "Q2 not ready");
+            QMUX mux = (QMUX) NameRegistrar.get("mux.bind-mux", 10000L);
+            long end = System.currentTimeMillis() + 10000L;
+            while (!mux.isConnected() && System.currentTimeMillis() < end)
+                Thread.sleep(50L);
+            for (int i=0; i<20; i++) {
+                ISOMsg m = new ISOMsg("0800");
+                m.set(11, String.format("%06d", i));
+                m.set(70, "301");
+                ISOMsg r = mux.request(m, 5000L);
+                assertNotNull(r, "response " + i);
+                assertEquals("0810", r.getMTI());
+                assertEquals(m.getString(11), r.getString(11));
+            }
+            ChannelAdaptor ca = (ChannelAdaptor) NameRegistrar.get("bind-channel");
+            assertSame(mux, ca.getMUX());
+
+            BlockingQueue<ISOMsg> responses = new LinkedBlockingQueue<>();
+            ISOMsg m = new ISOMsg("0800");
+            m.set(11, "000100");
+            m.set(70, "301");
+            mux.request(m, 5000L, new ISOResponseListener() {
+                @Override
+                public void responseReceived (ISOMsg resp, Object handBack) {
+                    responses.add(resp);
+                }
+                @Override
+                public void expired (Object handBack) { }
+            }, null);
+            ISOMsg r = responses.poll(5000L, TimeUnit.MILLISECONDS);
+            assertNotNull(r, "async response");
+            assertEquals("000100", r.getString(11));
+            assertEquals(0, mux.getRXPending());
+            assertEquals(21, ca.getTXCounter());
+            assertEquals(21, ca.getRXCounter());
+        } finally {
+            q2.shutdown(true);
+        }
+    }
+
+    private static void descriptor (Path dir, String name, String xml) throws IOException {
+        Files.write(dir.resolve(name), xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.iso;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.iso.MUX;
+import org.jpos.space.LocalSpace;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.NameRegistrar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SAFTest {
+    private static final String SPACE = "tspace:SAFTest";
+    private MUX mux;
+    private ScheduledExecutorService executor;
+    private final List<ISOMsg> sent = new CopyOnWriteArrayList<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+    private volatile boolean connected = true;
+    private volatile int expire;
+    private volatile long delay;
+    private volatile String poison; // STAN that always times out
+    private SAF saf;
+
+    @BeforeEach
+    public void setUp() throws ISOException {
+        executor = Executors.newScheduledThreadPool(4);
+        mux = mock(MUX.class);
+        when(mux.isConnected()).thenAnswer(inv -> connected);
+        doAnswer(inv -> {
+            ISOMsg m = inv.getArgument(0);
+            ISOResponseListener listener = inv.getArgument(2);
+            Object handBack = inv.getArgument(3);
+            sent.add(m);
+            maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+            boolean timeout = expire > 0 && expire-- > 0 || m.getString(11).equals(poison);
+            executor.schedule(() -> {
+                outstanding.decrementAndGet();
+                if (timeout) {
+                    listener.expired(handBack);
+                } else {
+                    ISOMsg r = (ISOMsg) m.clone();
+                    r.setResponseMTI();
+                    r.set(39, "00");
+                    listener.responseReceived(r, handBack);
+                }
+                return null;
+            }, delay, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(mux).request(any(ISOMsg.class), anyLong(), any(ISOResponseListener.class), any());
+        NameRegistrar.register("mux.SAFTest", mux);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (saf != null) {
+            saf.stop();
+            saf.destroy();
+        }
+        NameRegistrar.unregister("mux.SAFTest");
+        executor.shutdownNow();
+        LocalSpace<Object,Object> sp = space();
+        for (Object key : new ArrayList<>(sp.getKeySet()))
+            while (sp.inp(key) != null)
+                ;
+    }
+
+    @Test
+    public void testDeliversAndAcknowledges() throws Exception {
+        saf = start(new Properties());
+        for (int i=0; i<50; i++)
+            assertTrue(saf.store(advice(i)));
+        assertTrue(waitFor(() -> saf.getDelivered() == 50), "delivered " + saf.getDelivered());
+        assertEquals(0, saf.getBacklog());
+        assertTrue(waitFor(() -> Long.valueOf(50L).equals(space().rdp("saf.SAFTest.head"))));
+        assertNull(space().rdp("saf.SAFTest.0"));
+        assertEquals("0220", sent.get(0).getMTI());
+    }
+
+    @Test
+    public void testRetriesWithRetransmissionMTI() throws Exception {
+        expire = 2;
+        Properties props = new Properties();
+        props.put("initial-delay", "10");
+        saf = start(props);
+        assertTrue(saf.store(advice(1)));
+        assertTrue(waitFor(() -> saf.getDelivered() == 1));
+        assertEquals(3, sent.size());
+        assertEquals("0220", sent.get(0).getMTI());
+        assertEquals("0221", sent.get(1).getMTI());
+        assertEquals("0221", sent.get(2).getMTI());
+        assertTrue(saf.getMetrics().metrics().containsKey("SAFTest.0220.-.expired"));
+    }
+
+    @Test
+    public void testBacklogIsBounded() throws Exception {
+        connected = false;
+        Properties props = new Properties();
+        props.put("max-size", "3");
+        saf = start(props);
+        for (int i=0; i<3; i++)
+            assertTrue(saf.store(advice(i)));
+        assertFalse(saf.store(advice(3)), "backlog full");
+        assertEquals(3, saf.getBacklog());
+        Thread.sleep(100L);
+        assertTrue(saf.getAge() >= 100L);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testConcurrencyIsCapped() throws Exception {
+        delay = 50L;
+        Properties props = new Properties();
+        props.put("concurrency", "4");
+        saf = start(props);
+        for (int i=0; i<40; i++)
+            assertTrue(saf.store(advice(i)));
+        assertTrue(waitFor(() -> saf.getDelivered() == 40));
+        assertTrue(maxOutstanding.get() <= 4, "max outstanding " + maxOutstanding.get());
+        assertTrue(maxOutstanding.get() > 1, "max outstanding " + maxOutstanding.get());
+    }
+
+    @Test
+    public void testRestartResumesFromSpace() throws Exception {
+        connected = false;
+        saf = start(new Properties());
+        for (int i=0; i<10; i++)
+            assertTrue(saf.store(advice(i)));
+        saf.stop();
+        saf.destroy();
+
+        connected = true;
+        saf = start(new Properties());
+        assertEquals(10, saf.getBacklog());
+        assertTrue(waitFor(() -> saf.getDelivered() == 10));
+        for (int i=0; i<10; i++)
+            assertEquals(String.format("%06d", i), sent.get(i).getString(11));
+    }
+
+    @Test
+    public void testEntriesBeyondTailAreRecovered() throws Exception {
+        connected = false;
+        saf = start(new Properties());
+        for (int i=0; i<3; i++)
+            assertTrue(saf.store(advice(i)));
+        saf.stop();
+        saf.destroy();
+        // crash between storing the entry and updating tail, leaving an orphan at saf.SAFTest.3
+        Space<Object,Object> sp = space();
+        sp.out("saf.SAFTest.3", new SAF.Entry(advice(3), System.currentTimeMillis()));
+
+        connected = true;
+        saf = start(new Properties());
+        assertEquals(4, saf.getBacklog());
+        assertEquals(4L, sp.rdp("saf.SAFTest.tail"));
+        assertTrue(saf.store(advice(4)));
+        assertTrue(waitFor(() -> saf.getDelivered() == 5));
+        for (int i=0; i<5; i++)
+            assertEquals(String.format("%06d", i), sent.get(i).getString(11));
+        assertEquals(5, sent.size());
+    }
+
+    @Test
+    public void testStoreReplacesOrphanEntry() throws Exception {
+        connected = false;
+        saf = start(new Properties());
+        Space<Object,Object> sp = space();
+        sp.out("saf.SAFTest.0", "orphan");
+        assertTrue(saf.store(advice(0)));
+        assertEquals(1, space().size("saf.SAFTest.0"));
+        assertTrue(sp.rdp("saf.SAFTest.0") instanceof SAF.Entry);
+    }
+
+    @Test
+    public void testFailingMessageIsParked() throws Exception {
+        poison = "000000";
+        Properties props = new Properties();
+        props.put("initial-delay", "10");
+        props.put("park-after", "3");
+        saf = start(props);
+        for (int i=0; i<5; i++)
+            assertTrue(saf.store(advice(i)));
+        Space<Object,Object> sp = space();
+        assertTrue(waitFor(() -> Long.valueOf(5L).equals(sp.rdp("saf.SAFTest.head"))), "head advanced");
+        assertEquals(4L, saf.getDelivered());
+        assertEquals(0, saf.getBacklog());
+        assertEquals(3L, sent.stream().filter(m -> "000000".equals(m.getString(11))).count());
+        assertTrue(sp.rdp("saf.SAFTest.parked") instanceof SAF.Entry);
+
+        poison = null;
+        assertEquals(1, saf.resubmitParked("SAFTest"));
+        assertNull(sp.rdp("saf.SAFTest.parked"));
+        assertTrue(waitFor(() -> saf.getDelivered() == 5L));
+    }
+
+    @Test
+    public void testResponsesSentBeforeRestartAreIgnored() throws Exception {
+        delay = 500L;
+        saf = start(new Properties());
+        assertTrue(saf.store(advice(1)));
+        assertTrue(waitFor(() -> sent.size() == 1));
+        saf.stop();
+        saf.start();   // resends the message, its first response is stale
+        assertTrue(waitFor(() -> saf.getDelivered() == 1L));
+        Thread.sleep(700L);
+        assertEquals(2, sent.size());
+        assertEquals(1L, saf.getDelivered());
+        assertEquals(0, saf.getBacklog());
+    }
+
+    private SAF start (Properties props) throws ConfigurationException {
+        props.put("space", SPACE);
+        props.put("mux", "SAFTest");
+        props.put("concurrency", props.getProperty("concurrency", "1"));
+        SAF s = new SAF();
+        s.setName("saf");
+        s.setLogger("SAFTest");
+        s.setPersist(new Element("saf"));
+        s.setConfiguration(new SimpleConfiguration(props));
+        s.init();
+        s.start();
+        return s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LocalSpace<Object,Object> space() {
+        return (LocalSpace<Object,Object>) SpaceFactory.getSpace(SPACE);
+    }
+
+    private static ISOMsg advice (int stan) throws ISOException {
+        ISOMsg m = new ISOMsg("0220");
+        m.set(11, String.format("%06d", stan));
+        m.set(41, "29110001");
+        return m;
+    }
+
+    private static boolean waitFor (BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end)
+                return false;
+            Thread.sleep(10L);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.util.Metrics;
+import org.jpos.util.MetricsProvider;
+import org.jpos.util.NameRegistrar;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PrometheusExporterTest {
+    private static final String NAME = "prometheus-exporter-test";
+    private Metrics metrics;
+
+    @BeforeEach
+    public void setUp() {
+        metrics = new Metrics(new AtomicHistogram(60000, 2));
+        NameRegistrar.register(NAME, (MetricsProvider) () -> metrics);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        NameRegistrar.unregister(NAME);
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        PrometheusExporter exporter = new PrometheusExporter();
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("rollover-interval", "0");
+        exporter.setConfiguration(cfg);
+        for (int i=1; i<=100; i++)
+            metrics.record("b\"ok", i);
+
+        String s = exporter.export();
+        String labels = "source=\"" + NAME + "\",name=\"b\\\"ok\"";
+        assertTrue(s.contains("# TYPE jpos_elapsed summary\n"), s);
+        assertTrue(s.contains("jpos_elapsed{" + labels + ",quantile=\"0.5\"} 50\n"), s);
+        assertTrue(s.contains("jpos_elapsed{" + labels + ",quantile=\"0.99\"} 99\n"), s);
+        assertTrue(s.contains("jpos_elapsed_count{" + labels + "} 100\n"), s);
+        assertTrue(s.contains("jpos_elapsed_sum{" + labels + "} 5050.0\n"), s);
+    }
+
+    @Test
+    public void testQuantilesFromLastInterval() throws Exception {
+        PrometheusExporter exporter = new PrometheusExporter();
+        exporter.setConfiguration(new SimpleConfiguration());
+        metrics.record("x", 10);
+        metrics.rollover();
+        metrics.record("x", 1000);
+
+        String s = exporter.export();
+        assertTrue(s.contains("jpos_elapsed{source=\"" + NAME + "\",name=\"x\",quantile=\"0.999\"} 10\n"), s);
+        assertTrue(s.contains("jpos_elapsed_count{source=\"" + NAME + "\",name=\"x\"} 2\n"), s);
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        PrometheusExporter exporter = new PrometheusExporter();
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("host", "127.0.0.1");
+        cfg.put("port", "0");
+        exporter.setConfiguration(cfg);
+        metrics.record("x", 10);
+        exporter.startService();
+        try {
+            URL url = new URL("http://127.0.0.1:" + exporter.getLocalPort() + "/metrics");
+            HttpURLConnection c = (HttpURLConnection) url.openConnection();
+            assertEquals(200, c.getResponseCode());
+            assertTrue(c.getContentType().startsWith("text/plain; version=0.0.4"));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = c.getInputStream()) {
+                byte[] b = new byte[4096];
+                int n;
+                while ((n = in.read(b)) > 0)
+                    out.write(b, 0, n);
+            }
+            assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).contains("jpos_elapsed_count{source=\"" + NAME + "\",name=\"x\"} 1\n"));
+        } finally {
+            exporter.stopService();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jpos.q2.qbean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.jpos.iso.packager.ISO93BPackager;
+import org.jpos.q2.Q2;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.ContextConstants;
+import org.jpos.transaction.TransactionParticipant;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WarmupTest {
+    static final AtomicInteger transactions = new AtomicInteger();
+
+    @Test
+    public void testCreateMessage() throws Exception {
+        for (ISOPackager p : new ISOPackager[] { new ISO87APackager(), new ISO87BPackager(), new ISO93BPackager() }) {
+            ISOMsg m = Warmup.createMessage(p);
+            assertNotNull(m, p.getClass().getName());
+            assertEquals("0200", m.getMTI());
+            assertTrue(m.hasField(2) && m.hasField(4) && m.hasField(41) && m.hasField(128), p.getClass().getName());
+            byte[] b = m.pack();
+            ISOMsg u = new ISOMsg();
+            u.setPackager(p);
+            u.unpack(b);
+            assertArrayEquals(b, u.pack());
+        }
+    }
+
+    @Test
+    public void testTrainingRun(@TempDir Path dir) throws Exception {
+        descriptor(dir, "10_txnmgr.xml",
+          "<txnmgr class='org.jpos.transaction.TransactionManager'>" +
+          " <property name='queue' value='WarmupTest.TXN'/>" +
+          " <property name='sessions' value='2'/>" +
+          " <participant class='org.jpos.q2.qbean.WarmupTest$Counter'/>" +
+          "</txnmgr>");
+        descriptor(dir, "20_warmup.xml",
+          "<warmup class='org.jpos.q2.qbean.Warmup'>" +
+          " <property name='iterations' value='100'/>" +
+          " <property name='txnmgr' value='txnmgr'/>" +
+          " <property name='transactions' value='10'/>" +
+          " <packager class='org.jpos.iso.packager.ISO87BPackager'/>" +
+          "</warmup>");
+
+        Q2 q2 = new Q2(new String[] { "-d", dir.toString(), "--training-run" });
+        q2.start();
+        try {
+            assertTrue(waitFor(() -> transactions.get() == 10), "warmup transactions not processed");
+            assertTrue(waitFor(() -> !q2.running()), "training run did not shut down");
+            q2.shutdown(true);
+            @SuppressWarnings("unchecked")
+            Space<String,Object> sp = SpaceFactory.getSpace();
+            assertNull(sp.rdp("warmup.ready"), "ready indicator not wiped");
+        } finally {
+            q2.shutdown(true);
+        }
+    }
+
+    private static boolean waitFor (BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 20000L;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > end)
+                return false;
+            Thread.sleep(50L);
+        }
+        return true;
+    }
+
+    private static void descriptor (Path dir, String name, String xml) throws IOException {
+        Files.write(dir.resolve(name), xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static class Counter implements TransactionParticipant {
+        @Override
+        public int prepare (long id, Serializable context) {
+            Context ctx = (Context) context;
+            if (ctx.get(Warmup.WARMUP) != null && ctx.get(ContextConstants.REQUEST.toString()) instanceof ISOMsg)
+                transactions.incrementAndGet();
+            return PREPARED | NO_JOIN | READONLY;
+        }
+    }
+}
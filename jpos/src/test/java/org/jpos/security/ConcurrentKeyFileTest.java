@@ -0,0 +1,119 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.jpos.iso.ISOUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ConcurrentKeyFileTest {
+    private static final SecureDESKey KEY = new SecureDESKey(SMAdapter.LENGTH_DES3_2KEY, SMAdapter.TYPE_ZPK,
+      ISOUtil.hex2byte("0123456789ABCDEFFEDCBA9876543210"), ISOUtil.hex2byte("08D7B4"));
+    private static final SecureDESKey KEY2 = new SecureDESKey(SMAdapter.LENGTH_DES, SMAdapter.TYPE_TAK,
+      ISOUtil.hex2byte("1122334455667788"), ISOUtil.hex2byte("AABBCC"));
+
+    @TempDir
+    Path dir;
+    private ConcurrentKeyFile ks;
+
+    @AfterEach
+    public void tearDown() {
+        if (ks != null)
+            ks.destroy();
+    }
+
+    @Test
+    public void testReadsSimpleKeyFileFormat() throws Exception {
+        String name = new File(dir.toFile(), "keys.properties").getPath();
+        new SimpleKeyFile(name).setKey("zpk", KEY);
+
+        ks = new ConcurrentKeyFile(name);
+        SecureDESKey k = ks.getKey("zpk");
+        assertArrayEquals(KEY.getKeyBytes(), k.getKeyBytes());
+        assertArrayEquals(KEY.getKeyCheckValue(), k.getKeyCheckValue());
+        assertEquals(KEY.getKeyType(), k.getKeyType());
+        assertEquals(KEY.getKeyLength(), k.getKeyLength());
+        assertNotSame(k.getKeyBytes(), ks.getKey("zpk").getKeyBytes());
+        assertEquals(1, ks.getKeys().size());
+        assertThrows(SecureKeyStore.SecureKeyStoreException.class, () -> ks.getKey("unknown"));
+    }
+
+    @Test
+    public void testBatchedWrites() throws Exception {
+        String name = new File(dir.toFile(), "keys.properties").getPath();
+        ks = new ConcurrentKeyFile();
+        ks.setWriteDelay(60000L);
+        ks.setWatch(false);
+        ks.init(name);
+        ks.setKey("zpk", KEY);
+        ks.setKey("tak", KEY2);
+        assertEquals(2, ks.getPendingCount());
+        assertArrayEquals(KEY2.getKeyBytes(), ks.getKey("tak").getKeyBytes());
+        assertThrows(SecureKeyStore.SecureKeyStoreException.class, () -> new SimpleKeyFile(name).getKey("tak"));
+
+        ks.flush();
+        assertEquals(0, ks.getPendingCount());
+        SimpleKeyFile skf = new SimpleKeyFile(name);
+        assertArrayEquals(KEY.getKeyBytes(), skf.getKey("zpk").getKeyBytes());
+        assertArrayEquals(KEY2.getKeyBytes(), skf.getKey("tak").getKeyBytes());
+    }
+
+    @Test
+    public void testFlushKeepsExternalChanges() throws Exception {
+        String name = new File(dir.toFile(), "keys.properties").getPath();
+        ks = new ConcurrentKeyFile();
+        ks.setWriteDelay(60000L);
+        ks.setWatch(false);
+        ks.init(name);
+        ks.setKey("zpk", KEY);
+        new SimpleKeyFile(name).setKey("tak", KEY2);
+        ks.destroy();
+        SimpleKeyFile skf = new SimpleKeyFile(name);
+        assertEquals(2, skf.getKeys().size());
+    }
+
+    @Test
+    public void testWatchReloadsExternalChanges() throws Exception {
+        String name = new File(dir.toFile(), "keys.properties").getPath();
+        ks = new ConcurrentKeyFile(name);
+        assertThrows(SecureKeyStore.SecureKeyStoreException.class, () -> ks.getKey("tak"));
+        new SimpleKeyFile(name).setKey("tak", KEY2);
+        long end = System.currentTimeMillis() + 15000L;
+        while (ks.getKeys().isEmpty() && System.currentTimeMillis() < end)
+            Thread.sleep(50L);
+        assertArrayEquals(KEY2.getKeyBytes(), ks.getKey("tak").getKeyBytes());
+        assertTrue(ks.getKeys().containsKey("tak"));
+    }
+
+    @Test
+    public void testUnsupportedKey() throws Exception {
+        ks = new ConcurrentKeyFile(new File(dir.toFile(), "keys.properties").getPath());
+        assertThrows(SecureKeyStore.SecureKeyStoreException.class, () -> ks.setKey("x", null));
+    }
+}
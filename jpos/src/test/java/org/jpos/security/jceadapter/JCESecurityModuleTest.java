@@ -1749,4 +1749,25 @@ public class JCESecurityModuleTest {
         assertArrayEquals(ISOUtil.hex2byte("40D522"), sdk.getKeyCheckValue(), "3: KeyCheck was " + ISOUtil.hexString(sdk.getKeyCheckValue()));
     }
 
+    @Test
+    public void testKeyCache() throws Throwable {
+        Configuration cfg = new SimpleConfiguration();
+        cfg.put("lmk", PREFIX+"secret.lmk");
+        cfg.put("key-cache-size", "16");
+        JCESecurityModule sm = new JCESecurityModule(cfg, null, null);
+        WorkingKeyCache cache = sm.getKeyCache();
+        byte[] arqc = ISOUtil.hex2byte("26C8A1042D1CAF3E");
+        for (int i=0; i<3; i++) {
+            assertTrue(sm.verifyARQC(MKDMethod.OPTION_A, SKDMethod.VSDC
+              ,imkac, accountNoA, accountNoA_CSN, arqc
+              ,etd.getATC(), null, etd.getDataNoPad()));
+            assertEquals("204", sm.calculateCVD("123456789012", cvk, null, "1108", "000"));
+        }
+        assertEquals(3, cache.getMisses(), "IMK, derived ICC master key and CVK");
+        assertEquals(4, cache.getHits());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals("204", sm.calculateCVD("123456789012", cvk, null, "1108", "000"));
+    }
+
 }
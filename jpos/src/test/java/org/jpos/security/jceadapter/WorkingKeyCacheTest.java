@@ -0,0 +1,65 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.security.jceadapter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.jpos.iso.ISOUtil;
+import org.junit.jupiter.api.Test;
+
+public class WorkingKeyCacheTest {
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        WorkingKeyCache cache = new WorkingKeyCache(2, 0L);
+        byte[] a = { 1 }, b = { 2 }, c = { 3 };
+        cache.put(a, a);
+        cache.put(b, b);
+        cache.get(a);
+        cache.put(c, c);
+        assertNull(cache.get(b));
+        assertArrayEquals(a, cache.get(a));
+        assertArrayEquals(c, cache.get(c));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        WorkingKeyCache cache = new WorkingKeyCache(2, 1L);
+        cache.put(new byte[] { 1 }, new byte[] { 1 });
+        ISOUtil.sleep(10L);
+        assertNull(cache.get(new byte[] { 1 }));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaterialIsCopied() {
+        WorkingKeyCache cache = new WorkingKeyCache(2, 0L);
+        byte[] k = { 1, 2, 3 };
+        cache.put(k, k);
+        byte[] v = cache.get(k.clone());
+        assertNotSame(k, v);
+        v[0] = 0;
+        assertArrayEquals(new byte[] { 1, 2, 3 }, cache.get(k));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@SuppressWarnings("unchecked")
+public class MMapSpaceTest {
+    @TempDir
+    Path dir;
+    MMapSpace<String,Object> sp;
+
+    @BeforeEach
+    public void setUp() {
+        sp = open();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sp.close();
+    }
+
+    @Test
+    public void testOutRdpInp() {
+        sp.out("K", "ONE");
+        sp.out("K", "TWO");
+        assertEquals("ONE", sp.rdp("K"));
+        assertEquals(2, sp.size("K"));
+        assertEquals("ONE", sp.inp("K"));
+        assertEquals("TWO", sp.in("K", 100L));
+        assertNull(sp.rdp("K"));
+        assertNull(sp.in("K", 100L));
+        assertTrue(sp.getKeySet().isEmpty());
+    }
+
+    @Test
+    public void testPushAndTemplate() {
+        sp.out("K", "THREE");
+        sp.push("K", "TWO");
+        sp.push("K", "ONE");
+        assertEquals("TWO", sp.inp(new ObjectTemplate("K", "TWO")));
+        assertEquals("ONE", sp.inp("K"));
+        assertEquals("THREE", sp.inp("K"));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        sp.out("K", "EXPIRES", 50L);
+        sp.out("K", "STAYS");
+        Thread.sleep(100L);
+        assertEquals(1, sp.size("K"));
+        sp.gc();
+        assertEquals("STAYS", sp.inp("K"));
+    }
+
+    @Test
+    public void testRecovery() {
+        for (int i=0; i<100; i++)
+            sp.out("K", i);
+        sp.push("K", -1);
+        sp.put("P", "ONE");
+        sp.put("P", "TWO");
+        for (int i=0; i<50; i++)
+            sp.inp("K");
+        sp.out("E", "EXPIRED", 1L);
+        sp.close();
+
+        sp = open();
+        assertEquals(51, sp.size("K"));
+        for (int i=49; i<100; i++)
+            assertEquals(i, sp.inp("K"));
+        assertEquals("TWO", sp.inp("P"));
+        assertNull(sp.rdp("P"));
+        assertNull(sp.rdp("E"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        sp.close();
+        sp = new MMapSpace<>("compact", dir.toString() + ",segment.size=4096");
+        sp.out("LONG-LIVED", "VALUE");
+        for (int i=0; i<1000; i++) {
+            sp.out("K", i);
+            assertEquals(i, sp.inp("K"));
+        }
+        assertTrue(sp.getSegmentCount() > 10);
+        sp.gc();
+        assertEquals(1, sp.getSegmentCount());
+        assertEquals(1, dir.toFile().list((d, n) -> n.startsWith("compact-")).length);
+        sp.close();
+
+        sp = new MMapSpace<>("compact", dir.toString() + ",segment.size=4096");
+        assertEquals("VALUE", sp.inp("LONG-LIVED"));
+        assertNull(sp.rdp("K"));
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        sp.out("K", "ONE");
+        sp.out("K", "TWO");
+        sp.close();
+        File f = dir.toFile().listFiles()[0];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            // flip a byte near the end of the last record
+            long pos = lastRecordEnd(raf) - 2;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xFF);
+        }
+        sp = open();
+        assertEquals("ONE", sp.inp("K"));
+        assertNull(sp.inp("K"));
+        sp.out("K", "THREE");
+        sp.close();
+        sp = open();
+        assertEquals("THREE", sp.inp("K"));
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i=0; i<8; i++) {
+            final int n = i;
+            executor.execute(() -> {
+                for (int j=0; j<100; j++)
+                    sp.out("K" + n, j);
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        for (int i=0; i<8; i++)
+            assertEquals(100, sp.size("K" + i));
+    }
+
+    @Test
+    public void testSpaceFactory() {
+        String uri = "mmap:mmap-factory-test:" + dir.resolve("factory") + ",sync=false";
+        Space<String,String> s = SpaceFactory.getSpace(uri);
+        assertSame(s, SpaceFactory.getSpace(uri));
+        s.out("K", "V");
+        assertEquals("V", s.inp("K"));
+        ((MMapSpace) s).close();
+        assertNull(MMapSpace.spaceRegistrar.get("mmap-factory-test"));
+    }
+
+    private MMapSpace<String,Object> open () {
+        return new MMapSpace<>("test", dir.toString());
+    }
+
+    private long lastRecordEnd (RandomAccessFile raf) throws Exception {
+        long pos = 8L;
+        for (;;) {
+            raf.seek(pos);
+            int len = raf.readInt();
+            if (len == 0)
+                return pos;
+            pos += 8 + len;
+        }
+    }
+}
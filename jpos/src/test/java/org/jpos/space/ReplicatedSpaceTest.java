@@ -0,0 +1,285 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import org.jpos.core.ConfigurationException;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.iso.ISOMsg;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("unchecked")
+public class ReplicatedSpaceTest {
+    private static final Random RANDOM = new Random();
+    private int[] ports;
+    private List<ReplicatedSpace<String,Object>> spaces;
+    private ReplicatedSpace<String,Object> a;
+    private ReplicatedSpace<String,Object> b;
+    private ReplicatedSpace<String,Object> c;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ports = new int[] { freePort(), freePort(), freePort() };
+        spaces = new ArrayList<>();
+        b = create("standby", "leader-ack", ports[1], ports[0]);
+        c = create("standby", "leader-ack", ports[2], ports[0]);
+        a = create("active", "leader-ack", ports[0], ports[1], ports[2]);
+        waitFor(() -> a.getSnapshots() == 0 && b.getSnapshots() == 1 && c.getSnapshots() == 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        spaces.forEach(ReplicatedSpace::close);
+    }
+
+    @Test
+    public void testOutAndTakeAreReplicated() throws Exception {
+        ISOMsg m = new ISOMsg("0200");
+        m.set(11, "000001");
+        a.out("msg", m);
+        assertEquals("000001", ((ISOMsg) b.rdp("msg")).getString(11));
+        assertEquals("0200", ((ISOMsg) c.rdp("msg")).getMTI());
+
+        a.out("q", 2);
+        a.push("q", 1);
+        a.out("q", 3);
+        assertEquals(1, a.inp("q"));
+        assertEquals(2, b.size("q"));
+        assertEquals(2, b.rdp("q"));
+        a.put("q", 4);
+        assertEquals(1, c.size("q"));
+        assertEquals(4, c.rdp("q"));
+        assertEquals(a.getSeq(), c.getSeq());
+    }
+
+    @Test
+    public void testTemplateTakesTheSameEntry() {
+        a.out("t", "x");
+        a.out("t", "y");
+        assertEquals("y", a.inp(new ObjectTemplate("t", "y")));
+        assertEquals(1, b.size("t"));
+        assertEquals("x", b.rdp("t"));
+    }
+
+    @Test
+    public void testStandbyIsReadOnly() {
+        assertThrows(SpaceError.class, () -> b.out("k", "v"));
+        assertThrows(SpaceError.class, () -> b.inp("k"));
+        assertNull(b.rdp("k"));
+    }
+
+    @Test
+    public void testCatchUpFromLog() throws Exception {
+        c.close();
+        a.out("k", "v1");
+        a.out("k", "v2", 60000L);
+        start(c);
+        waitFor(() -> c.getSeq() == a.getSeq());
+        assertEquals(1L, c.getSnapshots());
+        assertEquals(2, c.size("k"));
+    }
+
+    @Test
+    public void testSnapshotForNewPeer() throws Exception {
+        a.out("k", "v1");
+        a.out("k", "v2");
+        a.inp("k");
+        c.close();
+        spaces.remove(c);
+        c = create("standby", "async", ports[2], ports[0]);
+        waitFor(() -> c.getSeq() == a.getSeq());
+        assertEquals(1L, c.getSnapshots());
+        assertEquals(1, c.size("k"));
+        assertEquals("v2", c.rdp("k"));
+    }
+
+    @Test
+    public void testPromotionAndStepDown() throws Exception {
+        a.out("k", "v1");
+        a.close();
+        b.promote();
+        assertEquals(ReplicatedSpace.Role.ACTIVE, b.getRole());
+        assertEquals(2L, b.getEpoch());
+        b.out("k", "v2");
+        assertEquals("v1", b.inp("k"));
+
+        start(a); // comes back thinking it's still active
+        waitFor(() -> a.getRole() == ReplicatedSpace.Role.STANDBY && a.getSeq() == b.getSeq());
+        assertEquals(1, a.size("k"));
+        assertEquals("v2", a.rdp("k"));
+        assertThrows(SpaceError.class, () -> a.out("k", "v3"));
+    }
+
+    @Test
+    public void testRestartedActiveDoesNotWipeStandby() throws Exception {
+        for (int i=0; i<5; i++)
+            a.out("k", i);
+        waitFor(() -> b.getSeq() == 5L && c.getSeq() == 5L);
+        a.close();
+        spaces.remove(a);
+        a = create("active", "leader-ack", ports[0], ports[1], ports[2]); // same epoch, empty
+        waitFor(() -> a.getSeq() == 5L);
+        assertEquals(5, a.size("k"));
+        assertEquals(5, b.size("k"));
+        assertEquals(5L, b.getSeq());
+        a.out("k", 5);
+        waitFor(() -> b.getSeq() == 6L && c.getSeq() == 6L);
+        assertEquals(6, c.size("k"));
+        assertEquals(ReplicatedSpace.Role.ACTIVE, a.getRole());
+    }
+
+    @Test
+    public void testDivergedActiveStepsDown() throws Exception {
+        a.out("k", "v1");
+        a.out("k", "v2");
+        waitFor(() -> b.getSeq() == 2L && c.getSeq() == 2L);
+        a.close();
+        spaces.remove(a);
+        a = create("active", "async", ports[0]); // no peers yet, takes a write
+        a.out("k", "other");
+        a.close();
+        SimpleConfiguration cfg = config("active", "async", null, ports[0], ports[1], ports[2]);
+        a.setConfiguration(cfg);
+        start(a);
+        waitFor(() -> a.getRole() == ReplicatedSpace.Role.STANDBY);
+        assertEquals(2, b.size("k"));
+        assertEquals("v1", b.rdp("k"));
+        assertEquals(2L, c.getSeq());
+    }
+
+    @Test
+    public void testSecret() throws Exception {
+        int[] p = new int[] { freePort(), freePort(), freePort() };
+        ReplicatedSpace<String,Object> standby = create("standby", "async", "s3cr3t", p[0], p[1], p[2]);
+        ReplicatedSpace<String,Object> intruder = create("active", "async", "guess", p[1], p[0]);
+        intruder.out("k", "intruder");
+        Thread.sleep(500L);
+        assertEquals(0L, standby.getSnapshots());
+        assertNull(standby.rdp("k"));
+
+        ReplicatedSpace<String,Object> active = create("active", "async", "s3cr3t", p[2], p[0]);
+        active.out("k", "v");
+        waitFor(() -> "v".equals(standby.rdp("k")));
+        assertEquals(1L, standby.getSnapshots());
+    }
+
+    @Test
+    public void testQuorumTimeout() throws Exception {
+        ReplicatedSpace<String,Object> sp = create("active", "quorum", freePort(), freePort());
+        assertThrows(SpaceError.class, () -> sp.out("k", "v"));
+        assertEquals("v", sp.rdp("k"));
+    }
+
+    @Test
+    public void testInWaitsForOut() throws Exception {
+        new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException ignored) { }
+            a.out("in", "v");
+        }).start();
+        assertEquals("v", a.in("in", 5000L));
+        assertNull(a.in("in", 100L));
+        waitFor(() -> b.getSeq() == a.getSeq());
+        assertNull(b.rdp("in"));
+    }
+
+    private ReplicatedSpace<String,Object> create (String role, String ack, int port, int... peers)
+      throws ConfigurationException, IOException, InterruptedException
+    {
+        return create (role, ack, null, port, peers);
+    }
+
+    private ReplicatedSpace<String,Object> create (String role, String ack, String secret, int port, int... peers)
+      throws ConfigurationException, IOException, InterruptedException
+    {
+        ReplicatedSpace<String,Object> sp = new ReplicatedSpace<>();
+        sp.setConfiguration(config(role, ack, secret, port, peers));
+        start(sp);
+        spaces.add(sp);
+        return sp;
+    }
+
+    private static SimpleConfiguration config (String role, String ack, String secret, int port, int... peers) {
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("role", role);
+        cfg.put("ack", ack);
+        cfg.put("ack-timeout", "500");
+        cfg.put("reconnect-delay", "100");
+        cfg.put("host", "127.0.0.1");
+        cfg.put("port", Integer.toString(port));
+        String[] p = new String[peers.length];
+        for (int i=0; i<peers.length; i++)
+            p[i] = "127.0.0.1:" + peers[i];
+        cfg.put("peer", p);
+        if (secret != null)
+            cfg.put("secret", secret);
+        return cfg;
+    }
+
+    /**
+     * Starts a space, waiting for connections to a node that was just closed to go away
+     */
+    private static void start (ReplicatedSpace<?,?> sp) throws IOException, InterruptedException {
+        for (int i=0; ; i++) {
+            try {
+                sp.start();
+                return;
+            } catch (BindException e) {
+                assertTrue(i < 50, "unable to bind " + sp.getPort());
+                Thread.sleep(100L);
+            }
+        }
+    }
+
+    /**
+     * Picks a port below the ephemeral range, so that it's not taken by
+     * outgoing connections while a test has its node down
+     */
+    private static int freePort() {
+        for (;;) {
+            int port = 20000 + RANDOM.nextInt(10000);
+            try (ServerSocket s = new ServerSocket(port)) {
+                return s.getLocalPort();
+            } catch (IOException ignored) { }
+        }
+    }
+
+    private static void waitFor (BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < end, "timeout");
+            Thread.sleep(20L);
+        }
+    }
+}
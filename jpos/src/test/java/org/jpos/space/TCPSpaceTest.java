@@ -0,0 +1,198 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.iso.ISOMsg;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("unchecked")
+public class TCPSpaceTest {
+    private static TSpace<String,Object> local;
+    private static TCPSpaceServer server;
+    private static TCPSpace<String,Object> sp;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        local = new TSpace<>();
+        server = new TCPSpaceServer(local, new InetSocketAddress("127.0.0.1", 0), 4);
+        sp = new TCPSpace<>("127.0.0.1", server.getLocalPort());
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        sp.close();
+        server.close();
+    }
+
+    @Test
+    public void testOutRdpInp() throws Exception {
+        ISOMsg m = new ISOMsg("0800");
+        m.set(11, "000001");
+        sp.out("msg", m);
+        assertEquals("000001", ((ISOMsg) sp.rdp("msg")).getString(11));
+        assertEquals("0800", ((ISOMsg) local.rdp("msg")).getMTI());
+        assertEquals("000001", ((ISOMsg) sp.inp("msg")).getString(11));
+        assertNull(sp.inp("msg"));
+    }
+
+    @Test
+    public void testBlockingIn() throws Exception {
+        ExecutorService es = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> f = es.submit(() -> sp.in("blocking"));
+            Thread.sleep(200L);
+            assertFalse(f.isDone());
+            local.out("blocking", "value");
+            assertEquals("value", f.get(5L, TimeUnit.SECONDS));
+            assertNull(local.rdp("blocking"));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test
+    public void testRdSeesValueWithoutTakingIt() {
+        new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException ignored) { }
+            sp.out("rd", "value");
+        }).start();
+        assertEquals("value", sp.rd("rd", 5000L));
+        assertEquals("value", sp.inp("rd"));
+    }
+
+    @Test
+    public void testInTimeout() {
+        long start = System.currentTimeMillis();
+        assertNull(sp.in("timeout", 200L));
+        assertTrue(System.currentTimeMillis() - start >= 200L);
+    }
+
+    @Test
+    public void testPushAndPut() {
+        sp.out("order", 2);
+        sp.push("order", 1);
+        sp.out("order", 3);
+        assertEquals(1, sp.inp("order"));
+        assertEquals(2, sp.inp("order"));
+        assertEquals(3, sp.inp("order"));
+        sp.put("put", "a");
+        sp.put("put", "b");
+        assertEquals("b", sp.inp("put"));
+        assertNull(sp.inp("put"));
+    }
+
+    @Test
+    public void testExistAny() {
+        sp.out("exist-b", Boolean.TRUE);
+        assertTrue(sp.existAny(new String[] { "exist-a", "exist-b" }));
+        assertFalse(sp.existAny(new String[] { "exist-a", "exist-c" }, 100L));
+        sp.inp("exist-b");
+    }
+
+    @Test
+    public void testConcurrentOuts() throws Exception {
+        ExecutorService es = Executors.newFixedThreadPool(8);
+        try {
+            for (int i=0; i<1000; i++) {
+                int n = i;
+                es.execute(() -> sp.out("concurrent", n));
+            }
+            for (int i=0; i<1000; i++)
+                assertTrue(sp.in("concurrent", 5000L) instanceof Integer);
+            assertNull(sp.inp("concurrent"));
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    @Test
+    public void testNrd() {
+        sp.out("nrd", "value");
+        assertEquals("value", sp.nrd("nrd", 200L));
+        new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException ignored) { }
+            local.inp("nrd");
+        }).start();
+        assertNull(sp.nrd("nrd", 5000L));
+    }
+
+    @Test
+    public void testSecret() throws Exception {
+        TCPSpaceServer secured = new TCPSpaceServer(local, new InetSocketAddress("127.0.0.1", 0), 1, "s3cr3t");
+        TCPSpace<String,Object> good = new TCPSpace<>("127.0.0.1", secured.getLocalPort());
+        TCPSpace<String,Object> bad = new TCPSpace<>("127.0.0.1", secured.getLocalPort());
+        try {
+            good.setSecret("s3cr3t");
+            bad.setSecret("guess");
+            good.out("secret", "value");
+            assertEquals("value", good.rdp("secret"));
+            assertThrows(SpaceError.class, () -> bad.inp("secret"));
+            assertEquals("value", local.inp("secret"));
+        } finally {
+            good.close();
+            bad.close();
+            secured.close();
+        }
+    }
+
+    @Test
+    public void testMaxConnections() throws Exception {
+        TCPSpaceServer limited = new TCPSpaceServer(local, new InetSocketAddress("127.0.0.1", 0), 1);
+        limited.setMaxConnections(1);
+        TCPSpace<String,Object> first = new TCPSpace<>("127.0.0.1", limited.getLocalPort());
+        TCPSpace<String,Object> second = new TCPSpace<>("127.0.0.1", limited.getLocalPort());
+        try {
+            assertNull(first.rdp("limited"));
+            assertThrows(SpaceError.class, () -> second.rdp("limited"));
+            assertEquals(1, limited.getConnectionCount());
+        } finally {
+            first.close();
+            second.close();
+            limited.close();
+        }
+    }
+
+    @Test
+    public void testSpaceFactory() {
+        Space<String,String> s = SpaceFactory.getSpace("tcp:127.0.0.1:" + server.getLocalPort());
+        assertTrue(s instanceof TCPSpace);
+        assertSame(s, SpaceFactory.getSpace("tcp:127.0.0.1:" + server.getLocalPort()));
+        s.out("factory", "value");
+        assertEquals("value", sp.inp("factory"));
+    }
+}
@@ -47,8 +47,10 @@ import org.jpos.transaction.participant.Debug;
 import org.jpos.transaction.participant.Forward;
 import org.jpos.transaction.participant.HasEntry;
 import org.jpos.transaction.participant.Join;
+import org.jpos.space.TSpace;
 import org.jpos.transaction.participant.Trace;
 import org.jpos.util.LogEvent;
+import org.jpos.util.ThroughputControl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -63,6 +65,22 @@ public class TransactionManagerTest {
         members = new ArrayList();
     }
 
+    @Test
+    public void testAdmitDefersWithoutBlocking() throws Throwable {
+        transactionManager.queue = "TXN";
+        transactionManager.iisp = new TSpace<>();
+        transactionManager.admission = new ThroughputControl(1, 1000);
+        Context first = new Context();
+        Context second = new Context();
+        assertTrue(transactionManager.admit(first), "first admitted");
+        long start = System.currentTimeMillis();
+        assertFalse(transactionManager.admit(second), "second deferred");
+        assertTrue(System.currentTimeMillis() - start < 500L, "admit did not block");
+        assertSame(second, transactionManager.iisp.in("TXN", 5000L), "second requeued");
+        assertTrue(transactionManager.admit(second), "requeued context admitted");
+        assertFalse(transactionManager.admit(new Context()), "third deferred");
+    }
+
     @Test
     public void testAbort2() throws Throwable {
         members.add(new Join());
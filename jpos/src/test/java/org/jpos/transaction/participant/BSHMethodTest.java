@@ -30,8 +30,10 @@ import static org.junit.jupiter.api.Assertions.fail;
 import static org.mockito.Mockito.when;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,6 +46,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import bsh.EvalError;
+import bsh.Interpreter;
 import bsh.ParseException;
 
 @ExtendWith(MockitoExtension.class)
@@ -277,6 +280,21 @@ public class BSHMethodTest {
         }
     }
 
+    @Test
+    public void testExecuteUsesOverriddenInitInterpreter() throws Throwable {
+        BSHMethod bshMethod = new BSHMethod("result = a + 1;", false) {
+            @Override
+            @SuppressWarnings("rawtypes")
+            protected Interpreter initInterpreter(Map arguments) throws EvalError, IOException {
+                Interpreter i = super.initInterpreter(arguments);
+                i.set("result", "custom");
+                return i;
+            }
+        };
+        assertEquals("custom", bshMethod.execute("result", "a", 1));
+        assertEquals("custom", bshMethod.execute(Collections.singletonMap("a", 1), "result"));
+    }
+
     @Test
     public void testInitInterpreterThrowsClassCastException() throws Throwable {
         BSHMethod bSHMethod = new BSHMethod("testBSHMethodBshData", true);
@@ -20,11 +20,15 @@ package org.jpos.transaction.participant;
 
 
 import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
 import org.jpos.core.SimpleConfiguration;
 import org.jpos.iso.ISOAmount;
 import org.jpos.iso.ISODate;
 import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOField;
 import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOVError;
+import org.jpos.iso.ISOVField;
 import org.jpos.rc.CMF;
 import org.jpos.rc.Result;
 import org.jpos.transaction.Context;
@@ -38,6 +42,7 @@ import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
@@ -46,7 +51,7 @@ public class CheckFieldsTest implements TransactionConstants {
     private Configuration cfg;
 
     @BeforeEach
-    public void setUp() {
+    public void setUp() throws ConfigurationException {
         cfg = new SimpleConfiguration();
         cf = new CheckFields();
         cf.setConfiguration(cfg);
@@ -368,4 +373,58 @@ public class CheckFieldsTest implements TransactionConstants {
         assertEquals("000000000001", ctx.get(ContextConstants.ORIGINAL_STAN.toString()));
         assertEquals(now.getTime()/1000, ((Date) ctx.get(ContextConstants.ORIGINAL_TIMESTAMP.toString())).getTime()/1000);
     }
+
+    @Test
+    public void testRules () throws ISOException, ConfigurationException {
+        cfg.put("rule", new String[] { "41 [A-Z0-9]8", "43 ans..10" });
+        cf.setConfiguration(cfg);
+        Context ctx = new Context();
+        ISOMsg m = new ISOMsg();
+        m.set(41, "29110001");
+        m.set(42, "001001");
+        m.set(43, "TOO LONG FOR THIS RULE");
+        ctx.put(ContextConstants.REQUEST.toString(), m);
+        cfg.put("mandatory", "TID 42 43");
+        assertEquals (ABORTED | NO_JOIN | READONLY, cf.prepare(1L, ctx));
+        Result rc = ctx.getResult();
+        assertEquals(1, rc.failureList().size());
+        assertTrue(rc.failure().getMessage().startsWith("Invalid field 43"));
+        assertEquals("29110001", ctx.getString(ContextConstants.TID.toString()));
+
+        ctx = new Context();
+        m.set(41, "2911 001");
+        m.set(43, "OK");
+        ctx.put(ContextConstants.REQUEST.toString(), m);
+        assertEquals (ABORTED | NO_JOIN | READONLY, cf.prepare(1L, ctx));
+        assertEquals("Invalid TID '2911 001'", ctx.getResult().failure().getMessage());
+    }
+
+    @Test
+    public void testInvalidRule () {
+        cfg.put("rule", "41");
+        assertThrows(ConfigurationException.class, () -> cf.setConfiguration(cfg));
+        cfg.put("rule", "41 xyz");
+        assertThrows(ConfigurationException.class, () -> cf.setConfiguration(cfg));
+        cfg.put("rule", "48 ans..999 /[A-Z/");
+        assertThrows(ConfigurationException.class, () -> cf.setConfiguration(cfg));
+    }
+
+    @Test
+    public void testValidatingPackagerErrorsAreReported () throws ISOException, ConfigurationException {
+        Context ctx = new Context();
+        ISOMsg m = new ISOMsg();
+        m.set(new ISOVField(new ISOField(11, "ABC"), new ISOVError("not numeric")));
+        m.set(new ISOVField(new ISOField(37, "1"), new ISOVError("too short")));
+        ctx.put(ContextConstants.REQUEST.toString(), m);
+        cfg.put("mandatory", "11 37");
+        assertEquals (PREPARED | NO_JOIN | READONLY, cf.prepare(1L, ctx), "not reported by default");
+
+        cfg.put("report-validation-errors", "true");
+        cf.setConfiguration(cfg);
+        ctx = new Context();
+        ctx.put(ContextConstants.REQUEST.toString(), m);
+        assertEquals (ABORTED | NO_JOIN | READONLY, cf.prepare(1L, ctx));
+        assertEquals(2, ctx.getResult().failureList().size());
+        assertEquals(CMF.INVALID_FIELD, ctx.getResult().failure().getIrc());
+    }
 }
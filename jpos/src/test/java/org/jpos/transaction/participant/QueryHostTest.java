@@ -100,6 +100,18 @@ public class QueryHostTest implements TransactionConstants, MUX {
         assertTrue (ctx.getResult().failure().getIrc() == CMF.MISCONFIGURED_ENDPOINT);
     }
 
+    @Test
+    public void testWarmupIsNotSent() throws Exception {
+        Context ctx = new Context();
+        ctx.put(ContextConstants.WARMUP.toString(), Boolean.TRUE);
+        ctx.put(ContextConstants.REQUEST.toString(), createDummyRequest());
+        ctx.put(ContextConstants.DESTINATION.toString(), "TEST");
+        int action = queryHost.prepare(1L, ctx);
+        assertEquals(PREPARED | READONLY | NO_JOIN, action);
+        assertNull (ctx.get(ContextConstants.RESPONSE.toString()));
+        assertFalse (ctx.getResult().hasFailures(), "Should not have failures");
+    }
+
     @Override
     public ISOMsg request(ISOMsg m, long timeout) throws ISOException {
         ISOMsg r = (ISOMsg) m.clone();
@@ -0,0 +1,135 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction.participant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import javax.script.ScriptEngineManager;
+
+import org.jdom2.Element;
+import org.jpos.core.ConfigurationException;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.TransactionConstants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ScriptParticipantTest implements TransactionConstants {
+    private ScriptParticipant p;
+
+    @BeforeEach
+    public void setUp() {
+        assumeTrue(new ScriptEngineManager().getEngineByName("nashorn") != null, "nashorn not available");
+        p = new ScriptParticipant();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (p != null)
+            p.destroy();
+    }
+
+    @Test
+    public void testPrepareAndCommit() throws Exception {
+        configure(null,
+          "function prepare(id, ctx) { ctx.put('ID', id); return 1; }\n" +
+          "function commit(id, ctx) { ctx.put('COMMITTED', true); }");
+        Context ctx = new Context();
+        assertEquals(PREPARED, p.prepare(10L, ctx));
+        assertEquals(10, ((Number) ctx.get("ID")).intValue());
+        p.commit(10L, ctx);
+        assertEquals(Boolean.TRUE, ctx.get("COMMITTED"));
+        assertEquals(PREPARED | READONLY, p.prepareForAbort(10L, ctx));
+        p.abort(10L, ctx);
+    }
+
+    @Test
+    public void testSessionsDoNotShareState() throws Exception {
+        configure(null,
+          "var current;\n" +
+          "function prepare(id, ctx) { current = id; java.lang.Thread.sleep(2); return current == id ? 1 : 0; }");
+        Thread[] threads = new Thread[8];
+        int[] failures = new int[1];
+        for (int t=0; t<threads.length; t++) {
+            long base = t * 1000L;
+            threads[t] = new Thread(() -> {
+                for (int i=0; i<20; i++) {
+                    if (p.prepare(base + i, new Context()) != PREPARED) {
+                        synchronized (failures) {
+                            failures[0]++;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(0, failures[0]);
+        assertTrue(p.getPoolSize() > 1, "pool size " + p.getPoolSize());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        configure("100", "function prepare(id, ctx) { java.lang.Thread.sleep(10000); return 1; }");
+        long start = System.currentTimeMillis();
+        assertEquals(ABORTED, p.prepare(1L, new Context()));
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        assertEquals(0, p.getPoolSize());
+    }
+
+    @Test
+    public void testStuckThreadsAreBounded() throws Exception {
+        Element e = new Element("participant");
+        e.setAttribute("engine", "nashorn");
+        e.setAttribute("timeout", "100");
+        e.setAttribute("max-threads", "1");
+        // busy loop, ignores interruption
+        e.setText("function prepare(id, ctx) { var end = Date.now() + 1500; while (Date.now() < end) { } return 1; }");
+        p.setConfiguration(e);
+
+        assertEquals(ABORTED, p.prepare(1L, new Context()));
+        assertEquals(1, p.getStuckThreads());
+        long start = System.currentTimeMillis();
+        assertEquals(ABORTED, p.prepare(2L, new Context()), "no thread available");
+        assertTrue(System.currentTimeMillis() - start < 1000L, "rejected without waiting for the timeout");
+
+        long end = System.currentTimeMillis() + 5000L;
+        while (p.getStuckThreads() > 0 && System.currentTimeMillis() < end)
+            Thread.sleep(50L);
+        assertEquals(0, p.getStuckThreads());
+    }
+
+    @Test
+    public void testSyntaxErrorFailsAtConfiguration() {
+        assertThrows(ConfigurationException.class, () -> configure(null, "function prepare( {"));
+    }
+
+    private void configure (String timeout, String script) throws ConfigurationException {
+        Element e = new Element("participant");
+        e.setAttribute("engine", "nashorn");
+        if (timeout != null)
+            e.setAttribute("timeout", timeout);
+        e.setText(script);
+        p.setConfiguration(e);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.jpos.iso.FSDISOMsg;
+import org.jpos.iso.ISOAmount;
+import org.jpos.iso.ISOBinaryField;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.transaction.Context;
+import org.junit.jupiter.api.Test;
+
+public class BinaryCodecTest {
+    @Test
+    public void testCommonTypes() throws Exception {
+        Object[] values = {
+          null, true, false, 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, 42L,
+          (short) -3, (byte) -128, 'x', 1.5f, -2.25d, "", "jPOS", "ñandú €", new byte[] { 0, -1, 127 },
+          new BigDecimal("-123.4500"), new BigInteger("123456789012345678901234567890"),
+          new Date(), UUID.randomUUID(), TimeUnit.SECONDS, new GregorianCalendar(2019, 0, 1)
+        };
+        for (Object v : values) {
+            Object d = roundTrip(v);
+            if (v instanceof byte[])
+                assertArrayEquals((byte[]) v, (byte[]) d);
+            else
+                assertEquals(v, d, String.valueOf(v));
+        }
+        assertSame(TimeUnit.SECONDS, roundTrip(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCollections() throws Exception {
+        List<Object> list = new ArrayList<>(Arrays.asList("A", 1, null));
+        Map<Object,Object> map = new LinkedHashMap<>();
+        map.put("Z", list);
+        map.put(1L, new TreeSet<>(Arrays.asList("B", "A")));
+        map.put(TimeUnit.DAYS, new HashMap<>(Collections.singletonMap("K", "V")));
+        Object d = roundTrip(map);
+        assertEquals(LinkedHashMap.class, d.getClass());
+        assertEquals(map, d);
+        assertEquals(Arrays.asList("Z", 1L, TimeUnit.DAYS), new ArrayList<>(((Map<?,?>) d).keySet()));
+        assertEquals(TreeSet.class, ((Map<?,?>) d).get(1L).getClass());
+        assertEquals(new LinkedList<>(list), roundTrip(new LinkedList<>(list)));
+    }
+
+    @Test
+    public void testISOMsg() throws Exception {
+        ISOMsg m = new ISOMsg("0200");
+        m.setHeader("HDR".getBytes());
+        m.setPackager(new ISO87APackager());
+        m.setDirection(ISOMsg.INCOMING);
+        m.set(2, "4111111111111111");
+        m.set(new ISOBinaryField(52, ISOUtil.hex2byte("0102030405060708")));
+        m.set(new ISOAmount(4, 840, new BigDecimal("10.00")));
+        m.set("48.1", "inner");
+        m.set("48.2.1", "deeper");
+
+        ISOMsg d = (ISOMsg) roundTrip(m);
+        assertEquals("0200", d.getMTI());
+        assertArrayEquals("HDR".getBytes(), d.getHeader());
+        assertEquals(ISO87APackager.class, d.getPackager().getClass());
+        assertEquals(ISOMsg.INCOMING, d.getDirection());
+        assertEquals("4111111111111111", d.getString(2));
+        assertArrayEquals(m.getBytes(52), d.getBytes(52));
+        assertEquals(new BigDecimal("10.00"), ((ISOAmount) d.getComponent(4)).getAmount());
+        assertEquals("inner", d.getString("48.1"));
+        assertEquals("deeper", d.getString("48.2.1"));
+        assertEquals(48, d.getComponent(48).getKey());
+    }
+
+    @Test
+    public void testFSDISOMsg() throws Exception {
+        FSDMsg fsd = new FSDMsg("file:src/test/resources/org/jpos/util/fsd-");
+        fsd.set("x", "0100");
+        fsd.set("message-id", "01");
+        FSDISOMsg d = (FSDISOMsg) roundTrip(new FSDISOMsg(fsd));
+        assertEquals("0100", d.getString("x"));
+        assertEquals("01", d.getString("message-id"));
+        assertNull(d.getString(11));
+        assertEquals(fsd.getBasePath(), d.getFSDMsg().getBasePath());
+
+        Context ctx = new Context();
+        ctx.put("FSD", new FSDISOMsg(fsd), true);
+        d = (FSDISOMsg) ((Context) roundTrip(ctx)).get("FSD");
+        assertEquals("0100", d.getString("x"));
+    }
+
+    @Test
+    public void testContext() throws Exception {
+        ISOMsg m = new ISOMsg("0100");
+        Context ctx = new Context();
+        ctx.put("REQUEST", m, true);
+        ctx.put(TimeUnit.HOURS, 1L, true);
+        ctx.put("TRANSIENT", "not persisted");
+
+        Context d = (Context) roundTrip(ctx);
+        assertEquals("0100", ((ISOMsg) d.get("REQUEST")).getMTI());
+        assertEquals(1L, (Long) d.get(TimeUnit.HOURS));
+        assertNull(d.get("TRANSIENT"));
+
+        d = Serializer.serializeDeserialize(new Holder(ctx)).context; // Java serialization path
+        assertEquals("0100", ((ISOMsg) d.get("REQUEST")).getMTI());
+        assertEquals(1L, (Long) d.get(TimeUnit.HOURS));
+    }
+
+    @Test
+    public void testLegacyJavaSerialization() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(baos)) {
+            os.writeObject(new ArrayList<>(Arrays.asList("A", "B")));
+        }
+        assertEquals(Arrays.asList("A", "B"), BinaryCodec.decode(baos.toByteArray()));
+    }
+
+    @Test
+    public void testCodable() throws Exception {
+        Point p = (Point) roundTrip(new Point(3, -4));
+        assertEquals(3, p.x);
+        assertEquals(-4, p.y);
+    }
+
+    @Test
+    public void testRejectsNonCodableClass() throws Exception {
+        BinaryCodec.Output out = new BinaryCodec.Output();
+        out.writeByte(BinaryCodec.MAGIC);
+        out.writeByte(BinaryCodec.VERSION);
+        out.writeByte(BinaryCodec.CODABLE);
+        out.writeString(Trap.class.getName());
+        assertThrows(InvalidClassException.class, () -> BinaryCodec.decode(out.toByteArray()));
+        assertFalse(Trap.constructed);
+    }
+
+    @Test
+    public void testClassFilter() throws Exception {
+        byte[] b = BinaryCodec.encode(new File("/tmp"));
+        assertThrows(InvalidClassException.class, () -> BinaryCodec.decode(b, BinaryCodec.ClassFilter.BASE));
+        assertEquals(new File("/tmp"), BinaryCodec.decode(b, BinaryCodec.ClassFilter.BASE.with("java.io.File")));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(baos)) {
+            os.writeObject(new File[] { new File("/tmp") });
+        }
+        assertThrows(InvalidClassException.class, () -> BinaryCodec.decode(baos.toByteArray(), BinaryCodec.ClassFilter.BASE));
+
+        BinaryCodec.ClassFilter filter = new BinaryCodec.ClassFilter("!java.util.concurrent.*, java.util.*");
+        assertTrue(filter.accept("java.util.HashMap"));
+        assertFalse(filter.accept("java.util.concurrent.ConcurrentHashMap"));
+        assertFalse(filter.accept("java.io.File"));
+    }
+
+    @Test
+    public void testCyclicReference() throws Exception {
+        List<Object> l = new ArrayList<>();
+        l.add("A");
+        l.add(l);
+        assertThrows(NotSerializableException.class, () -> BinaryCodec.encode(l));
+
+        ISOMsg m = new ISOMsg(3);
+        ISOMsg inner = new ISOMsg(48);
+        m.set(inner);
+        inner.set(m);
+        assertThrows(NotSerializableException.class, () -> BinaryCodec.encode(m));
+    }
+
+    @Test
+    public void testSharedReferenceIsCopied() throws Exception {
+        List<String> shared = new ArrayList<>(Arrays.asList("A", "B"));
+        Map<String,Object> m = new HashMap<>();
+        m.put("one", shared);
+        m.put("two", shared);
+        Map<?,?> d = (Map<?,?>) roundTrip(m);
+        assertEquals(shared, d.get("one"));
+        assertEquals(shared, d.get("two"));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        ISOMsg m = new ISOMsg("0200");
+        for (int i=2; i<64; i++)
+            m.set(i, ISOUtil.zeropad(i, 6));
+        Context ctx = new Context();
+        ctx.put("REQUEST", m, true);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(baos)) {
+            os.writeObject(m);
+        }
+        assertTrue(BinaryCodec.encode(m).length < baos.size());
+    }
+
+    private Object roundTrip (Object o) throws IOException, ClassNotFoundException {
+        return BinaryCodec.decode(BinaryCodec.encode(o));
+    }
+
+    public static class Point implements BinaryCodec.Codable {
+        int x, y;
+        public Point() { }
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+        @Override
+        public void encode(BinaryCodec.Output out) {
+            out.writeInt(x);
+            out.writeInt(y);
+        }
+        @Override
+        public void decode(BinaryCodec.Input in) throws IOException {
+            x = in.readInt();
+            y = in.readInt();
+        }
+    }
+
+    public static class Trap {
+        static boolean constructed;
+        public Trap() {
+            constructed = true;
+        }
+    }
+
+    static class Holder implements Serializable {
+        private static final long serialVersionUID = 1L;
+        Context context;
+        Holder(Context context) {
+            this.context = context;
+        }
+    }
+}
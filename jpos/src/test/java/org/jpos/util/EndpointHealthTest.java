@@ -0,0 +1,86 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class EndpointHealthTest {
+    @Test
+    public void testLatency() {
+        EndpointHealth h = new EndpointHealth("h", 0.5D, 0, 0L);
+        h.begin();
+        assertEquals(1, h.getOutstanding());
+        h.success(100L);
+        assertEquals(0, h.getOutstanding());
+        assertEquals(100D, h.getLatency(), 0.001D);
+        h.begin();
+        h.success(200L);
+        assertEquals(150D, h.getLatency(), 0.001D);
+    }
+
+    @Test
+    public void testEjectAndProbe() {
+        EndpointHealth h = new EndpointHealth("h", 0.2D, 2, 60000L);
+        long now = System.currentTimeMillis();
+        h.begin();
+        h.failure(10L);
+        assertFalse(h.isEjected(now));
+        h.begin();
+        h.failure(10L);
+        assertTrue(h.isEjected(now));
+        assertFalse(h.tryProbe(now));
+
+        long later = now + 60001L;
+        assertFalse(h.isEjected(later));
+        assertTrue(h.tryProbe(later));
+        assertFalse(h.tryProbe(later), "only one probe at a time");
+        assertTrue(h.isEjected(later));
+        h.cancel();
+        assertTrue(h.tryProbe(later));
+        h.begin();
+        h.success(10L);
+        assertFalse(h.isEjected(now));
+        assertEquals(0, h.getFailures());
+    }
+
+    @Test
+    public void testOnlyProberCanCancel() throws Exception {
+        EndpointHealth h = new EndpointHealth("h", 0.2D, 1, 0L);
+        h.begin();
+        h.failure(10L);
+        long later = System.currentTimeMillis() + 1L;
+        assertTrue(h.tryProbe(later));
+        Thread other = new Thread(h::cancel);
+        other.start();
+        other.join();
+        assertTrue(h.isEjected(later), "probe released by a thread that didn't claim it");
+        h.cancel();
+        assertTrue(h.tryProbe(later));
+    }
+
+    @Test
+    public void testInvalidAlpha() {
+        assertThrows(IllegalArgumentException.class, () -> new EndpointHealth("h", 0D, 1, 1L));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.jpos.iso.ISOUtil;
+import org.junit.jupiter.api.Test;
+
+public class KeyedThroughputControlTest {
+    @Test
+    public void testLimitsArePerKey() {
+        KeyedThroughputControl ktc = new KeyedThroughputControl (1, 60000);
+        assertTrue (ktc.tryAcquire ("29110001"));
+        assertFalse (ktc.tryAcquire ("29110001"));
+        assertTrue (ktc.tryAcquire ("29110002"));
+        assertSame (ktc.get ("29110001"), ktc.get ("29110001"));
+        assertEquals (2, ktc.size());
+    }
+
+    @Test
+    public void testIdleKeysArePurged() {
+        KeyedThroughputControl ktc = new KeyedThroughputControl (new int[] { 1 }, new int[] { 1 }, 2);
+        ktc.tryAcquire ("a");
+        ktc.tryAcquire ("b");
+        ISOUtil.sleep (10L);
+        ktc.tryAcquire ("c");
+        assertEquals (1, ktc.size());
+    }
+}
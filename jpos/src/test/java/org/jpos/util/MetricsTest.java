@@ -0,0 +1,74 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2019 jPOS Software SRL
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.HdrHistogram.AtomicHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+    @Test
+    public void testRecordAndRollover() {
+        Metrics m = new Metrics(new AtomicHistogram(60000, 2));
+        m.record("b", 10);
+        m.record("a", 20);
+        m.record("a", 0);          // ignored
+        m.record("a", 120000);     // clamped to highest trackable value
+        Map<String,Histogram> metrics = m.metrics();
+        assertEquals("[a, b]", metrics.keySet().toString());
+        assertEquals(2, metrics.get("a").getTotalCount());
+        assertEquals(60000, metrics.get("a").getMaxValue(), 60000 / 100);
+        assertEquals(0, m.intervals().get("a").getTotalCount());
+
+        m.rollover();
+        m.record("a", 30);
+        assertEquals(2, m.intervals().get("a").getTotalCount());
+        assertEquals(3, m.metrics("a").get("a").getTotalCount());
+        m.rollover();
+        assertEquals(1, m.intervals().get("a").getTotalCount());
+        assertEquals(0, m.intervals().get("b").getTotalCount());
+        assertEquals(1, m.metrics().get("b").getTotalCount());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        Metrics m = new Metrics(new AtomicHistogram(60000, 2));
+        Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i=1; i<=10000; i++) {
+                    m.record("x", i % 100 + 1);
+                    if (i % 1000 == 0)
+                        m.rollover();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        Histogram h = m.metrics().get("x");
+        assertEquals(40000, h.getTotalCount());
+        assertTrue(h.getMaxValue() <= 100);
+    }
+}
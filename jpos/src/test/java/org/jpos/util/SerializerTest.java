@@ -19,6 +19,7 @@
 package org.jpos.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 
@@ -49,6 +50,13 @@ public class SerializerTest {
         assertNotSame(cal, reconstituted);
     }
 
+    @Test
+    public void testKeepsJavaSerializationFormat() throws Exception {
+        byte[] pickled = Serializer.serialize(cal);
+        assertArrayEquals(new byte[] { (byte) 0xAC, (byte) 0xED }, new byte[] { pickled[0], pickled[1] });
+        assertEquals(cal, Serializer.deserialize(BinaryCodec.encode(cal)));
+    }
+
     @Test
     public void testStringMapSerializer() throws Exception {
         Map<String,String> smap = new HashMap<>();
@@ -18,8 +18,12 @@
 
 package org.jpos.util;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.junit.jupiter.api.Test;
 
 
@@ -112,5 +116,33 @@ public class ThroughputControlTestCase {
             "10 transactions should take about four seconds but took " + elapsed
         );
     }
+    @Test
+    public void testTryAcquire() {
+        ThroughputControl tc = new ThroughputControl (new int[] { 2, 3 }, new int[] { 60000, 60000 });
+        assertTrue (tc.tryAcquire());
+        assertTrue (tc.tryAcquire());
+        assertFalse (tc.tryAcquire(), "third transaction should be rejected");
+        assertFalse (tc.isIdle (System.currentTimeMillis()));
+    }
+    @Test
+    public void testTryAcquireAfterWaitingCaller() {
+        ThroughputControl tc = new ThroughputControl (2, 1000);
+        assertTrue (tc.tryAcquire());
+        assertTrue (tc.tryAcquire());
+        CompletableFuture<Long> f = tc.acquireAsync(); // reserves a slot in the next period
+        assertFalse (f.isDone());
+        assertFalse (tc.tryAcquire(), "current period is full");
+        assertTrue (tc.control() > 0L, "second slot of the next period");
+        assertFalse (tc.tryAcquire(), "next period is full too");
+    }
+    @Test
+    public void testAcquireAsync() throws Exception {
+        ThroughputControl tc = new ThroughputControl (1, 500);
+        assertEquals (0L, (long) tc.acquireAsync().get());
+        long start = System.currentTimeMillis();
+        CompletableFuture<Long> f = tc.acquireAsync();
+        assertFalse (f.isDone(), "second transaction should be delayed");
+        assertTrue (f.get() > 0L);
+        assertTrue (System.currentTimeMillis() - start >= 400L);
+    }
 }
-